@@ -20,6 +20,7 @@ import ru.zinal.webdav.model.WebdavContext;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -32,8 +33,11 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
 import java.security.AccessController;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -176,6 +180,12 @@ public class DefaultServlet extends HttpServlet {
      */
     protected transient WebRoot resources = null;
 
+    /**
+     * Were the web resources built by this servlet, and should be closed
+     * when it is taken out of service?
+     */
+    private transient boolean ownResources = false;
+
     /**
      * Should the Accept-Ranges: bytes header be send with static resources?
      */
@@ -184,7 +194,10 @@ public class DefaultServlet extends HttpServlet {
 
     @Override
     public void destroy() {
-        // NOOP
+        if (ownResources && resources != null) {
+            getServletContext().removeAttribute(Globals.RESOURCES_ATTR);
+            resources.close();
+        }
     }
 
 
@@ -231,12 +244,49 @@ public class DefaultServlet extends HttpServlet {
         // Load the web resources
         resources = (WebRoot) getServletContext().getAttribute(
                 Globals.RESOURCES_ATTR);
+        if (resources == null)
+            resources = loadResources();
 
         if (resources == null) {
             throw new UnavailableException(sm.getString("defaultServlet.noResources"));
         }
     }
 
+    /**
+     * Build the web resources from the configuration file named by the
+     * <code>config</code> init parameter of the servlet or its context,
+     * and publish them to the other servlets of the context.
+     *
+     * @return the web resources, or <code>null</code> if not configured
+     * @throws ServletException if the configuration cannot be loaded
+     */
+    protected WebRoot loadResources() throws ServletException {
+        String fileName = getServletConfig().getInitParameter(
+                WebRootLoader.CONFIG_PARAM);
+        if (fileName == null)
+            fileName = getServletContext().getInitParameter(
+                    WebRootLoader.CONFIG_PARAM);
+        if (fileName == null)
+            return null;
+        final ServletContext context = getServletContext();
+        synchronized (context) {
+            // Another servlet of the context may have already loaded them
+            WebRoot root = (WebRoot) context.getAttribute(
+                    Globals.RESOURCES_ATTR);
+            if (root == null) {
+                try {
+                    root = WebRootLoader.load(
+                            WebRootLoader.readProperties(fileName));
+                } catch (IOException | RuntimeException e) {
+                    throw new ServletException("Cannot load " + fileName, e);
+                }
+                context.setAttribute(Globals.RESOURCES_ATTR, root);
+                ownResources = true;
+            }
+            return root;
+        }
+    }
+
     /**
      * Return the relative path associated with this servlet.
      *
@@ -297,10 +347,39 @@ public class DefaultServlet extends HttpServlet {
     protected void service(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
-        if (req.getDispatcherType() == DispatcherType.ERROR) {
-            doGet(req, resp);
+        try {
+            if (req.getDispatcherType() == DispatcherType.ERROR) {
+                doGet(req, resp);
+            } else {
+                super.service(req, resp);
+            }
+        } catch(WebStorageException ex) {
+            sendStorageError(resp, ex);
+        }
+    }
+
+
+    /**
+     * Report the storage failure to the client. The lack of space is
+     * reported as 507, the access denied by the storage as 403,
+     * and all other failures as 500.
+     *
+     * @param resp The servlet response we are creating
+     * @param ex The storage failure
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    protected void sendStorageError(HttpServletResponse resp,
+            WebStorageException ex) throws IOException {
+        log("Storage failure: " + ex.getMessage(), ex);
+        if (resp.isCommitted())
+            return;
+        if (ex instanceof InsufficientStorageException) {
+            resp.sendError(WebdavStatus.SC_INSUFFICIENT_STORAGE);
+        } else if (ex.getCause() instanceof AccessDeniedException) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
         } else {
-            super.service(req, resp);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -433,29 +512,80 @@ public class DefaultServlet extends HttpServlet {
         Range range = parseContentRange(req, resp);
         WebResource resource = resources.getResource(path);
 
-        if (range != null && resource != null) {
-            // Append data specified in ranges to existing content for this
-            // resource.
-            // Assume just one range is specified for now
-            try (BufferedInputStream requestBufInStream =
-                new BufferedInputStream(req.getInputStream(), BUFFER_SIZE)) {
-                if ( ! resource.replaceData(requestBufInStream, range.start) ) {
-                    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        try {
+            if (range != null && resource != null) {
+                // Append data specified in ranges to existing content for this
+                // resource.
+                // Assume just one range is specified for now
+                try (BufferedInputStream requestBufInStream =
+                    new BufferedInputStream(req.getInputStream(), BUFFER_SIZE)) {
+                    if ( ! resource.replaceData(requestBufInStream, range.start) ) {
+                        resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
                 }
-            }
-        } else {
-            // Replace the full resource as a whole
-            InputStream resourceInputStream = req.getInputStream();
-            if (resources.write(path, resourceInputStream, true) != null) {
-                if (resource!=null) {
-                    resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            } else {
+                // Replace the full resource as a whole
+                InputStream resourceInputStream = req.getInputStream();
+                if (resources.write(path, resourceInputStream, true,
+                        getExpectedLength(req)) != null) {
+                    if (resource!=null) {
+                        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                    } else {
+                        resp.setStatus(HttpServletResponse.SC_CREATED);
+                    }
+                } else if (resource != null || isCollection(parentOf(path))) {
+                    // The target can be written, but the write itself failed
+                    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 } else {
-                    resp.setStatus(HttpServletResponse.SC_CREATED);
+                    resp.sendError(HttpServletResponse.SC_CONFLICT);
                 }
-            } else {
-                resp.sendError(HttpServletResponse.SC_CONFLICT);
+            }
+        } catch(InsufficientStorageException ex) {
+            log("DefaultServlet.doPut:  " + ex.getMessage());
+            resp.sendError(WebdavStatus.SC_INSUFFICIENT_STORAGE);
+        }
+    }
+
+
+    /**
+     * @param path Resource path
+     * @return Path of the parent collection
+     */
+    private static String parentOf(String path) {
+        String p = path;
+        if (p.endsWith("/"))
+            p = p.substring(0, p.length() - 1);
+        final int slash = p.lastIndexOf('/');
+        return (slash > 0) ? p.substring(0, slash) : "/";
+    }
+
+    private boolean isCollection(String path) {
+        final WebResource r = resources.getResource(path);
+        return r != null && r.isDirectory();
+    }
+
+
+    /**
+     * Determine the length of the uploaded data, from the Content-Length
+     * header, or from the X-Expected-Entity-Length header sent by the
+     * clients using the chunked transfer encoding (e.g. macOS Finder).
+     *
+     * @param req The servlet request we are processing
+     * @return Expected data length, or -1 if not known
+     */
+    protected long getExpectedLength(HttpServletRequest req) {
+        long length = req.getContentLengthLong();
+        if (length >= 0L)
+            return length;
+        final String header = req.getHeader("X-Expected-Entity-Length");
+        if (header != null) {
+            try {
+                length = Long.parseLong(header.trim());
+            } catch(NumberFormatException ex) {
+                length = -1L;
             }
         }
+        return (length >= 0L) ? length : -1L;
     }
 
 
@@ -609,11 +739,12 @@ public class DefaultServlet extends HttpServlet {
         // These need to reflect the original resource, not the potentially
         // precompressed version of the resource so get them now if they are going to
         // be needed later
+        final ResourceAttributes attrs = resource.getAttributes();
         String eTag = null;
         String lastModifiedHttp = null;
         if (resource.isFile() && !isError) {
-            eTag = resource.getETag();
-            lastModifiedHttp = resource.getLastModifiedHttp();
+            eTag = attrs.getETag();
+            lastModifiedHttp = attrs.getLastModifiedHttp();
         }
 
         ArrayList<Range> ranges = null;
@@ -651,7 +782,7 @@ public class DefaultServlet extends HttpServlet {
             }
 
             // Get content length
-            contentLength = resource.getContentLength();
+            contentLength = attrs.getContentLength();
             // Special case for zero length files, which would cause a
             // (silent) ISE when setting the output buffer size
             if (contentLength == 0L) {
@@ -711,11 +842,26 @@ public class DefaultServlet extends HttpServlet {
                 }
                 InputStream renderResult = null;
                 try {
-                    if (ostream == null) {
+                    Source xsltSource = null;
+                    if (resource.isDirectory()) {
+                        xsltSource = findXsltSource(resource);
+                    }
+                    if (resource.isDirectory() && xsltSource == null) {
+                        // HTML listing is written directly to the output
+                        // while the directory entries are being read
+                        PrintWriter out = writer;
+                        if (out == null) {
+                            out = new PrintWriter(
+                                    new OutputStreamWriter(ostream, CS_UTF8));
+                        }
+                        renderHtml(getPathPrefix(request), resource, out);
+                        out.flush();
+                    } else if (ostream == null) {
                         // Output via a writer so can't use sendfile or write
                         // content directly.
                         if (resource.isDirectory()) {
-                            renderResult = render(getPathPrefix(request), resource);
+                            renderResult = renderXml(getPathPrefix(request),
+                                    resource, xsltSource);
                         } else {
                             renderResult = resource.getData();
                         }
@@ -723,8 +869,10 @@ public class DefaultServlet extends HttpServlet {
                     } else {
                         // Output is via an OutputStream
                         if (resource.isDirectory()) {
-                            renderResult = render(getPathPrefix(request), resource);
-                        } else {
+                            renderResult = renderXml(getPathPrefix(request),
+                                    resource, xsltSource);
+                        } else if (!copyChannel(resource, ostream,
+                                0L, contentLength)) {
                             // Output is content of resource
                             renderResult = resource.getData();
                         }
@@ -907,8 +1055,8 @@ public class DefaultServlet extends HttpServlet {
                 // Ignore
             }
 
-            String eTag = resource.getETag();
-            long lastModified = resource.getLastModified();
+            String eTag = resource.getAttributes().getETag();
+            long lastModified = resource.getAttributes().getLastModified();
 
             if (headerValueTime == (-1L)) {
 
@@ -929,7 +1077,7 @@ public class DefaultServlet extends HttpServlet {
 
         }
 
-        long fileLength = resource.getContentLength();
+        long fileLength = resource.getAttributes().getContentLength();
 
         if (fileLength == 0)
             return null;
@@ -1077,51 +1225,47 @@ public class DefaultServlet extends HttpServlet {
 
         sb.append("<entries>");
 
-        List<String> entries = resource.list();
-
         // rewriteUrl(contextPath) is expensive. cache result for later reuse
         String rewrittenContextPath =  rewriteUrl(contextPath);
         String directoryWebappPath = resource.getPath();
 
-        for (String entry : entries) {
-
-            if (entry.equalsIgnoreCase("WEB-INF") ||
-                    entry.equalsIgnoreCase("META-INF") ||
-                    entry.equalsIgnoreCase(localXsltFile))
-                continue;
+        try (WebListing entries = resource.openListing()) {
+            for (WebResource childResource : entries) {
 
-            if ((directoryWebappPath + entry).equals(contextXsltFile))
-                continue;
+                String entry = childResource.getName();
+                if (entry.equalsIgnoreCase("WEB-INF") ||
+                        entry.equalsIgnoreCase("META-INF") ||
+                        entry.equalsIgnoreCase(localXsltFile))
+                    continue;
 
-            WebResource childResource =
-                    resources.getResource(directoryWebappPath + entry);
-            if (childResource==null) {
-                continue;
-            }
+                if ((directoryWebappPath + entry).equals(contextXsltFile))
+                    continue;
 
-            sb.append("<entry");
-            sb.append(" type='")
-              .append(childResource.isDirectory()?"dir":"file")
-              .append("'");
-            sb.append(" urlPath='")
-              .append(rewrittenContextPath)
-              .append(rewriteUrl(directoryWebappPath + entry))
-              .append(childResource.isDirectory()?"/":"")
-              .append("'");
-            if (childResource.isFile()) {
-                sb.append(" size='")
-                  .append(renderSize(childResource.getContentLength()))
+                sb.append("<entry");
+                sb.append(" type='")
+                  .append(childResource.isDirectory()?"dir":"file")
+                  .append("'");
+                sb.append(" urlPath='")
+                  .append(rewrittenContextPath)
+                  .append(rewriteUrl(directoryWebappPath + entry))
+                  .append(childResource.isDirectory()?"/":"")
+                  .append("'");
+                ResourceAttributes childAttrs = childResource.getAttributes();
+                if (childResource.isFile()) {
+                    sb.append(" size='")
+                      .append(renderSize(childAttrs.getContentLength()))
+                      .append("'");
+                }
+                sb.append(" date='")
+                  .append(childAttrs.getLastModifiedHttp())
                   .append("'");
-            }
-            sb.append(" date='")
-              .append(childResource.getLastModifiedHttp())
-              .append("'");
 
-            sb.append(">");
-            sb.append(Escape.htmlElementContent(entry));
-            if (childResource.isDirectory())
-                sb.append("/");
-            sb.append("</entry>");
+                sb.append(">");
+                sb.append(Escape.htmlElementContent(entry));
+                if (childResource.isDirectory())
+                    sb.append("/");
+                sb.append("</entry>");
+            }
         }
         sb.append("</entries>");
 
@@ -1195,9 +1339,30 @@ public class DefaultServlet extends HttpServlet {
         OutputStreamWriter osWriter = new OutputStreamWriter(stream, CS_UTF8);
         PrintWriter writer = new PrintWriter(osWriter);
 
-        StringBuilder sb = new StringBuilder();
+        renderHtml(contextPath, resource, writer);
+
+        // Return an input stream to the underlying bytes
+        writer.flush();
+        return new ByteArrayInputStream(stream.toByteArray());
+
+    }
+
+
+    /**
+     * Write an HTML representation of the contents of this directory.
+     * The entries are written as they are read from the directory listing,
+     * so the output starts before the whole directory has been scanned.
+     *
+     * @param contextPath Context path to which our internal paths are relative
+     * @param resource    The associated resource
+     * @param writer      The writer to output the HTML data
+     *
+     * @throws IOException an IO error occurred
+     */
+    protected void renderHtml(String contextPath, WebResource resource,
+            PrintWriter writer) throws IOException {
 
-        List<String> entries = resource.list();
+        StringBuilder sb = new StringBuilder();
 
         // rewriteUrl(contextPath) is expensive. cache result for later reuse
         String rewrittenContextPath =  rewriteUrl(contextPath);
@@ -1259,48 +1424,53 @@ public class DefaultServlet extends HttpServlet {
         sb.append("</strong></font></td>\r\n");
         sb.append("</tr>");
 
-        boolean shade = false;
-        for (String entry : entries) {
-            if (entry.equalsIgnoreCase("WEB-INF") ||
-                entry.equalsIgnoreCase("META-INF"))
-                continue;
+        writer.write(sb.toString());
+        sb.setLength(0);
 
-            WebResource childResource =
-                    resources.getResource(directoryWebappPath + entry);
-            if (childResource==null) {
-                continue;
+        boolean shade = false;
+        try (WebListing entries = resource.openListing()) {
+            for (WebResource childResource : entries) {
+                String entry = childResource.getName();
+                if (entry.equalsIgnoreCase("WEB-INF") ||
+                    entry.equalsIgnoreCase("META-INF"))
+                    continue;
+
+                ResourceAttributes childAttrs = childResource.getAttributes();
+
+                sb.append("<tr");
+                if (shade)
+                    sb.append(" bgcolor=\"#eeeeee\"");
+                sb.append(">\r\n");
+                shade = !shade;
+
+                sb.append("<td align=\"left\">&nbsp;&nbsp;\r\n");
+                sb.append("<a href=\"");
+                sb.append(rewrittenContextPath);
+                sb.append(rewriteUrl(directoryWebappPath + entry));
+                if (childResource.isDirectory())
+                    sb.append("/");
+                sb.append("\"><tt>");
+                sb.append(Escape.htmlElementContent(entry));
+                if (childResource.isDirectory())
+                    sb.append("/");
+                sb.append("</tt></a></td>\r\n");
+
+                sb.append("<td align=\"right\"><tt>");
+                if (childResource.isDirectory())
+                    sb.append("&nbsp;");
+                else
+                    sb.append(renderSize(childAttrs.getContentLength()));
+                sb.append("</tt></td>\r\n");
+
+                sb.append("<td align=\"right\"><tt>");
+                sb.append(childAttrs.getLastModifiedHttp());
+                sb.append("</tt></td>\r\n");
+
+                sb.append("</tr>\r\n");
+
+                writer.write(sb.toString());
+                sb.setLength(0);
             }
-
-            sb.append("<tr");
-            if (shade)
-                sb.append(" bgcolor=\"#eeeeee\"");
-            sb.append(">\r\n");
-            shade = !shade;
-
-            sb.append("<td align=\"left\">&nbsp;&nbsp;\r\n");
-            sb.append("<a href=\"");
-            sb.append(rewrittenContextPath);
-            sb.append(rewriteUrl(directoryWebappPath + entry));
-            if (childResource.isDirectory())
-                sb.append("/");
-            sb.append("\"><tt>");
-            sb.append(Escape.htmlElementContent(entry));
-            if (childResource.isDirectory())
-                sb.append("/");
-            sb.append("</tt></a></td>\r\n");
-
-            sb.append("<td align=\"right\"><tt>");
-            if (childResource.isDirectory())
-                sb.append("&nbsp;");
-            else
-                sb.append(renderSize(childResource.getContentLength()));
-            sb.append("</tt></td>\r\n");
-
-            sb.append("<td align=\"right\"><tt>");
-            sb.append(childResource.getLastModifiedHttp());
-            sb.append("</tt></td>\r\n");
-
-            sb.append("</tr>\r\n");
         }
 
         // Render the page footer
@@ -1317,10 +1487,7 @@ public class DefaultServlet extends HttpServlet {
         sb.append("</body>\r\n");
         sb.append("</html>\r\n");
 
-        // Return an input stream to the underlying bytes
         writer.write(sb.toString());
-        writer.flush();
-        return new ByteArrayInputStream(stream.toByteArray());
 
     }
 
@@ -1513,7 +1680,7 @@ public class DefaultServlet extends HttpServlet {
             HttpServletResponse response, WebResource resource)
             throws IOException {
 
-        String eTag = resource.getETag();
+        String eTag = resource.getAttributes().getETag();
         String headerValue = request.getHeader("If-Match");
         if (headerValue != null) {
             if (headerValue.indexOf('*') == -1) {
@@ -1556,7 +1723,7 @@ public class DefaultServlet extends HttpServlet {
             HttpServletResponse response, WebResource resource) {
         try {
             long headerValue = request.getDateHeader("If-Modified-Since");
-            long lastModified = resource.getLastModified();
+            long lastModified = resource.getAttributes().getLastModified();
             if (headerValue != -1) {
 
                 // If an If-None-Match header has been specified, if modified since
@@ -1566,7 +1733,7 @@ public class DefaultServlet extends HttpServlet {
                     // The entity has not been modified since the date
                     // specified by the client. This is not an error case.
                     response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                    response.setHeader("ETag", resource.getETag());
+                    response.setHeader("ETag", resource.getAttributes().getETag());
 
                     return false;
                 }
@@ -1593,7 +1760,7 @@ public class DefaultServlet extends HttpServlet {
             HttpServletResponse response, WebResource resource)
             throws IOException {
 
-        String eTag = resource.getETag();
+        String eTag = resource.getAttributes().getETag();
         String headerValue = request.getHeader("If-None-Match");
         if (headerValue != null) {
 
@@ -1649,7 +1816,7 @@ public class DefaultServlet extends HttpServlet {
             HttpServletResponse response, WebResource resource)
             throws IOException {
         try {
-            long lastModified = resource.getLastModified();
+            long lastModified = resource.getAttributes().getLastModified();
             long headerValue = request.getDateHeader("If-Unmodified-Since");
             if (headerValue != -1) {
                 if ( lastModified >= (headerValue + 1000)) {
@@ -1725,6 +1892,10 @@ public class DefaultServlet extends HttpServlet {
     protected void copy(WebResource resource, ServletOutputStream ostream,
             Range range) throws IOException {
 
+        if (copyChannel(resource, ostream, range.start,
+                range.end - range.start + 1))
+            return;
+
         IOException exception;
 
         try (InputStream resourceInputStream = resource.getData()) {
@@ -1760,23 +1931,26 @@ public class DefaultServlet extends HttpServlet {
 
         while ( (exception == null) && (ranges.hasNext()) ) {
 
+            Range currentRange = ranges.next();
+
+            // Writing MIME header.
+            ostream.println();
+            ostream.println("--" + mimeSeparation);
+            if (contentType != null)
+                ostream.println("Content-Type: " + contentType);
+            ostream.println("Content-Range: bytes " + currentRange.start
+                           + "-" + currentRange.end + "/"
+                           + currentRange.length);
+            ostream.println();
+
+            // Printing content
+            if (copyChannel(resource, ostream, currentRange.start,
+                    currentRange.end - currentRange.start + 1))
+                continue;
+
             try ( InputStream resdata = resource.getData();
                   InputStream istream 
                     = new BufferedInputStream(resdata, inputBufferSize)) {
-
-                Range currentRange = ranges.next();
-
-                // Writing MIME header.
-                ostream.println();
-                ostream.println("--" + mimeSeparation);
-                if (contentType != null)
-                    ostream.println("Content-Type: " + contentType);
-                ostream.println("Content-Range: bytes " + currentRange.start
-                               + "-" + currentRange.end + "/"
-                               + currentRange.length);
-                ostream.println();
-
-                // Printing content
                 exception = copyRange(istream, ostream, currentRange.start,
                                       currentRange.end);
             }
@@ -1792,6 +1966,53 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Copy the part of the resource content to the specified output stream
+     * through the channel, if the resource allows channel access.
+     * The channel is positioned at the start of the range, so the data
+     * before it is not read and skipped like with the input stream.
+     *
+     * @param resource  The source resource
+     * @param ostream   The output stream to write to
+     * @param start     Start position of the data
+     * @param count     Number of bytes to be copied
+     * @return true, if the data has been copied, and false, if the resource
+     *     does not provide the channel
+     * @exception IOException if an input/output error occurs
+     */
+    protected boolean copyChannel(WebResource resource,
+            ServletOutputStream ostream, long start, long count)
+            throws IOException {
+        try (SeekableByteChannel channel = resource.openReadChannel()) {
+            if (channel==null)
+                return false;
+
+            if (debug > 10)
+                log("Serving bytes via channel:" + start + "+" + count);
+
+            long position = start;
+            long remaining = count;
+            channel.position(position);
+            final ByteBuffer buffer = ByteBuffer.allocate(inputBufferSize);
+            while (remaining > 0L) {
+                buffer.clear();
+                if (remaining < buffer.capacity())
+                    buffer.limit((int) remaining);
+                int bytes = channel.read(buffer);
+                if (bytes < 0)
+                    throw new EOFException("Resource shrunk at position "
+                            + position + ", expected " + remaining
+                            + " more bytes");
+                // Heap buffer is written as is, without the extra copy
+                ostream.write(buffer.array(), 0, buffer.position());
+                position += bytes;
+                remaining -= bytes;
+            }
+        }
+        return true;
+    }
+
+
     /**
      * Copy the contents of the specified input stream to the specified
      * output stream, and ensure that both streams are closed before returning
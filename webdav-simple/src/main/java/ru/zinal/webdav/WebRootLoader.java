@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import org.apache.commons.beanutils.BeanUtils;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Builds the web root from the configuration properties,
+ * as defined in webdav-server.properties.
+ * @author zinal
+ */
+public class WebRootLoader {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(WebRootLoader.class);
+
+    /**
+     * Servlet init parameter with the name of the properties file
+     */
+    public static final String CONFIG_PARAM = "config";
+
+    public static final String PREFIX = "webdav.";
+
+    public static final String HANDLER = "handler";
+    public static final String CONTEXT = "context";
+    public static final String CACHE_SIZE = "cache.size";
+    public static final String CACHE_TTL = "cache.ttl";
+    public static final String MOUNT = "mount";
+    public static final String MOUNT_PATH = "path";
+
+    public static final long DEFAULT_CACHE_TTL = 5000L;
+
+    /**
+     * Read the properties file
+     * @param fileName Name of the properties file
+     * @return Properties loaded
+     * @throws IOException on read errors
+     */
+    public static Properties readProperties(String fileName) throws IOException {
+        final Properties props = new Properties();
+        try (InputStream is = new FileInputStream(fileName)) {
+            props.load(new InputStreamReader(is, StandardCharsets.UTF_8));
+        }
+        return props;
+    }
+
+    /**
+     * Build the web root from the properties with the standard prefix.
+     * When mounts are declared as webdav.mount.NAME.path, each mount
+     * is configured from its webdav.mount.NAME.* properties, and
+     * the top-level webdav.handler, if any, is mounted at "/".
+     * @param props Configuration properties
+     * @return Web root
+     */
+    public static WebRoot load(Properties props) {
+        final String mountPrefix = PREFIX + MOUNT + ".";
+        final TreeSet<String> mountNames = new TreeSet<>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith(mountPrefix)) {
+                final int pos = name.indexOf('.', mountPrefix.length());
+                if (pos > 0)
+                    mountNames.add(name.substring(mountPrefix.length(), pos));
+            }
+        }
+        if (mountNames.isEmpty())
+            return load(props, PREFIX);
+        final Map<String, WebRoot> mounts = new LinkedHashMap<>();
+        if (props.getProperty(PREFIX + HANDLER)!=null)
+            mounts.put("/", load(props, PREFIX));
+        for (String mountName : mountNames) {
+            final String prefix = mountPrefix + mountName + ".";
+            final String path = props.getProperty(prefix + MOUNT_PATH);
+            if (path==null)
+                throw new IllegalArgumentException("Missing property "
+                        + prefix + MOUNT_PATH);
+            if (mounts.put(path, load(props, prefix))!=null)
+                throw new IllegalArgumentException("Duplicate mount " + path);
+        }
+        return new MountingWebRoot(mounts);
+    }
+
+    /**
+     * Build the web root from the properties with the specified prefix
+     * @param props Configuration properties
+     * @param prefix Prefix of the property names, including the final dot
+     * @return Web root
+     */
+    public static WebRoot load(Properties props, String prefix) {
+        final String handlerName = props.getProperty(prefix + HANDLER);
+        if (handlerName==null)
+            throw new IllegalArgumentException("Missing property "
+                    + prefix + HANDLER);
+        final String contextName = props.getProperty(prefix + CONTEXT,
+                WebdavContext.class.getName());
+        final WebRootFactory factory =
+                newInstance(handlerName, WebRootFactory.class);
+        final WebdavContext context =
+                newInstance(contextName, WebdavContext.class);
+        final String contextPrefix = prefix + CONTEXT + ".";
+        final Map<String,String> values = new HashMap<>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith(contextPrefix))
+                values.put(name.substring(contextPrefix.length()),
+                        props.getProperty(name));
+        }
+        try {
+            BeanUtils.populate(context, values);
+        } catch(Exception ex) {
+            throw new IllegalArgumentException("Cannot configure "
+                    + contextName, ex);
+        }
+        context.expand();
+        WebRoot root = factory.create(context);
+        final int cacheSize = Integer.parseInt(
+                props.getProperty(prefix + CACHE_SIZE, "0").trim());
+        if (cacheSize > 0) {
+            final long cacheTtl = Long.parseLong(
+                    props.getProperty(prefix + CACHE_TTL,
+                            String.valueOf(DEFAULT_CACHE_TTL)).trim());
+            root = new CachingWebRoot(root, cacheSize, cacheTtl);
+        }
+        LOG.info("Configured web root {} with {}", prefix, handlerName);
+        return root;
+    }
+
+    private static <T> T newInstance(String className, Class<T> clazz) {
+        try {
+            return clazz.cast(Class.forName(className)
+                    .getDeclaredConstructor().newInstance());
+        } catch(Exception ex) {
+            throw new IllegalArgumentException("Cannot instantiate "
+                    + className, ex);
+        }
+    }
+
+}
@@ -26,11 +26,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.function.Predicate;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
@@ -130,9 +132,9 @@ public class WebdavServlet extends DefaultServlet {
     protected static final String DEFAULT_NAMESPACE = "DAV:";
     
     /**
-     * In-memory lock manager.
+     * Lock manager, configured with the lockManager init parameter.
      */
-    private final LockManager lockManager = new InMemoryLocker();
+    private LockManager lockManager = null;
 
     /**
      * Secret information used to generate reasonably secure lock ids.
@@ -176,6 +178,51 @@ public class WebdavServlet extends DefaultServlet {
         if (getServletConfig().getInitParameter("allowSpecialPaths") != null)
             allowSpecialPaths = Boolean.parseBoolean(
                     getServletConfig().getInitParameter("allowSpecialPaths"));
+
+        lockManager = createLockManager(
+                getServletConfig().getInitParameter("lockManager"));
+    }
+
+
+    /**
+     * Create the lock manager: "memory", "concurrent" (the default),
+     * "journal" to keep the locks under the configuration path
+     * of the web root,
+     * or the name of the LockManager implementation class.
+     * @param kind Lock manager kind or class name
+     * @return Lock manager
+     * @throws ServletException lock manager cannot be created
+     */
+    protected LockManager createLockManager(String kind)
+        throws ServletException {
+        if (kind == null || kind.trim().length() == 0
+                || "concurrent".equalsIgnoreCase(kind.trim()))
+            return new ConcurrentLocker();
+        kind = kind.trim();
+        if ("memory".equalsIgnoreCase(kind))
+            return new InMemoryLocker();
+        try {
+            if ("journal".equalsIgnoreCase(kind)) {
+                final WebdavContext context = resources.getContext();
+                if (context == null || context.getConfigPath() == null)
+                    throw new ServletException("No configuration path "
+                            + "for the lock journal");
+                return new JournalLocker(context);
+            }
+            return (LockManager) Class.forName(kind)
+                    .getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new ServletException("Cannot create lock manager "
+                    + kind, e);
+        }
+    }
+
+
+    @Override
+    public void destroy() {
+        if (lockManager != null)
+            lockManager.close();
+        super.destroy();
     }
 
 
@@ -244,32 +291,36 @@ public class WebdavServlet extends DefaultServlet {
             log("[" + method + "] " + path);
         }
 
-        switch (method) {
-            case METHOD_PROPFIND:
-                doPropfind(req, resp);
-                break;
-            case METHOD_PROPPATCH:
-                doProppatch(req, resp);
-                break;
-            case METHOD_MKCOL:
-                doMkcol(req, resp);
-                break;
-            case METHOD_COPY:
-                doCopy(req, resp);
-                break;
-            case METHOD_MOVE:
-                doMove(req, resp);
-                break;
-            case METHOD_LOCK:
-                doLock(req, resp);
-                break;
-            case METHOD_UNLOCK:
-                doUnlock(req, resp);
-                break;
-            default:
-                // DefaultServlet processing
-                super.service(req, resp);
-                break;
+        try {
+            switch (method) {
+                case METHOD_PROPFIND:
+                    doPropfind(req, resp);
+                    break;
+                case METHOD_PROPPATCH:
+                    doProppatch(req, resp);
+                    break;
+                case METHOD_MKCOL:
+                    doMkcol(req, resp);
+                    break;
+                case METHOD_COPY:
+                    doCopy(req, resp);
+                    break;
+                case METHOD_MOVE:
+                    doMove(req, resp);
+                    break;
+                case METHOD_LOCK:
+                    doLock(req, resp);
+                    break;
+                case METHOD_UNLOCK:
+                    doUnlock(req, resp);
+                    break;
+                default:
+                    // DefaultServlet processing
+                    super.service(req, resp);
+                    break;
+            }
+        } catch(WebStorageException ex) {
+            sendStorageError(resp, ex);
         }
     }
 
@@ -531,59 +582,69 @@ public class WebdavServlet extends DefaultServlet {
         generatedXML.writeElement("D", DEFAULT_NAMESPACE, "multistatus",
                 XMLWriter.OPENING);
 
-        if (depth == 0) {
-            parseProperties(req, generatedXML, path, type,
-                            properties);
-        } else {
-            // The stack always contains the object of the current level
-            Stack<String> stack = new Stack<>();
-            stack.push(path);
-
-            // Stack of the objects one level below
-            Stack<String> stackBelow = new Stack<>();
-
-            while ((!stack.isEmpty()) && (depth >= 0)) {
-
-                String currentPath = stack.pop();
-                parseProperties(req, generatedXML, currentPath,
-                                type, properties);
-
-                resource = resources.getResource(currentPath);
-
-                if (resource!=null && resource.isDirectory() && (depth > 0)) {
-                    // List directory entries, and add those to stack
-                    List<String> entries = resource.list();
-                    for (String entry : entries) {
-                        String newPath = currentPath;
-                        if (!(newPath.endsWith("/")))
-                                newPath += "/";
-                        newPath += entry;
-                        stackBelow.push(newPath);
-                    }
-                    // Displaying the lock-null resources present in that
-                    // collection
-                    String lockPath = currentPath;
-                    if (lockPath.endsWith("/"))
-                        lockPath = lockPath.substring(0, lockPath.length() - 1);
-                    List<LockInfo> currentLockNullResources =
-                            lockManager.listNullLocks(lockPath);
-                    for (LockInfo cur : currentLockNullResources) {
-                        parseLockNullProperties(req, generatedXML, cur,
-                                type, properties);
-                    }
-                }
+        parseProperties(req, generatedXML, path, resource, type,
+                        properties);
+
+        if (depth > 0 && resource.isDirectory()) {
+            propfindCollection(req, generatedXML, path, resource, depth,
+                    type, properties);
+        }
+
+        generatedXML.writeElement("D", "multistatus", XMLWriter.CLOSING);
+
+        generatedXML.sendData();
+    }
+
 
-                if (stack.isEmpty()) {
-                    depth--;
-                    stack = stackBelow;
-                    stackBelow = new Stack<>();
+    /**
+     * Generate PROPFIND responses for the members of a collection.
+     * The collection is walked depth-first over the incremental listings,
+     * so each entry is written as soon as it is read from the storage.
+     *
+     * @param req The servlet request
+     * @param generatedXML XML response to the Propfind request
+     * @param path Path of the collection
+     * @param collection The collection resource
+     * @param depth Remaining depth, greater than zero
+     * @param type Propfind type
+     * @param properties If the propfind type is find properties by
+     * name, then this List contains those properties
+     * @throws IOException If an IO error occurs
+     */
+    private void propfindCollection(HttpServletRequest req,
+            XMLWriter generatedXML, String path, WebResource collection,
+            int depth, int type, List<String> properties)
+            throws IOException {
+
+        try (WebListing listing = collection.openListing()) {
+            for (WebResource entry : listing) {
+                String entryPath = path;
+                if (!(entryPath.endsWith("/")))
+                    entryPath += "/";
+                entryPath += entry.getName();
+
+                parseProperties(req, generatedXML, entryPath, entry,
+                        type, properties);
+
+                if (depth > 1 && entry.isDirectory()) {
+                    propfindCollection(req, generatedXML, entryPath, entry,
+                            depth - 1, type, properties);
                 }
 
                 generatedXML.sendData();
             }
         }
 
-        generatedXML.writeElement("D", "multistatus", XMLWriter.CLOSING);
+        // Displaying the lock-null resources present in that collection
+        String lockPath = path;
+        if (lockPath.endsWith("/"))
+            lockPath = lockPath.substring(0, lockPath.length() - 1);
+        List<LockInfo> currentLockNullResources =
+                lockManager.listNullLocks(lockPath);
+        for (LockInfo cur : currentLockNullResources) {
+            parseLockNullProperties(req, generatedXML, cur,
+                    type, properties);
+        }
 
         generatedXML.sendData();
     }
@@ -714,7 +775,7 @@ public class WebdavServlet extends DefaultServlet {
 
         String path = getRelativePath(req);
         WebResource resource = resources.getResource(path);
-        if (resource.isDirectory()) {
+        if (resource!=null && resource.isDirectory()) {
             sendNotAllowed(req, resp);
             return;
         }
@@ -737,7 +798,7 @@ public class WebdavServlet extends DefaultServlet {
             resp.sendError(WebdavStatus.SC_FORBIDDEN);
             return;
         }
-        copyResource(req, resp);
+        copyResource(req, resp, false);
     }
 
 
@@ -759,11 +820,7 @@ public class WebdavServlet extends DefaultServlet {
             return;
         }
 
-        String path = getRelativePath(req);
-
-        if (copyResource(req, resp)) {
-            deleteResource(path, req, resp, false);
-        }
+        copyResource(req, resp, true);
     }
 
 
@@ -1174,15 +1231,16 @@ public class WebdavServlet extends DefaultServlet {
 
 
     /**
-     * Copy a resource.
+     * Copy or move a resource.
      *
      * @param req Servlet request
      * @param resp Servlet response
+     * @param move true to move the resource, false to copy it
      * @return boolean true if the copy is successful
      * @throws IOException If an IO error occurs
      */
     private boolean copyResource(HttpServletRequest req,
-                                 HttpServletResponse resp)
+                                 HttpServletResponse resp, boolean move)
             throws IOException {
 
         // Parsing destination header
@@ -1265,6 +1323,37 @@ public class WebdavServlet extends DefaultServlet {
             return false;
         }
 
+        if (resources.getResource(path)==null) {
+            resp.sendError(WebdavStatus.SC_NOT_FOUND);
+            return false;
+        }
+
+        // Parsing depth header, COPY of the collection allows 0 or infinity
+
+        int depth = Integer.MAX_VALUE;
+        if (!move && "0".equals(req.getHeader("Depth")))
+            depth = 0;
+
+        if (move) {
+            // The moved subtree should not contain foreign locks
+            String[] tokens = new String[2];
+            tokens[0] = SmallT.extractToken( req.getHeader("If") );
+            tokens[1] = SmallT.extractToken( req.getHeader("Lock-Token") );
+            List<String> lockedPaths =
+                    lockManager.findLockedPaths(path, Arrays.asList(tokens));
+            if (!lockedPaths.isEmpty()) {
+                Map<String,Integer> errorList = new HashMap<>();
+                for (String lockedPath : lockedPaths)
+                    errorList.put(lockedPath, WebdavStatus.SC_LOCKED);
+                if (errorList.size() == 1) {
+                    resp.sendError(WebdavStatus.SC_LOCKED);
+                } else {
+                    sendReport(req, resp, errorList);
+                }
+                return false;
+            }
+        }
+
         // Parsing overwrite header
 
         boolean overwrite = true;
@@ -1299,11 +1388,18 @@ public class WebdavServlet extends DefaultServlet {
             }
         }
 
-        // Copying source to destination
+        // Copying or moving source to destination
 
         Map<String,Integer> errorList = new HashMap<>();
 
-        boolean result = copyResource(errorList, path, destinationPath);
+        boolean result;
+        if (move) {
+            result = resources.move(path, destinationPath,
+                    overwrite, errorList);
+        } else {
+            result = resources.copy(path, destinationPath,
+                    depth, errorList);
+        }
 
         if ((!result) || (!errorList.isEmpty())) {
             if (errorList.size() == 1) {
@@ -1329,86 +1425,6 @@ public class WebdavServlet extends DefaultServlet {
     }
 
 
-    /**
-     * Copy a collection.
-     *
-     * @param errorList Hashtable containing the list of errors which occurred
-     * during the copy operation
-     * @param source Path of the resource to be copied
-     * @param dest Destination path
-     * @return <code>true</code> if the copy was successful
-     */
-    private boolean copyResource(Map<String,Integer> errorList,
-            String source, String dest) {
-
-        if (debug > 1)
-            log("Copy: " + source + " To: " + dest);
-
-        WebResource sourceResource = resources.getResource(source);
-        if (sourceResource==null)
-            return false;
-
-        if (sourceResource.isDirectory()) {
-            WebResource destResource = resources.mkdir(dest);
-            if (destResource==null) {
-                destResource = resources.getResource(dest);
-                if (!destResource.isDirectory()) {
-                    errorList.put(dest, WebdavStatus.SC_CONFLICT);
-                    return false;
-                }
-            }
-
-            List<String> entries = sourceResource.list();
-            for (String entry : entries) {
-                String childDest = dest;
-                if (!childDest.equals("/")) {
-                    childDest += "/";
-                }
-                childDest += entry;
-                String childSrc = source;
-                if (!childSrc.equals("/")) {
-                    childSrc += "/";
-                }
-                childSrc += entry;
-                copyResource(errorList, childSrc, childDest);
-            }
-        } else if (sourceResource.isFile()) {
-            WebResource destResource = resources.getResource(dest);
-            if (destResource==null && !dest.endsWith("/")) {
-                int lastSlash = dest.lastIndexOf('/');
-                if (lastSlash > 0) {
-                    String parent = dest.substring(0, lastSlash);
-                    WebResource parentResource = resources.getResource(parent);
-                    if (parentResource==null
-                            || !parentResource.isDirectory()) {
-                        errorList.put(source, WebdavStatus.SC_CONFLICT);
-                        return false;
-                    }
-                }
-            }
-            // WebDAV Litmus test attempts to copy/move a file over a collection
-            // Need to remove trailing / from destination to enable test to pass
-            if (destResource==null && dest.endsWith("/") && dest.length() > 1) {
-                // Convert destination name from collection (with trailing '/')
-                // to file (without trailing '/')
-                dest = dest.substring(0, dest.length() - 1);
-            }
-            try (InputStream is = sourceResource.getData()) {
-                if (resources.write(dest, is, false) == null) {
-                    errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
-                    return false;
-                }
-            } catch (IOException e) {
-                log(sm.getString("webdavservlet.inputstreamclosefail", source), e);
-            }
-        } else {
-            errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
-            return false;
-        }
-        return true;
-    }
-
-
     /**
      * Delete a resource.
      *
@@ -1466,12 +1482,39 @@ public class WebdavServlet extends DefaultServlet {
             }
         } else {
 
+            if (debug > 1)
+                log("Delete:" + path);
+
+            // Prevent deletion of special subdirectories
+            if (isSpecialPath(path) || "/".equals(path)) {
+                resp.sendError(WebdavStatus.SC_FORBIDDEN);
+                return false;
+            }
+
+            // Locks are checked against a single snapshot of the lock table
+            final Set<String> lockedPaths = new HashSet<>();
+            for (String lockedPath :
+                    lockManager.findLockedPaths(path, Arrays.asList(tokens))) {
+                lockedPaths.add(trimSlash(lockedPath));
+            }
+
             Map<String,Integer> errorList = new HashMap<>();
 
-            deleteCollection(req, path, errorList);
-            if (!resource.delete()) {
+            // Both kinds of entries are kept by the storage, which reports
+            // them as locked, while special paths are forbidden instead
+            final Predicate<String> lockFilter = lockedPaths::contains;
+            final Predicate<String> forbiddenFilter = this::isSpecialPath;
+            boolean result = resources.deleteTree(trimSlash(path),
+                    lockFilter.or(forbiddenFilter), errorList);
+            if (!result && errorList.isEmpty()) {
                 errorList.put(path, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
             }
+            for (Map.Entry<String,Integer> me : errorList.entrySet()) {
+                if (me.getValue()==WebdavStatus.SC_LOCKED
+                        && !lockFilter.test(me.getKey())
+                        && forbiddenFilter.test(me.getKey()))
+                    me.setValue(WebdavStatus.SC_FORBIDDEN);
+            }
 
             if (!errorList.isEmpty()) {
                 sendReport(req, resp, errorList);
@@ -1486,59 +1529,14 @@ public class WebdavServlet extends DefaultServlet {
 
 
     /**
-     * Deletes a collection.
-     * @param req The Servlet request
-     * @param path Path to the collection to be deleted
-     * @param errorList Contains the list of the errors which occurred
+     * Remove the trailing slash from the collection path.
+     * @param path Path of the resource
+     * @return Path without the trailing slash
      */
-    private void deleteCollection(HttpServletRequest req,
-                                  String path,
-                                  Map<String,Integer> errorList) {
-
-        if (debug > 1)
-            log("Delete:" + path);
-
-        // Prevent deletion of special subdirectories
-        if (isSpecialPath(path)) {
-            errorList.put(path, WebdavStatus.SC_FORBIDDEN);
-            return;
-        }
-        
-        String[] tokens = new String[2];
-        tokens[0] = SmallT.extractToken( req.getHeader("If") );
-        tokens[1] = SmallT.extractToken( req.getHeader("Lock-Token") );
-        
-        WebResource resource = resources.getResource(path);
-        if (resource==null)
-            return; // nothing to delete
-
-        List<String> entries = resource.list();
-
-        for (String entry : entries) {
-            String childName = path;
-            if (!childName.equals("/"))
-                childName += "/";
-            childName += entry;
-
-            if (isLocked(childName, tokens)) {
-
-                errorList.put(childName, WebdavStatus.SC_LOCKED);
-
-            } else {
-                WebResource childResource = resources.getResource(childName);
-                if (childResource.isDirectory()) {
-                    deleteCollection(req, childName, errorList);
-                }
-
-                if (!childResource.delete()) {
-                    if (!childResource.isDirectory()) {
-                        // If it's not a collection, then it's an unknown
-                        // error
-                        errorList.put(childName, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
-                    }
-                }
-            }
-        }
+    private static String trimSlash(String path) {
+        if (path.length() > 1 && path.endsWith("/"))
+            return path.substring(0, path.length() - 1);
+        return path;
     }
 
 
@@ -1602,25 +1600,19 @@ public class WebdavServlet extends DefaultServlet {
      * @param req The servlet request
      * @param generatedXML XML response to the Propfind request
      * @param path Path of the current resource
+     * @param resource The current resource
      * @param type Propfind type
      * @param propNames If the propfind type is find properties by
      * name, then this List contains those properties
      */
     private void parseProperties(HttpServletRequest req,
-            XMLWriter generatedXML, String path, int type,
-            List<String> propNames) {
+            XMLWriter generatedXML, String path, WebResource resource,
+            int type, List<String> propNames) {
 
         // Exclude any resource in the /WEB-INF and /META-INF subdirectories
         if (isSpecialPath(path))
             return;
 
-        WebResource resource = resources.getResource(path);
-        if (resource==null) {
-            // File is in directory listing but doesn't appear to exist
-            // Broken symlink or odd permission settings?
-            return;
-        }
-
         String href = req.getContextPath() + req.getServletPath();
         if ((href.endsWith("/")) && (path.startsWith("/")))
             href += path.substring(1);
@@ -1634,13 +1626,16 @@ public class WebdavServlet extends DefaultServlet {
         gen.path = path;
         gen.propFindType = type;
         gen.propNames = propNames;
-        gen.isFile = resource.isFile();
+        final ResourceAttributes attrs = resource.getAttributes();
+        gen.isFile = attrs.isFile();
         gen.isLockNull = false;
-        gen.created = resource.getCreation();
-        gen.lastModified = resource.getLastModified();
-        gen.contentLength = resource.getContentLength();
-        gen.contentType = getServletContext().getMimeType(resource.getName());
-        gen.eTag = resource.getETag();
+        gen.created = attrs.getCreation();
+        gen.lastModified = attrs.getLastModified();
+        gen.contentLength = attrs.getContentLength();
+        gen.contentType = resource.getMimeType();
+        if (gen.contentType == null)
+            gen.contentType = getServletContext().getMimeType(resource.getName());
+        gen.eTag = attrs.getETag();
         gen.run();
     }
 
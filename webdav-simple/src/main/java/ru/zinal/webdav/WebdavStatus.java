@@ -241,6 +241,13 @@ public class WebdavStatus {
      */
     public static final int SC_LOCKED = 423;
 
+
+    /**
+     * Status code (507) indicating that the server is unable to store
+     * the representation needed to complete the request (RFC 4918).
+     */
+    public static final int SC_INSUFFICIENT_STORAGE = 507;
+
     /**
      * This Hashtable contains the mapping of HTTP and WebDAV
      * status codes to descriptive text.  This is a static
@@ -278,6 +285,7 @@ public class WebdavStatus {
                          "Insufficient Space On Resource");
         temp.put(SC_METHOD_FAILURE, "Method Failure");
         temp.put(SC_LOCKED, "Locked");
+        temp.put(SC_INSUFFICIENT_STORAGE, "Insufficient Storage");
         
         mapStatusCodes = Collections.unmodifiableMap(temp);
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Content-defined chunking of the input stream, using the gear
+ * rolling hash. The chunk boundaries depend on the data around them,
+ * so the insertions and deletions only change the nearby chunks.
+ * @author zinal
+ */
+final class CasChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed, as the boundaries must be stable between runs
+        final Random random = new Random(0x5DEECE66DL);
+        for (int i=0; i<GEAR.length; ++i)
+            GEAR[i] = random.nextLong();
+    }
+
+    private final InputStream in;
+    private final int minSize;
+    private final long mask;
+    private final byte[] buf;
+    private int filled = 0;
+    private int consumed = 0;
+    private boolean eof = false;
+
+    /**
+     * @param in Input data
+     * @param minSize Minimal chunk size
+     * @param avgSize Expected average chunk size
+     * @param maxSize Maximal chunk size
+     */
+    CasChunker(InputStream in, int minSize, int avgSize, int maxSize) {
+        this.in = in;
+        this.minSize = minSize;
+        final int bits = 31 - Integer.numberOfLeadingZeros(
+                Math.max(2, avgSize - minSize));
+        // The upper bits of the gear hash depend on the wider window
+        this.mask = ((1L << bits) - 1L) << (64 - bits);
+        this.buf = new byte[maxSize];
+    }
+
+    /**
+     * @return Buffer holding the current chunk at its start
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Find the next chunk
+     * @return Length of the chunk, or 0 at the end of the data
+     * @throws IOException on read errors
+     */
+    int next() throws IOException {
+        if (consumed > 0) {
+            System.arraycopy(buf, consumed, buf, 0, filled - consumed);
+            filled -= consumed;
+            consumed = 0;
+        }
+        while (!eof && filled < buf.length) {
+            final int len = in.read(buf, filled, buf.length - filled);
+            if (len < 0)
+                eof = true;
+            else
+                filled += len;
+        }
+        consumed = boundary();
+        return consumed;
+    }
+
+    private int boundary() {
+        if (filled <= minSize)
+            return filled;
+        long hash = 0L;
+        for (int i = minSize; i < filled; ++i) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+            if ((hash & mask) == 0L)
+                return i + 1;
+        }
+        return filled;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import ru.zinal.webdav.model.WebdavContext;
+
+/**
+ *
+ * @author zinal
+ */
+public class CasContext extends WebdavContext {
+
+    private String dataPath;
+    private int minChunkSize = 2048;
+    private int avgChunkSize = 8192;
+    private int maxChunkSize = 65536;
+
+    public String getDataPath() {
+        return dataPath;
+    }
+
+    public void setDataPath(String dataPath) {
+        this.dataPath = dataPath;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public void setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * @return Expected average chunk size, rounded down to the power of two
+     */
+    public int getAvgChunkSize() {
+        return avgChunkSize;
+    }
+
+    public void setAvgChunkSize(int avgChunkSize) {
+        this.avgChunkSize = avgChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        if (dataPath==null)
+            dataPath = "./data/";
+        dataPath = expandDirectory(dataPath);
+        if (minChunkSize < 64)
+            minChunkSize = 64;
+        if (avgChunkSize < 2 * minChunkSize)
+            avgChunkSize = 2 * minChunkSize;
+        if (maxChunkSize < 2 * avgChunkSize)
+            maxChunkSize = 2 * avgChunkSize;
+    }
+
+}
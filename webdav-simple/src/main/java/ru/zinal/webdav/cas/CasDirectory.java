@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import ru.zinal.webdav.fs.FsAttributes;
+import ru.zinal.webdav.fs.FsDirectory;
+import ru.zinal.webdav.fs.FsListing;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class CasDirectory extends WebDirectory {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(CasDirectory.class);
+
+    private final Path file;
+    private final String path;
+    private final CasStore store;
+    private ResourceAttributes attrs;
+
+    CasDirectory(Path file, String path, CasStore store) {
+        this.file = file;
+        this.path = path;
+        this.store = store;
+    }
+
+    @Override
+    public String getName() {
+        if ("/".equals(path))
+            return path;
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        if (attrs==null) {
+            attrs = FsAttributes.read(file);
+            if (attrs==null)
+                attrs = new ResourceAttributes(true, 0L, 1L, 0L);
+        }
+        return attrs;
+    }
+
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return getAttributes().getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        name = FsDirectory.secureName(name);
+        return makeResource(file.resolve(name), path + name);
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        if (names==null || names.length==0)
+            return this;
+        Path f = file;
+        final StringBuilder sb = new StringBuilder(path);
+        for (String name : names) {
+            name = FsDirectory.secureName(name);
+            f = f.resolve(name);
+            sb.append(name).append('/');
+        }
+        return makeResource(f, sb.substring(0, sb.length()-1));
+    }
+
+    private WebResource makeResource(Path f, String p) {
+        if (Files.isDirectory(f))
+            return new CasDirectory(f, p + "/", store);
+        if (Files.isRegularFile(f))
+            return new CasFile(f, p, store);
+        return null;
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        name = FsDirectory.secureName(name);
+        final Path f = file.resolve(name);
+        try {
+            Files.createDirectory(f);
+        } catch(IOException ex) {
+            LOG.debug("Cannot create directory {}", f, ex);
+            return null;
+        }
+        return new CasDirectory(f, path + name + "/", store);
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        name = FsDirectory.secureName(name);
+        final Path f = file.resolve(name);
+        if (Files.exists(f))
+            return null;
+        final CasFile retval = new CasFile(f, path + name, store);
+        if (!retval.replaceData(data))
+            return null;
+        return retval;
+    }
+
+    @Override
+    public boolean delete(String name) {
+        try {
+            return Files.deleteIfExists(file.resolve(FsDirectory.secureName(name)));
+        } catch(IOException ex) {
+            LOG.debug("Cannot delete {} in {}", name, file, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> list() {
+        final List<String> retval = new ArrayList<>();
+        try (WebListing listing = openListing()) {
+            for (WebResource r : listing)
+                retval.add(r.getName());
+        }
+        return retval;
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        final List<WebResource> retval = new ArrayList<>();
+        try (WebListing listing = openListing()) {
+            for (WebResource r : listing)
+                retval.add(r);
+        }
+        return retval;
+    }
+
+    @Override
+    public WebListing openListing() {
+        try {
+            return new FsListing(Files.newDirectoryStream(file), path) {
+                @Override
+                protected WebResource newResource(Path p, String name,
+                        ResourceAttributes ra) {
+                    if (ra.isDirectory())
+                        return new CasDirectory(p, this.path + name + "/", store);
+                    return new CasFile(p, this.path + name, store);
+                }
+            };
+        } catch(IOException ex) {
+            LOG.warn("Cannot list directory {}", file, ex);
+            return WebListing.of(null);
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            Files.delete(file);
+            return true;
+        } catch(IOException ex) {
+            LOG.debug("Cannot delete {}", file, ex);
+            return false;
+        }
+    }
+
+}
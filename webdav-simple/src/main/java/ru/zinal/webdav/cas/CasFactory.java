@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import ru.zinal.webdav.model.*;
+
+/**
+ * Content-addressed storage, keeping each distinct chunk of the file
+ * content once, and the files as the lists of chunk hashes.
+ * @author zinal
+ */
+public class CasFactory implements WebRootFactory {
+
+    @Override
+    public WebRoot create(WebdavContext context) {
+        if (!(context instanceof CasContext))
+            throw new IllegalArgumentException("Context should be instance of CasContext");
+        return new CasWebRoot((CasContext) context);
+    }
+
+}
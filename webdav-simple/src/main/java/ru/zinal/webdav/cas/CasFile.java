@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import ru.zinal.webdav.fs.FsAttributes;
+import ru.zinal.webdav.model.*;
+
+/**
+ * File stored as the manifest, referencing the content chunks.
+ * @author zinal
+ */
+public class CasFile extends WebFile {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(CasFile.class);
+
+    private final Path file;
+    private final String path;
+    private final CasStore store;
+    private ResourceAttributes attrs;
+
+    CasFile(Path file, String path, CasStore store) {
+        this.file = file;
+        this.path = path;
+        this.store = store;
+    }
+
+    @Override
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        if (attrs==null) {
+            final ResourceAttributes ra = FsAttributes.read(file);
+            long length = 0L;
+            if (ra!=null) {
+                try {
+                    length = CasManifest.readLength(file);
+                } catch(IOException ex) {
+                    LOG.warn("Cannot read manifest {}", file, ex);
+                }
+                attrs = new ResourceAttributes(false, length,
+                        ra.getCreation(), ra.getLastModified());
+            } else {
+                attrs = new ResourceAttributes(false, 0L, 1L, 0L);
+            }
+        }
+        return attrs;
+    }
+
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return getAttributes().getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return getAttributes().getContentLength();
+    }
+
+    @Override
+    public InputStream getData() {
+        return getData(0L, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream getData(long start, long finish) {
+        try {
+            return new CasInput(store, CasManifest.load(file), start, finish);
+        } catch(IOException ex) {
+            LOG.warn("Cannot open file {}", file, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        try {
+            final CasManifest m = (data==null) ?
+                    new CasManifest(new byte[0][], new int[0], 0) :
+                    store.write(data);
+            m.save(file, store.getTmp());
+            attrs = null;
+            return true;
+        } catch(IOException ex) {
+            LOG.warn("Cannot replace data of file {}", file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Re-chunks the whole file, with the new data spliced in.
+     * Unchanged regions produce the same chunks, which are not stored again.
+     */
+    @Override
+    public boolean replaceData(InputStream data, long start) {
+        final CasManifest old;
+        try {
+            old = CasManifest.load(file);
+        } catch(NoSuchFileException ex) {
+            return replaceData(new SequenceInputStream(
+                    new ZeroInput(start), new CountingInput(data)));
+        } catch(IOException ex) {
+            LOG.warn("Cannot update data of file {}", file, ex);
+            return false;
+        }
+        final CountingInput counted = new CountingInput(data);
+        final InputStream prefix = (start <= old.getLength()) ?
+                new CasInput(store, old, 0L, start) :
+                new SequenceInputStream(new CasInput(store, old, 0L, start),
+                        new ZeroInput(start - old.getLength()));
+        // The suffix position is only known when the new data is consumed
+        final InputStream suffix = new InputStream() {
+            private InputStream tail = null;
+            private InputStream tail() {
+                if (tail==null)
+                    tail = new CasInput(store, old,
+                            start + counted.count, Long.MAX_VALUE);
+                return tail;
+            }
+            @Override
+            public int read() throws IOException {
+                return tail().read();
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return tail().read(b, off, len);
+            }
+            @Override
+            public void close() throws IOException {
+                if (tail!=null)
+                    tail.close();
+            }
+        };
+        try (InputStream combined = new SequenceInputStream(
+                Collections.enumeration(Arrays.asList(prefix, counted, suffix)))) {
+            return replaceData(combined);
+        } catch(IOException ex) {
+            LOG.warn("Cannot update data of file {}", file, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            Files.delete(file);
+            return true;
+        } catch(IOException ex) {
+            LOG.debug("Cannot delete {}", file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Stream of the specified number of zero bytes.
+     */
+    private static final class ZeroInput extends InputStream {
+        private long remaining;
+
+        ZeroInput(long remaining) {
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0L)
+                return -1;
+            --remaining;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0L)
+                return -1;
+            if (len > remaining)
+                len = (int) remaining;
+            Arrays.fill(b, off, off + len, (byte) 0);
+            remaining -= len;
+            return len;
+        }
+    }
+
+    /**
+     * Stream counting the bytes read from the wrapped stream,
+     * and leaving it open.
+     */
+    private static final class CountingInput extends InputStream {
+        private final InputStream in;
+        private long count = 0L;
+
+        CountingInput(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int v = in.read();
+            if (v >= 0)
+                ++count;
+            return v;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int bytes = in.read(b, off, len);
+            if (bytes > 0)
+                count += bytes;
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            // The wrapped stream is owned by the caller
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input stream over the range of the chunked content.
+ * Only the chunks overlapping the range are opened.
+ * @author zinal
+ */
+final class CasInput extends InputStream {
+
+    private final CasStore store;
+    private final CasManifest manifest;
+    private final long finish;
+    private long position;
+    private int chunkIndex = -1;
+    private FileChannel channel = null;
+
+    /**
+     * @param store Chunk store
+     * @param manifest Content manifest
+     * @param start Range start position
+     * @param finish Range finish position, exclusive
+     */
+    CasInput(CasStore store, CasManifest manifest, long start, long finish) {
+        this.store = store;
+        this.manifest = manifest;
+        this.position = start;
+        this.finish = Math.min(finish, manifest.getLength());
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        if (read(b, 0, 1) != 1)
+            return -1;
+        return 0xFF & ((int) b[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position >= finish)
+            return -1;
+        final int index = manifest.findChunk(position);
+        if (index != chunkIndex) {
+            close();
+            channel = FileChannel.open(store.chunkPath(manifest.getHash(index)),
+                    StandardOpenOption.READ);
+            chunkIndex = index;
+        }
+        final long chunkPos = position - manifest.getOffset(index);
+        final long available = Math.min(finish - position,
+                manifest.getChunkLength(index) - chunkPos);
+        if (len > available)
+            len = (int) available;
+        final int bytes = channel.read(ByteBuffer.wrap(b, off, len), chunkPos);
+        if (bytes < 0)
+            throw new IOException("Truncated chunk "
+                    + CasStore.toHex(manifest.getHash(index)));
+        position += bytes;
+        return bytes;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0L)
+            return 0L;
+        if (n > finish - position)
+            n = Math.max(0L, finish - position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        if (channel == null || position >= finish)
+            return 0;
+        final long chunkEnd = manifest.getOffset(chunkIndex)
+                + manifest.getChunkLength(chunkIndex);
+        return (int) Math.max(0L, Math.min(chunkEnd, finish) - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            chunkIndex = -1;
+        }
+    }
+
+}
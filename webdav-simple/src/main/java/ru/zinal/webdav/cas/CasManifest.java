@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * List of the chunks making the file content.
+ * Stored as the binary file: the header with the magic number,
+ * chunk count and content length, followed by the chunk hashes
+ * and lengths.
+ * @author zinal
+ */
+final class CasManifest {
+
+    static final int MAGIC = 0x43415331; // CAS1
+    static final int HASH_SIZE = 32;
+    static final int HEADER_SIZE = 16;
+
+    private final byte[][] hashes;
+    private final long[] offsets;
+
+    /**
+     * @param hashes Chunk hashes
+     * @param lengths Chunk lengths
+     * @param count Number of chunks
+     */
+    CasManifest(byte[][] hashes, int[] lengths, int count) {
+        this.hashes = Arrays.copyOf(hashes, count);
+        this.offsets = new long[count + 1];
+        for (int i=0; i<count; ++i)
+            offsets[i+1] = offsets[i] + lengths[i];
+    }
+
+    int getCount() {
+        return hashes.length;
+    }
+
+    long getLength() {
+        return offsets[hashes.length];
+    }
+
+    byte[] getHash(int index) {
+        return hashes[index];
+    }
+
+    long getOffset(int index) {
+        return offsets[index];
+    }
+
+    int getChunkLength(int index) {
+        return (int) (offsets[index+1] - offsets[index]);
+    }
+
+    /**
+     * Find the chunk containing the specified position
+     * @param pos Position in the content
+     * @return Chunk index
+     */
+    int findChunk(long pos) {
+        int index = Arrays.binarySearch(offsets, 0, hashes.length, pos);
+        if (index < 0)
+            index = -index - 2;
+        return index;
+    }
+
+    /**
+     * Write the manifest to the temporary file, and replace the target
+     * @param target Manifest file
+     * @param tmpDir Directory for the temporary files
+     * @throws IOException on write errors
+     */
+    void save(Path target, Path tmpDir) throws IOException {
+        final Path tmp = Files.createTempFile(tmpDir, "manifest", ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream dos = new DataOutputStream(
+                            new BufferedOutputStream(os))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(hashes.length);
+                dos.writeLong(getLength());
+                for (int i=0; i<hashes.length; ++i) {
+                    dos.write(hashes[i]);
+                    dos.writeInt(getChunkLength(i));
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Read the manifest
+     * @param p Manifest file
+     * @return Manifest
+     * @throws IOException on read errors or illegal format
+     */
+    static CasManifest load(Path p) throws IOException {
+        try (InputStream is = Files.newInputStream(p);
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(is))) {
+            if (dis.readInt() != MAGIC)
+                throw new IOException("Not a manifest file: " + p);
+            final int count = dis.readInt();
+            dis.readLong();
+            final byte[][] hashes = new byte[count][];
+            final int[] lengths = new int[count];
+            for (int i=0; i<count; ++i) {
+                hashes[i] = new byte[HASH_SIZE];
+                dis.readFully(hashes[i]);
+                lengths[i] = dis.readInt();
+            }
+            return new CasManifest(hashes, lengths, count);
+        }
+    }
+
+    /**
+     * Read the content length from the manifest header
+     * @param p Manifest file
+     * @return Content length
+     * @throws IOException on read errors or illegal format
+     */
+    static long readLength(Path p) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (fc.read(header) < 0)
+                    throw new IOException("Truncated manifest file: " + p);
+            }
+        }
+        if (header.getInt(0) != MAGIC)
+            throw new IOException("Not a manifest file: " + p);
+        return header.getLong(8);
+    }
+
+}
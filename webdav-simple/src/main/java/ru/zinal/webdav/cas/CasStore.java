@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Chunk store, keeping each chunk once in the file named by its
+ * SHA-256 hash.
+ * @author zinal
+ */
+final class CasStore {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(CasStore.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path chunks;
+    private final Path tmp;
+    private final int minChunkSize;
+    private final int avgChunkSize;
+    private final int maxChunkSize;
+    // Shared by the chunk writers, exclusive for the chunk removal
+    private final ReadWriteLock gcLock = new ReentrantReadWriteLock();
+
+    CasStore(Path chunks, Path tmp, CasContext context) {
+        this.chunks = chunks;
+        this.tmp = tmp;
+        this.minChunkSize = context.getMinChunkSize();
+        this.avgChunkSize = context.getAvgChunkSize();
+        this.maxChunkSize = context.getMaxChunkSize();
+    }
+
+    Path getTmp() {
+        return tmp;
+    }
+
+    static String toHex(byte[] hash) {
+        final char[] retval = new char[2 * hash.length];
+        for (int i=0; i<hash.length; ++i) {
+            retval[2*i] = HEX[(hash[i] >> 4) & 0x0F];
+            retval[2*i + 1] = HEX[hash[i] & 0x0F];
+        }
+        return new String(retval);
+    }
+
+    Path chunkPath(byte[] hash) {
+        final String hex = toHex(hash);
+        return chunks.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    /**
+     * Split the data to chunks, storing the new ones
+     * @param data Input data
+     * @return Manifest of the data
+     * @throws IOException on read or write errors
+     */
+    CasManifest write(InputStream data) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        final CasChunker chunker = new CasChunker(data,
+                minChunkSize, avgChunkSize, maxChunkSize);
+        byte[][] hashes = new byte[16][];
+        int[] lengths = new int[16];
+        int count = 0;
+        int len;
+        while ((len = chunker.next()) > 0) {
+            md.update(chunker.buffer(), 0, len);
+            final byte[] hash = md.digest();
+            putChunk(hash, chunker.buffer(), len);
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+            }
+            hashes[count] = hash;
+            lengths[count] = len;
+            ++count;
+        }
+        return new CasManifest(hashes, lengths, count);
+    }
+
+    private void putChunk(byte[] hash, byte[] data, int len) throws IOException {
+        gcLock.readLock().lock();
+        try {
+            putChunkLocked(chunkPath(hash), data, len);
+        } finally {
+            gcLock.readLock().unlock();
+        }
+    }
+
+    private void putChunkLocked(Path target, byte[] data, int len)
+            throws IOException {
+        try {
+            // Deduplicated, and protected from GC until the manifest is saved
+            Files.setLastModifiedTime(target,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            return;
+        } catch(NoSuchFileException ex) {
+            // New chunk
+        }
+        Files.createDirectories(target.getParent());
+        final Path temp = Files.createTempFile(tmp, "chunk", ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                os.write(data, 0, len);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch(FileAlreadyExistsException ex) {
+            // Stored concurrently by another writer
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Remove the chunks not referenced by any manifest.
+     * Chunks younger than the grace period are kept, as they may belong
+     * to the uploads still in progress.
+     * @param tree Root of the manifest tree
+     * @param gracePeriod Grace period, milliseconds
+     * @return Number of the chunks removed
+     * @throws IOException on read errors
+     */
+    int collectGarbage(Path tree, long gracePeriod) throws IOException {
+        final long threshold = System.currentTimeMillis() - gracePeriod;
+        final Set<String> used = new HashSet<>();
+        Files.walkFileTree(tree, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                final CasManifest m = CasManifest.load(file);
+                for (int i=0; i<m.getCount(); ++i)
+                    used.add(toHex(m.getHash(i)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        int removed = 0;
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunks)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : ds) {
+                        if (used.contains(chunk.getFileName().toString()))
+                            continue;
+                        if (removeChunk(chunk, threshold))
+                            ++removed;
+                    }
+                }
+            }
+        }
+        LOG.info("Removed {} unused chunks, {} in use", removed, used.size());
+        return removed;
+    }
+
+    /**
+     * Remove the chunk unless it has been written or reused recently.
+     * The check and the removal are not interleaved with the writers.
+     */
+    private boolean removeChunk(Path chunk, long threshold) throws IOException {
+        gcLock.writeLock().lock();
+        try {
+            if (Files.getLastModifiedTime(chunk).toMillis() > threshold)
+                return false;
+            return Files.deleteIfExists(chunk);
+        } catch(NoSuchFileException ex) {
+            return false;
+        } finally {
+            gcLock.writeLock().unlock();
+        }
+    }
+
+}
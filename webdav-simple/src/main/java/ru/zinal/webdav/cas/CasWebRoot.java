@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import ru.zinal.webdav.fs.FsWebRoot;
+
+/**
+ * Web root over the content-addressed storage.
+ * The namespace is a directory tree of the manifest files, so COPY
+ * and MOVE only copy or rename the manifests, without any data I/O.
+ * @author zinal
+ */
+public class CasWebRoot extends FsWebRoot {
+
+    private final CasStore store;
+    private final Path tree;
+
+    public CasWebRoot(CasContext context) {
+        this(context, Paths.get(context.getDataPath()));
+    }
+
+    private CasWebRoot(CasContext context, Path data) {
+        this(context, createDirectory(data.resolve("tree")),
+                new CasStore(createDirectory(data.resolve("chunks")),
+                        createDirectory(data.resolve("tmp")), context));
+    }
+
+    private CasWebRoot(CasContext context, Path tree, CasStore store) {
+        super(context, new CasDirectory(tree, "/", store), tree);
+        this.store = store;
+        this.tree = tree;
+    }
+
+    private static Path createDirectory(Path p) {
+        try {
+            return Files.createDirectories(p);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Remove the chunks which are no longer referenced by any file
+     * @param gracePeriod Chunks younger than the specified number
+     *    of milliseconds are kept
+     * @return Number of the chunks removed
+     * @throws IOException on read errors
+     */
+    public int collectGarbage(long gracePeriod) throws IOException {
+        return store.collectGarbage(tree, gracePeriod);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import ru.zinal.webdav.model.ResourceAttributes;
+
+/**
+ * Conversion of filesystem attributes to resource attribute snapshots.
+ * @author zinal
+ */
+public final class FsAttributes {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsAttributes.class);
+
+    private FsAttributes() {}
+
+    /**
+     * Read all the attributes of the file in a single call
+     * @param p Path to the file
+     * @return Attributes snapshot, or null if the file does not exist
+     */
+    public static ResourceAttributes read(Path p) {
+        try {
+            return convert(p, Files.readAttributes(p, BasicFileAttributes.class));
+        } catch(NoSuchFileException ex) {
+            return null;
+        } catch(IOException ex) {
+            LOG.warn("Cannot read attributes of {}", p, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Read all the attributes of the resource expected to exist
+     * @param p Path to the file or directory
+     * @return Attributes snapshot
+     * @throws UncheckedIOException if the attributes cannot be read,
+     *    including the case when the resource has vanished
+     */
+    public static ResourceAttributes readExisting(Path p) {
+        try {
+            return convert(p, Files.readAttributes(p, BasicFileAttributes.class));
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Convert the attributes of the file. The ETag is looked up
+     * only when requested, as it may need reading the index file.
+     * @param p Path to the file
+     * @param bfa Attributes of the file
+     * @return Attributes snapshot
+     */
+    public static ResourceAttributes convert(Path p, BasicFileAttributes bfa) {
+        if (bfa.isDirectory())
+            return convert(bfa);
+        return new ResourceAttributes(false, bfa.size(),
+                bfa.creationTime().toMillis(),
+                bfa.lastModifiedTime().toMillis(), () -> FsETag.get(p, bfa));
+    }
+
+    public static ResourceAttributes convert(BasicFileAttributes bfa) {
+        return new ResourceAttributes(bfa.isDirectory(), bfa.size(),
+                bfa.creationTime().toMillis(),
+                bfa.lastModifiedTime().toMillis());
+    }
+
+}
@@ -15,6 +15,11 @@
  */
 package ru.zinal.webdav.fs;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import ru.zinal.webdav.model.WebdavContext;
 
 /**
@@ -24,6 +29,13 @@ import ru.zinal.webdav.model.WebdavContext;
 public class FsContext extends WebdavContext {
     
     private String dataPath;
+    private String dataPaths;
+    private List<String> dataPathList = Collections.emptyList();
+    private boolean followLinks = true;
+    private boolean watch = false;
+    private String durability = "none";
+    private long groupCommitDelay = 5L;
+    private FsDurability.Mode durabilityMode = FsDurability.Mode.NONE;
 
     public String getDataPath() {
         return dataPath;
@@ -33,12 +45,106 @@ public class FsContext extends WebdavContext {
         this.dataPath = dataPath;
     }
 
+    /**
+     * @return Data directories on the different disks, separated
+     *    with the path separator or comma, or null for the single dataPath
+     */
+    public String getDataPaths() {
+        return dataPaths;
+    }
+
+    public void setDataPaths(String dataPaths) {
+        this.dataPaths = dataPaths;
+    }
+
+    /**
+     * @return true to serve the targets of the symbolic links, false to
+     *    hide the symbolic links in the listings and lookups
+     */
+    public boolean isFollowLinks() {
+        return followLinks;
+    }
+
+    public void setFollowLinks(boolean followLinks) {
+        this.followLinks = followLinks;
+    }
+
+    /**
+     * @return true to watch the data directories for the changes made
+     *    by the other processes, and notify the caches
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * @return Durability of the uploads: none, strict or group
+     */
+    public String getDurability() {
+        return durability;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * @return Time to collect the flushes of the concurrent uploads
+     *    in the group durability mode, milliseconds
+     */
+    public long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    public void setGroupCommitDelay(long groupCommitDelay) {
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+    /**
+     * @return Parsed durability mode, available after expand()
+     */
+    public FsDurability.Mode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    /**
+     * @return Expanded list of the data directories, available after expand()
+     */
+    public List<String> getDataPathList() {
+        return dataPathList;
+    }
+
     @Override
     public void expand() {
         super.expand();
-        if (dataPath==null)
-            dataPath = "./data/";
-        dataPath = expandDirectory(dataPath);
+        final List<String> paths = new ArrayList<>();
+        if (dataPaths!=null) {
+            for (String item : dataPaths.split("[,"
+                    + File.pathSeparatorChar + "]")) {
+                item = item.trim();
+                if (item.length() > 0)
+                    paths.add(expandDirectory(item));
+            }
+        }
+        if (paths.isEmpty()) {
+            if (dataPath==null)
+                dataPath = "./data/";
+            paths.add(expandDirectory(dataPath));
+        }
+        dataPath = paths.get(0);
+        try {
+            durabilityMode = FsDurability.Mode.valueOf(
+                    (durability==null ? "none" : durability)
+                            .trim().toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Illegal durability mode: "
+                    + durability);
+        }
+        dataPathList = Collections.unmodifiableList(paths);
     }
 
 }
@@ -15,13 +15,22 @@
  */
 package ru.zinal.webdav.fs;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
 import ru.zinal.webdav.model.*;
 
@@ -34,40 +43,81 @@ public class FsDirectory extends WebDirectory {
     private static final org.slf4j.Logger LOG
             = org.slf4j.LoggerFactory.getLogger(FsDirectory.class);
     
-    private final File file;
-    private long createdAt = 0L;
+    private static final LinkOption[] FOLLOW = new LinkOption[0];
+    private static final LinkOption[] NOFOLLOW =
+            new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+
+    private final Path dir;
+    private final String path;
+    private final FsPolicy policy;
+    // Shared by the request threads, reset after the changes
+    private volatile ResourceAttributes attrs;
     
-    public FsDirectory(File file) {
-        this.file = file;
+    public FsDirectory(Path dir) {
+        this(dir, "/", null, FsPolicy.DEFAULT);
     }
     
     public FsDirectory(String pathname) {
-        this.file = new File(pathname);
+        this(Paths.get(pathname));
     }
     
+    /**
+     * @param dir Filesystem path of the directory
+     * @param path Web path of the directory, with the trailing slash
+     * @param attrs Directory attributes, or null to read them when needed
+     * @param policy Settings of the web root
+     */
+    public FsDirectory(Path dir, String path, ResourceAttributes attrs,
+            FsPolicy policy) {
+        this.dir = dir;
+        this.path = path;
+        this.attrs = attrs;
+        this.policy = policy;
+    }
+
+    static LinkOption[] linkOptions(FsPolicy policy) {
+        return policy.isFollowLinks() ? FOLLOW : NOFOLLOW;
+    }
+
+    public Path getLocation() {
+        return dir;
+    }
+
     @Override
-    public long getCreation() {
-        if (createdAt==0L) {
-            try {
-                BasicFileAttributes bfa = Files.readAttributes(file.toPath(), 
-                        BasicFileAttributes.class);
-                createdAt = bfa.creationTime().toMillis();
-            } catch(IOException ex) {
-                LOG.warn("Cannot get creation time for directory {}", file, ex);
-                createdAt = 1L;
-            }
+    public String getName() {
+        if ("/".equals(path))
+            return path;
+        return dir.getFileName().toString();
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        ResourceAttributes a = attrs;
+        if (a==null) {
+            a = FsAttributes.readExisting(dir);
+            attrs = a;
         }
-        return createdAt;
+        return a;
+    }
+    
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
     }
     
     @Override
     public long getLastModified() {
-        return file.lastModified();
+        return getAttributes().getLastModified();
     }
 
     @Override
     public long getContentLength() {
-        return file.length();
+        return getAttributes().getContentLength();
     }
 
     @Override
@@ -75,75 +125,251 @@ public class FsDirectory extends WebDirectory {
         if (name==null || name.length()==0)
             return this;
         name = secureName(name);
-        final File f = new File(file, name);
-        if (!f.exists())
+        if (FsETag.isHidden(name))
             return null;
-        if (f.isDirectory())
-            return new FsDirectory(f);
-        return new FsFile(f);
+        return makeResource(dir.resolve(name), path + name);
     }
 
     @Override
     public WebResource lookupDeep(String[] names) {
         if (names==null || names.length==0)
             return this;
-        File f = file;
+        Path p = dir;
+        final StringBuilder sb = new StringBuilder(path);
         for (String name : names) {
-            f = new File(f, secureName(name));
+            name = secureName(name);
+            if (FsETag.isHidden(name))
+                return null;
+            p = p.resolve(name);
+            sb.append(name).append('/');
+        }
+        return makeResource(p, sb.substring(0, sb.length()-1));
+    }
+
+    /**
+     * Build the resource, reading its attributes in a single call
+     * @param p Filesystem path of the resource
+     * @param wp Web path of the resource, without the trailing slash
+     * @return Resource, or null if the file does not exist
+     */
+    private WebResource makeResource(Path p, String wp) {
+        final BasicFileAttributes bfa;
+        try {
+            bfa = Files.readAttributes(p, BasicFileAttributes.class,
+                    linkOptions(policy));
+        } catch(NoSuchFileException ex) {
+            return null;
+        } catch(IOException ex) {
+            LOG.warn("Cannot read attributes of {}", p, ex);
+            return null;
         }
-        if (!f.exists())
+        if (bfa.isSymbolicLink() || bfa.isOther())
             return null;
-        if (f.isDirectory())
-            return new FsDirectory(f);
-        return new FsFile(f);
+        final ResourceAttributes ra = FsAttributes.convert(p, bfa);
+        if (ra.isDirectory())
+            return new FsDirectory(p, wp + "/", ra, policy);
+        return new FsFile(p, wp, ra, policy);
     }
 
     @Override
     public WebResource createDirectory(String name) {
-        final File f = new File(file, secureName(name));
-        if ( f.mkdir() )
-            return new FsDirectory(f);
-        return null;
+        name = secureName(name);
+        if (FsETag.isHidden(name))
+            return null;
+        final Path p = dir.resolve(name);
+        try (FsEntryLocks.Hold h = policy.lockChange(p)) {
+            Files.createDirectory(p);
+            policy.getDurability().forceDirectory(dir);
+        } catch(FileAlreadyExistsException | NoSuchFileException ex) {
+            // Either exists already, or the directory itself is gone
+            return null;
+        } catch(IOException ex) {
+            throw new WebStorageException("Cannot create directory "
+                    + p, ex);
+        }
+        return new FsDirectory(p, path + name + "/", null, policy);
     }
     
     @Override
     public WebResource createFile(String name, InputStream data) {
-        final File f = new File(file, secureName(name));
-        if (f.exists())
+        return createFile(name, data, -1L);
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data,
+            long expectedLength) {
+        name = secureName(name);
+        if (FsETag.isHidden(name))
             return null;
-        if (data!=null) {
-            try {
-                try (FileOutputStream fos = new FileOutputStream(f)) {
-                    final byte datum[] = new byte[32768];
-                    while (true) {
-                        int bytes = data.read(datum);
-                        if (bytes<=0) break;
-                        fos.write(datum, 0, bytes);
-                    }
-                }
-            } catch(Exception ex) {
-                LOG.warn("Error writing to file {}", f, ex);
-                f.delete();
+        final Path p = dir.resolve(name);
+        try (FsEntryLocks.Hold h = policy.lockChange(p);
+                FsSpace.Reservation r =
+                        policy.getSpace().reserve(dir, expectedLength)) {
+            // Fail before receiving the data
+            if (Files.exists(p, LinkOption.NOFOLLOW_LINKS))
                 return null;
+            // The clients never see the partially written file
+            final Path temp = createTemp(p);
+            try {
+                final byte[] digest = writeTemp(temp, r.track(data), policy);
+                publishNew(temp, p);
+                policy.getDurability().forceDirectory(dir);
+                FsETag.store(p, digest);
+            } finally {
+                Files.deleteIfExists(temp);
             }
+        } catch(FileAlreadyExistsException | NoSuchFileException ex) {
+            // Either exists already, or the directory itself is gone
+            return null;
+        } catch(IOException ex) {
+            throw new WebStorageException("Error writing to file " + p, ex);
         }
-        return new FsFile(f);
+        return new FsFile(p, path + name, null, policy);
+    }
+
+    /**
+     * Create the temporary file next to the target one, hidden from
+     * the clients, with the unique name so that the concurrent uploads
+     * do not collide
+     * @param p Path to the target file
+     * @return Path to the temporary file
+     * @throws IOException on file creation errors
+     */
+    static Path createTemp(Path p) throws IOException {
+        return Files.createTempFile(p.getParent(), FsETag.TEMP_PREFIX, null);
+    }
+
+    /**
+     * Fill the temporary file just created, removing it on failure.
+     * The lack of space is reported as {@link InsufficientStorageException}.
+     * @param p Path to the temporary file
+     * @param data File content, or null for the empty file
+     * @param policy Settings of the web root
+     * @return Content hash
+     * @throws IOException on write errors
+     */
+    static byte[] writeTemp(Path p, InputStream data, FsPolicy policy)
+            throws IOException {
+        return write(p, data, policy, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Put the fully written file into place, unless the target exists.
+     * The hard link is both atomic and exclusive, while the rename used
+     * where the links are not supported checks the target separately.
+     * @param temp Path to the temporary file, left in place
+     * @param p Path to the target file
+     * @throws FileAlreadyExistsException if the target file exists
+     * @throws IOException on filesystem errors
+     */
+    private static void publishNew(Path temp, Path p) throws IOException {
+        try {
+            Files.createLink(p, temp);
+        } catch(FileAlreadyExistsException | NoSuchFileException ex) {
+            throw ex;
+        } catch(UnsupportedOperationException | FileSystemException ex) {
+            LOG.debug("Cannot link {}, renaming instead", p, ex);
+            Files.move(temp, p);
+        }
+    }
+
+    private static byte[] write(Path p, InputStream data, FsPolicy policy,
+            StandardOpenOption mode) throws IOException {
+        final MessageDigest md = FsETag.newDigest();
+        try (FileChannel channel = FileChannel.open(p,
+                mode, StandardOpenOption.WRITE)) {
+            try {
+                FsFile.transfer(data, channel, md);
+                policy.getDurability().force(channel);
+            } catch(IOException ex) {
+                Files.deleteIfExists(p);
+                FsSpace.checkNoSpace(p, ex);
+                throw ex;
+            } catch(RuntimeException ex) {
+                Files.deleteIfExists(p);
+                throw ex;
+            }
+        }
+        return md.digest();
     }
 
     @Override
     public boolean delete(String name) {
-        final File f = new File(file, secureName(name));
-        return f.delete();
+        name = secureName(name);
+        if (FsETag.isHidden(name))
+            return false;
+        return deletePath(dir.resolve(name), policy);
+    }
+
+    static boolean deletePath(Path p, FsPolicy policy) {
+        try (FsEntryLocks.Hold h = policy.lockChange(p)) {
+            Files.delete(p);
+            FsETag.clear(p);
+        } catch(NoSuchFileException ex) {
+            return false;
+        } catch(DirectoryNotEmptyException ex) {
+            LOG.debug("Cannot delete non-empty directory {}", p);
+            return false;
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete {}", p, ex);
+            return false;
+        }
+        return true;
     }
 
     @Override
     public List<String> list() {
-        return Arrays.asList(file.list());
+        final List<String> retval = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                final String name = p.getFileName().toString();
+                if (!FsETag.isHidden(name))
+                    retval.add(name);
+            }
+        } catch(IOException ex) {
+            LOG.warn("Cannot list directory {}", dir, ex);
+        }
+        return retval;
+    }
+
+    /**
+     * List the directory entries in a single directory scan,
+     * reading the attributes of each entry exactly once.
+     * @return List of resources
+     */
+    @Override
+    public List<WebResource> listResources() {
+        final List<WebResource> retval = new ArrayList<>();
+        try (WebListing listing = openListing()) {
+            for (WebResource r : listing)
+                retval.add(r);
+        }
+        return retval;
+    }
+
+    @Override
+    public WebListing openListing() {
+        try {
+            return new FsListing(Files.newDirectoryStream(dir), path, policy);
+        } catch(IOException ex) {
+            LOG.warn("Cannot list directory {}", dir, ex);
+            return WebListing.of(null);
+        }
     }
 
     @Override
     public boolean delete() {
-        return file.delete();
+        // The ETag index is not visible to the clients, and should not
+        // prevent the deletion of the otherwise empty directory
+        final Path index = dir.resolve(FsETag.INDEX_FILE);
+        if (Files.exists(index) && list().isEmpty()) {
+            try {
+                Files.deleteIfExists(index);
+            } catch(IOException ex) {
+                LOG.warn("Cannot delete {}", index, ex);
+            }
+        }
+        return deletePath(dir, policy);
     }
     
     public static String secureName(String name) {
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durability policy for the data written: no flushes at all,
+ * flush of each file and its directory before the write completes,
+ * or the same flushes collected from the concurrent writers and
+ * performed in batches.
+ * <p>
+ * In the group mode each writer still waits for its data to be flushed,
+ * but the flushes issued close in time are performed in parallel,
+ * so that the filesystem journal commits them together, and each
+ * directory is flushed once per batch.
+ * @author zinal
+ */
+public class FsDurability implements AutoCloseable {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsDurability.class);
+
+    public static enum Mode {
+        /** No flushes, the data may be lost on crash */
+        NONE,
+        /** Flush the file and its directory on each write */
+        STRICT,
+        /** Flush in batches, once per few milliseconds */
+        GROUP
+    }
+
+    public static final FsDurability NONE = new FsDurability(Mode.NONE, 0L);
+    public static final FsDurability STRICT = new FsDurability(Mode.STRICT, 0L);
+
+    // Parallel flushes per batch
+    private static final int FLUSH_THREADS = 8;
+    // Marks the end of the requests, queued on close
+    private static final Request STOP = new Request(null, null);
+    // Group committers shared by the web roots, one per delay value
+    private static final ConcurrentMap<Long, FsDurability> GROUPS =
+            new ConcurrentHashMap<>();
+
+    private final Mode mode;
+    private final long groupDelay;
+    private final LinkedBlockingQueue<Request> queue;
+    private final ExecutorService flushers;
+    private final Thread committer;
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param mode Durability mode
+     * @param groupDelay Time to collect the batch in the group mode,
+     *    milliseconds
+     */
+    public FsDurability(Mode mode, long groupDelay) {
+        this.mode = mode;
+        this.groupDelay = groupDelay;
+        if (mode == Mode.GROUP) {
+            this.queue = new LinkedBlockingQueue<>();
+            this.flushers = Executors.newFixedThreadPool(FLUSH_THREADS, r -> {
+                final Thread t = new Thread(r, "fs-group-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            this.committer = new Thread(this::run, "fs-group-commit");
+            this.committer.setDaemon(true);
+            this.committer.start();
+        } else {
+            this.queue = null;
+            this.flushers = null;
+            this.committer = null;
+        }
+    }
+
+    /**
+     * Obtain the shared durability policy, so that all the web roots
+     * with the same settings use the same group committer.
+     * The shared instances are never closed.
+     * @param mode Durability mode
+     * @param groupDelay Time to collect the batch in the group mode,
+     *    milliseconds
+     * @return Durability policy
+     */
+    public static FsDurability of(Mode mode, long groupDelay) {
+        switch (mode) {
+            case STRICT:
+                return STRICT;
+            case GROUP:
+                return GROUPS.computeIfAbsent(groupDelay,
+                        d -> new FsDurability(Mode.GROUP, d));
+            default:
+                return NONE;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getGroupDelay() {
+        return groupDelay;
+    }
+
+    /**
+     * @return Number of the files and directories flushed
+     */
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    /**
+     * @return Number of the batches committed in the group mode
+     */
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    /**
+     * Make the data written to the file durable.
+     * Must be called before closing the channel.
+     * @param channel File channel
+     * @throws IOException on flush errors
+     */
+    public void force(FileChannel channel) throws IOException {
+        switch (mode) {
+            case STRICT:
+                channel.force(true);
+                flushCount.increment();
+                break;
+            case GROUP:
+                submit(new Request(channel, null));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Make the entries created, renamed or deleted in the directory durable
+     * @param dir Directory path
+     * @throws IOException on flush errors
+     */
+    public void forceDirectory(Path dir) throws IOException {
+        switch (mode) {
+            case STRICT:
+                syncDirectory(dir);
+                flushCount.increment();
+                break;
+            case GROUP:
+                submit(new Request(null, dir));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        final FileChannel fc;
+        try {
+            fc = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch(IOException ex) {
+            // Some platforms do not allow to open the directories
+            LOG.debug("Cannot open directory {} for flush", dir, ex);
+            return;
+        }
+        try (FileChannel x = fc) {
+            x.force(true);
+        }
+    }
+
+    private void submit(Request r) throws IOException {
+        if (closed)
+            throw new IOException("Durability policy is closed");
+        queue.add(r);
+        // Closed meanwhile, and the committer might have already exited
+        if (closed && queue.remove(r))
+            throw new IOException("Durability policy is closed");
+        try {
+            r.done.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flush", ex);
+        } catch(ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException("Flush failed", ex.getCause());
+        }
+    }
+
+    private void run() {
+        final List<Request> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                if (groupDelay > 0L)
+                    TimeUnit.MILLISECONDS.sleep(groupDelay);
+            } catch(InterruptedException ex) {
+                break;
+            }
+            queue.drainTo(batch);
+            running = !batch.remove(STOP);
+            commit(batch);
+            batch.clear();
+        }
+        flushers.shutdown();
+        // Release the writers still waiting, if interrupted
+        queue.drainTo(batch);
+        for (Request r : batch)
+            r.done.completeExceptionally(new IOException("Shutdown"));
+    }
+
+    private void commit(List<Request> batch) {
+        if (batch.isEmpty())
+            return;
+        // The files and the distinct directories are all flushed
+        // at once, the writer submits the directory after its file
+        final List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        final Set<Path> dirs = new LinkedHashSet<>();
+        for (Request r : batch) {
+            if (r.channel!=null)
+                flushes.add(CompletableFuture.runAsync(
+                        () -> flushFile(r), flushers));
+            else
+                dirs.add(r.dir);
+        }
+        for (Path dir : dirs)
+            flushes.add(CompletableFuture.runAsync(
+                    () -> flushDirectory(dir, batch), flushers));
+        CompletableFuture.allOf(flushes.toArray(
+                new CompletableFuture<?>[flushes.size()])).join();
+        batchCount.increment();
+    }
+
+    private void flushFile(Request r) {
+        try {
+            r.channel.force(true);
+            flushCount.increment();
+            r.done.complete(null);
+        } catch(IOException | RuntimeException ex) {
+            r.done.completeExceptionally(ex);
+        }
+    }
+
+    private void flushDirectory(Path dir, List<Request> batch) {
+        IOException failure = null;
+        try {
+            syncDirectory(dir);
+            flushCount.increment();
+        } catch(IOException ex) {
+            failure = ex;
+        }
+        for (Request r : batch) {
+            if (r.channel==null && dir.equals(r.dir)) {
+                if (failure==null)
+                    r.done.complete(null);
+                else
+                    r.done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Stop the group committer after flushing the requests already queued.
+     * The flushes requested later fail immediately.
+     */
+    @Override
+    public void close() {
+        if (committer!=null && !closed) {
+            closed = true;
+            queue.add(STOP);
+        }
+    }
+
+    private static final class Request {
+        final FileChannel channel;
+        final Path dir;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Request(FileChannel channel, Path dir) {
+            this.channel = channel;
+            this.dir = dir;
+        }
+    }
+
+}
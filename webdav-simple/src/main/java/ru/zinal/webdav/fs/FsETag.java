@@ -0,0 +1,333 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Strong ETags of the files, computed while the data is written
+ * and kept in the "user.webdav.etag" extended attribute. When the
+ * filesystem does not support the extended attributes, the values
+ * are kept in the per-directory index file instead.
+ * <p>
+ * The stored value includes the size and modification time of the file,
+ * so the changes made behind our back turn the ETag back into the weak one
+ * built from the inode number, size and modification time.
+ * <p>
+ * The index file is a properties file, where each change is appended
+ * as a separate record, the later records overriding the earlier ones,
+ * and the empty value marking the removed entry. Once the records
+ * outnumber the live entries, the index is rewritten compacted.
+ * @author zinal
+ */
+public final class FsETag {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsETag.class);
+
+    public static final String XATTR = "webdav.etag";
+    public static final String INDEX_FILE = ".webdav-etags";
+    public static final String TEMP_PREFIX = ".webdav-tmp-";
+
+    private static final int INDEX_CACHE = 256;
+    private static final int LOCK_STRIPES = 64;
+    // Stale records allowed in the index file in addition to the live ones
+    private static final int COMPACT_SLACK = 64;
+    // Recently used directory indexes, to avoid re-reading them for each file.
+    // The monitor only guards the map, no I/O is done while holding it.
+    private static final Map<Path, Index> INDEXES =
+            new LinkedHashMap<Path, Index>(INDEX_CACHE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Index> eldest) {
+            return size() > INDEX_CACHE;
+        }
+    };
+    // Serialize the updates of the same index, while the different
+    // directories are updated independently
+    private static final Object[] UPDATE_LOCKS = new Object[LOCK_STRIPES];
+    static {
+        for (int i = 0; i < LOCK_STRIPES; ++i)
+            UPDATE_LOCKS[i] = new Object();
+    }
+
+    private FsETag() {}
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        final StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+            sb.append(Character.forDigit(b & 0x0F, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Build the ETag of the file
+     * @param p Path to the file
+     * @param bfa Attributes of the file
+     * @return Strong ETag if the hash is stored and still valid,
+     *    or the weak ETag otherwise
+     */
+    public static String get(Path p, BasicFileAttributes bfa) {
+        final String stamp = stamp(bfa);
+        String value = readAttribute(p);
+        if (value==null)
+            value = readIndex(p);
+        if (value!=null && value.startsWith(stamp))
+            return "\"" + value.substring(stamp.length()) + "\"";
+        final Object key = bfa.fileKey();
+        return "W/\"" + (key==null ? "" : Integer.toHexString(key.hashCode()) + "-")
+                + bfa.size() + "-" + bfa.lastModifiedTime().toMillis() + "\"";
+    }
+
+    /**
+     * Remember the content hash of the file just written
+     * @param p Path to the file
+     * @param digest Content hash
+     */
+    public static void store(Path p, byte[] digest) {
+        final String value;
+        try {
+            value = stamp(Files.readAttributes(p, BasicFileAttributes.class))
+                    + toHex(digest);
+        } catch(IOException ex) {
+            LOG.warn("Cannot read attributes of {}", p, ex);
+            return;
+        }
+        if (!writeAttribute(p, value))
+            updateIndex(p, value);
+    }
+
+    /**
+     * Forget the content hash, after the partial update or deletion
+     * @param p Path to the file
+     */
+    public static void clear(Path p) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(p,
+                UserDefinedFileAttributeView.class);
+        if (view!=null) {
+            try {
+                view.delete(XATTR);
+            } catch(IOException | UnsupportedOperationException ex) {
+                // Missing attribute, or no support for attributes
+            }
+        }
+        if (Files.exists(indexPath(p)))
+            updateIndex(p, null);
+    }
+
+    private static String stamp(BasicFileAttributes bfa) {
+        return bfa.size() + ":" + bfa.lastModifiedTime().toMillis() + ":";
+    }
+
+    private static String readAttribute(Path p) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(p,
+                UserDefinedFileAttributeView.class);
+        if (view==null)
+            return null;
+        try {
+            final ByteBuffer buf = ByteBuffer.allocate(128);
+            view.read(XATTR, buf);
+            buf.flip();
+            return StandardCharsets.US_ASCII.decode(buf).toString();
+        } catch(IOException | UnsupportedOperationException ex) {
+            // Missing attribute, or no support for attributes
+            return null;
+        }
+    }
+
+    private static boolean writeAttribute(Path p, String value) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(p,
+                UserDefinedFileAttributeView.class);
+        if (view==null)
+            return false;
+        try {
+            view.write(XATTR, StandardCharsets.US_ASCII.encode(value));
+            return true;
+        } catch(IOException | UnsupportedOperationException ex) {
+            LOG.debug("Cannot set extended attribute on {}", p, ex);
+            return false;
+        }
+    }
+
+    private static Path indexPath(Path p) {
+        return p.resolveSibling(INDEX_FILE);
+    }
+
+    static String readIndex(Path p) {
+        final Index index = loadIndex(indexPath(p));
+        if (index==null)
+            return null;
+        return index.props.getProperty(p.getFileName().toString());
+    }
+
+    private static Index loadIndex(Path ip) {
+        final FileTime mtime;
+        try {
+            mtime = Files.getLastModifiedTime(ip);
+        } catch(NoSuchFileException ex) {
+            return null;
+        } catch(IOException ex) {
+            LOG.warn("Cannot access ETag index {}", ip, ex);
+            return null;
+        }
+        synchronized(INDEXES) {
+            final Index index = INDEXES.get(ip);
+            if (index!=null && index.mtime.equals(mtime))
+                return index;
+        }
+        final Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(ip)) {
+            props.load(is);
+        } catch(NoSuchFileException ex) {
+            return null;
+        } catch(IOException ex) {
+            LOG.warn("Cannot read ETag index {}", ip, ex);
+            return null;
+        }
+        // Distinct names seen, the actual number of records may be larger
+        final int records = props.size();
+        props.values().removeIf(v -> v.toString().length()==0);
+        final Index index = new Index(mtime, props, records);
+        synchronized(INDEXES) {
+            INDEXES.put(ip, index);
+        }
+        return index;
+    }
+
+    /**
+     * Append the change to the index, or rewrite the index compacted
+     * when it holds too many stale records.
+     * @param p Path to the file
+     * @param value New value, or null to remove the entry
+     */
+    static void updateIndex(Path p, String value) {
+        final Path ip = indexPath(p);
+        synchronized(updateLock(ip)) {
+            final Index current = loadIndex(ip);
+            final Properties props = (current==null)
+                    ? new Properties() : current.props;
+            final String name = p.getFileName().toString();
+            if (value==null && !props.containsKey(name))
+                return;
+            int records = (current==null) ? 1 : current.records + 1;
+            // The cached entries are shared with the readers,
+            // so they are changed in place, not copied
+            if (value==null)
+                props.remove(name);
+            else
+                props.setProperty(name, value);
+            try {
+                if (records > 2 * props.size() + COMPACT_SLACK) {
+                    writeIndex(ip, props);
+                    records = props.size();
+                } else {
+                    appendIndex(ip, name, value);
+                }
+                final Index index = new Index(Files.getLastModifiedTime(ip),
+                        props, records);
+                synchronized(INDEXES) {
+                    INDEXES.put(ip, index);
+                }
+            } catch(IOException ex) {
+                LOG.warn("Cannot update ETag index {}", ip, ex);
+                synchronized(INDEXES) {
+                    INDEXES.remove(ip);
+                }
+            }
+        }
+    }
+
+    private static void appendIndex(Path ip, String name, String value)
+            throws IOException {
+        final Properties record = new Properties();
+        record.setProperty(name, (value==null) ? "" : value);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        record.store(baos, null);
+        // Skip the timestamp comment written by the store()
+        final byte[] data = baos.toByteArray();
+        int start = 0;
+        while (start < data.length && data[start]!='\n')
+            ++start;
+        try (OutputStream os = Files.newOutputStream(ip,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            os.write(data, start + 1, data.length - start - 1);
+        }
+    }
+
+    private static void writeIndex(Path ip, Properties props)
+            throws IOException {
+        final Path temp = ip.resolveSibling(INDEX_FILE + ".tmp");
+        try (OutputStream os = Files.newOutputStream(temp)) {
+            props.store(os, null);
+        }
+        Files.move(temp, ip, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Object updateLock(Path ip) {
+        return UPDATE_LOCKS[(ip.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    /**
+     * @param name File name
+     * @return true for the names of the index files and the files
+     *    being written, hidden from the clients
+     */
+    public static boolean isHidden(String name) {
+        return name.startsWith(INDEX_FILE) || name.startsWith(TEMP_PREFIX);
+    }
+
+    private static final class Index {
+        final FileTime mtime;
+        final Properties props;
+        // Number of the records in the index file
+        final int records;
+
+        Index(FileTime mtime, Properties props, int records) {
+            this.mtime = mtime;
+            this.props = props;
+            this.records = records;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks of the top-level entries of the sharded web root.
+ * The changes of the entry share its lock, while the rebalancing
+ * holds it exclusively for the whole move of the entry to another
+ * data directory. A change made through the stale path after the move
+ * fails, instead of being written to the copy about to be deleted.
+ * @author zinal
+ */
+final class FsEntryLocks {
+
+    private static final int STRIPES = 64;
+
+    static final Hold NONE = new Hold(null);
+
+    private final FsShardRing ring;
+    private final ReadWriteLock[] locks = new ReadWriteLock[STRIPES];
+
+    FsEntryLocks(FsShardRing ring) {
+        this.ring = ring;
+        for (int i = 0; i < STRIPES; ++i)
+            locks[i] = new ReentrantReadWriteLock();
+    }
+
+    private ReadWriteLock lockOf(String name) {
+        return locks[(name.hashCode() & 0x7FFFFFFF) % STRIPES];
+    }
+
+    /**
+     * Lock the top-level entry for the change
+     * @param name Top-level name, already secured
+     * @return Held lock, to be closed after the change
+     */
+    Hold lockChange(String name) {
+        final Lock lock = lockOf(name).readLock();
+        lock.lock();
+        return new Hold(lock);
+    }
+
+    /**
+     * Lock the top-level entry containing the file for the change
+     * @param p Filesystem path of the file to be changed
+     * @return Held lock, to be closed after the change
+     * @throws NoSuchFileException if the entry has been moved away
+     *    from the data directory of the path
+     */
+    Hold lockChange(Path p) throws NoSuchFileException {
+        for (int i = 0; i < ring.size(); ++i) {
+            final Path shard = ring.getShard(i);
+            if (!p.startsWith(shard) || p.equals(shard))
+                continue;
+            final String name = shard.relativize(p).getName(0).toString();
+            final Hold hold = lockChange(name);
+            // Only the entries off their owner are moved
+            if (ring.locate(name)!=i && !Files.exists(shard.resolve(name),
+                    LinkOption.NOFOLLOW_LINKS)) {
+                hold.close();
+                throw new NoSuchFileException(p.toString(), null,
+                        "entry moved to another data directory");
+            }
+            return hold;
+        }
+        return NONE;
+    }
+
+    /**
+     * Lock the top-level entry exclusively for the move
+     * @param name Top-level name
+     * @return Held lock, to be closed after the move
+     */
+    Hold lockMove(String name) {
+        final Lock lock = lockOf(name).writeLock();
+        lock.lock();
+        return new Hold(lock);
+    }
+
+    /**
+     * Lock held, released on close
+     */
+    static final class Hold implements AutoCloseable {
+
+        private final Lock lock;
+
+        private Hold(Lock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() {
+            if (lock!=null)
+                lock.unlock();
+        }
+
+    }
+
+}
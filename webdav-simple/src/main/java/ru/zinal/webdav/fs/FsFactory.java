@@ -28,8 +28,10 @@ public class FsFactory implements WebRootFactory {
     public WebRoot create(WebdavContext context) {
         if (!(context instanceof FsContext))
             throw new IllegalArgumentException("Context should be instance of FsContext");
-        FsContext fc = (FsContext) context;
-        return new WebRootImpl(context, new FsDirectory(fc.getDataPath()));
+        final FsContext fc = (FsContext) context;
+        if (fc.getDataPathList().size() > 1)
+            return new FsShardedWebRoot(fc);
+        return new FsWebRoot(fc);
     }
     
 }
@@ -15,16 +15,17 @@
  */
 package ru.zinal.webdav.fs;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import ru.zinal.webdav.model.*;
 
 /**
@@ -35,43 +36,66 @@ public class FsFile extends WebFile {
     
     private static final org.slf4j.Logger LOG
             = org.slf4j.LoggerFactory.getLogger(FsFile.class);
+
+    private static final int BUFFER_SIZE = 65536;
     
-    private final File file;
-    private long createdAt = 0L;
+    private final Path file;
+    private final String path;
+    private final FsPolicy policy;
+    // Shared by the request threads, reset after the changes
+    private volatile ResourceAttributes attrs;
 
-    public FsFile(File file) {
+    public FsFile(Path file, String path, ResourceAttributes attrs,
+            FsPolicy policy) {
         this.file = file;
+        this.path = path;
+        this.attrs = attrs;
+        this.policy = policy;
+    }
+
+    public Path getLocation() {
+        return file;
+    }
+
+    @Override
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        ResourceAttributes a = attrs;
+        if (a==null) {
+            a = FsAttributes.readExisting(file);
+            attrs = a;
+        }
+        return a;
     }
     
     @Override
     public long getCreation() {
-        if (createdAt==0L) {
-            try {
-                BasicFileAttributes bfa = Files.readAttributes(file.toPath(), 
-                        BasicFileAttributes.class);
-                createdAt = bfa.creationTime().toMillis();
-            } catch(IOException ex) {
-                LOG.warn("Cannot get creation time for file {}", file, ex);
-                createdAt = 1L;
-            }
-        }
-        return createdAt;
+        return getAttributes().getCreation();
     }
 
     @Override
     public long getLastModified() {
-        return file.lastModified();
+        return getAttributes().getLastModified();
     }
 
     @Override
     public long getContentLength() {
-        return file.length();
+        return getAttributes().getContentLength();
     }
 
     @Override
     public InputStream getData() {
         try {
-            return new FileInputStream(file);
+            return Files.newInputStream(file);
         } catch(IOException ex) {
             LOG.warn("Cannot open file {}", file, ex);
             return null;
@@ -81,7 +105,7 @@ public class FsFile extends WebFile {
     @Override
     public InputStream getData(long start, long finish) {
         try {
-            return new FsLimitedInput(file, start, finish);
+            return new FsLimitedInput(file, start, finish - start);
         } catch(IOException ex) {
             LOG.warn("Cannot open file {}", file, ex);
             return null;
@@ -89,57 +113,127 @@ public class FsFile extends WebFile {
     }
 
     @Override
-    public boolean replaceData(InputStream data) {
-        File tempFile = null;
+    public SeekableByteChannel openReadChannel() {
         try {
-            tempFile = new File(file.getPath() 
-                    + "-" + System.currentTimeMillis());
-            try ( FileOutputStream fos = new FileOutputStream(tempFile) ) {
-                final byte buf[] = new byte[32768];
-                while (true) {
-                    int len = data.read(buf);
-                    if (len<=0) break;
-                    fos.write(buf, 0, len);
-                }
-            }
-            file.delete();
-            tempFile.renameTo(file);
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch(IOException ex) {
+            LOG.warn("Cannot open file {}", file, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        return writeData(data, -1L);
+    }
+
+    @Override
+    public boolean writeData(InputStream data, long expectedLength) {
+        try (FsSpace.Reservation r = policy.getSpace()
+                .reserve(file.getParent(), expectedLength)) {
+            replace(r.track(data));
             return true;
-        } catch(Exception ex) {
-            LOG.warn("Cannot replace data of file {}", file, ex);
-            if (tempFile!=null)
-                tempFile.delete();
+        } catch(NoSuchFileException ex) {
+            // The file or its directory is gone, or moved elsewhere
             return false;
+        } catch(IOException ex) {
+            throw new WebStorageException("Cannot replace data of file "
+                    + file, ex);
+        }
+    }
+
+    /**
+     * Write the new content to the temporary file,
+     * and then atomically rename it over the current one.
+     * Depending on the durability policy, both the temporary file
+     * and the directory are flushed, so after the crash either the old
+     * or the new content is found.
+     * @param data Replacement data
+     * @throws IOException on write or rename errors
+     */
+    public void replace(InputStream data) throws IOException {
+        try (FsEntryLocks.Hold h = policy.lockChange(file)) {
+            final Path tempFile = FsDirectory.createTemp(file);
+            try {
+                final byte[] digest =
+                        FsDirectory.writeTemp(tempFile, data, policy);
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                policy.getDurability().forceDirectory(file.getParent());
+                attrs = null;
+                FsETag.store(file, digest);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
         }
     }
 
     @Override
     public boolean replaceData(InputStream data, long start) {
         try {
-            try (FileChannel channel = FileChannel.open(file.toPath(),
-                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                channel.position(start);
-                final byte buf[] = new byte[32768];
-                final ByteBuffer xbuf = ByteBuffer.wrap(buf);
-                while (true) {
-                    int len = data.read(buf);
-                    if (len<=0) break;
-                    if (len==buf.length)
-                        channel.write(xbuf);
-                    else
-                        channel.write(ByteBuffer.wrap(buf, 0, len));
-                }
-            }
+            update(data, start);
             return true;
-        } catch(Exception ex) {
-            LOG.warn("Cannot update data of file {}", file, ex);
+        } catch(NoSuchFileException ex) {
+            // The file or its directory is gone, or moved elsewhere
             return false;
+        } catch(IOException ex) {
+            throw new WebStorageException("Cannot update data of file "
+                    + file, ex);
+        }
+    }
+
+    /**
+     * Write the data into the file at the specified position
+     * @param data Replacement data
+     * @param start Start position
+     * @throws IOException on write errors
+     */
+    public void update(InputStream data, long start) throws IOException {
+        try (FsEntryLocks.Hold h = policy.lockChange(file);
+                FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.position(start);
+            transfer(data, channel, null);
+            policy.getDurability().force(channel);
+            // Partial update, the strong ETag is not known anymore
+            FsETag.clear(file);
+            attrs = null;
+        } catch(IOException ex) {
+            FsSpace.checkNoSpace(file, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Copy the stream to the channel at its current position.
+     * @param data Input data, or null for no data
+     * @param channel Output channel
+     * @param md Digest to be updated with the data, or null
+     * @return Number of bytes written
+     * @throws IOException on read or write errors
+     */
+    static long transfer(InputStream data, FileChannel channel,
+            MessageDigest md) throws IOException {
+        if (data==null)
+            return 0L;
+        final byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0L;
+        while (true) {
+            final int len = data.read(buf);
+            if (len<=0) break;
+            if (md!=null)
+                md.update(buf, 0, len);
+            final ByteBuffer xbuf = ByteBuffer.wrap(buf, 0, len);
+            while (xbuf.hasRemaining())
+                channel.write(xbuf);
+            total += len;
         }
+        return total;
     }
 
     @Override
     public boolean delete() {
-        return file.delete();
+        return FsDirectory.deletePath(file, policy);
     }
 
 }
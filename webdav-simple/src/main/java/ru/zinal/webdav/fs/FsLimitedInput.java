@@ -15,15 +15,15 @@
  */
 package ru.zinal.webdav.fs;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
 /**
- *
+ * Input stream over the range of the file.
  * @author zinal
  */
 public class FsLimitedInput extends InputStream {
@@ -32,10 +32,10 @@ public class FsLimitedInput extends InputStream {
     private long remaining;
     private ByteBuffer minibuf = null;
     
-    public FsLimitedInput(File f, long start, long total)
+    public FsLimitedInput(Path f, long start, long total)
             throws IOException {
         if (total > 0) {
-            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            channel = FileChannel.open(f, StandardOpenOption.READ);
             channel.position(start);
             remaining = total;
         } else {
@@ -46,7 +46,8 @@ public class FsLimitedInput extends InputStream {
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        if (channel!=null)
+            channel.close();
     }
 
     @Override
@@ -55,14 +56,17 @@ public class FsLimitedInput extends InputStream {
             return -1;
         if (minibuf==null)
             minibuf = ByteBuffer.allocate(1);
+        minibuf.clear();
         if ( channel.read(minibuf) != 1 )
             return -1;
         remaining -= 1L;
-        return 0xFF & ((int) minibuf.get());
+        return 0xFF & ((int) minibuf.get(0));
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
+        if (len==0)
+            return 0;
         if (remaining<=0L)
             return -1;
         if (((long)len) > remaining)
@@ -73,4 +77,20 @@ public class FsLimitedInput extends InputStream {
         return bytes;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        if (n<=0L || remaining<=0L)
+            return 0L;
+        if (n > remaining)
+            n = remaining;
+        channel.position(channel.position() + n);
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Directory listing backed by the {@link DirectoryStream}.
+ * Entries are read from the filesystem as the caller iterates,
+ * so the whole directory is never held in memory.
+ * @author zinal
+ */
+public class FsListing implements WebListing {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsListing.class);
+
+    private final DirectoryStream<Path> stream;
+    protected final String path;
+    protected final FsPolicy policy;
+
+    public FsListing(DirectoryStream<Path> stream, String path) {
+        this(stream, path, FsPolicy.DEFAULT);
+    }
+
+    /**
+     * @param stream Directory stream
+     * @param path Web path of the directory, with the trailing slash
+     * @param policy Settings of the web root
+     */
+    public FsListing(DirectoryStream<Path> stream, String path,
+            FsPolicy policy) {
+        this.stream = stream;
+        this.path = path;
+        this.policy = policy;
+    }
+
+    @Override
+    public Iterator<WebResource> iterator() {
+        final Iterator<Path> it = stream.iterator();
+        return new Iterator<WebResource>() {
+            private WebResource next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next==null) {
+                    final Path p;
+                    try {
+                        if (!it.hasNext())
+                            return false;
+                        p = it.next();
+                    } catch(DirectoryIteratorException ex) {
+                        LOG.warn("Cannot continue listing {}", path, ex);
+                        return false;
+                    }
+                    next = makeResource(p);
+                }
+                return true;
+            }
+
+            @Override
+            public WebResource next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final WebResource retval = next;
+                next = null;
+                return retval;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        try {
+            stream.close();
+        } catch(IOException ex) {
+            LOG.warn("Cannot close listing of {}", path, ex);
+        }
+    }
+
+    private WebResource makeResource(Path p) {
+        if (FsETag.isHidden(p.getFileName().toString()))
+            return null;
+        final BasicFileAttributes bfa;
+        try {
+            bfa = Files.readAttributes(p, BasicFileAttributes.class,
+                    FsDirectory.linkOptions(policy));
+        } catch(IOException ex) {
+            // Broken symlink or odd permission settings
+            LOG.debug("Cannot read attributes of {}", p, ex);
+            return null;
+        }
+        if (bfa.isSymbolicLink() || bfa.isOther())
+            return null;
+        final ResourceAttributes ra = FsAttributes.convert(p, bfa);
+        return newResource(p, p.getFileName().toString(), ra);
+    }
+
+    /**
+     * Build the resource for the directory entry
+     * @param p Path to the entry
+     * @param name Name of the entry
+     * @param ra Entry attributes
+     * @return Resource, or null to skip the entry
+     */
+    protected WebResource newResource(Path p, String name,
+            ResourceAttributes ra) {
+        if (ra.isDirectory())
+            return new FsDirectory(p, path + name + "/", ra, policy);
+        return new FsFile(p, path + name, ra, policy);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Settings and state shared by all the resources of the filesystem
+ * web root.
+ * @author zinal
+ */
+public final class FsPolicy {
+
+    public static final FsPolicy DEFAULT = new FsPolicy(true, FsDurability.NONE);
+
+    private final boolean followLinks;
+    private final FsDurability durability;
+    private final FsSpace space = new FsSpace();
+    private final FsEntryLocks entryLocks;
+
+    /**
+     * @param followLinks true to serve the targets of the symbolic links,
+     *    false to hide the symbolic links
+     * @param durability Durability policy for the data written
+     */
+    public FsPolicy(boolean followLinks, FsDurability durability) {
+        this(followLinks, durability, null);
+    }
+
+    private FsPolicy(boolean followLinks, FsDurability durability,
+            FsEntryLocks entryLocks) {
+        this.followLinks = followLinks;
+        this.durability = durability;
+        this.entryLocks = entryLocks;
+    }
+
+    public static FsPolicy of(FsContext context) {
+        return of(context, null);
+    }
+
+    /**
+     * @param context Web root settings
+     * @param entryLocks Locks of the top-level entries of the sharded
+     *    web root, or null
+     * @return Policy for the web root
+     */
+    static FsPolicy of(FsContext context, FsEntryLocks entryLocks) {
+        return new FsPolicy(context.isFollowLinks(),
+                FsDurability.of(context.getDurabilityMode(),
+                        context.getGroupCommitDelay()), entryLocks);
+    }
+
+    public boolean isFollowLinks() {
+        return followLinks;
+    }
+
+    public FsDurability getDurability() {
+        return durability;
+    }
+
+    public FsSpace getSpace() {
+        return space;
+    }
+
+    /**
+     * Lock the entry containing the file for the change,
+     * so that the entry is not moved by the rebalancing meanwhile
+     * @param p Filesystem path of the file to be changed
+     * @return Held lock, to be closed after the change
+     * @throws NoSuchFileException if the entry has been moved away
+     */
+    FsEntryLocks.Hold lockChange(Path p) throws NoSuchFileException {
+        if (entryLocks==null)
+            return FsEntryLocks.NONE;
+        return entryLocks.lockChange(p);
+    }
+
+}
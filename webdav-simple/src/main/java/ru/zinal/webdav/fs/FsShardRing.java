@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Consistent hash ring placing the top-level names onto the data
+ * directories. Each directory is identified by the random identifier
+ * stored in it, so the placement survives the changes of the mount points,
+ * and adding a directory moves only the names falling into its ranges.
+ * @author zinal
+ */
+public class FsShardRing {
+
+    public static final String ID_FILE = ".shard-id";
+    public static final int VIRTUAL_NODES = 128;
+
+    private final List<Path> shards;
+    private final long[] points;
+    private final int[] owners;
+
+    public FsShardRing(List<Path> shards, List<String> ids) {
+        if (shards.isEmpty() || shards.size()!=ids.size())
+            throw new IllegalArgumentException("Bad shard list");
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        final TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int i = 0; i < ids.size(); ++i) {
+            for (int v = 0; v < VIRTUAL_NODES; ++v)
+                ring.put(hash(ids.get(i) + "#" + v), i);
+        }
+        this.points = new long[ring.size()];
+        this.owners = new int[ring.size()];
+        int pos = 0;
+        for (Map.Entry<Long, Integer> me : ring.entrySet()) {
+            points[pos] = me.getKey();
+            owners[pos] = me.getValue();
+            ++pos;
+        }
+    }
+
+    /**
+     * Build the ring over the data directories, assigning the identifiers
+     * to the directories which do not have them yet.
+     * @param shards Data directories
+     * @return Hash ring
+     * @throws IOException on identifier read or write errors
+     */
+    public static FsShardRing open(List<Path> shards) throws IOException {
+        final List<String> ids = new ArrayList<>(shards.size());
+        for (Path p : shards) {
+            final Path idFile = p.resolve(ID_FILE);
+            if (!Files.exists(idFile)) {
+                Files.write(idFile, UUID.randomUUID().toString()
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            final String id = new String(Files.readAllBytes(idFile),
+                    StandardCharsets.UTF_8).trim();
+            if (ids.contains(id))
+                throw new IOException("Duplicate shard " + p);
+            ids.add(id);
+        }
+        return new FsShardRing(shards, ids);
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public Path getShard(int index) {
+        return shards.get(index);
+    }
+
+    /**
+     * @param name Top-level name
+     * @return Index of the data directory owning the name
+     */
+    public int locate(String name) {
+        final long h = hash(name);
+        int lo = 0;
+        int hi = points.length;
+        // First point greater or equal to the hash, wrapping around
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (points[mid] < h)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return owners[(lo == points.length) ? 0 : lo];
+    }
+
+    static long hash(String value) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5")
+                    .digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        long h = 0L;
+        for (int i = 0; i < 8; ++i)
+            h = (h << 8) | (digest[i] & 0xFF);
+        return h;
+    }
+
+}
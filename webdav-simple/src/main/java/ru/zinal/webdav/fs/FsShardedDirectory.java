@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Root collection merging the top-level entries of all the data
+ * directories. Each top-level entry, with all its contents, is placed
+ * on the data directory chosen by the hash ring.
+ * @author zinal
+ */
+public class FsShardedDirectory extends WebDirectory {
+
+    public static final String TEMP_PREFIX = ".rebalance-";
+
+    private final FsShardRing ring;
+    private final FsPolicy policy;
+    private final FsDirectory[] roots;
+    // While set, the entries may still be on the old data directories
+    private volatile boolean rebalancing = true;
+
+    public FsShardedDirectory(FsShardRing ring, FsPolicy policy) {
+        this.ring = ring;
+        this.policy = policy;
+        this.roots = new FsDirectory[ring.size()];
+        for (int i = 0; i < roots.length; ++i)
+            roots[i] = new FsDirectory(ring.getShard(i), "/", null,
+                    policy);
+    }
+
+    FsPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isRebalancing() {
+        return rebalancing;
+    }
+
+    public void setRebalancing(boolean rebalancing) {
+        this.rebalancing = rebalancing;
+    }
+
+    static boolean isHidden(String name) {
+        return FsShardRing.ID_FILE.equals(name) || name.startsWith(TEMP_PREFIX);
+    }
+
+    /**
+     * Find the data directory holding the top-level entry
+     * @param name Top-level name, already secured
+     * @return Index of the data directory holding the entry,
+     *    or the owner of the name if the entry does not exist
+     */
+    public int locate(String name) {
+        final int owner = ring.locate(name);
+        if (!rebalancing || roots[owner].lookup(name)!=null)
+            return owner;
+        for (int i = 0; i < roots.length; ++i) {
+            if (i!=owner && roots[i].lookup(name)!=null)
+                return i;
+        }
+        return owner;
+    }
+
+    @Override
+    public String getName() {
+        return "/";
+    }
+
+    @Override
+    public String getPath() {
+        return "/";
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        return roots[0].getAttributes();
+    }
+
+    @Override
+    public long getCreation() {
+        return roots[0].getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return roots[0].getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        name = FsDirectory.secureName(name);
+        if (isHidden(name))
+            return null;
+        return roots[locate(name)].lookup(name);
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        if (names==null || names.length==0)
+            return this;
+        final String name = FsDirectory.secureName(names[0]);
+        if (isHidden(name))
+            return null;
+        return roots[locate(name)].lookupDeep(names);
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        name = FsDirectory.secureName(name);
+        if (isHidden(name) || lookup(name)!=null)
+            return null;
+        return roots[ring.locate(name)].createDirectory(name);
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        name = FsDirectory.secureName(name);
+        if (isHidden(name) || lookup(name)!=null)
+            return null;
+        return roots[ring.locate(name)].createFile(name, data);
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data,
+            long expectedLength) {
+        name = FsDirectory.secureName(name);
+        if (isHidden(name) || lookup(name)!=null)
+            return null;
+        return roots[ring.locate(name)].createFile(name, data, expectedLength);
+    }
+
+    @Override
+    public boolean delete(String name) {
+        final WebResource r = lookup(name);
+        if (r==null || r==this)
+            return false;
+        return r.delete();
+    }
+
+    @Override
+    public List<String> list() {
+        return new ArrayList<>(merge().keySet());
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        return new ArrayList<>(merge().values());
+    }
+
+    /**
+     * Merge the top-level entries of all the data directories.
+     * The entry on the owner directory wins over the copies
+     * not removed yet by the rebalancing.
+     */
+    private Map<String, WebResource> merge() {
+        final Map<String, WebResource> retval = new TreeMap<>();
+        for (int i = 0; i < roots.length; ++i) {
+            final Map<String, WebResource> items = new LinkedHashMap<>();
+            try (WebListing listing = roots[i].openListing()) {
+                for (WebResource r : listing) {
+                    if (!isHidden(r.getName()))
+                        items.put(r.getName(), r);
+                }
+            }
+            for (Map.Entry<String, WebResource> me : items.entrySet()) {
+                if (!retval.containsKey(me.getKey())
+                        || ring.locate(me.getKey())==i)
+                    retval.put(me.getKey(), me.getValue());
+            }
+        }
+        return retval;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+}
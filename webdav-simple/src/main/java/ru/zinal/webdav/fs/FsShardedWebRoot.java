@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Filesystem web root spread over several data directories,
+ * typically on the different disks. Each top-level entry is placed
+ * onto the data directory by the consistent hash of its name,
+ * so the independent subtrees are served by the different devices.
+ * <p>
+ * When the data directory is added, the entries now owned by it
+ * are moved there in the background, one top-level entry at a time.
+ * Until the rebalancing completes, the entries are looked up on all
+ * the data directories. The changes of the entry wait while it is
+ * being moved, and the changes made through the paths resolved before
+ * the move fail, so no change is lost.
+ * @author zinal
+ */
+public class FsShardedWebRoot extends FsWebRoot {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsShardedWebRoot.class);
+
+    private final FsShardRing ring;
+    private final FsEntryLocks entryLocks;
+    private final FsShardedDirectory rootDirectory;
+
+    public FsShardedWebRoot(FsContext context) {
+        this(context, openRing(context));
+    }
+
+    private FsShardedWebRoot(FsContext context, FsShardRing ring) {
+        this(context, ring, new FsEntryLocks(ring));
+    }
+
+    private FsShardedWebRoot(FsContext context, FsShardRing ring,
+            FsEntryLocks entryLocks) {
+        this(context, ring, entryLocks, new FsShardedDirectory(ring,
+                FsPolicy.of(context, entryLocks)));
+    }
+
+    private FsShardedWebRoot(FsContext context, FsShardRing ring,
+            FsEntryLocks entryLocks, FsShardedDirectory rootDirectory) {
+        super(context, rootDirectory, ring.getShard(0));
+        this.ring = ring;
+        this.entryLocks = entryLocks;
+        this.rootDirectory = rootDirectory;
+        if (context.isWatch()) {
+            final List<Path> dirs = new ArrayList<>();
+            for (int i = 0; i < ring.size(); ++i)
+                dirs.add(ring.getShard(i));
+            watch(dirs);
+        }
+        final Thread t = new Thread(this::rebalanceQuietly, "fs-rebalance");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static FsShardRing openRing(FsContext context) {
+        final List<Path> paths = new ArrayList<>();
+        for (String p : context.getDataPathList())
+            paths.add(Paths.get(p));
+        try {
+            return FsShardRing.open(paths);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public FsShardRing getRing() {
+        return ring;
+    }
+
+    FsPolicy getPolicy() {
+        return rootDirectory.getPolicy();
+    }
+
+    public boolean isRebalancing() {
+        return rootDirectory.isRebalancing();
+    }
+
+    @Override
+    protected Path toPath(String path) {
+        final String[] names = SmallT.splitPath(path);
+        if (names.length==0)
+            return ring.getShard(0);
+        Path p = ring.getShard(rootDirectory.locate(
+                FsDirectory.secureName(names[0])));
+        for (String name : names)
+            p = p.resolve(FsDirectory.secureName(name));
+        return p;
+    }
+
+    @Override
+    protected boolean isHiddenPath(String path) {
+        final String[] names = SmallT.splitPath(path);
+        if (names.length > 0 && FsShardedDirectory.isHidden(
+                FsDirectory.secureName(names[0])))
+            return true;
+        return super.isHiddenPath(path);
+    }
+
+    /**
+     * Lock the top-level entry of the path for the change
+     * @param path Web path
+     * @return Held lock, to be closed after the change
+     */
+    private FsEntryLocks.Hold lockChange(String path) {
+        final String[] names = SmallT.splitPath(path);
+        if (names.length==0)
+            return FsEntryLocks.NONE;
+        return entryLocks.lockChange(FsDirectory.secureName(names[0]));
+    }
+
+    @Override
+    public boolean move(String source, String dest, boolean overwrite,
+            Map<String,Integer> errorList) {
+        // Both entries are resolved under the locks, so that neither
+        // is moved by the rebalancing meanwhile
+        try (FsEntryLocks.Hold hs = lockChange(source);
+                FsEntryLocks.Hold hd = lockChange(dest)) {
+            return super.move(source, dest, overwrite, errorList);
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String dest, int depth,
+            Map<String,Integer> errorList) {
+        try (FsEntryLocks.Hold hs = lockChange(source);
+                FsEntryLocks.Hold hd = lockChange(dest)) {
+            return super.copy(source, dest, depth, errorList);
+        }
+    }
+
+    @Override
+    public boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String,Integer> errorList) {
+        try (FsEntryLocks.Hold h = lockChange(path)) {
+            return super.deleteTree(path, lockFilter, errorList);
+        }
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            rebalance();
+        } catch(Exception ex) {
+            LOG.warn("Rebalancing failed, will be retried on restart", ex);
+        }
+    }
+
+    /**
+     * Move the top-level entries to the data directories owning them.
+     * Each entry is copied under the temporary name, renamed into place,
+     * and then removed from the old data directory, all while holding
+     * the exclusive lock of the entry.
+     * @return Number of the entries moved
+     * @throws IOException on filesystem errors
+     */
+    public synchronized int rebalance() throws IOException {
+        rootDirectory.setRebalancing(true);
+        for (int i = 0; i < ring.size(); ++i) {
+            // Leftovers of the interrupted moves
+            for (Path p : listTop(ring.getShard(i))) {
+                if (p.getFileName().toString()
+                        .startsWith(FsShardedDirectory.TEMP_PREFIX))
+                    deleteTree(p);
+            }
+        }
+        int moved = 0;
+        for (int i = 0; i < ring.size(); ++i) {
+            for (Path src : listTop(ring.getShard(i))) {
+                final String name = src.getFileName().toString();
+                // The files being written and the ETag index
+                // belong to the data directory they are in
+                if (FsShardedDirectory.isHidden(name)
+                        || FsETag.isHidden(name))
+                    continue;
+                final int owner = ring.locate(name);
+                if (owner==i)
+                    continue;
+                if (moveEntry(src, ring.getShard(owner), name))
+                    ++moved;
+            }
+        }
+        rootDirectory.setRebalancing(false);
+        if (moved > 0)
+            LOG.info("Rebalancing moved {} entries", moved);
+        return moved;
+    }
+
+    private boolean moveEntry(Path src, Path owner, String name)
+            throws IOException {
+        try (FsEntryLocks.Hold h = entryLocks.lockMove(name)) {
+            if (!Files.exists(src, LinkOption.NOFOLLOW_LINKS))
+                return false; // deleted meanwhile
+            final Path dst = owner.resolve(name);
+            if (Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+                LOG.warn("Cannot move {}, {} already exists", src, dst);
+                return false;
+            }
+            final Path tmp = owner.resolve(
+                    FsShardedDirectory.TEMP_PREFIX + name);
+            copyTree(src, tmp);
+            Files.move(tmp, dst, StandardCopyOption.ATOMIC_MOVE);
+            deleteTree(src);
+            return true;
+        }
+    }
+
+    private static List<Path> listTop(Path dir) throws IOException {
+        final List<Path> retval = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds)
+                retval.add(p);
+        }
+        return retval;
+    }
+
+    private static void copyTree(Path src, Path dst) throws IOException {
+        Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(dst.resolve(src.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, dst.resolve(src.relativize(file)),
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir,
+                    IOException exc) throws IOException {
+                if (exc!=null)
+                    throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
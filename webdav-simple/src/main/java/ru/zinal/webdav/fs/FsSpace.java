@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import ru.zinal.webdav.model.InsufficientStorageException;
+
+/**
+ * Accounting of the space reserved by the uploads in progress.
+ * An upload of the known length is rejected upfront if the free space,
+ * less the space reserved by the other uploads to the same file store,
+ * is not enough for it. The reservation shrinks as the data is written,
+ * since the free space reported by the file store shrinks too.
+ * @author zinal
+ */
+public class FsSpace {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsSpace.class);
+
+    private static final Reservation NONE = new Reservation(null, 0L);
+
+    // Space reserved on each file store
+    private final ConcurrentMap<FileStore, AtomicLong> reserved =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @return Space reserved by the uploads in progress, bytes
+     */
+    public long getReserved() {
+        long total = 0L;
+        for (AtomicLong v : reserved.values())
+            total += v.get();
+        return total;
+    }
+
+    /**
+     * Reserve the space for the upload
+     * @param dir Directory where the file is written
+     * @param length Expected data length, or -1 if not known
+     * @return Reservation to be closed when the upload completes
+     * @throws InsufficientStorageException if there is not enough space
+     */
+    public Reservation reserve(Path dir, long length) {
+        if (length <= 0L)
+            return NONE;
+        final FileStore store;
+        final long usable;
+        try {
+            store = Files.getFileStore(dir);
+            usable = store.getUsableSpace();
+        } catch(IOException ex) {
+            LOG.debug("Cannot check free space in {}", dir, ex);
+            return NONE;
+        }
+        final AtomicLong counter =
+                reserved.computeIfAbsent(store, k -> new AtomicLong());
+        final long total = counter.addAndGet(length);
+        if (total > usable) {
+            counter.addAndGet(-length);
+            throw new InsufficientStorageException("Cannot reserve "
+                    + length + " bytes in " + dir + ", available " + usable
+                    + ", reserved " + (total - length));
+        }
+        return new Reservation(counter, length);
+    }
+
+    /**
+     * Check if the write failed due to the lack of space.
+     * Java does not expose the error code, so the message is checked.
+     * @param ex Write error
+     * @return true, if the device is full
+     */
+    public static boolean isNoSpace(IOException ex) {
+        final String msg = ex.getMessage();
+        if (msg==null)
+            return false;
+        return msg.contains("No space left on device")
+                || msg.contains("Disk quota exceeded")
+                || msg.contains("There is not enough space on the disk");
+    }
+
+    /**
+     * Translate the lack of space to the exception reported to the client
+     * @param p Path to the file being written
+     * @param ex Write error
+     * @throws InsufficientStorageException if the device is full
+     */
+    static void checkNoSpace(Path p, IOException ex) {
+        if (isNoSpace(ex))
+            throw new InsufficientStorageException("No space to write "
+                    + p, ex);
+    }
+
+    /**
+     * Space reserved for the single upload, used by the writing thread
+     */
+    public static final class Reservation implements AutoCloseable {
+
+        private final AtomicLong reserved;
+        private long remaining;
+
+        Reservation(AtomicLong reserved, long length) {
+            this.reserved = reserved;
+            this.remaining = length;
+        }
+
+        /**
+         * @return Space still reserved, bytes
+         */
+        public long getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * Release the part of the reservation already written
+         * @param bytes Number of bytes written
+         */
+        public void consume(long bytes) {
+            if (reserved==null || bytes <= 0L || remaining <= 0L)
+                return;
+            final long n = Math.min(bytes, remaining);
+            remaining -= n;
+            reserved.addAndGet(-n);
+        }
+
+        /**
+         * Wrap the uploaded data to release the reservation as it is read
+         * and written to the file
+         * @param data Uploaded data, or null
+         * @return Wrapped data
+         */
+        public InputStream track(InputStream data) {
+            if (reserved==null || data==null)
+                return data;
+            return new FilterInputStream(data) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0)
+                        consume(1L);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len)
+                        throws IOException {
+                    final int n = super.read(b, off, len);
+                    consume(n);
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    final long skipped = super.skip(n);
+                    consume(skipped);
+                    return skipped;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            consume(remaining);
+        }
+
+    }
+
+}
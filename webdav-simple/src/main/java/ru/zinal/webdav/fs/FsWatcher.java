@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Watches the data directories for the changes made by the other
+ * processes, and publishes them as the web paths to the listeners.
+ * Every directory in the tree is registered with the {@link WatchService},
+ * including the directories created later. When the events are lost
+ * due to the queue overflow, the whole tree is reported as changed,
+ * and re-scanned for the directories not registered yet.
+ * @author zinal
+ */
+public class FsWatcher implements WebChangeSource, AutoCloseable {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsWatcher.class);
+
+    private final List<Path> bases;
+    private final WatchService service;
+    // Watched directory for each registration, with its web path
+    private final Map<WatchKey, Watched> keys = new ConcurrentHashMap<>();
+    private final List<WebChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+
+    /**
+     * Start watching the data directories
+     * @param bases Data directories, each one mapped to the web root
+     * @throws IOException if the watch service cannot be created
+     */
+    public FsWatcher(List<Path> bases) throws IOException {
+        this.bases = bases;
+        this.service = FileSystems.getDefault().newWatchService();
+        for (Path base : bases)
+            registerTree(base, base);
+        this.thread = new Thread(this::run, "fs-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        LOG.info("Watching {} directories for external changes", keys.size());
+    }
+
+    @Override
+    public void addChangeListener(WebChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(WebChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Number of the directories being watched
+     */
+    public int getWatchCount() {
+        return keys.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            service.close();
+        } catch(IOException ex) {
+            LOG.warn("Cannot close the watch service", ex);
+        }
+    }
+
+    private void registerTree(Path base, Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir,
+                        BasicFileAttributes attrs) {
+                    try {
+                        register(base, dir);
+                    } catch(ClosedWatchServiceException ex) {
+                        return FileVisitResult.TERMINATE;
+                    } catch(IOException ex) {
+                        // Typically the limit on the number of watches,
+                        // the other directories may still be watched
+                        LOG.warn("Cannot watch directory {}, the changes in it "
+                                + "will not be noticed", dir, ex);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                        IOException ex) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException ex) {
+            LOG.warn("Cannot scan directory {}", start, ex);
+        }
+    }
+
+    private void register(Path base, Path dir) throws IOException {
+        // Repeated registration returns the same key
+        final WatchKey key = dir.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(key, new Watched(dir, webPath(base, dir)));
+    }
+
+    private static String webPath(Path base, Path p) {
+        final StringBuilder sb = new StringBuilder();
+        for (Path name : base.relativize(p)) {
+            if (name.toString().length() > 0)
+                sb.append('/').append(name.toString());
+        }
+        return (sb.length()==0) ? "/" : sb.toString();
+    }
+
+    private static String childPath(String parent, String name) {
+        return "/".equals(parent) ? "/" + name : parent + "/" + name;
+    }
+
+    private void run() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = service.take();
+            } catch(InterruptedException | ClosedWatchServiceException ex) {
+                break;
+            }
+            final Watched w = keys.get(key);
+            for (WatchEvent<?> ev : key.pollEvents()) {
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan();
+                    continue;
+                }
+                if (w==null)
+                    continue;
+                final Path child = w.dir.resolve((Path) ev.context());
+                final String name = child.getFileName().toString();
+                if (FsETag.isHidden(name) || FsShardedDirectory.isHidden(name))
+                    continue;
+                final boolean created =
+                        ev.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+                if (created && Files.isDirectory(child))
+                    registerTree(baseOf(child), child);
+                // Deleted or re-created directory invalidates its subtree
+                publish(childPath(w.path, name),
+                        ev.kind() != StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+            if (!key.reset())
+                keys.remove(key);
+        }
+    }
+
+    private Path baseOf(Path p) {
+        for (Path base : bases) {
+            if (p.startsWith(base))
+                return base;
+        }
+        return bases.get(0);
+    }
+
+    /**
+     * Events were lost, so everything may have changed
+     */
+    private void rescan() {
+        LOG.info("Watch events lost, rescanning the data directories");
+        for (Path base : bases)
+            registerTree(base, base);
+        publish("/", true);
+    }
+
+    private void publish(String path, boolean subtree) {
+        for (WebChangeListener l : listeners) {
+            try {
+                l.resourceChanged(path, subtree);
+            } catch(Exception ex) {
+                LOG.warn("Change listener failed on {}", path, ex);
+            }
+        }
+    }
+
+    private static final class Watched {
+        final Path dir;
+        final String path;
+
+        Watched(Path dir, String path) {
+            this.dir = dir;
+            this.path = path;
+        }
+    }
+
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.model.*;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Filesystem web root, implementing COPY, MOVE and subtree deletion
+ * with the native filesystem operations.
+ * @author zinal
+ */
+public class FsWebRoot extends WebRootImpl implements WebChangeSource {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(FsWebRoot.class);
+
+    private final Path base;
+    private FsWatcher watcher = null;
+
+    public FsWebRoot(FsContext context) {
+        this(context, new FsDirectory(Paths.get(context.getDataPath()), "/",
+                null, FsPolicy.of(context)),
+                Paths.get(context.getDataPath()));
+        if (context.isWatch())
+            watch(Collections.singletonList(base));
+    }
+
+    /**
+     * Create the web root over the directory tree
+     * @param context Web root context
+     * @param root Root directory resource
+     * @param base Filesystem path of the root directory
+     */
+    protected FsWebRoot(WebdavContext context, WebDirectory root, Path base) {
+        super(context, root);
+        this.base = base;
+    }
+
+    /**
+     * Start watching the data directories for the external changes
+     * @param dirs Data directories
+     */
+    protected final void watch(List<Path> dirs) {
+        try {
+            watcher = new FsWatcher(dirs);
+        } catch(IOException ex) {
+            LOG.warn("Cannot watch the data directories, external changes "
+                    + "will not be noticed", ex);
+        }
+    }
+
+    /**
+     * @return Watcher of the data directories, or null if not enabled
+     */
+    public FsWatcher getWatcher() {
+        return watcher;
+    }
+
+    @Override
+    public void close() {
+        if (watcher!=null)
+            watcher.close();
+    }
+
+    @Override
+    public void addChangeListener(WebChangeListener listener) {
+        if (watcher!=null)
+            watcher.addChangeListener(listener);
+    }
+
+    @Override
+    public void removeChangeListener(WebChangeListener listener) {
+        if (watcher!=null)
+            watcher.removeChangeListener(listener);
+    }
+
+    /**
+     * Convert the web path to the filesystem path
+     * @param path Web path
+     * @return Filesystem path
+     */
+    protected Path toPath(String path) {
+        Path p = base;
+        for (String name : SmallT.splitPath(path))
+            p = p.resolve(FsDirectory.secureName(name));
+        return p;
+    }
+
+    /**
+     * Check whether the path passes through the entries hidden from
+     * the clients, like the ETag index and the files being written
+     * @param path Web path
+     * @return true, if the path cannot be used by the clients
+     */
+    protected boolean isHiddenPath(String path) {
+        for (String name : SmallT.splitPath(path)) {
+            if (FsETag.isHidden(FsDirectory.secureName(name)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Report the hidden source or destination path as forbidden
+     * @param source Source web path
+     * @param dest Destination web path, or null
+     * @param errorList Failed paths
+     * @return true, if any of the paths is hidden
+     */
+    private boolean rejectHidden(String source, String dest,
+            Map<String,Integer> errorList) {
+        if (isHiddenPath(source)) {
+            errorList.put(source, WebdavStatus.SC_FORBIDDEN);
+            return true;
+        }
+        if (dest!=null && isHiddenPath(dest)) {
+            errorList.put(dest, WebdavStatus.SC_FORBIDDEN);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean move(String source, String dest, boolean overwrite,
+            Map<String,Integer> errorList) {
+        if (rejectHidden(source, dest, errorList))
+            return false;
+        final Path src = toPath(source);
+        final Path dst = toPath(dest);
+        if (src.equals(base) || dst.equals(base) || dst.startsWith(src)) {
+            // Includes the moves onto the source itself or into its child
+            errorList.put(dest, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (!Files.exists(src, LinkOption.NOFOLLOW_LINKS))
+            return false;
+        if (!Files.isDirectory(dst.getParent())) {
+            errorList.put(dest, WebdavStatus.SC_CONFLICT);
+            return false;
+        }
+        if (Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+            if (!overwrite) {
+                errorList.put(dest, WebdavStatus.SC_PRECONDITION_FAILED);
+                return false;
+            }
+            if (!deleteTree(dest, null, errorList))
+                return false;
+        }
+        try {
+            try {
+                Files.move(src, dst, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException ex) {
+                // Different file stores, so the move would copy the data
+                Files.move(src, dst);
+            }
+            return true;
+        } catch(IOException ex) {
+            if (Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)
+                    && !Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+                // Non-empty directories cannot be moved between file stores
+                LOG.debug("Directory move {} -> {} fallback", src, dst, ex);
+                return super.move(source, dest, overwrite, errorList);
+            }
+            LOG.warn("Cannot move {} to {}", src, dst, ex);
+            errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String dest, int depth,
+            Map<String,Integer> errorList) {
+        if (rejectHidden(source, dest, errorList))
+            return false;
+        final Path src = toPath(source);
+        final Path dst = toPath(dest);
+        if (!Files.exists(src, LinkOption.NOFOLLOW_LINKS))
+            return false;
+        if (!Files.isDirectory(dst.getParent())) {
+            errorList.put(dest, WebdavStatus.SC_CONFLICT);
+            return false;
+        }
+        if (dst.startsWith(src)) {
+            // Copying the collection into itself would never end
+            errorList.put(dest, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (!Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                Files.copy(src, dst);
+                return true;
+            } catch(FileAlreadyExistsException ex) {
+                errorList.put(dest, WebdavStatus.SC_PRECONDITION_FAILED);
+                return false;
+            } catch(IOException ex) {
+                LOG.warn("Cannot copy {} to {}", src, dst, ex);
+                errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+                return false;
+            }
+        }
+        try {
+            Files.walkFileTree(src, Collections.emptySet(), depth,
+                    new CopyVisitor(src, dst, source, dest, errorList));
+        } catch(IOException ex) {
+            LOG.warn("Cannot copy {} to {}", src, dst, ex);
+            errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            return false;
+        }
+        return errorList.isEmpty();
+    }
+
+    @Override
+    public boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String,Integer> errorList) {
+        if (rejectHidden(path, null, errorList))
+            return false;
+        final Path p = toPath(path);
+        if (p.equals(base)) {
+            errorList.put(path, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (!Files.exists(p, LinkOption.NOFOLLOW_LINKS))
+            return false;
+        final int errorCount = errorList.size();
+        try {
+            Files.walkFileTree(p, new DeleteVisitor(p, path,
+                    lockFilter, errorList));
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete {}", p, ex);
+            errorList.put(path, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+        }
+        return errorList.size()==errorCount;
+    }
+
+    /**
+     * Build the web path of the file within the walked tree
+     * @param prefix Web path of the walk start
+     * @param start Filesystem path of the walk start
+     * @param p Filesystem path of the file
+     * @return Web path of the file
+     */
+    private static String webPath(String prefix, Path start, Path p) {
+        String retval = prefix;
+        for (Path name : start.relativize(p)) {
+            if (name.toString().length() > 0)
+                retval = WebRootSupport.childPath(retval, name.toString());
+        }
+        return retval;
+    }
+
+    /**
+     * @param p Filesystem path
+     * @return true for the entries hidden from the clients
+     */
+    private static boolean isHidden(Path p) {
+        return FsETag.isHidden(p.getFileName().toString());
+    }
+
+    /**
+     * Deletes the directory tree, keeping the locked entries.
+     * The directories are removed after their contents, and the failures
+     * to delete the directories which still contain the kept entries
+     * are not reported. The hidden entries are not visited, they are
+     * removed together with the directory holding them.
+     */
+    private static final class DeleteVisitor extends SimpleFileVisitor<Path> {
+
+        private final Path start;
+        private final String prefix;
+        private final Predicate<String> lockFilter;
+        private final Map<String,Integer> errorList;
+        private final Deque<Integer> errorCounts = new ArrayDeque<>();
+
+        DeleteVisitor(Path start, String prefix,
+                Predicate<String> lockFilter, Map<String,Integer> errorList) {
+            this.start = start;
+            this.prefix = prefix;
+            this.lockFilter = lockFilter;
+            this.errorList = errorList;
+        }
+
+        private boolean isLocked(String path) {
+            if (lockFilter==null || !lockFilter.test(path))
+                return false;
+            errorList.put(path, WebdavStatus.SC_LOCKED);
+            return true;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) {
+            if (!dir.equals(start) && isHidden(dir))
+                return FileVisitResult.SKIP_SUBTREE;
+            if (isLocked(webPath(prefix, start, dir)))
+                return FileVisitResult.SKIP_SUBTREE;
+            errorCounts.push(errorList.size());
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (isHidden(file))
+                return FileVisitResult.CONTINUE;
+            final String path = webPath(prefix, start, file);
+            if (isLocked(path))
+                return FileVisitResult.CONTINUE;
+            try {
+                Files.delete(file);
+            } catch(NoSuchFileException ex) {
+                // Already deleted
+            } catch(IOException ex) {
+                LOG.warn("Cannot delete {}", file, ex);
+                errorList.put(path, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException ex) {
+            if (!(ex instanceof NoSuchFileException)) {
+                LOG.warn("Cannot access {}", file, ex);
+                errorList.put(webPath(prefix, start, file),
+                        WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            final int errorCount = errorCounts.pop();
+            if (exc!=null) {
+                LOG.warn("Cannot list {}", dir, exc);
+                errorList.put(webPath(prefix, start, dir),
+                        WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+                return FileVisitResult.CONTINUE;
+            }
+            if (errorList.size()==errorCount)
+                deleteHidden(dir);
+            try {
+                Files.delete(dir);
+            } catch(NoSuchFileException ex) {
+                // Already deleted
+            } catch(DirectoryNotEmptyException ex) {
+                if (errorList.size()==errorCount)
+                    errorList.put(webPath(prefix, start, dir),
+                            WebdavStatus.SC_CONFLICT);
+            } catch(IOException ex) {
+                LOG.warn("Cannot delete {}", dir, ex);
+                errorList.put(webPath(prefix, start, dir),
+                        WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Remove the hidden entries of the directory being deleted
+         * @param dir Directory with all the visible entries deleted
+         */
+        private void deleteHidden(Path dir) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir,
+                    FsWebRoot::isHidden)) {
+                for (Path p : ds)
+                    Files.deleteIfExists(p);
+            } catch(IOException ex) {
+                LOG.warn("Cannot delete the hidden entries of {}", dir, ex);
+            }
+        }
+
+    }
+
+    /**
+     * Copies the directory tree, collecting the per-file failures.
+     * The hidden entries are not copied.
+     */
+    private static final class CopyVisitor extends SimpleFileVisitor<Path> {
+
+        private final Path src;
+        private final Path dst;
+        private final String source;
+        private final String dest;
+        private final Map<String,Integer> errorList;
+
+        CopyVisitor(Path src, Path dst, String source, String dest,
+                Map<String,Integer> errorList) {
+            this.src = src;
+            this.dst = dst;
+            this.source = source;
+            this.dest = dest;
+            this.errorList = errorList;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) {
+            if (!dir.equals(src) && isHidden(dir))
+                return FileVisitResult.SKIP_SUBTREE;
+            final Path target = dst.resolve(src.relativize(dir));
+            try {
+                Files.createDirectory(target);
+            } catch(FileAlreadyExistsException ex) {
+                if (!Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                    errorList.put(webPath(dest, src, dir),
+                            WebdavStatus.SC_CONFLICT);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            } catch(IOException ex) {
+                LOG.warn("Cannot create directory {}", target, ex);
+                errorList.put(webPath(dest, src, dir), WebdavStatus.SC_CONFLICT);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (attrs.isDirectory()) {
+                // Directory at the depth limit, copied without its members
+                return preVisitDirectory(file, attrs);
+            }
+            if (isHidden(file))
+                return FileVisitResult.CONTINUE;
+            final Path target = dst.resolve(src.relativize(file));
+            try {
+                Files.copy(file, target);
+            } catch(IOException ex) {
+                LOG.warn("Cannot copy {} to {}", file, target, ex);
+                errorList.put(webPath(source, src, file),
+                        WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException ex) {
+            LOG.warn("Cannot access {}", file, ex);
+            errorList.put(webPath(source, src, file),
+                    WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            return FileVisitResult.CONTINUE;
+        }
+
+    }
+
+}
@@ -0,0 +1,596 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.lock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import ru.zinal.webdav.util.*;
+
+/**
+ * Lock manager for the concurrent access.
+ * <p>
+ * The lock entries published in the tree are never modified,
+ * each change replaces the entry with the updated copy. That allows
+ * the lookups to run without any locking. The modifications are
+ * serialized by the stripe locks chosen by the top-level name of the path,
+ * so the independent subtrees are locked and unlocked in parallel.
+ * The operations on the root itself take all the stripes.
+ * The expired tokens are removed in the background by the {@link LockSweeper}.
+ * <p>
+ * Each lock token is indexed to its lock node, so UNLOCK, refresh and
+ * token validation do not depend on the path depth. The index is updated
+ * under the same stripe lock as the lock entry itself.
+ * <p>
+ * Each node counts the exclusive and shared locks at or below it,
+ * so the depth-infinity lock checks its subtree with a counter read,
+ * and walks the subtree only to list the conflicting paths.
+ * @author zinal
+ */
+public class ConcurrentLocker implements LockManager {
+
+    private static final int STRIPES = 64;
+
+    private final LockNode root = new LockNode(null, null);
+    private final ConcurrentHashMap<String, LockNode> tokenIndex =
+            new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final LockSweeper sweeper;
+
+    public ConcurrentLocker() {
+        for (int i = 0; i < stripes.length; ++i)
+            stripes[i] = new ReentrantLock();
+        this.sweeper = new LockSweeper(this::expire);
+    }
+
+    @Override
+    public void close() {
+        sweeper.close();
+    }
+
+    private ReentrantLock stripe(String name) {
+        return stripes[(name.hashCode() & 0x7FFFFFFF) % stripes.length];
+    }
+
+    /**
+     * Acquire the stripe lock for the path
+     * @param names Path elements
+     */
+    private void lock(String[] names) {
+        if (names.length > 0) {
+            stripe(names[0]).lock();
+        } else {
+            for (ReentrantLock l : stripes)
+                l.lock();
+        }
+    }
+
+    private void unlock(String[] names) {
+        if (names.length > 0) {
+            stripe(names[0]).unlock();
+        } else {
+            for (int i = stripes.length - 1; i >= 0; --i)
+                stripes[i].unlock();
+        }
+    }
+
+    /**
+     * @param node Lock node, can be null
+     * @param tv Current time
+     * @return The active lock of the node, or null
+     */
+    private static LockEntry activeLock(LockNode node, long tv) {
+        if (node==null)
+            return null;
+        final LockEntry e = node.lock;
+        if (e==null || e.hasExpired(tv))
+            return null;
+        return e;
+    }
+
+    @Override
+    public LockResult createLock(LockInfo lock) {
+        final String[] names = SmallT.splitPath(lock.getPath());
+        lock(names);
+        try {
+            final long tv = System.currentTimeMillis();
+            // 1. Checking the upper-level locks
+            LockResult result = null;
+            LockNode cur = root;
+            for (int i = 0; cur!=null && i < names.length; ++i) {
+                final LockEntry e = activeLock(cur, tv);
+                if (e!=null && e.getDepth() > 0)
+                    result = checkConflict(result, lock, e);
+                cur = cur.children.get(names[i]);
+            }
+            if (result!=null)
+                return result;
+            // 2. Checking the current and the following locks
+            if (cur!=null) {
+                result = checkDownLocks(lock, cur, tv);
+                if (result!=null)
+                    return result;
+            }
+            // 3. Put the lock on the resource
+            return new LockResult(putLock(names, lock, tv));
+        } finally {
+            unlock(names);
+        }
+    }
+
+    /**
+     * Put the previously granted locks without the conflict checks,
+     * when recovering the persisted locks into the empty lock manager.
+     * The tree and the token index are built first, each node getting
+     * its lock entry once, and then each token is scheduled for expiration.
+     * @param locks Lock information, one lock per token
+     */
+    public void restoreLocks(Collection<LockInfo> locks) {
+        final Map<LockNode, LockEntry> entries = new HashMap<>();
+        final String[] all = new String[0];
+        lock(all);
+        try {
+            for (LockInfo lock : locks) {
+                final LockNode node =
+                        root.create(SmallT.splitPath(lock.getPath()));
+                final LockEntry current = entries.get(node);
+                final LockEntry entry;
+                if (current==null) {
+                    entry = new LockEntry(lock);
+                } else if (current.getDepth() < lock.getDepth()) {
+                    entry = new LockEntry(lock);
+                    entry.getTokenExp().putAll(current.getTokenExp());
+                } else {
+                    // Not published yet, so updated in place
+                    entry = current;
+                    for (String token : lock.getTokens())
+                        entry.getTokenExp().put(token, lock.getExpiresAt());
+                }
+                entries.put(node, entry);
+                for (String token : lock.getTokens())
+                    tokenIndex.put(token, node);
+            }
+            for (Map.Entry<LockNode, LockEntry> me : entries.entrySet())
+                me.getKey().setLock(me.getValue());
+        } finally {
+            unlock(all);
+        }
+        for (LockEntry entry : entries.values()) {
+            for (Map.Entry<String, Long> te : entry.getTokenExp().entrySet())
+                sweeper.schedule(entry.getPath(), te.getKey(), te.getValue());
+        }
+    }
+
+    /**
+     * Put the lock on the resource, merging it with the existing lock.
+     * Must be called under the stripe lock.
+     * @param names Path elements
+     * @param lock Lock information
+     * @param tv Current time
+     * @return Resulting lock entry
+     */
+    private LockEntry putLock(String[] names, LockInfo lock, long tv) {
+        final LockNode node = root.create(names);
+        final LockEntry previous = node.lock;
+        final LockEntry current = activeLock(node, tv);
+        final LockEntry entry;
+        if (current==null) {
+            entry = new LockEntry(lock);
+        } else if (current.getDepth() < lock.getDepth()) {
+            // Replace the old lock, merging the tokens
+            entry = new LockEntry(lock);
+            entry.getTokenExp().putAll(current.getTokenExp());
+        } else {
+            // Add new lock tokens to the existing lock
+            entry = new LockEntry(current);
+            for (String token : lock.getTokens())
+                entry.getTokenExp().put(token, lock.getExpiresAt());
+        }
+        node.setLock(entry);
+        if (previous!=null && previous!=current) {
+            // Tokens of the expired lock replaced
+            for (String token : previous.getTokenExp().keySet())
+                tokenIndex.remove(token, node);
+        }
+        for (String token : lock.getTokens()) {
+            tokenIndex.put(token, node);
+            sweeper.schedule(entry.getPath(), token, lock.getExpiresAt());
+        }
+        return entry;
+    }
+
+    /**
+     * Check for conflicting locks at or below the specified node
+     * @param lock The lock to be created
+     * @param node Current lock node
+     * @param tv Current time
+     * @return null, if no conflicting locks found,
+     *    or list of conflicting paths otherwise
+     */
+    private LockResult checkDownLocks(LockInfo lock, LockNode node, long tv) {
+        if (lock.getDepth()==0)
+            return checkConflict(null, lock, activeLock(node, tv));
+        if (!node.hasConflicts(lock.isExclusive()))
+            return null;
+        // The counters include the expired locks, which are skipped here
+        LockResult result = null;
+        final Deque<LockNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            final LockNode cur = stack.pop();
+            for (LockNode next : cur.children.values())
+                stack.push(next);
+            result = checkConflict(result, lock, activeLock(cur, tv));
+        }
+        return result;
+    }
+
+    private static LockResult checkConflict(LockResult result,
+            LockInfo lock, LockEntry entry) {
+        if (entry==null)
+            return result;
+        if (lock.isExclusive() || entry.isExclusive()) {
+            if (result==null)
+                result = new LockResult();
+            result.getLockedPaths().add(entry.getPath());
+        }
+        return result;
+    }
+
+    /**
+     * Find the lock node by the token
+     * @param names Expected lock path
+     * @param token Lock token
+     * @return Lock node holding the token at the expected path, or null
+     */
+    private LockNode findNode(String[] names, String token) {
+        final LockNode node = (token==null) ? null : tokenIndex.get(token);
+        if (node==null || !node.key.equals(LockNode.keyOf(names)))
+            return null;
+        return node;
+    }
+
+    @Override
+    public LockInfo refreshLock(LockInfo lock) {
+        final String[] names = SmallT.splitPath(lock.getPath());
+        LockNode node = null;
+        for (String token : lock.getTokens()) {
+            node = findNode(names, token);
+            if (node!=null)
+                break;
+        }
+        if (node==null)
+            return null;
+        lock(names);
+        try {
+            final LockEntry current = activeLock(node, System.currentTimeMillis());
+            if (current==null)
+                return null;
+            final LockEntry entry = new LockEntry(current);
+            boolean retval = false;
+            final Map<String, Long> m = entry.getTokenExp();
+            for (String token : lock.getTokens()) {
+                if (m.containsKey(token)) {
+                    m.put(token, lock.getExpiresAt());
+                    sweeper.schedule(entry.getPath(), token,
+                            lock.getExpiresAt());
+                    retval = true;
+                }
+            }
+            if (!retval)
+                return null;
+            node.setLock(entry);
+            return new LockInfo(entry);
+        } finally {
+            unlock(names);
+        }
+    }
+
+    @Override
+    public boolean isLocked(String path, Collection<String> tokens) {
+        final LockNode node = root.find(SmallT.splitPath(path));
+        if (activeLock(node, System.currentTimeMillis())==null)
+            return false;
+        return isLocked(node, tokens);
+    }
+
+    @Override
+    public List<String> findLockedPaths(String path, Collection<String> tokens) {
+        final List<String> retval = new ArrayList<>();
+        final LockNode node = root.find(SmallT.splitPath(path));
+        if (node==null)
+            return retval;
+        final long tv = System.currentTimeMillis();
+        final Deque<LockNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            final LockNode cur = stack.pop();
+            for (LockNode next : cur.children.values())
+                stack.push(next);
+            final LockEntry e = activeLock(cur, tv);
+            if (e!=null && isLocked(cur, tokens))
+                retval.add(e.getPath());
+        }
+        return retval;
+    }
+
+    /**
+     * Check whether the lock is held without any of the skipped tokens
+     * @param node Lock node
+     * @param tokens Tokens to be skipped
+     * @return true, if the lock applies, and false otherwise
+     */
+    private boolean isLocked(LockNode node, Collection<String> tokens) {
+        if (tokens==null || tokens.isEmpty())
+            return true;
+        for (String token : tokens) {
+            if (token!=null && tokenIndex.get(token)==node)
+                return false; // found skipped token
+        }
+        return true;
+    }
+
+    @Override
+    public LockInfo findLockByToken(String token) {
+        final LockNode node = (token==null) ? null : tokenIndex.get(token);
+        final LockEntry e = activeLock(node, System.currentTimeMillis());
+        if (e==null || !e.getTokenExp().containsKey(token))
+            return null;
+        return new LockInfo(e);
+    }
+
+    /**
+     * @return Number of the indexed lock tokens
+     */
+    public int getTokenCount() {
+        return tokenIndex.size();
+    }
+
+    @Override
+    public LockInfo findLock(String path) {
+        final LockEntry e = activeLock(root.find(SmallT.splitPath(path)),
+                System.currentTimeMillis());
+        return (e==null) ? null : new LockInfo(e);
+    }
+
+    @Override
+    public boolean removeLock(String path, String token) {
+        final String[] names = SmallT.splitPath(path);
+        final LockNode node = findNode(names, token);
+        if (node==null)
+            return false;
+        lock(names);
+        try {
+            return removeToken(node, token, Long.MAX_VALUE);
+        } finally {
+            unlock(names);
+        }
+    }
+
+    /**
+     * Remove the token from the lock and from the index.
+     * Must be called under the stripe lock.
+     * @param node Lock node
+     * @param token Lock token
+     * @param expiresAt Remove only if the token expires at or before
+     * @return true, if the token was removed
+     */
+    private boolean removeToken(LockNode node, String token, long expiresAt) {
+        final LockEntry current = node.lock;
+        if (current==null)
+            return false;
+        final Long exp = current.getTokenExp().get(token);
+        if (exp==null || exp > expiresAt)
+            return false;
+        final LockEntry entry = new LockEntry(current);
+        entry.getTokenExp().remove(token);
+        node.setLock(entry.getTokenExp().isEmpty() ? null : entry);
+        tokenIndex.remove(token, node);
+        node.prune();
+        return true;
+    }
+
+    @Override
+    public List<LockInfo> discoverLocks(String path) {
+        final List<LockInfo> retval = new ArrayList<>();
+        final long tv = System.currentTimeMillis();
+        LockNode cur = root.traverse(SmallT.splitPath(path));
+        while (cur!=null) {
+            final LockEntry e = activeLock(cur, tv);
+            if (e!=null)
+                retval.add(new LockInfo(e));
+            cur = cur.parent;
+        }
+        return retval;
+    }
+
+    @Override
+    public void removeNullLock(String path) {
+        final String[] names = SmallT.splitPath(path);
+        lock(names);
+        try {
+            final LockNode node = root.find(names);
+            final LockEntry current = (node==null) ? null : node.lock;
+            if (current!=null && current.isLockNull()) {
+                final LockEntry entry = new LockEntry(current);
+                entry.setLockNull(false);
+                node.setLock(entry);
+            }
+        } finally {
+            unlock(names);
+        }
+    }
+
+    @Override
+    public List<LockInfo> listNullLocks(String parentPath) {
+        final List<LockInfo> retval = new ArrayList<>();
+        final LockNode node = root.find(SmallT.splitPath(parentPath));
+        if (node!=null) {
+            final long tv = System.currentTimeMillis();
+            for (LockNode cur : node.children.values()) {
+                final LockEntry e = activeLock(cur, tv);
+                if (e!=null && e.isLockNull())
+                    retval.add(new LockInfo(e));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Remove the expired token, unless it has been refreshed since
+     * @param path Lock path
+     * @param token Lock token
+     * @param expiresAt Expiration time the token was scheduled with
+     */
+    private void expire(String path, String token, long expiresAt) {
+        final String[] names = SmallT.splitPath(path);
+        final LockNode node = findNode(names, token);
+        if (node==null)
+            return;
+        lock(names);
+        try {
+            removeToken(node, token, expiresAt);
+        } finally {
+            unlock(names);
+        }
+    }
+
+    static final class LockNode {
+
+        final LockNode parent;
+        final String name;
+        final String key;
+        final ConcurrentHashMap<String, LockNode> children =
+                new ConcurrentHashMap<>();
+        volatile LockEntry lock = null;
+        // Locks at or below this node, guarded by the stripe lock.
+        // Not maintained for the root, which is shared by all stripes.
+        int exclusiveCount = 0;
+        int sharedCount = 0;
+
+        LockNode(LockNode parent, String name) {
+            this.parent = parent;
+            this.name = name;
+            if (parent==null)
+                this.key = "/";
+            else if (parent.parent==null)
+                this.key = "/" + name;
+            else
+                this.key = parent.key + "/" + name;
+        }
+
+        static String keyOf(String[] names) {
+            return "/" + String.join("/", names);
+        }
+
+        /**
+         * Replace the lock entry, updating the counters up to the root
+         * @param entry New lock entry, or null
+         */
+        void setLock(LockEntry entry) {
+            final LockEntry old = lock;
+            final int dx = (isExclusive(entry) ? 1 : 0)
+                    - (isExclusive(old) ? 1 : 0);
+            final int ds = (isShared(entry) ? 1 : 0)
+                    - (isShared(old) ? 1 : 0);
+            lock = entry;
+            if (dx==0 && ds==0)
+                return;
+            for (LockNode cur = this; cur.parent!=null; cur = cur.parent) {
+                cur.exclusiveCount += dx;
+                cur.sharedCount += ds;
+            }
+        }
+
+        /**
+         * Check the counters for the possible conflicts in the subtree
+         * @param exclusive true for the exclusive lock, false for shared
+         * @return true, if there may be conflicting locks at or below
+         */
+        boolean hasConflicts(boolean exclusive) {
+            if (parent!=null)
+                return exclusive ? (exclusiveCount + sharedCount > 0)
+                        : (exclusiveCount > 0);
+            // The root: all stripes are held by the caller
+            if (exclusive ? (lock!=null) : isExclusive(lock))
+                return true;
+            for (LockNode child : children.values()) {
+                if (child.hasConflicts(exclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean isExclusive(LockEntry e) {
+            return e!=null && e.isExclusive();
+        }
+
+        private static boolean isShared(LockEntry e) {
+            return e!=null && !e.isExclusive();
+        }
+
+        LockNode find(String[] path) {
+            LockNode cur = this;
+            for (String item : path) {
+                cur = cur.children.get(item);
+                if (cur==null)
+                    return null;
+            }
+            return cur;
+        }
+
+        LockNode traverse(String[] path) {
+            LockNode cur = this;
+            for (String item : path) {
+                final LockNode next = cur.children.get(item);
+                if (next==null)
+                    break;
+                cur = next;
+            }
+            return cur;
+        }
+
+        LockNode create(String[] path) {
+            LockNode cur = this;
+            for (String item : path) {
+                final LockNode parentNode = cur;
+                cur = cur.children.computeIfAbsent(item,
+                        k -> new LockNode(parentNode, k));
+            }
+            return cur;
+        }
+
+        /**
+         * Remove this node and its ancestors which became empty
+         */
+        void prune() {
+            LockNode cur = this;
+            while (cur.parent!=null && cur.lock==null
+                    && cur.children.isEmpty()) {
+                cur.parent.children.remove(cur.name, cur);
+                cur = cur.parent;
+            }
+        }
+
+    }
+
+}
@@ -29,23 +29,30 @@ import ru.zinal.webdav.util.*;
  */
 public class InMemoryLocker implements LockManager {
     
-    private static final long CLEANUP_TIMEOUT = 5000L;
-    
-    /**
-     * The latest expiration cleanup operation.
-     */
-    private long lastCleanupTime = System.currentTimeMillis();
-    
     /**
      * Structure of lock-null resources.
      */
     private final LockRecord locks = new LockRecord();
 
+    /**
+     * Lock records by the lock tokens.
+     */
+    private final HashMap<String, LockRecord> tokenIndex = new HashMap<>();
+
+    /**
+     * Background expiration of the lock tokens.
+     */
+    private final LockSweeper sweeper = new LockSweeper(this::expire);
+
+    @Override
+    public void close() {
+        sweeper.close();
+    }
+
     @Override
     public LockResult createLock(LockInfo lock) {
         final String[] entryPath = SmallT.splitPath(lock.getPath());
         synchronized(this) {
-            cleanupExpired();
             // 1. Checking the upper-level locks
             LockRecord dir = locks.traverse(entryPath);
             LockResult result = checkUpperLocks(lock, dir);
@@ -54,8 +61,11 @@ public class InMemoryLocker implements LockManager {
             // 2. Checking the current and the following locks
             dir = locks.create(entryPath);
             result = checkDownLocks(lock, dir);
-            if (result!=null)
+            if (result!=null) {
+                // Drop the records created for the rejected lock
+                dir.prune();
                 return result;
+            }
             // 3. Put the lock on the resource
             if (dir.getLock() != null) {
                 if (dir.getLock().getDepth() < lock.getDepth()) {
@@ -74,6 +84,11 @@ public class InMemoryLocker implements LockManager {
                 // put the new lock on the resource
                 dir.setLock(new LockEntry(lock));
             }
+            for (String token : lock.getTokens()) {
+                tokenIndex.put(token, dir);
+                sweeper.schedule(dir.getLock().getPath(), token,
+                        lock.getExpiresAt());
+            }
             return new LockResult(dir.getLock());
         } // synchronized(this)
     }
@@ -110,7 +125,10 @@ public class InMemoryLocker implements LockManager {
             // Checking the current entry ONLY
             return checkConflict(null, lock, dir.getLock());
         }
-        // Checking the current entry and all possible sub-entries
+        // Checking the current entry and all possible sub-entries,
+        // walking the subtree only to list the conflicting paths
+        if (!dir.hasConflicts(lock.isExclusive()))
+            return null;
         LockResult result = null;
         final Stack<LockRecord> stack = new Stack<>();
         stack.push(dir);
@@ -144,7 +162,6 @@ public class InMemoryLocker implements LockManager {
     @Override
     public LockInfo refreshLock(LockInfo lock) {
         synchronized(this) {
-            cleanupExpired();
             LockRecord dir = locks.find(lock.getPath());
             if (dir==null || dir.getLock()==null)
                 return null;
@@ -153,6 +170,8 @@ public class InMemoryLocker implements LockManager {
             for (String token : lock.getTokens()) {
                 if (m.containsKey(token)) {
                     m.put(token, lock.getExpiresAt());
+                    sweeper.schedule(dir.getLock().getPath(), token,
+                            lock.getExpiresAt());
                     retval = true;
                 }
             }
@@ -163,25 +182,77 @@ public class InMemoryLocker implements LockManager {
     @Override
     public boolean isLocked(String path, Collection<String> tokens) {
         synchronized(this) {
-            cleanupExpired();
             LockRecord dir = locks.find(path);
             if (dir==null || dir.getLock()==null)
                 return false;
-            if (tokens==null || tokens.isEmpty())
-                return true;
-            for (String token : tokens) {
-                if (dir.getLock().getTokenExp().containsKey(token))
-                    return false; // found skipped token
+            return isLocked(dir.getLock(), tokens);
+        }
+    }
+
+    @Override
+    public List<String> findLockedPaths(String path, Collection<String> tokens) {
+        final List<String> retval = new ArrayList<>();
+        synchronized(this) {
+            LockRecord dir = locks.find(path);
+            if (dir==null)
+                return retval;
+            final Stack<LockRecord> stack = new Stack<>();
+            stack.push(dir);
+            while (!stack.empty()) {
+                dir = stack.pop();
+                stack.addAll(dir.getChildren().values());
+                if (dir.getLock()!=null && isLocked(dir.getLock(), tokens))
+                    retval.add(dir.getLock().getPath());
             }
-            // we have a locked resource without skipped tokens
+        }
+        return retval;
+    }
+
+    /**
+     * Check whether the lock is held without any of the skipped tokens
+     * @param entry Lock entry
+     * @param tokens Tokens to be skipped
+     * @return true, if the lock applies, and false otherwise
+     */
+    private static boolean isLocked(LockEntry entry, Collection<String> tokens) {
+        if (tokens==null || tokens.isEmpty())
             return true;
+        for (String token : tokens) {
+            if (entry.getTokenExp().containsKey(token))
+                return false; // found skipped token
+        }
+        // we have a locked resource without skipped tokens
+        return true;
+    }
+
+    /**
+     * @return Number of the indexed lock tokens
+     */
+    public int getTokenCount() {
+        synchronized(this) {
+            return tokenIndex.size();
+        }
+    }
+
+    /**
+     * @return Number of the lock records, including the root
+     */
+    int getRecordCount() {
+        synchronized(this) {
+            int count = 0;
+            final Stack<LockRecord> stack = new Stack<>();
+            stack.push(locks);
+            while (!stack.empty()) {
+                stack.addAll(stack.pop().getChildren().values());
+                ++count;
+            }
+            return count;
         }
     }
 
     @Override
     public LockInfo findLock(String path) {
         synchronized(this) {
-            cleanupExpired();
             LockRecord dir = locks.find(path);
             if (dir==null || dir.getLock()==null)
                 return null;
@@ -189,16 +260,30 @@ public class InMemoryLocker implements LockManager {
         }
     }
 
+    @Override
+    public LockInfo findLockByToken(String token) {
+        synchronized(this) {
+            final LockRecord dir = tokenIndex.get(token);
+            if (dir==null || dir.getLock()==null)
+                return null;
+            return new LockInfo(dir.getLock());
+        }
+    }
+
     @Override
     public boolean removeLock(String path, String token) {
         boolean retval = false;
         synchronized(this) {
             LockRecord dir = locks.find(path);
             if (dir!=null && dir.getLock()!=null) {
-                if ( dir.getLock().getTokenExp().remove(token) != null )
+                if ( dir.getLock().getTokenExp().remove(token) != null ) {
+                    tokenIndex.remove(token);
                     retval = true;
+                }
+                if (dir.getLock().getTokenExp().isEmpty())
+                    dir.setLock(null);
+                dir.prune();
             }
-            cleanupExpired();
         }
         return retval;
     }
@@ -207,7 +292,6 @@ public class InMemoryLocker implements LockManager {
     public List<LockInfo> discoverLocks(String path) {
         final List<LockInfo> retval = new ArrayList<>();
         synchronized(this) {
-            cleanupExpired();
             LockRecord dir = locks.traverse(path);
             while (dir!=null) {
                 if (dir.getLock()!=null)
@@ -224,7 +308,6 @@ public class InMemoryLocker implements LockManager {
             LockRecord dir = locks.find(path);
             if (dir!=null && dir.getLock()!=null)
                 dir.getLock().setLockNull(false);
-            cleanupExpired();
         }
     }
 
@@ -232,7 +315,6 @@ public class InMemoryLocker implements LockManager {
     public List<LockInfo> listNullLocks(String parentPath) {
         final List<LockInfo> retval = new ArrayList<>();
         synchronized(this) {
-            cleanupExpired();
             LockRecord dir = locks.find(parentPath);
             if (dir!=null) {
                 for (LockRecord cur : dir.getChildren().values()) {
@@ -244,12 +326,27 @@ public class InMemoryLocker implements LockManager {
         return retval;
     }
     
-    private void cleanupExpired() {
-        final long tv = System.currentTimeMillis();
-        if (tv - lastCleanupTime < CLEANUP_TIMEOUT)
-            return;
-        lastCleanupTime = tv;
-        locks.cleanup(tv);
+    /**
+     * Remove the expired token, unless it has been refreshed since
+     * @param path Lock path
+     * @param token Lock token
+     * @param expiresAt Expiration time the token was scheduled with
+     */
+    private void expire(String path, String token, long expiresAt) {
+        synchronized(this) {
+            final LockRecord dir = locks.find(path);
+            if (dir==null || dir.getLock()==null)
+                return;
+            final Map<String, Long> m = dir.getLock().getTokenExp();
+            final Long exp = m.get(token);
+            if (exp==null || exp > expiresAt)
+                return;
+            m.remove(token);
+            tokenIndex.remove(token);
+            if (m.isEmpty())
+                dir.setLock(null);
+            dir.prune();
+        }
     }
     
     static class LockRecord {
@@ -258,6 +355,9 @@ public class InMemoryLocker implements LockManager {
         private final String name;
         private final HashMap<String, LockRecord> children = new HashMap<>();
         private LockEntry lock = null;
+        // Exclusive and shared locks at or below this record
+        private int exclusiveCount = 0;
+        private int sharedCount = 0;
 
         public LockRecord() {
             this.parent = null;
@@ -285,8 +385,46 @@ public class InMemoryLocker implements LockManager {
             return lock;
         }
 
+        /**
+         * Replace the lock entry, updating the counters up to the root
+         * @param lock New lock entry, or null
+         */
         public void setLock(LockEntry lock) {
+            final int dx = (isExclusive(lock) ? 1 : 0)
+                    - (isExclusive(this.lock) ? 1 : 0);
+            final int ds = (isShared(lock) ? 1 : 0)
+                    - (isShared(this.lock) ? 1 : 0);
             this.lock = lock;
+            for (LockRecord cur = this; cur!=null; cur = cur.parent) {
+                cur.exclusiveCount += dx;
+                cur.sharedCount += ds;
+            }
+        }
+
+        public int getExclusiveCount() {
+            return exclusiveCount;
+        }
+
+        public int getSharedCount() {
+            return sharedCount;
+        }
+
+        /**
+         * Check the counters for the conflicts in the subtree
+         * @param exclusive true for the exclusive lock, false for shared
+         * @return true, if there are conflicting locks at or below
+         */
+        public boolean hasConflicts(boolean exclusive) {
+            return exclusive ? (exclusiveCount + sharedCount > 0)
+                    : (exclusiveCount > 0);
+        }
+
+        private static boolean isExclusive(LockEntry e) {
+            return e!=null && e.isExclusive();
+        }
+
+        private static boolean isShared(LockEntry e) {
+            return e!=null && !e.isExclusive();
         }
 
         public LockRecord find(String path) {
@@ -335,37 +473,15 @@ public class InMemoryLocker implements LockManager {
             return cur;
         }
         
-        public void cleanup() {
-            cleanup(0L);
-        }
-        
-        public void cleanup(long tv) {
-            final Stack<LockRecord> stack1 = new Stack<>();
-            final Stack<LockRecord> stack2 = new Stack<>();
-            // Round one - clean up the expired locks
-            stack1.push(this);
-            while (!stack1.empty()) {
-                LockRecord cur = stack1.pop();
-                // second stack collects the hierarchy of all sub-items
-                stack2.push(cur);
-                // handle the expiration of the current lock
-                if (cur.lock!=null) {
-                    if (tv<=0L)
-                        tv = System.currentTimeMillis();
-                    if (cur.lock.hasExpired(tv))
-                        cur.lock = null;
-                }
-                // process all children buckets
-                for (LockRecord next : children.values())
-                    stack1.push(next);
-            }
-            // Round two - remove the empty lock buckets
-            while (!stack2.empty()) {
-                LockRecord cur = stack1.pop();
-                if (cur.lock == null && children.isEmpty()) {
-                    if (cur.parent!=null)
-                        cur.parent.children.remove(cur.name);
-                }
+        /**
+         * Remove this record and its ancestors which became empty
+         */
+        public void prune() {
+            LockRecord cur = this;
+            while (cur.parent!=null && cur.lock==null
+                    && cur.children.isEmpty()) {
+                cur.parent.children.remove(cur.name);
+                cur = cur.parent;
             }
         }
 
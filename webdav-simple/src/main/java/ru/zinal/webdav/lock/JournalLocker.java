@@ -0,0 +1,677 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.lock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import ru.zinal.webdav.model.WebdavContext;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Persistent lock manager, which keeps the locks in the delegate
+ * lock manager and appends the changes to the journal file.
+ * <p>
+ * The journal holds the per-token lock grants: create, refresh, remove
+ * and lock-null reset records, each with its length and checksum, so the
+ * torn tail left by a crash is detected and cut off. Once the journal
+ * grows over the limit, the live grants are written to the snapshot,
+ * which replaces the previous one atomically, and the journal is
+ * truncated. On startup the grants are loaded from the snapshot and
+ * the journal tail, and the ones still active are restored in the delegate
+ * without repeating the conflict checks.
+ * <p>
+ * The changes are applied to the delegate and encoded into the journal
+ * records under the stripe lock chosen by the top-level name of the path,
+ * the same way the delegate stripes its own changes. That keeps the records
+ * of each subtree in the order of the changes, while the independent
+ * subtrees are changed in parallel. The records are written to the journal
+ * outside of the stripe locks, by whichever writer comes first, so the lock
+ * operations do not wait for the file I/O of each other.
+ * <p>
+ * The journal records are flushed to the operating system on each change,
+ * which keeps the locks across the server restarts. The snapshot
+ * is synced to the disk before the journal is truncated.
+ * The expired tokens are not journaled, they are dropped on recovery.
+ * @author zinal
+ */
+public class JournalLocker implements LockManager {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(JournalLocker.class);
+
+    public static final String DIRECTORY = "locks";
+    public static final String SNAPSHOT = "locks.snapshot";
+    public static final String JOURNAL = "locks.journal";
+    public static final int DEFAULT_COMPACT_RECORDS = 100000;
+
+    private static final int MAGIC = 0x57444C4B; // WDLK
+    private static final int VERSION = 1;
+
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_REFRESH = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_CLEAR_NULL = 4;
+
+    private static final int STRIPES = 64;
+
+    private final Path directory;
+    private final ConcurrentLocker delegate;
+    private final int compactRecords;
+    // Live lock grants by token, changed under the stripe lock of the path
+    private final ConcurrentHashMap<String, Grant> grants =
+            new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Encoded records not written yet, in the order of changes
+    private final ConcurrentLinkedQueue<byte[]> pending =
+            new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    // Guards the journal file, taken before the stripe locks
+    private final Object journalLock = new Object();
+    private FileChannel journal;
+    private int journalRecords = 0;
+
+    /**
+     * Open the journal in the locks subdirectory of the configuration path
+     * @param context Context with the configuration path
+     */
+    public JournalLocker(WebdavContext context) {
+        this(Paths.get(context.getConfigPath(), DIRECTORY));
+    }
+
+    public JournalLocker(Path directory) {
+        this(directory, new ConcurrentLocker(), DEFAULT_COMPACT_RECORDS);
+    }
+
+    /**
+     * Open the journal, recovering the locks
+     * @param directory Directory of the snapshot and journal files
+     * @param delegate In-memory lock manager
+     * @param compactRecords Number of the journal records to trigger
+     *    the snapshot
+     */
+    public JournalLocker(Path directory, ConcurrentLocker delegate,
+            int compactRecords) {
+        this.directory = directory;
+        this.delegate = delegate;
+        this.compactRecords = compactRecords;
+        for (int i = 0; i < stripes.length; ++i)
+            stripes[i] = new ReentrantLock();
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Number of the lock grants tracked, including the expired ones
+     *    which are not written to the next snapshot
+     */
+    public int getGrantCount() {
+        return grants.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized(journalLock) {
+            try {
+                if (journal!=null) {
+                    snapshot();
+                    journal.close();
+                    journal = null;
+                }
+            } catch(IOException ex) {
+                LOG.warn("Cannot close the lock journal in {}", directory, ex);
+            }
+        }
+        delegate.close();
+    }
+
+    /**
+     * Acquire the stripe lock for the path, all the stripes for the root
+     * @param names Path elements
+     */
+    private void lock(String[] names) {
+        if (names.length > 0) {
+            stripe(names[0]).lock();
+        } else {
+            for (ReentrantLock l : stripes)
+                l.lock();
+        }
+    }
+
+    private void unlock(String[] names) {
+        if (names.length > 0) {
+            stripe(names[0]).unlock();
+        } else {
+            for (int i = stripes.length - 1; i >= 0; --i)
+                stripes[i].unlock();
+        }
+    }
+
+    private ReentrantLock stripe(String name) {
+        return stripes[(name.hashCode() & 0x7FFFFFFF) % stripes.length];
+    }
+
+    @Override
+    public LockResult createLock(LockInfo lock) {
+        final String[] names = SmallT.splitPath(lock.getPath());
+        final LockResult result;
+        lock(names);
+        try {
+            result = delegate.createLock(lock);
+            if (!result.isSuccess())
+                return result;
+            // Tokens merged into the lock take its effective depth
+            final LockInfo effective = result.getInfo();
+            final Grant g = new Grant(lock);
+            g.depth = effective.getDepth();
+            applyCreate(g, lock.getTokens(), effective.getTokens());
+            addRecord(OP_CREATE, out -> {
+                writeGrant(out, g);
+                writeTokens(out, lock.getTokens());
+                writeTokens(out, effective.getTokens());
+            });
+        } finally {
+            unlock(names);
+        }
+        writePending();
+        return result;
+    }
+
+    @Override
+    public LockInfo refreshLock(LockInfo lock) {
+        final String[] names = SmallT.splitPath(lock.getPath());
+        final LockInfo result;
+        lock(names);
+        try {
+            result = delegate.refreshLock(lock);
+            if (result==null)
+                return null;
+            final List<String> tokens = new ArrayList<>();
+            for (String token : lock.getTokens()) {
+                if (result.getTokens().contains(token))
+                    tokens.add(token);
+            }
+            applyRefresh(lock.getExpiresAt(), tokens);
+            addRecord(OP_REFRESH, out -> {
+                out.writeLong(lock.getExpiresAt());
+                writeTokens(out, tokens);
+            });
+        } finally {
+            unlock(names);
+        }
+        writePending();
+        return result;
+    }
+
+    @Override
+    public boolean removeLock(String path, String token) {
+        final String[] names = SmallT.splitPath(path);
+        lock(names);
+        try {
+            if (!delegate.removeLock(path, token))
+                return false;
+            grants.remove(token);
+            addRecord(OP_REMOVE, out -> writeString(out, token));
+        } finally {
+            unlock(names);
+        }
+        writePending();
+        return true;
+    }
+
+    @Override
+    public void removeNullLock(String path) {
+        final String[] names = SmallT.splitPath(path);
+        lock(names);
+        try {
+            final LockInfo current = delegate.findLock(path);
+            if (current==null || !current.isLockNull())
+                return;
+            delegate.removeNullLock(path);
+            applyClearNull(current.getTokens());
+            addRecord(OP_CLEAR_NULL,
+                    out -> writeTokens(out, current.getTokens()));
+        } finally {
+            unlock(names);
+        }
+        writePending();
+    }
+
+    @Override
+    public LockInfo findLock(String path) {
+        return delegate.findLock(path);
+    }
+
+    @Override
+    public LockInfo findLockByToken(String token) {
+        return delegate.findLockByToken(token);
+    }
+
+    @Override
+    public boolean isLocked(String path, Collection<String> tokens) {
+        return delegate.isLocked(path, tokens);
+    }
+
+    @Override
+    public List<String> findLockedPaths(String path, Collection<String> tokens) {
+        return delegate.findLockedPaths(path, tokens);
+    }
+
+    @Override
+    public List<LockInfo> discoverLocks(String path) {
+        return delegate.discoverLocks(path);
+    }
+
+    @Override
+    public List<LockInfo> listNullLocks(String parentPath) {
+        return delegate.listNullLocks(parentPath);
+    }
+
+    private void applyCreate(Grant g, Collection<String> tokens,
+            Collection<String> merged) {
+        for (String token : merged) {
+            final Grant other = grants.get(token);
+            if (other!=null)
+                other.depth = g.depth;
+        }
+        for (String token : tokens)
+            grants.put(token, new Grant(g));
+    }
+
+    private void applyRefresh(long expiresAt, Collection<String> tokens) {
+        for (String token : tokens) {
+            final Grant g = grants.get(token);
+            if (g!=null)
+                g.expiresAt = expiresAt;
+        }
+    }
+
+    private void applyClearNull(Collection<String> tokens) {
+        for (String token : tokens) {
+            final Grant g = grants.get(token);
+            if (g!=null)
+                g.lockNull = false;
+        }
+    }
+
+    /**
+     * Load the snapshot and the journal, cutting off its torn tail,
+     * and put the active grants to the delegate
+     * @throws IOException on read errors
+     */
+    private void recover() throws IOException {
+        final long tv = System.currentTimeMillis();
+        final Path snapshotFile = directory.resolve(SNAPSHOT);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshotFile), 65536))) {
+            if (in.readInt()!=MAGIC || in.readInt()!=VERSION)
+                throw new IOException("Illegal lock snapshot " + snapshotFile);
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String token = readString(in);
+                grants.put(token, readGrant(in));
+            }
+        } catch(NoSuchFileException ex) {
+            // No snapshot yet
+        }
+        final Path journalFile = directory.resolve(JOURNAL);
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long valid = replay(Channels.newInputStream(journal));
+        if (valid < journal.size()) {
+            LOG.warn("Truncating the torn lock journal {} from {} to {} bytes",
+                    journalFile, journal.size(), valid);
+            journal.truncate(valid);
+        }
+        journal.position(valid);
+        final List<LockInfo> locks = new ArrayList<>(grants.size());
+        final Iterator<Map.Entry<String, Grant>> it =
+                grants.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Grant> me = it.next();
+            if (me.getValue().expiresAt <= tv)
+                it.remove();
+            else
+                locks.add(me.getValue().toLockInfo(me.getKey()));
+        }
+        // The journaled locks did not conflict, no need to check again
+        delegate.restoreLocks(locks);
+        LOG.info("Recovered {} locks from {} in {} msec", grants.size(),
+                directory, System.currentTimeMillis() - tv);
+    }
+
+    /**
+     * Apply the journal records
+     * @param is Journal input
+     * @return Length of the valid journal prefix
+     * @throws IOException on read errors
+     */
+    private long replay(InputStream is) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(is, 65536));
+        final CRC32 crc = new CRC32();
+        long valid = 0L;
+        byte[] data = new byte[256];
+        while (true) {
+            final int length;
+            try {
+                length = in.readInt();
+                if (length <= 0 || length > (64 << 20))
+                    break;
+                if (data.length < length)
+                    data = new byte[length];
+                in.readFully(data, 0, length);
+                crc.reset();
+                crc.update(data, 0, length);
+                if (in.readInt()!=(int) crc.getValue())
+                    break;
+            } catch(EOFException ex) {
+                break;
+            }
+            apply(new DataInputStream(
+                    new ByteArrayInputStream(data, 0, length)));
+            valid += 8 + length;
+            ++journalRecords;
+        }
+        return valid;
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        final byte op = in.readByte();
+        switch (op) {
+            case OP_CREATE: {
+                final Grant g = readGrant(in);
+                final List<String> tokens = readTokens(in);
+                applyCreate(g, tokens, readTokens(in));
+                break;
+            }
+            case OP_REFRESH: {
+                final long expiresAt = in.readLong();
+                applyRefresh(expiresAt, readTokens(in));
+                break;
+            }
+            case OP_REMOVE:
+                grants.remove(readString(in));
+                break;
+            case OP_CLEAR_NULL:
+                applyClearNull(readTokens(in));
+                break;
+            default:
+                throw new IOException("Illegal lock journal record " + op);
+        }
+    }
+
+    /**
+     * Write the active grants to the new snapshot and truncate the journal.
+     * Must be called under the journal lock.
+     * @throws IOException on write errors
+     */
+    private void snapshot() throws IOException {
+        final long tv = System.currentTimeMillis();
+        final List<String> tokens;
+        final List<Grant> live;
+        final String[] all = new String[0];
+        lock(all);
+        try {
+            final Iterator<Grant> it = grants.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expiresAt <= tv)
+                    it.remove();
+            }
+            tokens = new ArrayList<>(grants.size());
+            live = new ArrayList<>(grants.size());
+            for (Map.Entry<String, Grant> me : grants.entrySet()) {
+                tokens.add(me.getKey());
+                live.add(new Grant(me.getValue()));
+            }
+            // The changes not written yet are in the snapshot already
+            pending.clear();
+        } finally {
+            unlock(all);
+        }
+        final Path snapshotFile = directory.resolve(SNAPSHOT);
+        final Path temp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel fc = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(fc), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(live.size());
+            for (int i = 0; i < live.size(); ++i) {
+                writeString(out, tokens.get(i));
+                writeGrant(out, live.get(i));
+            }
+            out.flush();
+            fc.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        journal.truncate(0L);
+        journal.position(0L);
+        journalRecords = 0;
+        LOG.debug("Lock snapshot of {} grants written in {} msec",
+                live.size(), System.currentTimeMillis() - tv);
+    }
+
+    /**
+     * Encode the journal record, to be written by {@link #writePending()}.
+     * Must be called under the stripe lock, right after the change.
+     * @param op Record type
+     * @param body Record contents
+     */
+    private void addRecord(byte op, RecordBody body) {
+        if (closed)
+            return;
+        try {
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            final DataOutputStream recordOut = new DataOutputStream(record);
+            recordOut.writeByte(op);
+            body.write(recordOut);
+            recordOut.flush();
+            final byte[] data = record.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            final ByteBuffer bb = ByteBuffer.allocate(data.length + 8);
+            bb.putInt(data.length).put(data).putInt((int) crc.getValue());
+            pending.add(bb.array());
+        } catch(IOException ex) {
+            LOG.warn("Cannot encode the lock journal record", ex);
+        }
+    }
+
+    /**
+     * Append the pending records to the journal, taking the snapshot
+     * when the journal grows too long. The records of the concurrent
+     * changes are written together by the first writer.
+     */
+    private void writePending() {
+        synchronized(journalLock) {
+            if (journal==null)
+                return;
+            try {
+                byte[] data;
+                while ((data = pending.poll()) != null) {
+                    final ByteBuffer bb = ByteBuffer.wrap(data);
+                    while (bb.hasRemaining())
+                        journal.write(bb);
+                    ++journalRecords;
+                }
+                if (journalRecords >= compactRecords
+                        && journalRecords >= getGrantCount())
+                    snapshot();
+            } catch(IOException ex) {
+                LOG.warn("Cannot append to the lock journal in {}",
+                        directory, ex);
+            }
+        }
+    }
+
+    private static void writeTokens(DataOutputStream out,
+            Collection<String> tokens) throws IOException {
+        out.writeInt(tokens.size());
+        for (String token : tokens)
+            writeString(out, token);
+    }
+
+    private static void writeGrant(DataOutputStream out, Grant g)
+            throws IOException {
+        writeString(out, g.path);
+        writeString(out, g.type);
+        writeString(out, g.scope);
+        out.writeInt(g.depth);
+        writeString(out, g.owner);
+        out.writeLong(g.creationDate);
+        out.writeLong(g.expiresAt);
+        out.writeBoolean(g.lockNull);
+    }
+
+    private static Grant readGrant(DataInputStream in) throws IOException {
+        final Grant g = new Grant();
+        g.path = readString(in);
+        g.type = readString(in);
+        g.scope = readString(in);
+        g.depth = in.readInt();
+        g.owner = readString(in);
+        g.creationDate = in.readLong();
+        g.expiresAt = in.readLong();
+        g.lockNull = in.readBoolean();
+        return g;
+    }
+
+    private static List<String> readTokens(DataInputStream in)
+            throws IOException {
+        final int count = in.readInt();
+        final List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+            tokens.add(readString(in));
+        return tokens;
+    }
+
+    private static void writeString(DataOutputStream out, String v)
+            throws IOException {
+        if (v==null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] data = v.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0)
+            return null;
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private static interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Lock attributes of a single token
+     */
+    private static final class Grant {
+        String path;
+        String type;
+        String scope;
+        int depth;
+        String owner;
+        long creationDate;
+        long expiresAt;
+        boolean lockNull;
+
+        Grant() {
+        }
+
+        Grant(LockInfo li) {
+            this.path = li.getPath();
+            this.type = li.getType();
+            this.scope = li.getScope();
+            this.depth = li.getDepth();
+            this.owner = li.getOwner();
+            this.creationDate = li.getCreationDate();
+            this.expiresAt = li.getExpiresAt();
+            this.lockNull = li.isLockNull();
+        }
+
+        Grant(Grant g) {
+            this.path = g.path;
+            this.type = g.type;
+            this.scope = g.scope;
+            this.depth = g.depth;
+            this.owner = g.owner;
+            this.creationDate = g.creationDate;
+            this.expiresAt = g.expiresAt;
+            this.lockNull = g.lockNull;
+        }
+
+        LockInfo toLockInfo(String token) {
+            final LockInfo li = new LockInfo();
+            li.setPath(path);
+            li.setType(type);
+            li.setScope(scope);
+            li.setDepth(depth);
+            li.setOwner(owner);
+            li.setCreationDate(creationDate);
+            li.setExpiresAt(expiresAt);
+            li.setLockNull(lockNull);
+            li.getTokens().add(token);
+            return li;
+        }
+    }
+
+}
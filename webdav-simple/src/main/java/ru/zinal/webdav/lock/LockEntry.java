@@ -47,6 +47,21 @@ public class LockEntry {
         this.lockNull = li.isLockNull();
     }
 
+    /**
+     * Copy the lock entry, to be modified before publishing it
+     * @param src Source lock entry
+     */
+    public LockEntry(LockEntry src) {
+        this.path = src.path;
+        this.type = src.type;
+        this.scope = src.scope;
+        this.depth = src.depth;
+        this.owner = src.owner;
+        this.creationDate = src.creationDate;
+        this.tokenExp = new HashMap<>(src.tokenExp);
+        this.lockNull = src.lockNull;
+    }
+
     public String getPath() {
         return path;
     }
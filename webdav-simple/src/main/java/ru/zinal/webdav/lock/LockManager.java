@@ -44,6 +44,13 @@ public interface LockManager {
      * @return lock information, or null if lock does not exist
      */
     LockInfo findLock(String path);
+
+    /**
+     * Retrieve the information about the lock holding the specified token.
+     * @param token Lock token
+     * @return lock information, or null if the token is not active
+     */
+    LockInfo findLockByToken(String token);
     
     /**
      * Check whether the resource is locked
@@ -53,6 +60,14 @@ public interface LockManager {
      */
     boolean isLocked(String path, Collection<String> tokens);
     
+    /**
+     * Find the locked resources in the subtree of the specified resource
+     * @param path Path to the resource
+     * @param tokens Tokens to be skipped
+     * @return Paths of the locked resources at or below the specified path
+     */
+    List<String> findLockedPaths(String path, Collection<String> tokens);
+    
     /**
      * Remove the specified lock
      * @param path Path to locked object
@@ -81,5 +96,13 @@ public interface LockManager {
      * @return List of null locks
      */
     List<LockInfo> listNullLocks(String parentPath);
+
+    /**
+     * Release the resources held by the lock manager,
+     * e.g. stop its background threads.
+     */
+    default void close() {
+        // NOOP
+    }
     
 }
@@ -39,6 +39,13 @@ public class LockResult {
         this.info = (entry==null) ? null : new LockInfo(entry);
     }
 
+    /**
+     * @return Resulting lock information, or null if the lock failed
+     */
+    public LockInfo getInfo() {
+        return info;
+    }
+
     public boolean isSuccess() {
         return info!=null;
     }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.lock;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel expiring the lock tokens in the background.
+ * Each token is put to the slot of its expiration second, and the
+ * sweeper thread checks one slot per second, touching only the tokens
+ * due in the current wheel round. The tokens refreshed since being
+ * scheduled are re-scheduled by the lock manager, and the stale wheel
+ * entries are ignored by the expiration callback.
+ * @author zinal
+ */
+public class LockSweeper implements AutoCloseable {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(LockSweeper.class);
+
+    public static final long TICK = 1000L;
+    public static final int SLOTS = 512;
+
+    /**
+     * Receiver of the expiration events
+     */
+    @FunctionalInterface
+    public static interface Target {
+        /**
+         * Remove the token from the lock, if it has not been refreshed
+         * @param path Lock path
+         * @param token Lock token
+         * @param expiresAt Expiration time the token was scheduled with
+         */
+        void expire(String path, String token, long expiresAt);
+    }
+
+    private final Target target;
+    private final ConcurrentLinkedQueue<Item>[] slots;
+    private final Thread thread;
+    // Tick being processed by the sweeper, or the last one processed
+    private volatile long current;
+
+    @SuppressWarnings("unchecked")
+    public LockSweeper(Target target) {
+        this.target = target;
+        this.slots = new ConcurrentLinkedQueue[SLOTS];
+        for (int i = 0; i < SLOTS; ++i)
+            slots[i] = new ConcurrentLinkedQueue<>();
+        this.current = System.currentTimeMillis() / TICK;
+        this.thread = new Thread(this::run, "lock-sweeper");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedule the token expiration
+     * @param path Lock path
+     * @param token Lock token
+     * @param expiresAt Expiration time
+     */
+    public void schedule(String path, String token, long expiresAt) {
+        // The tick is processed once its start time has passed,
+        // and the already passed ticks are not going to be visited again
+        final long due = (expiresAt + TICK - 1) / TICK;
+        while (true) {
+            final long tick = Math.max(due, current + 1);
+            final Item item = new Item(path, token, expiresAt, tick);
+            final ConcurrentLinkedQueue<Item> slot =
+                    slots[(int) (tick % SLOTS)];
+            slot.add(item);
+            // The sweeper might have started on the slot meanwhile,
+            // and then the item would wait for the next wheel round.
+            // If the item is still there, it goes to the next tick.
+            if (current < tick || !slot.remove(item))
+                return;
+        }
+    }
+
+    /**
+     * @return Number of the scheduled expirations, including the stale ones
+     */
+    public int size() {
+        int count = 0;
+        for (ConcurrentLinkedQueue<Item> slot : slots)
+            count += slot.size();
+        return count;
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final long now = System.currentTimeMillis();
+            final long tick = now / TICK;
+            for (long t = current + 1; t <= tick; ++t) {
+                current = t;
+                process(t);
+            }
+            try {
+                Thread.sleep((tick + 1) * TICK - now);
+            } catch(InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+    private void process(long tick) {
+        final Iterator<Item> it = slots[(int) (tick % SLOTS)].iterator();
+        while (it.hasNext()) {
+            final Item item = it.next();
+            if (item.tick > tick)
+                continue; // later wheel round
+            it.remove();
+            try {
+                target.expire(item.path, item.token, item.expiresAt);
+            } catch(Exception ex) {
+                LOG.warn("Cannot expire lock {} on {}", item.token,
+                        item.path, ex);
+            }
+        }
+    }
+
+    private static final class Item {
+        final String path;
+        final String token;
+        final long expiresAt;
+        final long tick;
+
+        Item(String path, String token, long expiresAt, long tick) {
+            this.path = path;
+            this.token = token;
+            this.expiresAt = expiresAt;
+            this.tick = tick;
+        }
+    }
+
+}
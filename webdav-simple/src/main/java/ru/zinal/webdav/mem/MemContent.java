@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * File content kept as the list of chunks.
+ * All the chunks except the last one have the full chunk size,
+ * the last one grows on demand.
+ * @author zinal
+ */
+final class MemContent extends MemData {
+
+    private final int chunkSize;
+    private final ArrayList<byte[]> chunks = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long length = 0L;
+
+    MemContent(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    long length() {
+        lock.readLock().lock();
+        try {
+            return length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    int read(long pos, byte[] b, int off, int len) {
+        lock.readLock().lock();
+        try {
+            if (pos >= length)
+                return -1;
+            if (len > length - pos)
+                len = (int) (length - pos);
+            int done = 0;
+            while (done < len) {
+                final byte[] chunk = chunks.get((int) (pos / chunkSize));
+                final int chunkPos = (int) (pos % chunkSize);
+                final int portion = Math.min(len - done, chunkSize - chunkPos);
+                System.arraycopy(chunk, chunkPos, b, off + done, portion);
+                done += portion;
+                pos += portion;
+            }
+            return done;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    void write(long pos, byte[] b, int off, int len) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(pos + len);
+            int done = 0;
+            while (done < len) {
+                final byte[] chunk = chunks.get((int) (pos / chunkSize));
+                final int chunkPos = (int) (pos % chunkSize);
+                final int portion = Math.min(len - done, chunkSize - chunkPos);
+                System.arraycopy(b, off + done, chunk, chunkPos, portion);
+                done += portion;
+                pos += portion;
+            }
+            if (pos > length)
+                length = pos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(long capacity) {
+        if (capacity <= 0L)
+            return;
+        final int lastIndex = (int) ((capacity - 1L) / chunkSize);
+        for (int index = 0; index <= lastIndex; ++index) {
+            final int needed = (int) Math.min((long) chunkSize,
+                    capacity - ((long) index) * chunkSize);
+            if (index >= chunks.size()) {
+                chunks.add(new byte[(index < lastIndex) ? chunkSize : needed]);
+            } else {
+                final byte[] chunk = chunks.get(index);
+                if (chunk.length < needed) {
+                    final int size = Math.min(chunkSize,
+                            Math.max(needed, 2 * chunk.length));
+                    chunks.set(index, Arrays.copyOf(chunk, size));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import ru.zinal.webdav.model.WebdavContext;
+
+/**
+ *
+ * @author zinal
+ */
+public class MemContext extends WebdavContext {
+
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @return Size of the chunks holding the file content, bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        if (chunkSize < 256)
+            chunkSize = 256;
+    }
+
+}
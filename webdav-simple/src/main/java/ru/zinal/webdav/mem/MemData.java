@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Content of the in-memory file.
+ * @author zinal
+ */
+abstract class MemData {
+
+    /**
+     * @return Content length, bytes
+     */
+    abstract long length();
+
+    /**
+     * Read the data at the specified position
+     * @param pos Position to read from
+     * @param b Target buffer
+     * @param off Offset in the target buffer
+     * @param len Maximum number of bytes to read
+     * @return Number of bytes read, or -1 at the end of content
+     */
+    abstract int read(long pos, byte[] b, int off, int len);
+
+    /**
+     * Write the data at the specified position, extending the content
+     * when needed. The gap before the position, if any, is zero-filled.
+     * @param pos Position to write to
+     * @param b Source buffer
+     * @param off Offset in the source buffer
+     * @param len Number of bytes to write
+     * @throws IOException if there is no space left
+     */
+    abstract void write(long pos, byte[] b, int off, int len)
+            throws IOException;
+
+    /**
+     * Write the stream data at the specified position
+     * @param pos Position to write to
+     * @param data Source data
+     * @return Number of bytes written
+     * @throws IOException on read errors, or if there is no space left
+     */
+    long write(long pos, InputStream data) throws IOException {
+        final byte[] buf = new byte[32768];
+        long total = 0L;
+        while (true) {
+            int len = data.read(buf);
+            if (len < 0) break;
+            write(pos + total, buf, 0, len);
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * Register one more reader of the content
+     * @return true, if the content is still available
+     */
+    boolean retain() {
+        return true;
+    }
+
+    /**
+     * Unregister the reader or the owner of the content.
+     * The storage is reclaimed when the last reference is released.
+     */
+    void release() {
+        // NOOP
+    }
+
+    /**
+     * Open the read channel over the content
+     * @return Channel, or null if the content does not support channels
+     */
+    SeekableByteChannel openChannel() {
+        return null;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class MemDirectory extends WebDirectory {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(MemDirectory.class);
+
+    private final MemDirectory parent;
+    private final String name;
+    private final MemStorage storage;
+    private final long creation;
+    private volatile long lastModified;
+    private final ConcurrentSkipListMap<String, WebResource> children
+            = new ConcurrentSkipListMap<>();
+
+    /**
+     * Create the root directory
+     * @param chunkSize Size of the file content chunks
+     */
+    public MemDirectory(int chunkSize) {
+        this(null, "/", MemStorage.heap(chunkSize));
+    }
+
+    /**
+     * Create the root directory
+     * @param storage Storage for the file content
+     */
+    MemDirectory(MemStorage storage) {
+        this(null, "/", storage);
+    }
+
+    private MemDirectory(MemDirectory parent, String name, MemStorage storage) {
+        this.parent = parent;
+        this.name = name;
+        this.storage = storage;
+        this.creation = System.currentTimeMillis();
+        this.lastModified = this.creation;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPath() {
+        if (parent==null)
+            return "/";
+        return parent.getPath() + name + "/";
+    }
+
+    @Override
+    public long getCreation() {
+        return creation;
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    void touch() {
+        lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Remove the child entry, if it is still attached
+     * @param childName Name of the child entry
+     * @param child Child entry
+     * @return true, if the entry has been removed
+     */
+    boolean detach(String childName, WebResource child) {
+        if (children.remove(childName, child)) {
+            touch();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        return children.get(name);
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        WebResource cur = this;
+        if (names==null)
+            return cur;
+        for (String item : names) {
+            if (!(cur instanceof MemDirectory))
+                return null;
+            cur = ((MemDirectory) cur).children.get(item);
+            if (cur==null)
+                return null;
+        }
+        return cur;
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        final MemDirectory dir = new MemDirectory(this, name, storage);
+        if (children.putIfAbsent(name, dir) != null)
+            return null;
+        touch();
+        return dir;
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        if (children.containsKey(name))
+            return null;
+        final MemFile file = new MemFile(this, name, storage);
+        if (data!=null) {
+            try {
+                file.getContent().write(0L, data);
+            } catch(IOException ex) {
+                LOG.warn("Error writing to file {}{}", getPath(), name, ex);
+                file.getContent().release();
+                return null;
+            }
+        }
+        if (children.putIfAbsent(name, file) != null) {
+            file.getContent().release();
+            return null;
+        }
+        touch();
+        return file;
+    }
+
+    @Override
+    public boolean delete(String name) {
+        final WebResource child = children.get(name);
+        if (child==null)
+            return false;
+        return child.delete();
+    }
+
+    @Override
+    public List<String> list() {
+        return new ArrayList<>(children.keySet());
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        return new ArrayList<>(children.values());
+    }
+
+    @Override
+    public WebListing openListing() {
+        // The iteration is weakly consistent, no snapshot is needed
+        return WebListing.of(children.values());
+    }
+
+    @Override
+    public boolean delete() {
+        if (parent==null || !children.isEmpty())
+            return false;
+        return parent.detach(name, this);
+    }
+
+}
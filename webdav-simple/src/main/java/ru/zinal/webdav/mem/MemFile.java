@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class MemFile extends WebFile {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(MemFile.class);
+
+    private final MemDirectory parent;
+    private final String name;
+    private final MemStorage storage;
+    private final long creation;
+    private volatile long lastModified;
+    // Swapped atomically, so each replaced content is released exactly once
+    private final AtomicReference<MemData> content = new AtomicReference<>();
+
+    MemFile(MemDirectory parent, String name, MemStorage storage) {
+        this.parent = parent;
+        this.name = name;
+        this.storage = storage;
+        this.creation = System.currentTimeMillis();
+        this.lastModified = this.creation;
+        this.content.set(storage.allocate());
+    }
+
+    MemData getContent() {
+        return content.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPath() {
+        return parent.getPath() + name;
+    }
+
+    @Override
+    public long getCreation() {
+        return creation;
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.get().length();
+    }
+
+    @Override
+    public InputStream getData() {
+        return new MemInput(content.get(), 0L, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream getData(long start, long finish) {
+        return new MemInput(content.get(), start, finish);
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        final MemData replacement = storage.allocate();
+        try {
+            replacement.write(0L, data);
+        } catch(IOException ex) {
+            LOG.warn("Cannot replace data of file {}", getPath(), ex);
+            replacement.release();
+            return false;
+        }
+        lastModified = System.currentTimeMillis();
+        content.getAndSet(replacement).release();
+        return true;
+    }
+
+    @Override
+    public boolean replaceData(InputStream data, long start) {
+        try {
+            content.get().write(start, data);
+        } catch(IOException ex) {
+            LOG.warn("Cannot update data of file {}", getPath(), ex);
+            return false;
+        }
+        lastModified = System.currentTimeMillis();
+        return true;
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel() {
+        return content.get().openChannel();
+    }
+
+    @Override
+    public boolean delete() {
+        if (!parent.detach(name, this))
+            return false;
+        // Empty content keeps the detached file usable for its holders
+        content.getAndSet(storage.allocate()).release();
+        return true;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.InputStream;
+
+/**
+ * Input stream over the range of the in-memory file content.
+ * @author zinal
+ */
+final class MemInput extends InputStream {
+
+    private final MemData content;
+    private long position;
+    private final long finish;
+    private boolean closed;
+
+    /**
+     * Create the input stream, holding the reference to the content
+     * until the stream is closed.
+     * @param content File content
+     * @param start Range start position
+     * @param finish Range finish position, exclusive
+     */
+    MemInput(MemData content, long start, long finish) {
+        this.content = content;
+        this.position = start;
+        this.finish = finish;
+        this.closed = !content.retain();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            content.release();
+        }
+    }
+
+    @Override
+    public int read() {
+        final byte[] b = new byte[1];
+        if (read(b, 0, 1) != 1)
+            return -1;
+        return 0xFF & ((int) b[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (closed || position >= finish)
+            return -1;
+        if (len > finish - position)
+            len = (int) (finish - position);
+        final int bytes = content.read(position, b, off, len);
+        if (bytes > 0)
+            position += bytes;
+        return bytes;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0L)
+            return 0L;
+        final long limit = Math.min(finish, content.length());
+        if (n > limit - position)
+            n = Math.max(0L, limit - position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        final long limit = Math.min(finish, content.length());
+        return (int) Math.max(0L, Math.min(Integer.MAX_VALUE, limit - position));
+    }
+
+}
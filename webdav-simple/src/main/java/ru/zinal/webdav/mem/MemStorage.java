@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+/**
+ * Allocator of the file content for the in-memory tree.
+ * @author zinal
+ */
+abstract class MemStorage {
+
+    /**
+     * @return New empty file content
+     */
+    abstract MemData allocate();
+
+    /**
+     * Heap storage, keeping the content in the chunked byte arrays
+     * @param chunkSize Size of the chunks, bytes
+     * @return Storage instance
+     */
+    static MemStorage heap(final int chunkSize) {
+        return new MemStorage() {
+            @Override
+            MemData allocate() {
+                return new MemContent(chunkSize);
+            }
+        };
+    }
+
+}
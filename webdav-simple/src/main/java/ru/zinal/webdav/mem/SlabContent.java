@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * File content kept in the off-heap blocks.
+ * The blocks are returned to the storage when the file is deleted or
+ * replaced, and all the streams and channels reading it are closed.
+ * @author zinal
+ */
+final class SlabContent extends MemData {
+
+    private final SlabStorage storage;
+    private final int blockSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private int[] blocks = new int[4];
+    private int blockCount = 0;
+    private long length = 0L;
+
+    SlabContent(SlabStorage storage) {
+        this.storage = storage;
+        this.blockSize = storage.getBlockSize();
+    }
+
+    @Override
+    long length() {
+        lock.readLock().lock();
+        try {
+            return length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    int read(long pos, byte[] b, int off, int len) {
+        lock.readLock().lock();
+        try {
+            if (pos >= length)
+                return -1;
+            if (len > length - pos)
+                len = (int) (length - pos);
+            int done = 0;
+            while (done < len) {
+                final int blockPos = (int) (pos % blockSize);
+                final int portion = Math.min(len - done, blockSize - blockPos);
+                storage.slice(blocks[(int) (pos / blockSize)], blockPos, portion)
+                        .get(b, off + done, portion);
+                done += portion;
+                pos += portion;
+            }
+            return done;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read the data at the specified position directly to the buffer
+     * @param pos Position to read from
+     * @param dst Target buffer
+     * @return Number of bytes read, or -1 at the end of content
+     */
+    int read(long pos, ByteBuffer dst) {
+        lock.readLock().lock();
+        try {
+            if (pos >= length)
+                return -1;
+            final int len = (int) Math.min(dst.remaining(), length - pos);
+            int done = 0;
+            while (done < len) {
+                final int blockPos = (int) (pos % blockSize);
+                final int portion = Math.min(len - done, blockSize - blockPos);
+                dst.put(storage.slice(blocks[(int) (pos / blockSize)],
+                        blockPos, portion));
+                done += portion;
+                pos += portion;
+            }
+            return done;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    void write(long pos, byte[] b, int off, int len) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (refs.get() <= 0)
+                throw new IOException("Content has been released");
+            ensureCapacity(pos + len);
+            int done = 0;
+            while (done < len) {
+                final int blockPos = (int) (pos % blockSize);
+                final int portion = Math.min(len - done, blockSize - blockPos);
+                storage.slice(blocks[(int) (pos / blockSize)], blockPos, portion)
+                        .put(b, off + done, portion);
+                done += portion;
+                pos += portion;
+            }
+            if (pos > length)
+                length = pos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        final long needed = (capacity + blockSize - 1L) / blockSize;
+        if (needed > Integer.MAX_VALUE)
+            throw new IOException("File too large: " + capacity);
+        if (needed > blocks.length)
+            blocks = Arrays.copyOf(blocks,
+                    (int) Math.max(needed, 2L * blocks.length));
+        while (blockCount < needed)
+            blocks[blockCount++] = storage.allocateBlock();
+    }
+
+    @Override
+    boolean retain() {
+        while (true) {
+            final int cur = refs.get();
+            if (cur <= 0)
+                return false;
+            if (refs.compareAndSet(cur, cur + 1))
+                return true;
+        }
+    }
+
+    @Override
+    void release() {
+        if (refs.decrementAndGet() != 0)
+            return;
+        lock.writeLock().lock();
+        try {
+            storage.freeBlocks(blocks, blockCount);
+            blocks = new int[0];
+            blockCount = 0;
+            length = 0L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    SeekableByteChannel openChannel() {
+        if (!retain())
+            return null;
+        return new SlabChannel(this);
+    }
+
+}
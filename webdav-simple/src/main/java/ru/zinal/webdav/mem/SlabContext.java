@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+/**
+ *
+ * @author zinal
+ */
+public class SlabContext extends MemContext {
+
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_MEMORY = 1024L * 1024L * 1024L;
+
+    private int slabSize = DEFAULT_SLAB_SIZE;
+    private long maxMemory = DEFAULT_MAX_MEMORY;
+
+    /**
+     * @return Size of the single off-heap buffer, bytes
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * @return Maximum total size of the off-heap buffers, bytes
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        // Slabs consist of the whole chunks
+        if (slabSize < getChunkSize())
+            slabSize = getChunkSize();
+        slabSize -= slabSize % getChunkSize();
+        if (maxMemory < slabSize)
+            maxMemory = slabSize;
+    }
+
+}
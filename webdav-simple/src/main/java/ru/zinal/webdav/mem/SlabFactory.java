@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import ru.zinal.webdav.model.*;
+
+/**
+ * In-memory storage keeping the file content in the off-heap buffers,
+ * so that only the metadata lives on the heap.
+ * @author zinal
+ */
+public class SlabFactory implements WebRootFactory {
+
+    @Override
+    public WebRoot create(WebdavContext context) {
+        if (!(context instanceof SlabContext))
+            throw new IllegalArgumentException("Context should be instance of SlabContext");
+        SlabContext sc = (SlabContext) context;
+        final SlabStorage storage = new SlabStorage(sc.getChunkSize(),
+                sc.getSlabSize(), sc.getMaxMemory());
+        return new WebRootImpl(context, new MemDirectory(storage));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocator of the fixed-size blocks within the off-heap slabs.
+ * The slabs are allocated on demand, up to the configured limit,
+ * and are never returned; the released blocks are kept in the free list.
+ * @author zinal
+ */
+final class SlabStorage extends MemStorage {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(SlabStorage.class);
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+    private final ByteBuffer[] slabs;
+    private final ByteBuffer zeroes;
+
+    // Guarded by this
+    private int slabCount = 0;
+    private int carvedBlocks = 0;
+    private int[] freeList = new int[1024];
+    private int freeCount = 0;
+
+    SlabStorage(int blockSize, int slabSize, long maxMemory) {
+        this.blockSize = blockSize;
+        this.blocksPerSlab = slabSize / blockSize;
+        this.slabs = new ByteBuffer[(int) (maxMemory / slabSize)];
+        this.zeroes = ByteBuffer.allocateDirect(blockSize);
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    MemData allocate() {
+        return new SlabContent(this);
+    }
+
+    /**
+     * Allocate the block, filled with zeroes
+     * @return Block number
+     * @throws IOException if the storage is full
+     */
+    int allocateBlock() throws IOException {
+        final int block;
+        synchronized(this) {
+            if (freeCount > 0) {
+                block = freeList[--freeCount];
+            } else {
+                if (carvedBlocks == slabCount * blocksPerSlab) {
+                    if (slabCount == slabs.length)
+                        throw new IOException("Off-heap storage is full, "
+                                + slabs.length + " slabs used");
+                    slabs[slabCount++] = ByteBuffer
+                            .allocateDirect(blocksPerSlab * blockSize);
+                    LOG.debug("Allocated slab {} of {}",
+                            slabCount, slabs.length);
+                }
+                block = carvedBlocks++;
+            }
+        }
+        slice(block, 0, blockSize).put(zeroes.duplicate());
+        return block;
+    }
+
+    /**
+     * Return the blocks to the free list
+     * @param blocks Block numbers
+     * @param count Number of the blocks to be released
+     */
+    synchronized void freeBlocks(int[] blocks, int count) {
+        if (freeCount + count > freeList.length)
+            freeList = Arrays.copyOf(freeList,
+                    Math.max(freeCount + count, 2 * freeList.length));
+        System.arraycopy(blocks, 0, freeList, freeCount, count);
+        freeCount += count;
+    }
+
+    /**
+     * Get the view of the block part, sharing the off-heap memory
+     * @param block Block number
+     * @param offset Offset within the block
+     * @param length Length of the view
+     * @return Buffer positioned at the start of the view
+     */
+    ByteBuffer slice(int block, int offset, int length) {
+        // The block number is published through the content lock,
+        // which makes the slab reference visible as well
+        final ByteBuffer view = slabs[block / blocksPerSlab].duplicate();
+        final int start = (block % blocksPerSlab) * blockSize + offset;
+        view.limit(start + length).position(start);
+        return view;
+    }
+
+}
@@ -0,0 +1,721 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Web root decorator caching the resource lookups, together with their
+ * attribute snapshots, and the collection listings.
+ * The cache is a size-bounded LRU, with each entry valid for the
+ * configured time. It is split into the stripes by the key hash, each
+ * stripe being a separately locked LRU with its share of the size limit.
+ * Modifications made through the cache invalidate the affected entry
+ * and its parent collection. When the target web root
+ * publishes the external changes, the cache subscribes to them,
+ * which allows much longer entry lifetimes.
+ * @author zinal
+ */
+public class CachingWebRoot implements WebRoot, WebChangeListener {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(CachingWebRoot.class);
+
+    private static final int STRIPES = 16;
+
+    private final WebRoot target;
+    private final int maxSize;
+    private final long ttl;
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create the caching decorator
+     * @param target Web root to be cached
+     * @param maxSize Maximum number of the cached resources
+     * @param ttl Time to live of the cache entries, milliseconds
+     */
+    public CachingWebRoot(WebRoot target, int maxSize, long ttl) {
+        if (target==null)
+            throw new IllegalArgumentException("Target web root is null");
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Illegal cache size: " + maxSize);
+        if (ttl < 1L)
+            throw new IllegalArgumentException("Illegal cache ttl: " + ttl);
+        this.target = target;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.stripes = new Stripe[Math.min(STRIPES, maxSize)];
+        for (int i=0; i<stripes.length; ++i) {
+            // Stripe limits sum up to the total size limit
+            stripes[i] = new Stripe((maxSize + i) / stripes.length);
+        }
+        if (target instanceof WebChangeSource)
+            ((WebChangeSource) target).addChangeListener(this);
+        LOG.info("Resource cache enabled, size {}, ttl {} msec", maxSize, ttl);
+    }
+
+    public WebRoot getTarget() {
+        return target;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return Number of lookups and listings served from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups and listings passed to the target web root
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Current number of the cached resources
+     */
+    public int getSize() {
+        int retval = 0;
+        for (Stripe stripe : stripes) {
+            synchronized(stripe) {
+                retval += stripe.size();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Drop all the cached entries
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized(stripe) {
+                ++stripe.version;
+                stripe.clear();
+            }
+        }
+    }
+
+    @Override
+    public void resourceChanged(String path, boolean subtree) {
+        final String key = toKey(path);
+        if (subtree)
+            invalidateTree(key);
+        else
+            invalidate(key);
+    }
+
+    @Override
+    public void close() {
+        if (target instanceof WebChangeSource)
+            ((WebChangeSource) target).removeChangeListener(this);
+        LOG.info("Resource cache closed, {} hits, {} misses, {} entries",
+                getHits(), getMisses(), getSize());
+        clear();
+        target.close();
+    }
+
+    @Override
+    public WebResource getResource(String path) {
+        final String key = toKey(path);
+        final Stripe stripe = stripeOf(key);
+        final long v;
+        final Entry e;
+        synchronized(stripe) {
+            v = stripe.version;
+            e = stripe.get(key);
+        }
+        if (e!=null && e.isValid(System.currentTimeMillis())) {
+            hits.increment();
+            return e.resource;
+        }
+        misses.increment();
+        return remember(key, target.getResource(path), v);
+    }
+
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite) {
+        final String key = toKey(path);
+        try {
+            return wrap(key, target.write(path, data, overwrite));
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite,
+            long expectedLength) {
+        final String key = toKey(path);
+        try {
+            return wrap(key, target.write(path, data, overwrite,
+                    expectedLength));
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public WebdavContext getContext() {
+        return target.getContext();
+    }
+
+    @Override
+    public WebResource mkdir(String path) {
+        final String key = toKey(path);
+        try {
+            return wrap(key, target.mkdir(path));
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String dest, int depth,
+            Map<String, Integer> errorList) {
+        try {
+            return target.copy(source, dest, depth, errorList);
+        } finally {
+            invalidateTree(toKey(dest));
+        }
+    }
+
+    @Override
+    public boolean move(String source, String dest, boolean overwrite,
+            Map<String, Integer> errorList) {
+        try {
+            return target.move(source, dest, overwrite, errorList);
+        } finally {
+            invalidateTree(toKey(source));
+            invalidateTree(toKey(dest));
+        }
+    }
+
+    @Override
+    public boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String, Integer> errorList) {
+        try {
+            return target.deleteTree(path, lockFilter, errorList);
+        } finally {
+            invalidateTree(toKey(path));
+        }
+    }
+
+    /**
+     * Convert the path to the cache key
+     * @param path Path to the resource
+     * @return Normalized path without the trailing slash
+     */
+    private static String toKey(String path) {
+        path = SmallT.normalizePath(path);
+        if (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    private static String parentKey(String key) {
+        if ("/".equals(key))
+            return null;
+        final int pos = key.lastIndexOf('/');
+        if (pos <= 0)
+            return "/";
+        return key.substring(0, pos);
+    }
+
+    private int indexOf(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % stripes.length;
+    }
+
+    private Stripe stripeOf(String key) {
+        return stripes[indexOf(key)];
+    }
+
+    /**
+     * @return Versions of all the stripes, by the stripe index
+     */
+    private long[] versions() {
+        final long[] retval = new long[stripes.length];
+        for (int i = 0; i < stripes.length; ++i) {
+            synchronized(stripes[i]) {
+                retval[i] = stripes[i].version;
+            }
+        }
+        return retval;
+    }
+
+    private WebResource wrap(String key, WebResource resource) {
+        if (resource==null)
+            return null;
+        if (resource.isDirectory())
+            return new CachedDirectory(key, resource);
+        return new CachedFile(key, resource);
+    }
+
+    /**
+     * Put the resource to the cache, unless there were modifications
+     * since the resource has been looked up.
+     * @param key Cache key
+     * @param resource Resource retrieved from the target, can be null
+     * @param v Version of the key's stripe as of the lookup start
+     * @return Wrapped resource
+     */
+    private WebResource remember(String key, WebResource resource, long v) {
+        final WebResource retval = wrap(key, resource);
+        final Stripe stripe = stripeOf(key);
+        synchronized(stripe) {
+            if (stripe.version == v) {
+                stripe.put(key, new Entry(retval,
+                        System.currentTimeMillis() + ttl));
+            }
+        }
+        return retval;
+    }
+
+    private List<WebResource> findListing(String key) {
+        final Stripe stripe = stripeOf(key);
+        final Entry e;
+        synchronized(stripe) {
+            e = stripe.get(key);
+        }
+        final List<WebResource> listing = (e==null) ? null : e.listing;
+        if (listing!=null && e.isValid(System.currentTimeMillis())) {
+            hits.increment();
+            return listing;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void rememberListing(String key, CachedDirectory dir,
+            List<WebResource> listing, long v) {
+        final Stripe stripe = stripeOf(key);
+        synchronized(stripe) {
+            if (stripe.version != v)
+                return;
+            final long now = System.currentTimeMillis();
+            Entry e = stripe.get(key);
+            if (e==null || !e.isValid(now)) {
+                e = new Entry(dir, now + ttl);
+                stripe.put(key, e);
+            }
+            e.listing = listing;
+        }
+    }
+
+    /**
+     * Drop the resource and its parent collection from the cache
+     * @param key Cache key of the resource
+     */
+    private void invalidate(String key) {
+        final String parent = parentKey(key);
+        remove(key);
+        if (parent!=null)
+            remove(parent);
+    }
+
+    private void remove(String key) {
+        final Stripe stripe = stripeOf(key);
+        synchronized(stripe) {
+            ++stripe.version;
+            stripe.remove(key);
+        }
+    }
+
+    /**
+     * Drop the resource, all its nested resources, and its parent collection
+     * from the cache
+     * @param key Cache key of the resource
+     */
+    private void invalidateTree(String key) {
+        if ("/".equals(key)) {
+            clear();
+            return;
+        }
+        final String prefix = key + "/";
+        invalidate(key);
+        for (Stripe stripe : stripes) {
+            synchronized(stripe) {
+                ++stripe.version;
+                stripe.keySet().removeIf(k -> k.startsWith(prefix));
+            }
+        }
+    }
+
+    /**
+     * Part of the cache, guarded by its own monitor.
+     * The version is incremented on each invalidation of the keys
+     * of the stripe, so the lookups started before it are not cached.
+     */
+    private static final class Stripe extends LinkedHashMap<String, Entry> {
+
+        private final int limit;
+        long version;
+
+        Stripe(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> e) {
+            return size() > limit;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final WebResource resource;
+        final long expiresAt;
+        // Set under the stripe lock, read without it
+        volatile List<WebResource> listing;
+
+        Entry(WebResource resource, long expiresAt) {
+            this.resource = resource;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValid(long tv) {
+            return tv < expiresAt;
+        }
+
+    }
+
+    /**
+     * Listing of the target collection, which caches the entries returned,
+     * and stores the complete listing when it has been fully read.
+     */
+    private final class CachingListing implements WebListing {
+
+        private final String key;
+        private final CachedDirectory dir;
+        private final WebListing listing;
+        private final long[] versions;
+
+        CachingListing(String key, CachedDirectory dir, WebListing listing) {
+            this.key = key;
+            this.dir = dir;
+            this.versions = versions();
+            this.listing = listing;
+        }
+
+        @Override
+        public void close() {
+            listing.close();
+        }
+
+        @Override
+        public Iterator<WebResource> iterator() {
+            final Iterator<WebResource> it = listing.iterator();
+            return new Iterator<WebResource>() {
+                private List<WebResource> items = new ArrayList<>();
+
+                @Override
+                public boolean hasNext() {
+                    if (it.hasNext())
+                        return true;
+                    if (items!=null) {
+                        rememberListing(key, dir, items,
+                                versions[indexOf(key)]);
+                        items = null;
+                    }
+                    return false;
+                }
+
+                @Override
+                public WebResource next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    final WebResource r = it.next();
+                    final String childKey =
+                            WebRootSupport.childPath(key, r.getName());
+                    final WebResource retval = remember(childKey, r,
+                            versions[indexOf(childKey)]);
+                    if (items!=null) {
+                        // Too large listings are not cached
+                        if (items.size() < maxSize)
+                            items.add(retval);
+                        else
+                            items = null;
+                    }
+                    return retval;
+                }
+            };
+        }
+
+    }
+
+    private final class CachedDirectory extends WebDirectory {
+
+        private final String key;
+        private final WebResource res;
+
+        CachedDirectory(String key, WebResource res) {
+            this.key = key;
+            this.res = res;
+        }
+
+        private String childKey(String name) {
+            return WebRootSupport.childPath(key, name);
+        }
+
+        @Override
+        public String getName() {
+            return res.getName();
+        }
+
+        @Override
+        public String getPath() {
+            return res.getPath();
+        }
+
+        @Override
+        public ResourceAttributes getAttributes() {
+            return res.getAttributes();
+        }
+
+        @Override
+        public long getCreation() {
+            return res.getCreation();
+        }
+
+        @Override
+        public long getLastModified() {
+            return res.getLastModified();
+        }
+
+        @Override
+        public long getContentLength() {
+            return res.getContentLength();
+        }
+
+        @Override
+        public String getMimeType() {
+            return res.getMimeType();
+        }
+
+        @Override
+        public boolean delete() {
+            try {
+                return res.delete();
+            } finally {
+                invalidateTree(key);
+            }
+        }
+
+        @Override
+        public WebResource lookup(String name) {
+            if (name==null || name.length()==0)
+                return this;
+            return getResource(childKey(name));
+        }
+
+        @Override
+        public WebResource lookupDeep(String[] names) {
+            if (names==null || names.length==0)
+                return this;
+            String path = key;
+            for (String name : names)
+                path = WebRootSupport.childPath(path, name);
+            return getResource(path);
+        }
+
+        @Override
+        public WebResource createDirectory(String name) {
+            final String child = childKey(name);
+            try {
+                return wrap(child, res.createDirectory(name));
+            } finally {
+                invalidate(child);
+            }
+        }
+
+        @Override
+        public WebResource createFile(String name, InputStream data) {
+            final String child = childKey(name);
+            try {
+                return wrap(child, res.createFile(name, data));
+            } finally {
+                invalidate(child);
+            }
+        }
+
+        @Override
+        public WebResource createFile(String name, InputStream data,
+                long expectedLength) {
+            final String child = childKey(name);
+            try {
+                return wrap(child, res.createFile(name, data, expectedLength));
+            } finally {
+                invalidate(child);
+            }
+        }
+
+        @Override
+        public boolean delete(String name) {
+            try {
+                return res.delete(name);
+            } finally {
+                invalidateTree(childKey(name));
+            }
+        }
+
+        @Override
+        public List<String> list() {
+            return res.list();
+        }
+
+        @Override
+        public List<WebResource> listResources() {
+            final List<WebResource> retval = new ArrayList<>();
+            try (WebListing listing = openListing()) {
+                for (WebResource r : listing)
+                    retval.add(r);
+            }
+            return retval;
+        }
+
+        @Override
+        public WebListing openListing() {
+            final List<WebResource> items = findListing(key);
+            if (items!=null)
+                return WebListing.of(items);
+            return new CachingListing(key, this, res.openListing());
+        }
+
+    }
+
+    private final class CachedFile extends WebFile {
+
+        private final String key;
+        private final WebResource res;
+
+        CachedFile(String key, WebResource res) {
+            this.key = key;
+            this.res = res;
+        }
+
+        @Override
+        public String getName() {
+            return res.getName();
+        }
+
+        @Override
+        public String getPath() {
+            return res.getPath();
+        }
+
+        @Override
+        public ResourceAttributes getAttributes() {
+            return res.getAttributes();
+        }
+
+        @Override
+        public long getCreation() {
+            return res.getCreation();
+        }
+
+        @Override
+        public long getLastModified() {
+            return res.getLastModified();
+        }
+
+        @Override
+        public long getContentLength() {
+            return res.getContentLength();
+        }
+
+        @Override
+        public String getMimeType() {
+            return res.getMimeType();
+        }
+
+        @Override
+        public boolean delete() {
+            try {
+                return res.delete();
+            } finally {
+                invalidate(key);
+            }
+        }
+
+        @Override
+        public InputStream getData() {
+            return res.getData();
+        }
+
+        @Override
+        public InputStream getData(long start, long finish) {
+            return res.getData(start, finish);
+        }
+
+        @Override
+        public SeekableByteChannel openReadChannel() {
+            return res.openReadChannel();
+        }
+
+        @Override
+        public boolean replaceData(InputStream data) {
+            try {
+                return res.replaceData(data);
+            } finally {
+                invalidate(key);
+            }
+        }
+
+        @Override
+        public boolean replaceData(InputStream data, long start) {
+            try {
+                return res.replaceData(data, start);
+            } finally {
+                invalidate(key);
+            }
+        }
+
+        @Override
+        public boolean writeData(InputStream data, long expectedLength) {
+            try {
+                return res.writeData(data, expectedLength);
+            } finally {
+                invalidate(key);
+            }
+        }
+
+    }
+
+}
@@ -16,6 +16,7 @@
 package ru.zinal.webdav.model;
 
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 
 /**
@@ -89,6 +90,7 @@ public interface GenericResource {
      * In case the copllection already exists, do nothing.
      * @param name Name of the collection to be created
      * @return The resource referencing the collection
+     * @throws WebStorageException if the storage fails to create it
      */
     WebResource createDirectory(String name);
     
@@ -98,6 +100,7 @@ public interface GenericResource {
      * @param name Name of the file to be created
      * @param data Data to be written as the file
      * @return The resource referencing the file
+     * @throws WebStorageException if the storage fails to write the data
      */
     WebResource createFile(String name, InputStream data);
     
@@ -116,6 +119,21 @@ public interface GenericResource {
      */
     List<String> list();
     
+    /**
+     * List the resources in the collection, together with their attributes.
+     * Allows to avoid the separate lookup of each child resource.
+     * @return List of the resources under the collection.
+     *     null, if path is not the name of the collection.
+     */
+    List<WebResource> listResources();
+    
+    /**
+     * Open the incremental listing of the resources in the collection.
+     * The listing returned must be closed by the caller.
+     * @return Listing of the resources under the collection
+     */
+    WebListing openListing();
+    
     // ******** File-only methods
     
     /**
@@ -135,15 +153,25 @@ public interface GenericResource {
      * Open the range-limited input stream for the file.
      * The input stream returned must be closed by the caller.
      * @param start Range start position
-     * @param finish Range finish position
+     * @param finish Range finish position, exclusive
      * @return Input stream
      */
     InputStream getData(long start, long finish);
     
+    /**
+     * Open the channel for reading the file content.
+     * Allows to transfer the data without copying it through the heap,
+     * when the storage supports that (e.g. returns the FileChannel).
+     * The channel returned must be closed by the caller.
+     * @return Channel, or null if the storage does not support channels
+     */
+    SeekableByteChannel openReadChannel();
+    
     /**
      * Replace the file content with data from the input stream
      * @param data Input stream containing the replacement data
      * @return true, if replacement succeeded, false otherwise
+     * @throws WebStorageException if the storage fails to write the data
      */
     boolean replaceData(InputStream data);
     
@@ -153,6 +181,7 @@ public interface GenericResource {
      * @param data Input stream containing the replacement data
      * @param start Start position to write the data
      * @return true, if replacement succeeded, false otherwise
+     * @throws WebStorageException if the storage fails to write the data
      */
     boolean replaceData(InputStream data, long start);
 
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+/**
+ * Thrown by the storage when the data cannot be written due to lack
+ * of space, either detected upfront from the expected length,
+ * or reported by the storage during the write.
+ * @author zinal
+ */
+public class InsufficientStorageException extends WebStorageException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InsufficientStorageException(String message) {
+        super(message);
+    }
+
+    public InsufficientStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
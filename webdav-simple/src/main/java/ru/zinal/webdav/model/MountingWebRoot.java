@@ -0,0 +1,593 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Web root combining several web roots, each mounted at its own path prefix.
+ * The mount table is compiled into a trie of path names, so the lookup
+ * of the mount for the path costs O(path depth) regardless of the number
+ * of mounts. The longest matching prefix wins; the paths leading to the
+ * mount points which do not exist in the enclosing mount are presented
+ * as empty read-only collections.
+ * @author zinal
+ */
+public class MountingWebRoot implements WebRoot {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(MountingWebRoot.class);
+
+    private static final ResourceAttributes SYNTHETIC_ATTRS =
+            new ResourceAttributes(true, 0L, 0L, 0L);
+
+    private final Node top;
+    private final WebdavContext context;
+    private final List<WebRoot> roots = new ArrayList<>();
+
+    /**
+     * Build the mount table
+     * @param mounts Web roots by their mount paths, "/" for the top level
+     */
+    public MountingWebRoot(Map<String, WebRoot> mounts) {
+        if (mounts==null || mounts.isEmpty())
+            throw new IllegalArgumentException("No mounts defined");
+        this.top = new Node("/", null);
+        WebdavContext ctx = null;
+        for (Map.Entry<String, WebRoot> me : mounts.entrySet()) {
+            if (me.getValue()==null)
+                throw new IllegalArgumentException("Missing web root for "
+                        + me.getKey());
+            final String key = toKey(me.getKey());
+            Node cur = top;
+            for (String name : SmallT.splitPath(key)) {
+                Node next = cur.children.get(name);
+                if (next==null) {
+                    next = new Node(WebRootSupport.childPath(cur.key, name), null);
+                    cur.children.put(name, next);
+                }
+                cur = next;
+            }
+            if (cur.root!=null)
+                throw new IllegalArgumentException("Duplicate mount " + key);
+            cur.root = me.getValue();
+            roots.add(cur.root);
+            if (ctx==null || cur==top)
+                ctx = me.getValue().getContext();
+            LOG.info("Mounted {} at {}", me.getValue().getClass().getName(), key);
+        }
+        this.context = ctx;
+    }
+
+    @Override
+    public void close() {
+        for (WebRoot root : roots)
+            root.close();
+    }
+
+    @Override
+    public WebResource getResource(String path) {
+        final String key = toKey(path);
+        final Target t = resolve(key);
+        WebResource r = null;
+        if (t.mount!=null)
+            r = t.mount.root.getResource(t.sub);
+        if (t.exact!=null) {
+            // The paths in the mount table are always collections
+            if (r!=null && !r.isDirectory())
+                r = null;
+            return new MountedDirectory(key, r, t.exact);
+        }
+        return wrap(key, r, null);
+    }
+
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite) {
+        final String key = toKey(path);
+        final Target t = resolve(key);
+        if (t.exact!=null || t.mount==null)
+            return null;
+        return wrap(key, t.mount.root.write(t.sub, data, overwrite), null);
+    }
+
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite,
+            long expectedLength) {
+        final String key = toKey(path);
+        final Target t = resolve(key);
+        if (t.exact!=null || t.mount==null)
+            return null;
+        return wrap(key, t.mount.root.write(t.sub, data, overwrite,
+                expectedLength), null);
+    }
+
+    @Override
+    public WebdavContext getContext() {
+        return context;
+    }
+
+    @Override
+    public WebResource mkdir(String path) {
+        final String key = toKey(path);
+        final Target t = resolve(key);
+        if (t.exact!=null || t.mount==null)
+            return null;
+        return wrap(key, t.mount.root.mkdir(t.sub), null);
+    }
+
+    @Override
+    public boolean copy(String source, String dest, int depth,
+            Map<String, Integer> errorList) {
+        final Target st = resolve(toKey(source));
+        final Target dt = resolve(toKey(dest));
+        if (dt.exact!=null) {
+            errorList.put(dest, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (st.exact==null && st.mount!=null && st.mount==dt.mount) {
+            final Map<String, Integer> errors = new HashMap<>();
+            try {
+                return st.mount.root.copy(st.sub, dt.sub, depth, errors);
+            } finally {
+                remapErrors(st.mount, errors, errorList);
+            }
+        }
+        // Nested mounts or different mounts, copying resource by resource
+        return WebRootSupport.copy(this, source, dest, depth, errorList);
+    }
+
+    @Override
+    public boolean move(String source, String dest, boolean overwrite,
+            Map<String, Integer> errorList) {
+        final Target st = resolve(toKey(source));
+        final Target dt = resolve(toKey(dest));
+        if (st.exact!=null) {
+            errorList.put(source, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (dt.exact!=null) {
+            errorList.put(dest, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (st.mount!=null && st.mount==dt.mount) {
+            final Map<String, Integer> errors = new HashMap<>();
+            try {
+                return st.mount.root.move(st.sub, dt.sub, overwrite, errors);
+            } finally {
+                remapErrors(st.mount, errors, errorList);
+            }
+        }
+        return WebRootSupport.move(this, source, dest, overwrite, errorList);
+    }
+
+    @Override
+    public boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String, Integer> errorList) {
+        final Target t = resolve(toKey(path));
+        if (t.exact!=null) {
+            errorList.put(path, WebdavStatus.SC_FORBIDDEN);
+            return false;
+        }
+        if (t.mount==null)
+            return false;
+        final Node mount = t.mount;
+        final Predicate<String> filter = (lockFilter==null) ? null
+                : p -> lockFilter.test(fullPath(mount, p));
+        final Map<String, Integer> errors = new HashMap<>();
+        try {
+            return mount.root.deleteTree(t.sub, filter, errors);
+        } finally {
+            remapErrors(mount, errors, errorList);
+        }
+    }
+
+    /**
+     * Find the mount serving the path.
+     * @param key Normalized path without the trailing slash
+     * @return Mount, the path within the mount and the exact trie node
+     */
+    private Target resolve(String key) {
+        Node cur = top;
+        Node mount = (top.root==null) ? null : top;
+        int mountEnd = 0;
+        int pos = 1;
+        while (cur!=null && pos < key.length()) {
+            int next = key.indexOf('/', pos);
+            if (next < 0)
+                next = key.length();
+            cur = cur.children.get(key.substring(pos, next));
+            if (cur!=null && cur.root!=null) {
+                mount = cur;
+                mountEnd = next;
+            }
+            pos = next + 1;
+        }
+        final String sub = (mountEnd >= key.length()) ? "/"
+                : key.substring(mountEnd);
+        return new Target(mount, sub, cur);
+    }
+
+    private static String fullPath(Node mount, String sub) {
+        if (mount==null || "/".equals(mount.key))
+            return sub;
+        if (sub==null || sub.length()==0 || "/".equals(sub))
+            return mount.key;
+        if (!sub.startsWith("/"))
+            sub = "/" + sub;
+        return mount.key + sub;
+    }
+
+    private static void remapErrors(Node mount, Map<String, Integer> from,
+            Map<String, Integer> to) {
+        for (Map.Entry<String, Integer> me : from.entrySet())
+            to.put(fullPath(mount, me.getKey()), me.getValue());
+    }
+
+    private static String toKey(String path) {
+        path = SmallT.normalizePath(path);
+        if (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    private static String nameOf(String key) {
+        if ("/".equals(key))
+            return key;
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private WebResource wrap(String key, WebResource resource, Node node) {
+        if (resource==null)
+            return null;
+        if (resource.isDirectory())
+            return new MountedDirectory(key, resource, node);
+        return new MountedFile(key, resource);
+    }
+
+    /**
+     * Node of the mount trie. Filled in the constructor only,
+     * and never modified afterwards.
+     */
+    private static final class Node {
+
+        final String key;
+        final Map<String, Node> children = new HashMap<>();
+        WebRoot root;
+
+        Node(String key, WebRoot root) {
+            this.key = key;
+            this.root = root;
+        }
+
+    }
+
+    private static final class Target {
+
+        final Node mount;
+        final String sub;
+        final Node exact;
+
+        Target(Node mount, String sub, Node exact) {
+            this.mount = mount;
+            this.sub = sub;
+            this.exact = exact;
+        }
+
+    }
+
+    private final class MountedDirectory extends WebDirectory {
+
+        private final String key;
+        private final WebResource res;
+        private final Node node;
+
+        /**
+         * @param key Full path of the collection
+         * @param res Collection in the mount, or null for the synthetic one
+         * @param node Trie node at the path, if there are mounts below it
+         */
+        MountedDirectory(String key, WebResource res, Node node) {
+            this.key = key;
+            this.res = res;
+            this.node = node;
+        }
+
+        private String childKey(String name) {
+            return WebRootSupport.childPath(key, name);
+        }
+
+        private boolean isMounted(String name) {
+            return node!=null && node.children.containsKey(name);
+        }
+
+        @Override
+        public String getName() {
+            return nameOf(key);
+        }
+
+        @Override
+        public String getPath() {
+            if ("/".equals(key))
+                return key;
+            return key + "/";
+        }
+
+        @Override
+        public ResourceAttributes getAttributes() {
+            if (res==null)
+                return SYNTHETIC_ATTRS;
+            return res.getAttributes();
+        }
+
+        @Override
+        public long getCreation() {
+            return getAttributes().getCreation();
+        }
+
+        @Override
+        public long getLastModified() {
+            return getAttributes().getLastModified();
+        }
+
+        @Override
+        public long getContentLength() {
+            return getAttributes().getContentLength();
+        }
+
+        @Override
+        public String getMimeType() {
+            if (res==null)
+                return null;
+            return res.getMimeType();
+        }
+
+        @Override
+        public boolean delete() {
+            if (res==null || node!=null)
+                return false;
+            return res.delete();
+        }
+
+        @Override
+        public WebResource lookup(String name) {
+            if (name==null || name.length()==0)
+                return this;
+            return getResource(childKey(name));
+        }
+
+        @Override
+        public WebResource lookupDeep(String[] names) {
+            if (names==null || names.length==0)
+                return this;
+            String path = key;
+            for (String name : names)
+                path = WebRootSupport.childPath(path, name);
+            return getResource(path);
+        }
+
+        @Override
+        public WebResource createDirectory(String name) {
+            if (res==null || isMounted(name))
+                return null;
+            return wrap(childKey(name), res.createDirectory(name), null);
+        }
+
+        @Override
+        public WebResource createFile(String name, InputStream data) {
+            if (res==null || isMounted(name))
+                return null;
+            return wrap(childKey(name), res.createFile(name, data), null);
+        }
+
+        @Override
+        public WebResource createFile(String name, InputStream data,
+                long expectedLength) {
+            if (res==null || isMounted(name))
+                return null;
+            return wrap(childKey(name),
+                    res.createFile(name, data, expectedLength), null);
+        }
+
+        @Override
+        public boolean delete(String name) {
+            if (res==null || isMounted(name))
+                return false;
+            return res.delete(name);
+        }
+
+        @Override
+        public List<String> list() {
+            final List<String> retval = new ArrayList<>();
+            final List<String> names = (res==null) ? null : res.list();
+            if (names!=null) {
+                for (String name : names) {
+                    if (!isMounted(name))
+                        retval.add(name);
+                }
+            }
+            if (node!=null)
+                retval.addAll(node.children.keySet());
+            return retval;
+        }
+
+        @Override
+        public List<WebResource> listResources() {
+            final List<WebResource> retval = new ArrayList<>();
+            try (WebListing listing = openListing()) {
+                for (WebResource r : listing)
+                    retval.add(r);
+            }
+            return retval;
+        }
+
+        @Override
+        public WebListing openListing() {
+            final WebListing inner = (res==null) ? null : res.openListing();
+            return new WebListing() {
+                @Override
+                public void close() {
+                    if (inner!=null)
+                        inner.close();
+                }
+
+                @Override
+                public Iterator<WebResource> iterator() {
+                    return new MountedIterator(
+                            (inner==null) ? Collections.emptyIterator()
+                                    : inner.iterator());
+                }
+            };
+        }
+
+        /**
+         * Iterates over the collection members in the mount,
+         * followed by the mount points below the collection.
+         */
+        private final class MountedIterator implements Iterator<WebResource> {
+
+            private final Iterator<WebResource> it;
+            private final Iterator<String> mounts;
+            private WebResource next = null;
+
+            MountedIterator(Iterator<WebResource> it) {
+                this.it = it;
+                this.mounts = (node==null) ? Collections.emptyIterator()
+                        : node.children.keySet().iterator();
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next==null) {
+                    if (it.hasNext()) {
+                        final WebResource r = it.next();
+                        if (!isMounted(r.getName()))
+                            next = wrap(childKey(r.getName()), r, null);
+                    } else if (mounts.hasNext()) {
+                        next = getResource(childKey(mounts.next()));
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public WebResource next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final WebResource retval = next;
+                next = null;
+                return retval;
+            }
+
+        }
+
+    }
+
+    private static final class MountedFile extends WebFile {
+
+        private final String key;
+        private final WebResource res;
+
+        MountedFile(String key, WebResource res) {
+            this.key = key;
+            this.res = res;
+        }
+
+        @Override
+        public String getName() {
+            return nameOf(key);
+        }
+
+        @Override
+        public String getPath() {
+            return key;
+        }
+
+        @Override
+        public ResourceAttributes getAttributes() {
+            return res.getAttributes();
+        }
+
+        @Override
+        public long getCreation() {
+            return res.getCreation();
+        }
+
+        @Override
+        public long getLastModified() {
+            return res.getLastModified();
+        }
+
+        @Override
+        public long getContentLength() {
+            return res.getContentLength();
+        }
+
+        @Override
+        public String getMimeType() {
+            return res.getMimeType();
+        }
+
+        @Override
+        public boolean delete() {
+            return res.delete();
+        }
+
+        @Override
+        public InputStream getData() {
+            return res.getData();
+        }
+
+        @Override
+        public InputStream getData(long start, long finish) {
+            return res.getData(start, finish);
+        }
+
+        @Override
+        public SeekableByteChannel openReadChannel() {
+            return res.openReadChannel();
+        }
+
+        @Override
+        public boolean replaceData(InputStream data) {
+            return res.replaceData(data);
+        }
+
+        @Override
+        public boolean replaceData(InputStream data, long start) {
+            return res.replaceData(data, start);
+        }
+
+        @Override
+        public boolean writeData(InputStream data, long expectedLength) {
+            return res.writeData(data, expectedLength);
+        }
+
+    }
+
+}
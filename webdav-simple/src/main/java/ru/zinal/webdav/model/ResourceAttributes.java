@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.util.function.Supplier;
+import ru.zinal.webdav.util.FastHttpDateFormat;
+
+/**
+ * Immutable snapshot of the resource attributes,
+ * typically obtained from the storage in a single call.
+ * @author zinal
+ */
+public final class ResourceAttributes {
+
+    private final boolean directory;
+    private final long contentLength;
+    private final long creation;
+    private final long lastModified;
+    private final Supplier<String> eTagSource;
+    // Computed on first use, when the ETag source is set
+    private volatile String eTag;
+
+    public ResourceAttributes(boolean directory, long contentLength,
+            long creation, long lastModified) {
+        this(directory, contentLength, creation, lastModified, (String) null);
+    }
+
+    /**
+     * Create the attributes snapshot
+     * @param directory true for collections, false for files
+     * @param contentLength Content length, in bytes
+     * @param creation Creation timestamp
+     * @param lastModified Last modified timestamp
+     * @param eTag ETag value, or null to use the default weak ETag
+     */
+    public ResourceAttributes(boolean directory, long contentLength,
+            long creation, long lastModified, String eTag) {
+        this.directory = directory;
+        this.contentLength = contentLength;
+        this.creation = creation;
+        this.lastModified = lastModified;
+        this.eTagSource = null;
+        this.eTag = (eTag==null) ? weakETag() : eTag;
+    }
+
+    /**
+     * Create the attributes snapshot with the ETag computed on first use,
+     * as obtaining it may need the extra reads from the storage
+     * @param directory true for collections, false for files
+     * @param contentLength Content length, in bytes
+     * @param creation Creation timestamp
+     * @param lastModified Last modified timestamp
+     * @param eTagSource Source of the ETag value, returning null
+     *    to use the default weak ETag
+     */
+    public ResourceAttributes(boolean directory, long contentLength,
+            long creation, long lastModified, Supplier<String> eTagSource) {
+        this.directory = directory;
+        this.contentLength = contentLength;
+        this.creation = creation;
+        this.lastModified = lastModified;
+        this.eTagSource = eTagSource;
+    }
+
+    private String weakETag() {
+        return "W/\"" + contentLength + "-" + lastModified + "\"";
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isFile() {
+        return !directory;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getCreation() {
+        return creation;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getLastModifiedHttp() {
+        return FastHttpDateFormat.formatDate(lastModified);
+    }
+
+    public String getETag() {
+        String value = eTag;
+        if (value==null) {
+            // Racing threads compute the same value
+            value = eTagSource.get();
+            if (value==null)
+                value = weakETag();
+            eTag = value;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+/**
+ * Receiver of the notifications about the resources changed
+ * outside of the web root, e.g. by the other processes.
+ * @author zinal
+ */
+@FunctionalInterface
+public interface WebChangeListener {
+
+    /**
+     * Handle the change of the resource
+     * @param path Path of the changed, created or deleted resource
+     * @param subtree true if any resource under the path may have changed
+     */
+    void resourceChanged(String path, boolean subtree);
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+/**
+ * Web root able to publish the changes made to its resources
+ * by the other processes. Caches and indexes built on top of such web root
+ * should subscribe to keep their contents current.
+ * @author zinal
+ */
+public interface WebChangeSource {
+
+    void addChangeListener(WebChangeListener listener);
+
+    void removeChangeListener(WebChangeListener listener);
+
+}
@@ -16,6 +16,9 @@
 package ru.zinal.webdav.model;
 
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -52,6 +55,35 @@ public abstract class WebDirectory extends WebResource {
         return cur;
     }
 
+    /**
+     * Default generic implementation of the resource listing,
+     * which looks up each of the names returned by {@link #list()}
+     * @return List of the resources, or null if listing is not possible
+     */
+    @Override
+    public List<WebResource> listResources() {
+        final List<String> names = list();
+        if (names==null)
+            return null;
+        final List<WebResource> retval = new ArrayList<>(names.size());
+        for (String name : names) {
+            WebResource cur = lookup(name);
+            if (cur!=null)
+                retval.add(cur);
+        }
+        return retval;
+    }
+
+    /**
+     * Default implementation of the incremental listing,
+     * which wraps the complete list returned by {@link #listResources()}
+     * @return Listing of the resources
+     */
+    @Override
+    public WebListing openListing() {
+        return WebListing.of(listResources());
+    }
+
     @Override
     public InputStream getData() {
         throw new UnsupportedOperationException("No getData() for WebDirectory");
@@ -62,6 +94,11 @@ public abstract class WebDirectory extends WebResource {
         throw new UnsupportedOperationException("No getData() for WebDirectory");
     }
 
+    @Override
+    public SeekableByteChannel openReadChannel() {
+        throw new UnsupportedOperationException("No openReadChannel() for WebDirectory");
+    }
+
     @Override
     public boolean replaceData(InputStream data) {
         throw new UnsupportedOperationException("No replaceData() for WebDirectory");
@@ -16,6 +16,7 @@
 package ru.zinal.webdav.model;
 
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 
 /**
@@ -63,5 +64,24 @@ public abstract class WebFile extends WebResource {
     public List<String> list() {
         throw new UnsupportedOperationException("No list() for WebFile");
     }
+
+    @Override
+    public List<WebResource> listResources() {
+        throw new UnsupportedOperationException("No listResources() for WebFile");
+    }
+
+    @Override
+    public WebListing openListing() {
+        throw new UnsupportedOperationException("No openListing() for WebFile");
+    }
+
+    /**
+     * Channel access is optional, default implementation does not support it.
+     * @return null
+     */
+    @Override
+    public SeekableByteChannel openReadChannel() {
+        return null;
+    }
     
 }
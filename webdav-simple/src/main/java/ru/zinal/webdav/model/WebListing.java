@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Incremental listing of the resources in a collection.
+ * Similar to {@link java.nio.file.DirectoryStream}, the listing can only
+ * be iterated once, and must be closed by the caller.
+ * @author zinal
+ */
+public interface WebListing extends Iterable<WebResource>, Closeable {
+
+    /**
+     * Release the resources held by the listing.
+     */
+    @Override
+    void close();
+
+    /**
+     * Wrap the already collected resources as a listing
+     * @param items Resources to be returned by the listing, can be null
+     * @return Listing over the specified resources
+     */
+    static WebListing of(final Collection<WebResource> items) {
+        return new WebListing() {
+            @Override
+            public Iterator<WebResource> iterator() {
+                if (items==null)
+                    return Collections.emptyIterator();
+                return items.iterator();
+            }
+            @Override
+            public void close() {
+                // NOOP
+            }
+        };
+    }
+
+}
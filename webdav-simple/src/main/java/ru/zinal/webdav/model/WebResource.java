@@ -15,6 +15,8 @@
  */
 package ru.zinal.webdav.model;
 
+import java.io.InputStream;
+
 /**
  *
  * @author zinal
@@ -31,16 +33,60 @@ public abstract class WebResource implements GenericResource {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * Get the snapshot of the resource attributes.
+     * Default implementation collects the values of the individual getters,
+     * storage implementations should rather obtain them in a single call.
+     * @return Resource attributes
+     */
+    public ResourceAttributes getAttributes() {
+        return new ResourceAttributes(isDirectory(), getContentLength(),
+                getCreation(), getLastModified());
+    }
+
     public String getLastModifiedHttp() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return getAttributes().getLastModifiedHttp();
     }
 
     public String getETag() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return getAttributes().getETag();
     }
 
+    /**
+     * Create the file, knowing the length of its data in advance.
+     * Default implementation ignores the length, storage implementations
+     * may use it to reserve the space.
+     * @param name Name of the file to be created
+     * @param data Data to be written as the file
+     * @param expectedLength Expected data length, or -1 if not known
+     * @return The resource referencing the file
+     * @throws InsufficientStorageException if there is not enough space
+     * @throws WebStorageException if the storage fails to write the data
+     */
+    public WebResource createFile(String name, InputStream data,
+            long expectedLength) {
+        return createFile(name, data);
+    }
+
+    /**
+     * Replace the whole file content, knowing the length of the data
+     * in advance. Default implementation ignores the length.
+     * @param data Input stream containing the replacement data
+     * @param expectedLength Expected data length, or -1 if not known
+     * @return true, if replacement succeeded, false otherwise
+     * @throws InsufficientStorageException if there is not enough space
+     * @throws WebStorageException if the storage fails to write the data
+     */
+    public boolean writeData(InputStream data, long expectedLength) {
+        return replaceData(data);
+    }
+
+    /**
+     * @return MIME type of the resource, or null to let the servlet
+     *    container to determine it by the resource name
+     */
     public String getMimeType() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return null;
     }
     
 }
@@ -16,6 +16,8 @@
 package ru.zinal.webdav.model;
 
 import java.io.InputStream;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  *
@@ -39,6 +41,22 @@ public interface WebRoot {
      */
     WebResource write(String path, InputStream data, boolean overwrite);
 
+    /**
+     * Write the file, knowing the length of its data in advance.
+     * Default implementation ignores the length.
+     * @param path Path to the file
+     * @param data Data to be written
+     * @param overwrite true to replace the existing file
+     * @param expectedLength Expected data length, or -1 if not known
+     * @return The resource referencing the file, or null on failure
+     * @throws InsufficientStorageException if there is not enough space
+     * @throws WebStorageException if the storage fails to write the data
+     */
+    default WebResource write(String path, InputStream data,
+            boolean overwrite, long expectedLength) {
+        return write(path, data, overwrite);
+    }
+
     /**
      * 
      * @return 
@@ -51,5 +69,60 @@ public interface WebRoot {
      * @return 
      */
     WebResource mkdir(String path);
+
+    /**
+     * Copy the resource to the destination path.
+     * Default implementation copies the data resource by resource,
+     * storage implementations may override it with the native operation.
+     * @param source Path of the resource to be copied
+     * @param dest Destination path, which is expected not to exist
+     * @param depth Depth of the collection copy: 0 to copy the collection
+     *    itself without its members, Integer.MAX_VALUE for infinity
+     * @param errorList Paths which failed to be copied, with status codes
+     * @return true, if the copy was successful
+     */
+    default boolean copy(String source, String dest, int depth,
+            Map<String,Integer> errorList) {
+        return WebRootSupport.copy(this, source, dest, depth, errorList);
+    }
+
+    /**
+     * Move the resource to the destination path.
+     * Default implementation copies the resource and deletes the source,
+     * storage implementations may override it with the native operation.
+     * @param source Path of the resource to be moved
+     * @param dest Destination path
+     * @param overwrite true to replace the existing destination resource
+     * @param errorList Paths which failed to be moved, with status codes
+     * @return true, if the move was successful
+     */
+    default boolean move(String source, String dest, boolean overwrite,
+            Map<String,Integer> errorList) {
+        return WebRootSupport.move(this, source, dest, overwrite, errorList);
+    }
+
+    /**
+     * Delete the resource together with all the resources it contains.
+     * Locked resources are kept, as well as the collections containing them.
+     * Default implementation deletes the resources one by one,
+     * storage implementations may override it with the faster walk.
+     * @param path Path of the resource to be deleted
+     * @param lockFilter Returns true for the paths which must be kept
+     *    because of locks, can be null
+     * @param errorList Paths which failed to be deleted, with status codes
+     * @return true, if the resource was deleted
+     */
+    default boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String,Integer> errorList) {
+        return WebRootSupport.deleteTree(this, path, lockFilter, errorList);
+    }
+
+    /**
+     * Release the resources held by the web root,
+     * e.g. close its files or stop its background threads.
+     */
+    default void close() {
+        // NOOP
+    }
     
 }
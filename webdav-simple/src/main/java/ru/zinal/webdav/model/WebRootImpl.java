@@ -45,6 +45,12 @@ public class WebRootImpl implements WebRoot {
 
     @Override
     public WebResource write(String path, InputStream data, boolean overwrite) {
+        return write(path, data, overwrite, -1L);
+    }
+
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite,
+            long expectedLength) {
         String[] pathNames = SmallT.splitPath(path);
         if (pathNames.length==0) {
             LOG.warn("Attempt to write to empty pathname [{}]", path);
@@ -52,15 +58,16 @@ public class WebRootImpl implements WebRoot {
         }
         WebResource resource = root.lookupDeep(pathNames);
         if (resource!=null) {
-            if (overwrite) {
-                resource.replaceData(data);
+            if (overwrite && resource.writeData(data, expectedLength))
                 return resource;
-            }
         } else {
             String[] parentPath = new String[pathNames.length-1];
             System.arraycopy(pathNames, 0, parentPath, 0, parentPath.length);
             WebResource parent = root.lookupDeep(parentPath);
-            return parent.createFile(path, data);
+            if (parent==null || !parent.isDirectory())
+                return null;
+            return parent.createFile(pathNames[pathNames.length-1], data,
+                    expectedLength);
         }
         return null;
     }
@@ -92,6 +99,21 @@ public class WebRootImpl implements WebRoot {
         public RootWrapper(WebDirectory dir) {
             this.dir = dir;
         }
+
+        @Override
+        public String getName() {
+            return dir.getName();
+        }
+
+        @Override
+        public String getPath() {
+            return dir.getPath();
+        }
+        
+        @Override
+        public ResourceAttributes getAttributes() {
+            return dir.getAttributes();
+        }
         
         @Override
         public long getCreation() {
@@ -128,6 +150,12 @@ public class WebRootImpl implements WebRoot {
             return dir.createFile(name, data);
         }
 
+        @Override
+        public WebResource createFile(String name, InputStream data,
+                long expectedLength) {
+            return dir.createFile(name, data, expectedLength);
+        }
+
         @Override
         public boolean delete(String name) {
             return dir.delete(name);
@@ -138,6 +166,16 @@ public class WebRootImpl implements WebRoot {
             return dir.list();
         }
 
+        @Override
+        public List<WebResource> listResources() {
+            return dir.listResources();
+        }
+
+        @Override
+        public WebListing openListing() {
+            return dir.openListing();
+        }
+
         @Override
         public long getContentLength() {
             return dir.getContentLength();
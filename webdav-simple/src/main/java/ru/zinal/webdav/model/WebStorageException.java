@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+/**
+ * Thrown by the storage when the change cannot be made because of
+ * the storage error. The expected outcomes, like the resource already
+ * existing, are still reported by the return values.
+ * The original error, if any, is available as the cause.
+ * @author zinal
+ */
+public class WebStorageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public WebStorageException(String message) {
+        super(message);
+    }
+
+    public WebStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
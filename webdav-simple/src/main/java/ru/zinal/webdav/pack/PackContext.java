@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.util.Locale;
+import ru.zinal.webdav.fs.FsDurability;
+import ru.zinal.webdav.model.WebdavContext;
+
+/**
+ *
+ * @author zinal
+ */
+public class PackContext extends WebdavContext {
+
+    private String dataPath;
+    private int smallFileLimit = 65536;
+    private int segmentSize = 64 * 1024 * 1024;
+    private double compactRatio = 0.5;
+    private long compactInterval = 60000L;
+    private String durability = "none";
+    private long groupCommitDelay = 5L;
+    private FsDurability.Mode durabilityMode = FsDurability.Mode.NONE;
+
+    public String getDataPath() {
+        return dataPath;
+    }
+
+    public void setDataPath(String dataPath) {
+        this.dataPath = dataPath;
+    }
+
+    /**
+     * @return Maximum size of the file packed into the segments,
+     *    larger files are stored as plain files
+     */
+    public int getSmallFileLimit() {
+        return smallFileLimit;
+    }
+
+    public void setSmallFileLimit(int smallFileLimit) {
+        this.smallFileLimit = smallFileLimit;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return Share of the live data, below which the segment is compacted
+     */
+    public double getCompactRatio() {
+        return compactRatio;
+    }
+
+    public void setCompactRatio(double compactRatio) {
+        this.compactRatio = compactRatio;
+    }
+
+    /**
+     * @return Interval between the background compactions, milliseconds,
+     *    0 to disable the background compaction
+     */
+    public long getCompactInterval() {
+        return compactInterval;
+    }
+
+    public void setCompactInterval(long compactInterval) {
+        this.compactInterval = compactInterval;
+    }
+
+    /**
+     * @return Durability of the changes: none, strict or group
+     */
+    public String getDurability() {
+        return durability;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * @return Time to collect the flushes of the concurrent changes
+     *    in the group durability mode, milliseconds
+     */
+    public long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    public void setGroupCommitDelay(long groupCommitDelay) {
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+    /**
+     * @return Parsed durability mode, available after expand()
+     */
+    public FsDurability.Mode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        if (dataPath==null)
+            dataPath = "./data/";
+        dataPath = expandDirectory(dataPath);
+        if (smallFileLimit < 0)
+            smallFileLimit = 0;
+        if (smallFileLimit > 16 * 1024 * 1024)
+            smallFileLimit = 16 * 1024 * 1024;
+        // Each segment fits at least a few of the largest records
+        final int minSegment = 4 * (smallFileLimit + 65536 + 64);
+        if (segmentSize < minSegment)
+            segmentSize = minSegment;
+        if (compactRatio < 0.0)
+            compactRatio = 0.0;
+        if (compactRatio > 1.0)
+            compactRatio = 1.0;
+        try {
+            durabilityMode = FsDurability.Mode.valueOf(
+                    (durability==null ? "none" : durability)
+                            .trim().toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Illegal durability mode: "
+                    + durability);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Collection of the packed store.
+ * @author zinal
+ */
+public class PackDirectory extends WebDirectory {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(PackDirectory.class);
+
+    private final PackStore store;
+    private final PackNode node;
+
+    PackDirectory(PackStore store, PackNode node) {
+        this.store = store;
+        this.node = node;
+    }
+
+    static WebResource wrap(PackStore store, PackNode node) {
+        if (node==null)
+            return null;
+        if (node.isDirectory())
+            return new PackDirectory(store, node);
+        return new PackFile(store, node);
+    }
+
+    @Override
+    public String getName() {
+        return node.name;
+    }
+
+    @Override
+    public String getPath() {
+        if (node.parent==null)
+            return "/";
+        return node.path + "/";
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final PackState st = node.state;
+        if (st==null)
+            return new ResourceAttributes(true, 0L, 0L, 0L);
+        return new ResourceAttributes(true, 0L, st.creation, st.modified);
+    }
+
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return getAttributes().getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        return wrap(store, node.children.get(name));
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        if (names==null || names.length==0)
+            return this;
+        PackNode cur = node;
+        for (String name : names) {
+            if (!cur.isDirectory())
+                return null;
+            cur = cur.children.get(name);
+            if (cur==null)
+                return null;
+        }
+        return wrap(store, cur);
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        try {
+            return wrap(store, store.mkdir(node, name));
+        } catch(IOException ex) {
+            LOG.warn("Cannot create directory {}{}", getPath(), name, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        try {
+            return wrap(store, store.createFile(node, name, data));
+        } catch(IOException ex) {
+            LOG.warn("Error writing to file {}{}", getPath(), name, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete(String name) {
+        final WebResource child = lookup(name);
+        if (child==null || child==this)
+            return false;
+        return child.delete();
+    }
+
+    @Override
+    public List<String> list() {
+        return new ArrayList<>(node.children.keySet());
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        final List<WebResource> retval = new ArrayList<>(node.children.size());
+        for (PackNode child : node.children.values())
+            retval.add(wrap(store, child));
+        return retval;
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            return store.delete(node);
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete directory {}", getPath(), ex);
+            return false;
+        }
+    }
+
+}
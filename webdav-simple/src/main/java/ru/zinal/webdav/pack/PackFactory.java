@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Factory of the web roots over the packed small-file store.
+ * @author zinal
+ */
+public class PackFactory implements WebRootFactory {
+
+    @Override
+    public WebRoot create(WebdavContext context) {
+        if (!(context instanceof PackContext))
+            throw new IllegalArgumentException("Context should be instance of PackContext");
+        final PackStore store;
+        try {
+            store = new PackStore((PackContext) context);
+        } catch(IOException ex) {
+            throw new UncheckedIOException("Cannot open the packed store", ex);
+        }
+        return new PackWebRoot(context, store);
+    }
+
+}
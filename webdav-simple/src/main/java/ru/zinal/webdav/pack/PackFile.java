@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import ru.zinal.webdav.model.*;
+
+/**
+ * File of the packed store.
+ * @author zinal
+ */
+public class PackFile extends WebFile {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(PackFile.class);
+
+    private final PackStore store;
+    private final PackNode node;
+
+    PackFile(PackStore store, PackNode node) {
+        this.store = store;
+        this.node = node;
+    }
+
+    @Override
+    public String getName() {
+        return node.name;
+    }
+
+    @Override
+    public String getPath() {
+        return node.path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final PackState st = node.state;
+        if (st==null)
+            return new ResourceAttributes(false, 0L, 0L, 0L);
+        return new ResourceAttributes(false, st.length,
+                st.creation, st.modified);
+    }
+
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return getAttributes().getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return getAttributes().getContentLength();
+    }
+
+    @Override
+    public InputStream getData() {
+        return getData(0L, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream getData(long start, long finish) {
+        try {
+            return store.open(node, start, finish);
+        } catch(IOException ex) {
+            LOG.warn("Cannot open file {}", node.path, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        try {
+            return store.replace(node, data);
+        } catch(IOException ex) {
+            LOG.warn("Cannot replace data of file {}", node.path, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data, long start) {
+        try {
+            return store.update(node, data, start);
+        } catch(IOException ex) {
+            LOG.warn("Cannot update data of file {}", node.path, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            return store.delete(node);
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete file {}", node.path, ex);
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Entry of the in-memory index of the packed store.
+ * @author zinal
+ */
+final class PackNode {
+
+    final PackNode parent;
+    final String name;
+    // Full path without the trailing slash, "/" for the root
+    final String path;
+    // Members of the collection, null for the files
+    final ConcurrentSkipListMap<String, PackNode> children;
+    // Current state, null after the entry has been deleted
+    volatile PackState state;
+
+    PackNode(PackNode parent, String name, boolean dir) {
+        this.parent = parent;
+        this.name = name;
+        if (parent==null)
+            this.path = "/";
+        else if ("/".equals(parent.path))
+            this.path = "/" + name;
+        else
+            this.path = parent.path + "/" + name;
+        this.children = dir ? new ConcurrentSkipListMap<>() : null;
+    }
+
+    boolean isDirectory() {
+        return children!=null;
+    }
+
+}
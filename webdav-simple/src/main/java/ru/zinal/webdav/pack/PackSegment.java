@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Segment file, mapped into memory as a whole.
+ * The records are appended to the active segment only, all the mutable
+ * fields are guarded by the store lock.
+ * @author zinal
+ */
+final class PackSegment {
+
+    final int id;
+    final Path file;
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+
+    // Append position, which is the end of the valid records
+    int position = 0;
+    // Total length of the records still referenced
+    long liveBytes = 0L;
+    // Minimal sequence number of the records in the segment
+    long minSeq = Long.MAX_VALUE;
+
+    private PackSegment(int id, Path file, FileChannel channel,
+            MappedByteBuffer buffer) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static PackSegment open(int id, Path file, int size) throws IOException {
+        final FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long actual = fc.size();
+            if (actual > size)
+                size = (int) Math.min(actual, Integer.MAX_VALUE);
+            return new PackSegment(id, file, fc,
+                    fc.map(FileChannel.MapMode.READ_WRITE, 0L, size));
+        } catch(IOException | RuntimeException ex) {
+            fc.close();
+            throw ex;
+        }
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @param offset Start of the region
+     * @param length Length of the region
+     * @return Independent buffer over the region of the segment
+     */
+    ByteBuffer slice(int offset, int length) {
+        final ByteBuffer bb = buffer.duplicate();
+        bb.limit(offset + length);
+        bb.position(offset);
+        return bb.slice();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            // ignore, the mapping stays valid until garbage collected
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+}
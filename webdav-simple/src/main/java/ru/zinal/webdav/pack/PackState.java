@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+/**
+ * Immutable location and attributes of the packed store entry.
+ * @author zinal
+ */
+final class PackState {
+
+    final long seq;
+    // Segment holding the record, null for the implicit collections
+    final PackSegment segment;
+    final int offset;
+    final int recordLength;
+    final int dataOffset;
+    // Identifier of the plain file holding the data, -1 for the packed data
+    final long largeId;
+    final long creation;
+    final long modified;
+    final long length;
+
+    PackState(long seq, PackSegment segment, int offset, int recordLength,
+            int dataOffset, long largeId,
+            long creation, long modified, long length) {
+        this.seq = seq;
+        this.segment = segment;
+        this.offset = offset;
+        this.recordLength = recordLength;
+        this.dataOffset = dataOffset;
+        this.largeId = largeId;
+        this.creation = creation;
+        this.modified = modified;
+        this.length = length;
+    }
+
+    static PackState implicit(long tv) {
+        return new PackState(0L, null, 0, 0, 0, -1L, tv, tv, 0L);
+    }
+
+    boolean isLarge() {
+        return largeId >= 0L;
+    }
+
+    PackState modified(long tv, long newLength) {
+        return new PackState(seq, segment, offset, recordLength, dataOffset,
+                largeId, creation, tv, newLength);
+    }
+
+}
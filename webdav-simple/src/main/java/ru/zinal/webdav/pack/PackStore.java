@@ -0,0 +1,871 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import ru.zinal.webdav.fs.FsDurability;
+import ru.zinal.webdav.fs.FsLimitedInput;
+
+/**
+ * Store packing the small files into large memory-mapped segment files.
+ * <p>
+ * Each change is appended to the active segment as a record holding
+ * the full path, the timestamps and the file data. The complete index
+ * of the paths with their locations and attributes is kept in memory,
+ * so the metadata lookups and the reads of the small files do not need
+ * any system calls. The files larger than the configured limit are kept
+ * as plain files, referenced from their records.
+ * <p>
+ * On start, the index is rebuilt by scanning the segments, the record
+ * with the highest sequence number wins for each path. The segments
+ * holding mostly the obsolete records are compacted in the background
+ * by re-appending their live records and removing the segment files.
+ * <p>
+ * The appended records are flushed according to the configured durability
+ * mode before the change is reported as complete.
+ * @author zinal
+ */
+public class PackStore implements Closeable {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(PackStore.class);
+
+    private static final int MAGIC = 0x50414B31;
+    private static final byte T_FILE = 1;
+    private static final byte T_DIR = 2;
+    private static final byte T_LARGE = 3;
+    private static final byte T_DELETE = 4;
+
+    // magic, type, seq, creation, modified, path length, [path], data length
+    private static final int HEADER = 4 + 1 + 8 + 8 + 8 + 2 + 4;
+    // CRC32 of the record after the magic
+    private static final int TRAILER = 4;
+
+    private final Path segmentDir;
+    private final Path largeDir;
+    private final int segmentSize;
+    private final int smallFileLimit;
+    private final double compactRatio;
+    private final PackNode root;
+    private final AtomicLong seq = new AtomicLong();
+    private final FsDurability durability;
+    private final ScheduledExecutorService compactor;
+
+    // Guarded by this
+    private final TreeMap<Integer, PackSegment> segments = new TreeMap<>();
+    private PackSegment active;
+
+    public PackStore(PackContext context) throws IOException {
+        final Path base = Paths.get(context.getDataPath());
+        this.segmentDir = Files.createDirectories(base.resolve("segments"));
+        this.largeDir = Files.createDirectories(base.resolve("large"));
+        this.segmentSize = context.getSegmentSize();
+        this.smallFileLimit = context.getSmallFileLimit();
+        this.compactRatio = context.getCompactRatio();
+        this.root = new PackNode(null, "/", true);
+        this.root.state = PackState.implicit(System.currentTimeMillis());
+        this.durability = new FsDurability(context.getDurabilityMode(),
+                context.getGroupCommitDelay());
+        synchronized(this) {
+            recover();
+        }
+        final long interval = context.getCompactInterval();
+        if (interval > 0L) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "pack-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            this.compactor.scheduleWithFixedDelay(this::compactQuietly,
+                    interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    PackNode getRoot() {
+        return root;
+    }
+
+    public int getSmallFileLimit() {
+        return smallFileLimit;
+    }
+
+    public FsDurability getDurability() {
+        return durability;
+    }
+
+    @Override
+    public void close() {
+        if (compactor!=null)
+            compactor.shutdownNow();
+        synchronized(this) {
+            for (PackSegment seg : segments.values()) {
+                seg.buffer.force();
+                seg.close();
+            }
+            segments.clear();
+            active = null;
+        }
+        durability.close();
+    }
+
+    /**
+     * Make the record appended durable. Called without holding
+     * the store lock, so the flushes of the concurrent changes
+     * can be grouped together. The flush of the segment file
+     * writes its dirty mapped pages as well.
+     * @param st State of the entry, as appended
+     * @throws IOException on flush errors
+     */
+    private void flush(PackState st) throws IOException {
+        if (durability.getMode() == FsDurability.Mode.NONE
+                || st.segment==null)
+            return;
+        try {
+            durability.force(st.segment.channel);
+        } catch(ClosedChannelException ex) {
+            // Segment has been rolled over or compacted, thus already flushed
+        }
+    }
+
+    /**
+     * Open the stream over the range of the file data
+     * @param node File entry
+     * @param start Start position, inclusive
+     * @param finish Finish position, exclusive
+     * @return Input stream
+     * @throws IOException on read errors
+     */
+    InputStream open(PackNode node, long start, long finish)
+            throws IOException {
+        final PackState st = node.state;
+        if (st==null)
+            throw new IOException("File has been deleted: " + node.path);
+        if (start < 0L)
+            start = 0L;
+        if (finish > st.length)
+            finish = st.length;
+        if (finish <= start)
+            return new PackInput(ByteBuffer.allocate(0));
+        if (st.isLarge())
+            return new FsLimitedInput(largePath(st.largeId),
+                    start, finish - start);
+        return new PackInput(st.segment.slice(
+                st.dataOffset + (int) start, (int) (finish - start)));
+    }
+
+    PackNode mkdir(PackNode parent, String name) throws IOException {
+        final PackNode node;
+        final PackState st;
+        synchronized(this) {
+            if (parent.state==null || parent.children.containsKey(name))
+                return null;
+            node = new PackNode(parent, name, true);
+            final long tv = System.currentTimeMillis();
+            node.state = append(T_DIR, seq.incrementAndGet(), tv, tv,
+                    node.path, null, 0, -1L, 0L);
+            parent.children.put(name, node);
+            touch(parent, tv);
+            st = node.state;
+        }
+        flush(st);
+        return node;
+    }
+
+    PackNode createFile(PackNode parent, String name, InputStream data)
+            throws IOException {
+        if (parent.children.containsKey(name))
+            return null;
+        // The data is received without holding the lock
+        final Content c = readContent(data);
+        final PackNode node;
+        final PackState st;
+        synchronized(this) {
+            if (parent.state==null || parent.children.containsKey(name)) {
+                c.discard();
+                return null;
+            }
+            node = new PackNode(parent, name, false);
+            final long tv = System.currentTimeMillis();
+            try {
+                node.state = store(node, c, tv, tv);
+            } catch(IOException ex) {
+                c.discard();
+                throw ex;
+            }
+            parent.children.put(name, node);
+            touch(parent, tv);
+            st = node.state;
+        }
+        flush(st);
+        return node;
+    }
+
+    boolean replace(PackNode node, InputStream data) throws IOException {
+        final Content c = readContent(data);
+        final PackState old;
+        final PackState st;
+        synchronized(this) {
+            old = node.state;
+            if (old==null) {
+                c.discard();
+                return false;
+            }
+            try {
+                st = store(node, c, old.creation,
+                        System.currentTimeMillis());
+            } catch(IOException ex) {
+                c.discard();
+                throw ex;
+            }
+            node.state = st;
+            kill(old);
+        }
+        flush(st);
+        if (old.isLarge())
+            Files.deleteIfExists(largePath(old.largeId));
+        return true;
+    }
+
+    /**
+     * Write the data at the position of the file.
+     * The small file is rewritten as the new record, which is installed
+     * only if the file has not been changed meanwhile. The concurrent
+     * change of the small file is retried while the data received fits
+     * into the small file, otherwise the update fails.
+     * @param node File entry
+     * @param data Data to be written
+     * @param start Position to write at
+     * @return true, if the data has been written
+     * @throws IOException on read or write errors
+     */
+    boolean update(PackNode node, InputStream data, long start)
+            throws IOException {
+        PackState st = node.state;
+        if (st==null)
+            return false;
+        if (st.isLarge())
+            return updateLarge(node, st, data, start, null, 0);
+        final long room = smallFileLimit - start;
+        final byte[] head = new byte[(int) Math.max(0L, room) + 1];
+        final int len = readFully(data, head);
+        while (true) {
+            final byte[] current = new byte[(int) st.length];
+            st.segment.slice(st.dataOffset, current.length).get(current);
+            final boolean small = (room >= 0L && len < head.length);
+            final Content c;
+            if (small) {
+                // The result still fits into the small file
+                final int total = (int) Math.max(current.length, start + len);
+                final byte[] out = Arrays.copyOf(current, total);
+                System.arraycopy(head, 0, out, (int) start, len);
+                c = Content.small(out, total);
+            } else {
+                final long id = seq.incrementAndGet();
+                final Path p = largePath(id);
+                try (FileChannel fc = FileChannel.open(p,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    fc.write(ByteBuffer.wrap(current));
+                    writeAt(fc, data, start, head, len);
+                    durability.force(fc);
+                    c = Content.large(id, fc.size(), p);
+                } catch(IOException | RuntimeException ex) {
+                    Files.deleteIfExists(p);
+                    throw ex;
+                }
+            }
+            if (c.largeFile!=null)
+                durability.forceDirectory(largeDir);
+            final PackState updated;
+            synchronized(this) {
+                final PackState old = node.state;
+                if (old!=st) {
+                    // Changed after the data has been merged
+                    c.discard();
+                    if (old==null || !small)
+                        return false;
+                    st = old;
+                    if (st.isLarge())
+                        return updateLarge(node, st, data, start, head, len);
+                    continue;
+                }
+                try {
+                    updated = store(node, c, old.creation,
+                            System.currentTimeMillis());
+                } catch(IOException ex) {
+                    c.discard();
+                    throw ex;
+                }
+                node.state = updated;
+                kill(old);
+            }
+            flush(updated);
+            return true;
+        }
+    }
+
+    /**
+     * Write the data at the position of the large file, in place
+     * @param node File entry
+     * @param st State of the large file
+     * @param data Data to be written
+     * @param start Position to write at
+     * @param head Data already received, or null
+     * @param len Length of the data already received
+     * @return true, if the data has been written, and false, if the file
+     *    has been replaced or deleted meanwhile
+     * @throws IOException on read or write errors
+     */
+    private boolean updateLarge(PackNode node, PackState st, InputStream data,
+            long start, byte[] head, int len) throws IOException {
+        final long length;
+        try (FileChannel fc = FileChannel.open(largePath(st.largeId),
+                StandardOpenOption.WRITE)) {
+            writeAt(fc, data, start, head, len);
+            length = fc.size();
+            durability.force(fc);
+        } catch(NoSuchFileException ex) {
+            // Replaced or deleted before the write
+            return false;
+        }
+        synchronized(this) {
+            final PackState cur = node.state;
+            if (cur==null || cur.largeId!=st.largeId)
+                return false;
+            // The concurrent in-place updates may finish in any order
+            node.state = cur.modified(System.currentTimeMillis(),
+                    Math.max(cur.length, length));
+        }
+        return true;
+    }
+
+    boolean delete(PackNode node) throws IOException {
+        final PackState old;
+        final PackState mark;
+        synchronized(this) {
+            old = node.state;
+            if (old==null || node.parent==null)
+                return false;
+            if (node.isDirectory() && !node.children.isEmpty())
+                return false;
+            final long tv = System.currentTimeMillis();
+            mark = append(T_DELETE, seq.incrementAndGet(), tv, tv,
+                    node.path, null, 0, -1L, 0L);
+            node.parent.children.remove(node.name, node);
+            node.state = null;
+            kill(old);
+            touch(node.parent, tv);
+        }
+        flush(mark);
+        if (old.isLarge())
+            Files.deleteIfExists(largePath(old.largeId));
+        return true;
+    }
+
+    /**
+     * Compact the segments with the share of the live records
+     * below the configured ratio
+     * @return Number of the records moved
+     * @throws IOException on read or write errors
+     */
+    public int compact() throws IOException {
+        final List<PackSegment> victims = new ArrayList<>();
+        synchronized(this) {
+            for (PackSegment seg : segments.values()) {
+                if (seg!=active && seg.liveBytes < seg.position * compactRatio)
+                    victims.add(seg);
+            }
+        }
+        int moved = 0;
+        for (PackSegment seg : victims) {
+            int pos = 0;
+            Record r;
+            while ((r = readRecord(seg, pos)) != null) {
+                pos += r.length;
+                synchronized(this) {
+                    if (relocate(seg, r))
+                        ++moved;
+                }
+            }
+            final PackSegment target;
+            synchronized(this) {
+                segments.remove(seg.id);
+                target = active;
+            }
+            // The moved records must survive the removal of their originals
+            if (moved > 0 && target!=null)
+                target.buffer.force();
+            // Readers may still use the mapping, which stays valid
+            seg.close();
+            Files.deleteIfExists(seg.file);
+            LOG.info("Compacted segment {}", seg);
+        }
+        return moved;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch(Exception ex) {
+            LOG.warn("Segment compaction failed", ex);
+        }
+    }
+
+    /**
+     * Copy the live record from the segment being compacted
+     * to the active segment.
+     * @return true, if the record has been copied
+     */
+    private boolean relocate(PackSegment seg, Record r) throws IOException {
+        final PackNode node = find(r.path);
+        if (r.type == T_DELETE) {
+            if (node!=null && node.state!=null && node.state.seq > r.seq)
+                return false;
+            // The deletion mark is needed while older records may exist
+            boolean needed = false;
+            for (PackSegment other : segments.values()) {
+                if (other!=seg && other.minSeq < r.seq) {
+                    needed = true;
+                    break;
+                }
+            }
+            if (!needed)
+                return false;
+            append(T_DELETE, r.seq, r.creation, r.modified,
+                    r.path, null, 0, -1L, 0L);
+            return true;
+        }
+        if (node==null)
+            return false;
+        final PackState st = node.state;
+        if (st==null || st.segment!=seg || st.offset!=r.offset)
+            return false;
+        final byte[] data = new byte[r.dataLength];
+        seg.slice(r.dataOffset, r.dataLength).get(data);
+        final PackState moved = append(r.type, st.seq, st.creation,
+                st.modified, node.path, data, data.length,
+                st.largeId, st.length);
+        node.state = moved;
+        return true;
+    }
+
+    private PackState store(PackNode node, Content c,
+            long creation, long modified) throws IOException {
+        if (c.largeId < 0L)
+            return append(T_FILE, seq.incrementAndGet(), creation, modified,
+                    node.path, c.data, c.length, -1L, c.length);
+        final byte[] id = ByteBuffer.allocate(8).putLong(c.largeId).array();
+        return append(T_LARGE, seq.incrementAndGet(), creation, modified,
+                node.path, id, id.length, c.largeId, c.largeLength);
+    }
+
+    /**
+     * Append the record to the active segment. Must be called
+     * while holding the store lock.
+     */
+    private PackState append(byte type, long recSeq, long creation,
+            long modified, String path, byte[] data, int dataLength,
+            long largeId, long length) throws IOException {
+        final byte[] pb = path.getBytes(StandardCharsets.UTF_8);
+        if (pb.length > 0xFFFF)
+            throw new IOException("Path too long: " + path);
+        final int total = HEADER + pb.length + dataLength + TRAILER;
+        if (active==null || active.position + total > active.capacity())
+            roll();
+        final PackSegment seg = active;
+        final int offset = seg.position;
+        final ByteBuffer bb = seg.slice(offset, total);
+        bb.putInt(MAGIC).put(type).putLong(recSeq)
+                .putLong(creation).putLong(modified)
+                .putShort((short) pb.length).put(pb).putInt(dataLength);
+        if (dataLength > 0)
+            bb.put(data, 0, dataLength);
+        final CRC32 crc = new CRC32();
+        crc.update(seg.slice(offset + 4, total - 4 - TRAILER));
+        bb.putInt((int) crc.getValue());
+        seg.position += total;
+        // Deletion marks are never referenced, so they do not prevent
+        // the compaction, which keeps them only while still needed
+        if (type != T_DELETE)
+            seg.liveBytes += total;
+        seg.minSeq = Math.min(seg.minSeq, recSeq);
+        return new PackState(recSeq, seg, offset, total,
+                offset + HEADER + pb.length, largeId,
+                creation, modified, length);
+    }
+
+    private void roll() throws IOException {
+        final int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        final PackSegment seg = PackSegment.open(id,
+                segmentDir.resolve(String.format("seg-%08d.pack", id)),
+                segmentSize);
+        if (active!=null)
+            active.buffer.force();
+        durability.forceDirectory(segmentDir);
+        segments.put(id, seg);
+        active = seg;
+        LOG.debug("Opened new segment {}", seg);
+    }
+
+    private static void kill(PackState old) {
+        if (old.segment!=null)
+            old.segment.liveBytes -= old.recordLength;
+    }
+
+    private static void touch(PackNode dir, long tv) {
+        final PackState st = dir.state;
+        if (st!=null)
+            dir.state = st.modified(tv, st.length);
+    }
+
+    private Path largePath(long id) {
+        return largeDir.resolve(String.format("%016x.bin", id));
+    }
+
+    /**
+     * Receive the data, keeping it in memory if it fits the small file limit,
+     * or writing it to the new plain file otherwise.
+     */
+    private Content readContent(InputStream data) throws IOException {
+        if (data==null)
+            return Content.small(new byte[0], 0);
+        final byte[] head = new byte[smallFileLimit + 1];
+        final int len = readFully(data, head);
+        if (len <= smallFileLimit)
+            return Content.small(head, len);
+        final long id = seq.incrementAndGet();
+        final Path p = largePath(id);
+        try (FileChannel fc = FileChannel.open(p,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final OutputStream os = Channels.newOutputStream(fc);
+            os.write(head, 0, len);
+            final byte[] buf = new byte[32768];
+            int bytes;
+            while ((bytes = data.read(buf)) > 0)
+                os.write(buf, 0, bytes);
+            durability.force(fc);
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(p);
+            throw ex;
+        }
+        durability.forceDirectory(largeDir);
+        return Content.large(id, Files.size(p), p);
+    }
+
+    /**
+     * Write the head bytes and then the rest of the stream
+     * at the specified position of the file.
+     */
+    private static void writeAt(FileChannel fc, InputStream data, long start,
+            byte[] head, int headLength) throws IOException {
+        long pos = start;
+        if (headLength > 0) {
+            final ByteBuffer bb = ByteBuffer.wrap(head, 0, headLength);
+            while (bb.hasRemaining())
+                pos += fc.write(bb, pos);
+        }
+        if (data==null)
+            return;
+        final byte[] buf = new byte[32768];
+        int bytes;
+        while ((bytes = data.read(buf)) > 0) {
+            final ByteBuffer bb = ByteBuffer.wrap(buf, 0, bytes);
+            while (bb.hasRemaining())
+                pos += fc.write(bb, pos);
+        }
+    }
+
+    private static int readFully(InputStream data, byte[] buf)
+            throws IOException {
+        if (data==null)
+            return 0;
+        int pos = 0;
+        while (pos < buf.length) {
+            final int bytes = data.read(buf, pos, buf.length - pos);
+            if (bytes < 0)
+                break;
+            pos += bytes;
+        }
+        return pos;
+    }
+
+    private PackNode find(String path) {
+        PackNode cur = root;
+        for (String name : path.split("/")) {
+            if (name.length()==0)
+                continue;
+            if (cur.children==null)
+                return null;
+            cur = cur.children.get(name);
+            if (cur==null)
+                return null;
+        }
+        return cur;
+    }
+
+    /**
+     * Find or create the collection by path while rebuilding the index
+     * @return Collection entry, or null if there is a file in the way
+     */
+    private PackNode ensureDirectory(String path) {
+        PackNode cur = root;
+        for (String name : path.split("/")) {
+            if (name.length()==0)
+                continue;
+            if (cur.children==null)
+                return null;
+            PackNode next = cur.children.get(name);
+            if (next==null) {
+                next = new PackNode(cur, name, true);
+                next.state = root.state;
+                cur.children.put(name, next);
+            }
+            cur = next;
+        }
+        return cur.isDirectory() ? cur : null;
+    }
+
+    private static String parentPath(String path) {
+        final int pos = path.lastIndexOf('/');
+        return (pos <= 0) ? "/" : path.substring(0, pos);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Rebuild the index from the segment files
+     */
+    private void recover() throws IOException {
+        final TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> ds =
+                Files.newDirectoryStream(segmentDir, "seg-*.pack")) {
+            for (Path p : ds) {
+                final String fn = p.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(fn.substring(4, fn.length() - 5)), p);
+                } catch(NumberFormatException ex) {
+                    LOG.warn("Skipping unexpected file {}", p);
+                }
+            }
+        }
+        final Map<String, Record> winners = new HashMap<>();
+        long maxSeq = 0L;
+        for (Map.Entry<Integer, Path> me : files.entrySet()) {
+            final PackSegment seg = PackSegment.open(me.getKey(),
+                    me.getValue(), segmentSize);
+            segments.put(seg.id, seg);
+            int pos = 0;
+            Record r;
+            while ((r = readRecord(seg, pos)) != null) {
+                pos += r.length;
+                seg.minSeq = Math.min(seg.minSeq, r.seq);
+                maxSeq = Math.max(maxSeq, r.seq);
+                final Record prev = winners.get(r.path);
+                if (prev==null || prev.seq < r.seq)
+                    winners.put(r.path, r);
+            }
+            seg.position = pos;
+            active = seg;
+        }
+        seq.set(maxSeq);
+        final Set<Long> largeIds = new HashSet<>();
+        // Sorted by path, so the collections come before their members
+        for (Record r : new TreeMap<>(winners).values()) {
+            if (r.type == T_DELETE)
+                continue;
+            r.segment.liveBytes += r.length;
+            if ("/".equals(r.path))
+                continue;
+            final PackNode parent = ensureDirectory(parentPath(r.path));
+            if (parent==null) {
+                LOG.warn("Skipping {}, parent is not a collection", r.path);
+                continue;
+            }
+            final String name = nameOf(r.path);
+            PackNode node = parent.children.get(name);
+            if (node==null) {
+                node = new PackNode(parent, name, r.type == T_DIR);
+                parent.children.put(name, node);
+            } else if (node.isDirectory() != (r.type == T_DIR)) {
+                LOG.warn("Skipping {}, conflicting entry type", r.path);
+                continue;
+            }
+            long largeId = -1L;
+            long length = r.dataLength;
+            if (r.type == T_LARGE) {
+                largeId = r.segment.slice(r.dataOffset, 8).getLong();
+                final Path p = largePath(largeId);
+                length = Files.exists(p) ? Files.size(p) : 0L;
+                largeIds.add(largeId);
+            } else if (r.type == T_DIR) {
+                length = 0L;
+            }
+            node.state = new PackState(r.seq, r.segment, r.offset, r.length,
+                    r.dataOffset, largeId, r.creation, r.modified, length);
+        }
+        // Plain files left by the interrupted writes
+        try (DirectoryStream<Path> ds =
+                Files.newDirectoryStream(largeDir, "*.bin")) {
+            for (Path p : ds) {
+                final String fn = p.getFileName().toString();
+                try {
+                    final long id = Long.parseUnsignedLong(
+                            fn.substring(0, fn.length() - 4), 16);
+                    if (!largeIds.contains(id))
+                        Files.deleteIfExists(p);
+                } catch(NumberFormatException ex) {
+                    LOG.warn("Skipping unexpected file {}", p);
+                }
+            }
+        }
+        LOG.info("Packed store opened with {} segments and {} paths",
+                segments.size(), winners.size());
+    }
+
+    /**
+     * Read and validate the record at the position of the segment
+     * @return Record, or null at the end of the valid records
+     */
+    private static Record readRecord(PackSegment seg, int pos) {
+        final int capacity = seg.capacity();
+        if (pos + HEADER + TRAILER > capacity)
+            return null;
+        final ByteBuffer bb = seg.slice(pos, capacity - pos);
+        if (bb.getInt() != MAGIC)
+            return null;
+        final byte type = bb.get();
+        final long recSeq = bb.getLong();
+        final long creation = bb.getLong();
+        final long modified = bb.getLong();
+        final int pathLength = bb.getShort() & 0xFFFF;
+        if (HEADER + pathLength + TRAILER > bb.limit())
+            return null;
+        final byte[] pb = new byte[pathLength];
+        bb.get(pb);
+        final int dataLength = bb.getInt();
+        final int total = HEADER + pathLength + dataLength + TRAILER;
+        if (dataLength < 0 || total > bb.limit())
+            return null;
+        final CRC32 crc = new CRC32();
+        crc.update(seg.slice(pos + 4, total - 4 - TRAILER));
+        if (bb.getInt(total - TRAILER) != (int) crc.getValue())
+            return null;
+        return new Record(seg, pos, total, type, recSeq, creation, modified,
+                new String(pb, StandardCharsets.UTF_8),
+                pos + HEADER + pathLength, dataLength);
+    }
+
+    private static final class Record {
+
+        final PackSegment segment;
+        final int offset;
+        final int length;
+        final byte type;
+        final long seq;
+        final long creation;
+        final long modified;
+        final String path;
+        final int dataOffset;
+        final int dataLength;
+
+        Record(PackSegment segment, int offset, int length, byte type,
+                long seq, long creation, long modified, String path,
+                int dataOffset, int dataLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.type = type;
+            this.seq = seq;
+            this.creation = creation;
+            this.modified = modified;
+            this.path = path;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+    }
+
+    /**
+     * File data received, either in memory or in the new plain file
+     */
+    private static final class Content {
+
+        final byte[] data;
+        final int length;
+        final long largeId;
+        final long largeLength;
+        final Path largeFile;
+
+        private Content(byte[] data, int length, long largeId,
+                long largeLength, Path largeFile) {
+            this.data = data;
+            this.length = length;
+            this.largeId = largeId;
+            this.largeLength = largeLength;
+            this.largeFile = largeFile;
+        }
+
+        static Content small(byte[] data, int length) {
+            return new Content(data, length, -1L, 0L, null);
+        }
+
+        static Content large(long id, long length, Path file) {
+            return new Content(null, 0, id, length, file);
+        }
+
+        void discard() {
+            if (largeFile!=null) {
+                try {
+                    Files.deleteIfExists(largeFile);
+                } catch(IOException ex) {
+                    LOG.warn("Cannot remove {}", largeFile, ex);
+                }
+            }
+        }
+
+    }
+
+}
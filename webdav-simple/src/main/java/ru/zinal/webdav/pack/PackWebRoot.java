@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import ru.zinal.webdav.model.*;
+
+/**
+ * Web root over the packed store, closing the store together
+ * with the web root.
+ * @author zinal
+ */
+public class PackWebRoot extends WebRootImpl {
+
+    private final PackStore store;
+
+    public PackWebRoot(WebdavContext context, PackStore store) {
+        super(context, new PackDirectory(store, store.getRoot()));
+        this.store = store;
+    }
+
+    public PackStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+}
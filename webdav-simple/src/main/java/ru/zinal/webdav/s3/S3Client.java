@@ -0,0 +1,586 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Minimal client of the S3 REST API, signing the requests
+ * with AWS Signature Version 4. The payloads are not hashed,
+ * so the request bodies are streamed without the extra pass.
+ * @author zinal
+ */
+public class S3Client {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(S3Client.class);
+
+    // Conditional write, supported by AWS S3 and most compatible services
+    private static final Map<String, String> IF_ABSENT =
+            Collections.singletonMap("If-None-Match", "*");
+
+    private static final String UNSIGNED = "UNSIGNED-PAYLOAD";
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter AMZ_DATE =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private final String endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public S3Client(S3Context context) {
+        this.endpoint = context.getEndpoint();
+        this.region = context.getRegion();
+        this.bucket = context.getBucket();
+        this.accessKey = context.getAccessKey();
+        this.secretKey = context.getSecretKey();
+        this.pathStyle = context.isPathStyle();
+        this.connectTimeout = context.getConnectTimeout();
+        this.readTimeout = context.getReadTimeout();
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * Read the object metadata
+     * @param key Object key
+     * @return Object description, or null if the object does not exist
+     * @throws IOException on communication errors
+     */
+    public S3Object head(String key) throws IOException {
+        final HttpURLConnection conn = open("HEAD", key, null, null);
+        final int status = conn.getResponseCode();
+        if (status==404) {
+            conn.disconnect();
+            return null;
+        }
+        check(conn, "HEAD " + key);
+        long lastModified = 0L;
+        final String lm = conn.getHeaderField("Last-Modified");
+        if (lm!=null) {
+            try {
+                lastModified = ZonedDateTime.parse(lm,
+                        DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+            } catch(RuntimeException ex) {
+                LOG.debug("Bad Last-Modified value {}", lm);
+            }
+        }
+        final String len = conn.getHeaderField("Content-Length");
+        return new S3Object(key, len==null ? 0L : Long.parseLong(len.trim()),
+                lastModified, conn.getHeaderField("ETag"));
+    }
+
+    /**
+     * Read the range of the object data
+     * @param key Object key
+     * @param start Start of the range, inclusive
+     * @param finish End of the range, exclusive, or -1 for the end of object
+     * @return Stream of the object data
+     * @throws IOException on communication errors
+     */
+    public InputStream get(String key, long start, long finish)
+            throws IOException {
+        final Map<String, String> headers = new TreeMap<>();
+        if (start > 0L || finish >= 0L) {
+            headers.put("Range", "bytes=" + start + "-"
+                    + (finish >= 0L ? String.valueOf(finish - 1L) : ""));
+        }
+        final HttpURLConnection conn = open("GET", key, null, headers);
+        check(conn, "GET " + key);
+        return conn.getInputStream();
+    }
+
+    /**
+     * Store the object in a single request
+     * @return Entity tag of the new object
+     */
+    public String put(String key, byte[] data, int length) throws IOException {
+        return put(key, data, length, false);
+    }
+
+    /**
+     * Store the object in a single request
+     * @param ifAbsent true to store the object only if it does not exist,
+     *    failing with HTTP 412 otherwise
+     * @return Entity tag of the new object
+     */
+    public String put(String key, byte[] data, int length, boolean ifAbsent)
+            throws IOException {
+        final HttpURLConnection conn = open("PUT", key, null,
+                ifAbsent ? IF_ABSENT : null);
+        send(conn, data, length);
+        check(conn, "PUT " + key);
+        drain(conn);
+        return conn.getHeaderField("ETag");
+    }
+
+    public void delete(String key) throws IOException {
+        final HttpURLConnection conn = open("DELETE", key, null, null);
+        final int status = conn.getResponseCode();
+        if (status!=404)
+            check(conn, "DELETE " + key);
+        drain(conn);
+    }
+
+    /**
+     * Server-side copy of the object, up to 5 GB
+     */
+    public void copy(String sourceKey, String destKey) throws IOException {
+        final Map<String, String> headers = new TreeMap<>();
+        headers.put("x-amz-copy-source", copySource(sourceKey));
+        final HttpURLConnection conn = open("PUT", destKey, null, headers);
+        send(conn, null, 0);
+        check(conn, "COPY " + sourceKey);
+        // Copy errors may come with the status 200
+        parseResult(conn, "COPY " + sourceKey);
+    }
+
+    /**
+     * List the objects with the specified key prefix
+     * @param prefix Key prefix
+     * @param delimiter Delimiter to group the keys, or null
+     * @param token Continuation token of the previous page, or null
+     * @param maxKeys Maximum number of the keys to return
+     * @return Page of the listing
+     * @throws IOException on communication errors
+     */
+    public ListPage list(String prefix, String delimiter, String token,
+            int maxKeys) throws IOException {
+        final Map<String, String> query = new TreeMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", prefix);
+        query.put("max-keys", String.valueOf(maxKeys));
+        if (delimiter!=null)
+            query.put("delimiter", delimiter);
+        if (token!=null)
+            query.put("continuation-token", token);
+        final HttpURLConnection conn = open("GET", null, query, null);
+        check(conn, "LIST " + prefix);
+        final Element root = parseResult(conn, "LIST " + prefix);
+        final List<S3Object> objects = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+        final NodeList nl = root.getChildNodes();
+        for (int i = 0; i < nl.getLength(); ++i) {
+            final Node n = nl.item(i);
+            if (!(n instanceof Element))
+                continue;
+            final Element e = (Element) n;
+            if ("Contents".equals(e.getTagName())) {
+                long lastModified = 0L;
+                final String lm = childText(e, "LastModified");
+                if (lm!=null)
+                    lastModified = Instant.parse(lm).toEpochMilli();
+                final String size = childText(e, "Size");
+                objects.add(new S3Object(childText(e, "Key"),
+                        size==null ? 0L : Long.parseLong(size),
+                        lastModified, childText(e, "ETag")));
+            } else if ("CommonPrefixes".equals(e.getTagName())) {
+                prefixes.add(childText(e, "Prefix"));
+            }
+        }
+        String next = null;
+        if ("true".equals(childText(root, "IsTruncated")))
+            next = childText(root, "NextContinuationToken");
+        return new ListPage(objects, prefixes, next);
+    }
+
+    public String createUpload(String key) throws IOException {
+        final HttpURLConnection conn = open("POST", key,
+                Collections.singletonMap("uploads", ""), null);
+        send(conn, null, 0);
+        check(conn, "CREATE UPLOAD " + key);
+        return childText(parseResult(conn, "CREATE UPLOAD " + key), "UploadId");
+    }
+
+    /**
+     * Upload the part of the multipart upload
+     * @return Entity tag of the part
+     */
+    public String uploadPart(String key, String uploadId, int partNumber,
+            byte[] data, int length) throws IOException {
+        final HttpURLConnection conn = open("PUT", key,
+                partQuery(uploadId, partNumber), null);
+        send(conn, data, length);
+        check(conn, "UPLOAD PART " + key);
+        drain(conn);
+        return conn.getHeaderField("ETag");
+    }
+
+    /**
+     * Copy the range of the existing object as the part of the multipart upload
+     * @return Entity tag of the part
+     */
+    public String uploadPartCopy(String key, String uploadId, int partNumber,
+            String sourceKey, long start, long finish) throws IOException {
+        final Map<String, String> headers = new TreeMap<>();
+        headers.put("x-amz-copy-source", copySource(sourceKey));
+        headers.put("x-amz-copy-source-range",
+                "bytes=" + start + "-" + (finish - 1L));
+        final HttpURLConnection conn = open("PUT", key,
+                partQuery(uploadId, partNumber), headers);
+        send(conn, null, 0);
+        check(conn, "UPLOAD PART COPY " + key);
+        return childText(parseResult(conn, "UPLOAD PART COPY " + key), "ETag");
+    }
+
+    public void completeUpload(String key, String uploadId,
+            List<String> eTags) throws IOException {
+        completeUpload(key, uploadId, eTags, false);
+    }
+
+    /**
+     * Complete the multipart upload
+     * @param ifAbsent true to create the object only if it does not exist,
+     *    failing with HTTP 412 otherwise
+     */
+    public void completeUpload(String key, String uploadId,
+            List<String> eTags, boolean ifAbsent) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<CompleteMultipartUpload>");
+        for (int i = 0; i < eTags.size(); ++i) {
+            sb.append("<Part><PartNumber>").append(i + 1)
+                    .append("</PartNumber><ETag>")
+                    .append(escape(eTags.get(i)))
+                    .append("</ETag></Part>");
+        }
+        sb.append("</CompleteMultipartUpload>");
+        final byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        final HttpURLConnection conn = open("POST", key,
+                Collections.singletonMap("uploadId", uploadId),
+                ifAbsent ? IF_ABSENT : null);
+        send(conn, body, body.length);
+        check(conn, "COMPLETE UPLOAD " + key);
+        // Completion errors may come with the status 200
+        parseResult(conn, "COMPLETE UPLOAD " + key);
+    }
+
+    public void abortUpload(String key, String uploadId) throws IOException {
+        final HttpURLConnection conn = open("DELETE", key,
+                Collections.singletonMap("uploadId", uploadId), null);
+        final int status = conn.getResponseCode();
+        if (status!=404)
+            check(conn, "ABORT UPLOAD " + key);
+        drain(conn);
+    }
+
+    private static Map<String, String> partQuery(String uploadId,
+            int partNumber) {
+        final Map<String, String> query = new TreeMap<>();
+        query.put("partNumber", String.valueOf(partNumber));
+        query.put("uploadId", uploadId);
+        return query;
+    }
+
+    private String copySource(String key) {
+        return "/" + bucket + "/" + uriEncode(key, true);
+    }
+
+    /**
+     * Build and sign the request
+     * @param method HTTP method
+     * @param key Object key, or null for the bucket requests
+     * @param query Query parameters, can be null
+     * @param headers Extra headers to be signed, can be null
+     * @return Connection with the request headers set
+     */
+    private HttpURLConnection open(String method, String key,
+            Map<String, String> query, Map<String, String> headers)
+            throws IOException {
+        final int schemeEnd = endpoint.indexOf("://");
+        final String scheme = endpoint.substring(0, schemeEnd + 3);
+        String host = endpoint.substring(schemeEnd + 3);
+        String path = "/" + (key==null ? "" : uriEncode(key, true));
+        if (pathStyle)
+            path = "/" + bucket + path;
+        else
+            host = bucket + "." + host;
+        final TreeMap<String, String> sortedQuery = new TreeMap<>();
+        if (query!=null) {
+            for (Map.Entry<String, String> me : query.entrySet())
+                sortedQuery.put(uriEncode(me.getKey(), false),
+                        uriEncode(me.getValue(), false));
+        }
+        final StringBuilder qs = new StringBuilder();
+        for (Map.Entry<String, String> me : sortedQuery.entrySet()) {
+            if (qs.length() > 0)
+                qs.append('&');
+            qs.append(me.getKey()).append('=').append(me.getValue());
+        }
+        final URL url = new URL(scheme + host + path
+                + (qs.length() > 0 ? "?" + qs : ""));
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setUseCaches(false);
+        conn.setInstanceFollowRedirects(false);
+
+        final String amzDate = ZonedDateTime.now(ZoneOffset.UTC).format(AMZ_DATE);
+        final String date = amzDate.substring(0, 8);
+        // Header names in lower case, sorted, as required for the signature
+        final TreeMap<String, String> signed = new TreeMap<>();
+        String hostHeader = url.getHost();
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+            hostHeader = hostHeader + ":" + url.getPort();
+        signed.put("host", hostHeader);
+        signed.put("x-amz-content-sha256", UNSIGNED);
+        signed.put("x-amz-date", amzDate);
+        if (headers!=null) {
+            for (Map.Entry<String, String> me : headers.entrySet())
+                signed.put(me.getKey().toLowerCase(), me.getValue().trim());
+        }
+        final StringBuilder canonicalHeaders = new StringBuilder();
+        final StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> me : signed.entrySet()) {
+            canonicalHeaders.append(me.getKey()).append(':')
+                    .append(me.getValue()).append('\n');
+            if (signedHeaders.length() > 0)
+                signedHeaders.append(';');
+            signedHeaders.append(me.getKey());
+            if (!"host".equals(me.getKey()))
+                conn.setRequestProperty(me.getKey(), me.getValue());
+        }
+        final String canonicalRequest = method + "\n" + path + "\n"
+                + qs + "\n" + canonicalHeaders + "\n"
+                + signedHeaders + "\n" + UNSIGNED;
+        final String scope = date + "/" + region + "/s3/aws4_request";
+        final String stringToSign = ALGORITHM + "\n" + amzDate + "\n"
+                + scope + "\n" + hex(sha256(canonicalRequest));
+        if (accessKey!=null && secretKey!=null) {
+            byte[] k = hmac(("AWS4" + secretKey)
+                    .getBytes(StandardCharsets.UTF_8), date);
+            k = hmac(k, region);
+            k = hmac(k, "s3");
+            k = hmac(k, "aws4_request");
+            conn.setRequestProperty("Authorization", ALGORITHM
+                    + " Credential=" + accessKey + "/" + scope
+                    + ", SignedHeaders=" + signedHeaders
+                    + ", Signature=" + hex(hmac(k, stringToSign)));
+        }
+        return conn;
+    }
+
+    private static void send(HttpURLConnection conn, byte[] data, int length)
+            throws IOException {
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(length);
+        try (OutputStream os = conn.getOutputStream()) {
+            if (length > 0)
+                os.write(data, 0, length);
+        }
+    }
+
+    /**
+     * Throw the exception for the error status, with the error code
+     * from the response body
+     */
+    private static void check(HttpURLConnection conn, String what)
+            throws IOException {
+        final int status = conn.getResponseCode();
+        if (status >= 200 && status < 300)
+            return;
+        String code = null;
+        final InputStream es = conn.getErrorStream();
+        if (es!=null) {
+            try (InputStream is = es) {
+                final String body = new String(readAll(is),
+                        StandardCharsets.UTF_8);
+                final int start = body.indexOf("<Code>");
+                final int end = body.indexOf("</Code>");
+                if (start >= 0 && end > start)
+                    code = body.substring(start + 6, end);
+            } catch(IOException ex) {
+                LOG.debug("Cannot read the error response", ex);
+            }
+        }
+        throw new S3Exception(what, status, code);
+    }
+
+    private static Element parseResult(HttpURLConnection conn, String what)
+            throws IOException {
+        final byte[] body;
+        try (InputStream is = conn.getInputStream()) {
+            body = readAll(is);
+        }
+        final Element root;
+        try {
+            final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl",
+                    true);
+            final DocumentBuilder db = dbf.newDocumentBuilder();
+            final Document doc = db.parse(new ByteArrayInputStream(body));
+            root = doc.getDocumentElement();
+        } catch(Exception ex) {
+            throw new IOException("Bad response to " + what, ex);
+        }
+        if ("Error".equals(root.getTagName()))
+            throw new S3Exception(what, conn.getResponseCode(),
+                    childText(root, "Code"));
+        return root;
+    }
+
+    private static String childText(Element e, String name) {
+        final NodeList nl = e.getChildNodes();
+        for (int i = 0; i < nl.getLength(); ++i) {
+            final Node n = nl.item(i);
+            if (n instanceof Element && name.equals(((Element) n).getTagName()))
+                return n.getTextContent();
+        }
+        return null;
+    }
+
+    private static void drain(HttpURLConnection conn) throws IOException {
+        // Reading the response to the end keeps the connection reusable
+        try (InputStream is = conn.getInputStream()) {
+            readAll(is);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int len;
+        while ((len = is.read(buf)) > 0)
+            baos.write(buf, 0, len);
+        return baos.toByteArray();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;")
+                .replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    static String uriEncode(String s, boolean keepSlash) {
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            final char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~'
+                    || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(
+                        Character.forDigit((c >> 4) & 0xF, 16)))
+                  .append(Character.toUpperCase(
+                        Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                    .digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch(GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch(GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] data) {
+        final StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+              .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Page of the object listing
+     */
+    public static final class ListPage {
+
+        private final List<S3Object> objects;
+        private final List<String> prefixes;
+        private final String nextToken;
+
+        public ListPage(List<S3Object> objects, List<String> prefixes,
+                String nextToken) {
+            this.objects = objects;
+            this.prefixes = prefixes;
+            this.nextToken = nextToken;
+        }
+
+        public List<S3Object> getObjects() {
+            return objects;
+        }
+
+        public List<String> getPrefixes() {
+            return prefixes;
+        }
+
+        /**
+         * @return Continuation token, or null for the last page
+         */
+        public String getNextToken() {
+            return nextToken;
+        }
+
+        public boolean isEmpty() {
+            return objects.isEmpty() && prefixes.isEmpty();
+        }
+
+    }
+
+}
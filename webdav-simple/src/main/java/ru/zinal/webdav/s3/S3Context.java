@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import ru.zinal.webdav.model.WebdavContext;
+
+/**
+ *
+ * @author zinal
+ */
+public class S3Context extends WebdavContext {
+
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private String endpoint;
+    private String region;
+    private String bucket;
+    private String accessKey;
+    private String secretKey;
+    private String keyPrefix;
+    private boolean pathStyle = true;
+    private int partSize = 8 * 1024 * 1024;
+    private int threads = 8;
+    private int listPageSize = 1000;
+    private int connectTimeout = 10000;
+    private int readTimeout = 60000;
+
+    /**
+     * @return Service URL, like https://s3.eu-west-1.amazonaws.com
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public void setAccessKey(String accessKey) {
+        this.accessKey = accessKey;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * @return Prefix of the object keys, empty or ending with the slash
+     */
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * @return true for the path-style URLs, false for the virtual hosts
+     */
+    public boolean isPathStyle() {
+        return pathStyle;
+    }
+
+    public void setPathStyle(boolean pathStyle) {
+        this.pathStyle = pathStyle;
+    }
+
+    /**
+     * @return Part size of the multipart uploads and copies
+     */
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(int partSize) {
+        this.partSize = partSize;
+    }
+
+    /**
+     * @return Number of the parallel part uploads and copies
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getListPageSize() {
+        return listPageSize;
+    }
+
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        if (endpoint==null || bucket==null)
+            throw new IllegalArgumentException("Endpoint and bucket must be set");
+        while (endpoint.endsWith("/"))
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        if (region==null)
+            region = "us-east-1";
+        if (keyPrefix==null)
+            keyPrefix = "";
+        while (keyPrefix.startsWith("/"))
+            keyPrefix = keyPrefix.substring(1);
+        if (keyPrefix.length() > 0 && !keyPrefix.endsWith("/"))
+            keyPrefix = keyPrefix + "/";
+        if (partSize < MIN_PART_SIZE)
+            partSize = MIN_PART_SIZE;
+        if (threads < 1)
+            threads = 1;
+        if (listPageSize < 1 || listPageSize > 1000)
+            listPageSize = 1000;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Collection of the bucket, which is the key prefix.
+ * @author zinal
+ */
+public class S3Directory extends WebDirectory {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(S3Directory.class);
+
+    private final S3WebRoot root;
+    private final String path;
+    private final S3Object marker;
+
+    /**
+     * @param root Web root
+     * @param path Path of the collection with the trailing slash
+     * @param marker Marker object, if known
+     */
+    S3Directory(S3WebRoot root, String path, S3Object marker) {
+        this.root = root;
+        this.path = path;
+        this.marker = marker;
+    }
+
+    @Override
+    public String getName() {
+        if ("/".equals(path))
+            return path;
+        final String p = path.substring(0, path.length() - 1);
+        return p.substring(p.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final long tv = (marker==null) ? 0L : marker.getLastModified();
+        return new ResourceAttributes(true, 0L, tv, tv);
+    }
+
+    @Override
+    public long getCreation() {
+        return getAttributes().getCreation();
+    }
+
+    @Override
+    public long getLastModified() {
+        return getAttributes().getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        return root.getResource(path + name);
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        if (names==null || names.length==0)
+            return this;
+        return root.getResource(path + String.join("/", names));
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        return root.mkdir(path + name);
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        return root.write(path + name, data, false);
+    }
+
+    @Override
+    public boolean delete(String name) {
+        final WebResource child = lookup(name);
+        if (child==null || child==this)
+            return false;
+        return child.delete();
+    }
+
+    @Override
+    public List<String> list() {
+        final List<String> retval = new ArrayList<>();
+        try (WebListing listing = openListing()) {
+            for (WebResource r : listing)
+                retval.add(r.getName());
+        }
+        return retval;
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        final List<WebResource> retval = new ArrayList<>();
+        try (WebListing listing = openListing()) {
+            for (WebResource r : listing)
+                retval.add(r);
+        }
+        return retval;
+    }
+
+    @Override
+    public WebListing openListing() {
+        return new S3Listing(root, root.dirKey(S3WebRoot.normalize(path)));
+    }
+
+    /**
+     * Remove the marker of the empty collection
+     * @return true, if the collection was empty
+     */
+    @Override
+    public boolean delete() {
+        if ("/".equals(path))
+            return false;
+        final String prefix = root.dirKey(S3WebRoot.normalize(path));
+        try {
+            final S3Client.ListPage page =
+                    root.getClient().list(prefix, "/", null, 2);
+            for (S3Object o : page.getObjects()) {
+                if (!o.getKey().equals(prefix))
+                    return false;
+            }
+            if (!page.getPrefixes().isEmpty())
+                return false;
+            root.getClient().delete(prefix);
+            return true;
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete directory {}", path, ex);
+            return false;
+        }
+    }
+
+}
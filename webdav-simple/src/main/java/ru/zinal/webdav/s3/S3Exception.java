@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.IOException;
+
+/**
+ * Error response of the object storage service.
+ * @author zinal
+ */
+public class S3Exception extends IOException {
+
+    private final int status;
+    private final String code;
+
+    public S3Exception(String message, int status, String code) {
+        super(message + ": HTTP " + status + (code==null ? "" : " " + code));
+        this.status = status;
+        this.code = code;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import ru.zinal.webdav.model.*;
+
+/**
+ * Factory of the web roots over the S3-compatible buckets.
+ * @author zinal
+ */
+public class S3Factory implements WebRootFactory {
+
+    @Override
+    public WebRoot create(WebdavContext context) {
+        if (!(context instanceof S3Context))
+            throw new IllegalArgumentException("Context should be instance of S3Context");
+        return new S3WebRoot((S3Context) context);
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import ru.zinal.webdav.model.*;
+
+/**
+ * File of the bucket, which is the object.
+ * @author zinal
+ */
+public class S3File extends WebFile {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(S3File.class);
+
+    private final S3WebRoot root;
+    private final String path;
+    private final S3Object object;
+
+    S3File(S3WebRoot root, String path, S3Object object) {
+        this.root = root;
+        this.path = path;
+        this.object = object;
+    }
+
+    @Override
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final long tv = object.getLastModified();
+        return new ResourceAttributes(false, object.getSize(), tv, tv,
+                object.getETag());
+    }
+
+    @Override
+    public long getCreation() {
+        return object.getLastModified();
+    }
+
+    @Override
+    public long getLastModified() {
+        return object.getLastModified();
+    }
+
+    @Override
+    public long getContentLength() {
+        return object.getSize();
+    }
+
+    @Override
+    public InputStream getData() {
+        try {
+            return root.getClient().get(root.key(path), 0L, -1L);
+        } catch(IOException ex) {
+            LOG.warn("Cannot read file {}", path, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream getData(long start, long finish) {
+        if (finish <= start)
+            return new ByteArrayInputStream(new byte[0]);
+        try {
+            return root.getClient().get(root.key(path), start, finish);
+        } catch(IOException ex) {
+            LOG.warn("Cannot read file {}", path, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        return root.write(path, data, true) != null;
+    }
+
+    /**
+     * Objects cannot be modified in place, so the new object is uploaded
+     * from the old data before the position, the new data, and the old
+     * data after the new data, streamed without staging.
+     */
+    @Override
+    public boolean replaceData(InputStream data, long start) {
+        final String key = root.key(path);
+        final long size = object.getSize();
+        final CountingInput counted = new CountingInput(data);
+        try {
+            final InputStream head;
+            if (start <= 0L)
+                head = new ByteArrayInputStream(new byte[0]);
+            else if (start <= size)
+                head = root.getClient().get(key, 0L, start);
+            else
+                head = new SequenceInputStream(size==0L
+                        ? new ByteArrayInputStream(new byte[0])
+                        : root.getClient().get(key, 0L, size),
+                        new ZeroInput(start - size));
+            final InputStream tail = new LazyInput(() -> {
+                final long from = start + counted.count;
+                if (from >= size)
+                    return new ByteArrayInputStream(new byte[0]);
+                return root.getClient().get(key, from, size);
+            });
+            try (InputStream all = new SequenceInputStream(Collections.enumeration(
+                    Arrays.asList(head, counted, tail)))) {
+                root.upload(key, all);
+            }
+            return true;
+        } catch(IOException ex) {
+            LOG.warn("Cannot update data of file {}", path, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            root.getClient().delete(root.key(path));
+            return true;
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete file {}", path, ex);
+            return false;
+        }
+    }
+
+    private interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Stream opened on the first read
+     */
+    private static final class LazyInput extends InputStream {
+
+        private final StreamSource source;
+        private InputStream in = null;
+
+        LazyInput(StreamSource source) {
+            this.source = source;
+        }
+
+        private InputStream input() throws IOException {
+            if (in==null)
+                in = source.open();
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return input().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return input().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in!=null)
+                in.close();
+        }
+    }
+
+    /**
+     * Stream counting the bytes read from the wrapped stream,
+     * and leaving it open.
+     */
+    private static final class CountingInput extends InputStream {
+
+        private final InputStream in;
+        private long count = 0L;
+
+        CountingInput(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (in==null)
+                return -1;
+            final int b = in.read();
+            if (b >= 0)
+                ++count;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (in==null)
+                return -1;
+            final int bytes = in.read(b, off, len);
+            if (bytes > 0)
+                count += bytes;
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            // The wrapped stream is owned by the caller
+        }
+    }
+
+    /**
+     * Stream of the zero bytes filling the gap after the end of the object
+     */
+    private static final class ZeroInput extends InputStream {
+
+        private long remaining;
+
+        ZeroInput(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0L)
+                return -1;
+            --remaining;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0L)
+                return -1;
+            len = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + len, (byte) 0);
+            remaining -= len;
+            return len;
+        }
+    }
+
+}
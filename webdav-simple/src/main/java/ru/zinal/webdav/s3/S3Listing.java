@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Listing of the collection, fetching the pages of the object
+ * listing as the iteration proceeds.
+ * @author zinal
+ */
+public class S3Listing implements WebListing {
+
+    private final S3WebRoot root;
+    private final String prefix;
+
+    S3Listing(S3WebRoot root, String prefix) {
+        this.root = root;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void close() {
+        // NOOP
+    }
+
+    @Override
+    public Iterator<WebResource> iterator() {
+        return new Iterator<WebResource>() {
+            private S3Client.ListPage page = null;
+            private Iterator<String> prefixes = Collections.emptyIterator();
+            private Iterator<S3Object> objects = Collections.emptyIterator();
+            private WebResource next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next==null) {
+                    if (prefixes.hasNext()) {
+                        final String p = prefixes.next();
+                        next = new S3Directory(root, root.toPath(p) + "/", null);
+                    } else if (objects.hasNext()) {
+                        final S3Object o = objects.next();
+                        // The marker of the collection itself
+                        if (!o.getKey().equals(prefix))
+                            next = new S3File(root, root.toPath(o.getKey()), o);
+                    } else if (page==null || page.getNextToken()!=null) {
+                        fetch();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public WebResource next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final WebResource retval = next;
+                next = null;
+                return retval;
+            }
+
+            private void fetch() {
+                try {
+                    page = root.getClient().list(prefix, "/",
+                            (page==null) ? null : page.getNextToken(),
+                            root.getListPageSize());
+                } catch(IOException ex) {
+                    throw new UncheckedIOException("Cannot list " + prefix, ex);
+                }
+                prefixes = page.getPrefixes().iterator();
+                objects = page.getObjects().iterator();
+            }
+        };
+    }
+
+}
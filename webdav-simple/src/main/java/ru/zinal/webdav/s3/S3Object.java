@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+/**
+ * Description of the stored object.
+ * @author zinal
+ */
+public class S3Object {
+
+    private final String key;
+    private final long size;
+    private final long lastModified;
+    private final String eTag;
+
+    public S3Object(String key, long size, long lastModified, String eTag) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Entity tag as returned by the service, including the quotes
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.model.*;
+import ru.zinal.webdav.util.SmallT;
+
+/**
+ * Web root mapping the namespace onto the S3-compatible bucket.
+ * Files are the objects named by their paths, collections are the key
+ * prefixes, with the empty marker objects ending with the slash kept
+ * for the collections created explicitly.
+ * <p>
+ * Large writes are sent as the multipart uploads, with the parts
+ * uploaded in parallel while the next part is being received.
+ * COPY and MOVE use the server-side copy of each object.
+ * @author zinal
+ */
+public class S3WebRoot implements WebRoot {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(S3WebRoot.class);
+
+    // Maximum object size for the single copy request
+    private static final long MAX_COPY = 5L * 1024L * 1024L * 1024L;
+    private static final int MAX_PARTS = 10000;
+
+    private final S3Context context;
+    private final S3Client client;
+    private final String keyPrefix;
+    private final int partSize;
+    private final int threads;
+    private final int pageSize;
+    // Runs the per-object tasks of the collection operations
+    private final ExecutorService executor;
+    // Runs the part uploads and copies, which never wait for other tasks,
+    // so the per-object tasks waiting for their parts cannot starve them
+    private final ExecutorService partExecutor;
+    private long copyLimit = MAX_COPY;
+
+    public S3WebRoot(S3Context context) {
+        this.context = context;
+        this.client = new S3Client(context);
+        this.keyPrefix = context.getKeyPrefix();
+        this.partSize = context.getPartSize();
+        this.threads = context.getThreads();
+        this.pageSize = context.getListPageSize();
+        this.executor = newPool(threads, "s3-io-");
+        this.partExecutor = newPool(threads, "s3-part-");
+    }
+
+    private static ExecutorService newPool(int threads, String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    S3Client getClient() {
+        return client;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    ExecutorService getPartExecutor() {
+        return partExecutor;
+    }
+
+    /**
+     * Set the maximum object size for the single copy request
+     * @param copyLimit Size limit, in bytes
+     */
+    void setCopyLimit(long copyLimit) {
+        this.copyLimit = copyLimit;
+    }
+
+    /**
+     * Stop the threads uploading the parts, failing the uploads in progress
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        partExecutor.shutdownNow();
+    }
+
+    int getListPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public WebdavContext getContext() {
+        return context;
+    }
+
+    @Override
+    public WebResource getResource(String path) {
+        final String p = normalize(path);
+        if ("/".equals(p))
+            return new S3Directory(this, "/", null);
+        try {
+            final S3Object o = client.head(key(p));
+            if (o!=null)
+                return new S3File(this, p, o);
+            if (!client.list(dirKey(p), "/", null, 1).isEmpty())
+                return new S3Directory(this, p + "/", null);
+        } catch(IOException ex) {
+            LOG.warn("Cannot retrieve {}", p, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Store the object. Without overwrite, the object is stored with
+     * the conditional request, so the concurrent creations of the same path
+     * cannot replace each other. Services ignoring the If-None-Match
+     * header still leave the window between the existence check
+     * and the write.
+     */
+    @Override
+    public WebResource write(String path, InputStream data, boolean overwrite) {
+        final String p = normalize(path);
+        if ("/".equals(p))
+            return null;
+        try {
+            if (!overwrite && client.head(key(p))!=null)
+                return null;
+            return new S3File(this, p, upload(key(p), data, !overwrite));
+        } catch(S3Exception ex) {
+            if (!overwrite && (ex.getStatus()==412 || ex.getStatus()==409)) {
+                // Created concurrently
+                LOG.debug("Object {} already exists", p, ex);
+                return null;
+            }
+            LOG.warn("Error writing to file {}", p, ex);
+            return null;
+        } catch(IOException ex) {
+            LOG.warn("Error writing to file {}", p, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public WebResource mkdir(String path) {
+        final String p = normalize(path);
+        if ("/".equals(p) || getResource(p)!=null)
+            return null;
+        try {
+            final String marker = dirKey(p);
+            client.put(marker, new byte[0], 0);
+            return new S3Directory(this, p + "/",
+                    new S3Object(marker, 0L, System.currentTimeMillis(), null));
+        } catch(IOException ex) {
+            LOG.warn("Cannot create directory {}", p, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Copy with the server-side copy of each object.
+     * Collections are copied either alone, with the zero depth,
+     * or with all their contents.
+     */
+    @Override
+    public boolean copy(String source, String dest, int depth,
+            Map<String, Integer> errorList) {
+        final String sp = normalize(source);
+        final String dp = normalize(dest);
+        final WebResource src = getResource(sp);
+        if (src==null)
+            return false;
+        try {
+            if (src.isFile()) {
+                copyObject(key(sp), key(dp), src.getContentLength());
+                return true;
+            }
+            client.put(dirKey(dp), new byte[0], 0);
+            if (depth <= 0)
+                return true;
+            final String from = dirKey(sp);
+            final String to = dirKey(dp);
+            final int errorCount = errorList.size();
+            String token = null;
+            do {
+                final S3Client.ListPage page =
+                        client.list(from, null, token, pageSize);
+                final Map<String, Callable<Void>> tasks = new LinkedHashMap<>();
+                for (S3Object o : page.getObjects()) {
+                    // Skip the objects already copied into the source subtree
+                    if (o.getKey().equals(from) || o.getKey().startsWith(to))
+                        continue;
+                    final String target = to + o.getKey().substring(from.length());
+                    tasks.put(toPath(o.getKey()), () -> {
+                        copyObject(o.getKey(), target, o.getSize());
+                        return null;
+                    });
+                }
+                runAll(tasks, errorList);
+                token = page.getNextToken();
+            } while (token!=null);
+            return errorList.size()==errorCount;
+        } catch(IOException ex) {
+            LOG.warn("Cannot copy {} to {}", sp, dp, ex);
+            errorList.put(source, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean move(String source, String dest, boolean overwrite,
+            Map<String, Integer> errorList) {
+        final String sp = normalize(source);
+        final String dp = normalize(dest);
+        if (getResource(sp)==null)
+            return false;
+        if (getResource(dp)!=null) {
+            if (!overwrite) {
+                errorList.put(dest, WebdavStatus.SC_PRECONDITION_FAILED);
+                return false;
+            }
+            if (!deleteTree(dp, null, errorList))
+                return false;
+        }
+        if (!copy(sp, dp, Integer.MAX_VALUE, errorList))
+            return false;
+        if (!errorList.isEmpty())
+            return false;
+        return deleteTree(sp, null, errorList);
+    }
+
+    /**
+     * Delete all the objects under the prefix in parallel.
+     * Locked resources are kept, together with the markers
+     * of the collections containing them.
+     */
+    @Override
+    public boolean deleteTree(String path, Predicate<String> lockFilter,
+            Map<String, Integer> errorList) {
+        final String p = normalize(path);
+        if ("/".equals(p))
+            return false;
+        if (lockFilter!=null && lockFilter.test(p)) {
+            errorList.put(p, WebdavStatus.SC_LOCKED);
+            return false;
+        }
+        final WebResource res = getResource(p);
+        if (res==null)
+            return false;
+        try {
+            if (res.isFile()) {
+                client.delete(key(p));
+                return true;
+            }
+            final int errorCount = errorList.size();
+            final String prefix = dirKey(p);
+            final Set<String> kept = new HashSet<>();
+            final List<S3Object> markers = new ArrayList<>();
+            String token = null;
+            do {
+                final S3Client.ListPage page =
+                        client.list(prefix, null, token, pageSize);
+                final Map<String, Callable<Void>> tasks = new LinkedHashMap<>();
+                for (S3Object o : page.getObjects()) {
+                    final String op = toPath(o.getKey());
+                    final String locked = findLocked(p, op, lockFilter);
+                    if (locked!=null) {
+                        if (!errorList.containsKey(locked))
+                            errorList.put(locked, WebdavStatus.SC_LOCKED);
+                        keepParents(p, op, kept);
+                    } else if (o.getKey().endsWith("/")) {
+                        markers.add(o);
+                    } else {
+                        tasks.put(op, () -> {
+                            client.delete(o.getKey());
+                            return null;
+                        });
+                    }
+                }
+                runAll(tasks, errorList);
+                token = page.getNextToken();
+            } while (token!=null);
+            final Map<String, Callable<Void>> tasks = new LinkedHashMap<>();
+            for (S3Object o : markers) {
+                final String op = toPath(o.getKey());
+                if (!kept.contains(op)) {
+                    tasks.put(op, () -> {
+                        client.delete(o.getKey());
+                        return null;
+                    });
+                }
+            }
+            runAll(tasks, errorList);
+            return kept.isEmpty() && errorList.size()==errorCount;
+        } catch(IOException ex) {
+            LOG.warn("Cannot delete {}", p, ex);
+            errorList.put(p, WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            return false;
+        }
+    }
+
+    /**
+     * Find the locked path, going from the collection being deleted
+     * down to the resource
+     * @return Locked path, or null if none
+     */
+    private static String findLocked(String base, String path,
+            Predicate<String> lockFilter) {
+        if (lockFilter==null)
+            return null;
+        int pos = base.length();
+        while (pos < path.length()) {
+            int next = path.indexOf('/', pos + 1);
+            if (next < 0)
+                next = path.length();
+            final String cur = path.substring(0, next);
+            if (lockFilter.test(cur))
+                return cur;
+            pos = next;
+        }
+        return null;
+    }
+
+    private static void keepParents(String base, String path, Set<String> kept) {
+        kept.add(base);
+        int pos = path.lastIndexOf('/');
+        while (pos > base.length()) {
+            kept.add(path.substring(0, pos));
+            pos = path.lastIndexOf('/', pos - 1);
+        }
+    }
+
+    /**
+     * Run the tasks in parallel and wait for all of them
+     * @param tasks Tasks by the paths to report in case of failure
+     * @param errorList Failed paths
+     */
+    private void runAll(Map<String, Callable<Void>> tasks,
+            Map<String, Integer> errorList) throws IOException {
+        final Map<String, Future<Void>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<Void>> me : tasks.entrySet())
+            futures.put(me.getKey(), executor.submit(me.getValue()));
+        for (Map.Entry<String, Future<Void>> me : futures.entrySet()) {
+            try {
+                me.getValue().get();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(f -> f.cancel(true));
+                throw new InterruptedIOException();
+            } catch(ExecutionException ex) {
+                LOG.warn("Operation failed on {}", me.getKey(), ex.getCause());
+                errorList.put(me.getKey(), WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Store the data as the object, switching to the parallel multipart
+     * upload when the data does not fit into a single part.
+     * @param key Object key
+     * @param data Data to be stored, can be null
+     * @return Object description
+     * @throws IOException on read or upload errors
+     */
+    S3Object upload(String key, InputStream data) throws IOException {
+        return upload(key, data, false);
+    }
+
+    /**
+     * Store the data as the object, switching to the parallel multipart
+     * upload when the data does not fit into a single part.
+     * @param key Object key
+     * @param data Data to be stored, can be null
+     * @param ifAbsent true to fail with HTTP 412 if the object exists
+     * @return Object description
+     * @throws IOException on read or upload errors
+     */
+    S3Object upload(String key, InputStream data, boolean ifAbsent)
+            throws IOException {
+        byte[] buf = new byte[partSize];
+        int len = readFully(data, buf);
+        if (len < partSize) {
+            final String eTag = client.put(key, buf, len, ifAbsent);
+            return new S3Object(key, len, System.currentTimeMillis(), eTag);
+        }
+        final String uploadId = client.createUpload(key);
+        // Limits the memory held by the parts being uploaded
+        final Semaphore permits = new Semaphore(threads);
+        final List<Future<String>> parts = new ArrayList<>();
+        long total = 0L;
+        try {
+            while (len > 0) {
+                if (parts.size() >= MAX_PARTS)
+                    throw new IOException("Too many parts for " + key);
+                permits.acquire();
+                final byte[] part = buf;
+                final int partLength = len;
+                final int partNumber = parts.size() + 1;
+                parts.add(partExecutor.submit(() -> {
+                    try {
+                        return client.uploadPart(key, uploadId, partNumber,
+                                part, partLength);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+                total += len;
+                failFast(parts);
+                buf = new byte[partSize];
+                len = readFully(data, buf);
+            }
+            final List<String> eTags = new ArrayList<>(parts.size());
+            for (Future<String> f : parts)
+                eTags.add(f.get());
+            client.completeUpload(key, uploadId, eTags, ifAbsent);
+            return new S3Object(key, total, System.currentTimeMillis(), null);
+        } catch(IOException | InterruptedException | ExecutionException
+                | RuntimeException ex) {
+            parts.forEach(f -> f.cancel(true));
+            try {
+                client.abortUpload(key, uploadId);
+            } catch(IOException ex2) {
+                LOG.warn("Cannot abort the upload of {}", key, ex2);
+            }
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (ex instanceof ExecutionException)
+                throw new IOException("Part upload failed for " + key,
+                        ex.getCause());
+            if (ex instanceof RuntimeException)
+                throw (RuntimeException) ex;
+            throw (IOException) ex;
+        }
+    }
+
+    private static void failFast(List<Future<String>> parts)
+            throws InterruptedException, ExecutionException {
+        for (Future<String> f : parts) {
+            if (f.isDone())
+                f.get();
+        }
+    }
+
+    /**
+     * Server-side copy of the object, with the parallel multipart copy
+     * for the objects too large for the single request
+     */
+    private void copyObject(String sourceKey, String destKey, long size)
+            throws IOException {
+        if (size <= copyLimit) {
+            client.copy(sourceKey, destKey);
+            return;
+        }
+        final long step = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        final String uploadId = client.createUpload(destKey);
+        final List<Future<String>> parts = new ArrayList<>();
+        try {
+            for (long start = 0L; start < size; start += step) {
+                final long from = start;
+                final long to = Math.min(size, start + step);
+                final int partNumber = parts.size() + 1;
+                parts.add(partExecutor.submit(() -> client.uploadPartCopy(destKey,
+                        uploadId, partNumber, sourceKey, from, to)));
+            }
+            final List<String> eTags = new ArrayList<>(parts.size());
+            for (Future<String> f : parts)
+                eTags.add(f.get());
+            client.completeUpload(destKey, uploadId, eTags);
+        } catch(IOException | InterruptedException | ExecutionException ex) {
+            parts.forEach(f -> f.cancel(true));
+            try {
+                client.abortUpload(destKey, uploadId);
+            } catch(IOException ex2) {
+                LOG.warn("Cannot abort the copy to {}", destKey, ex2);
+            }
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (ex instanceof ExecutionException)
+                throw new IOException("Part copy failed for " + destKey,
+                        ex.getCause());
+            throw (IOException) ex;
+        }
+    }
+
+    private static int readFully(InputStream data, byte[] buf)
+            throws IOException {
+        if (data==null)
+            return 0;
+        int pos = 0;
+        while (pos < buf.length) {
+            final int bytes = data.read(buf, pos, buf.length - pos);
+            if (bytes < 0)
+                break;
+            pos += bytes;
+        }
+        return pos;
+    }
+
+    /**
+     * @param path Resource path
+     * @return Normalized path without the trailing slash, "/" for the root
+     */
+    static String normalize(String path) {
+        path = SmallT.normalizePath(path);
+        if (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    String key(String path) {
+        return keyPrefix + path.substring(1);
+    }
+
+    String dirKey(String path) {
+        if ("/".equals(path))
+            return keyPrefix;
+        return key(path) + "/";
+    }
+
+    /**
+     * @param key Object key or common prefix
+     * @return Resource path without the trailing slash
+     */
+    String toPath(String key) {
+        String path = "/" + key.substring(keyPrefix.length());
+        if (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ZIP archive opened for reading, with the central directory parsed once
+ * into a compact index. The index is a set of arrays, with the entries
+ * ordered breadth-first, so the members of each collection occupy
+ * a contiguous range sorted by name, and are looked up with the binary
+ * search. The entry data is read with the positional reads over
+ * the single shared file channel.
+ * @author zinal
+ */
+public class ZipArchive implements Closeable {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(ZipArchive.class);
+
+    public static final int ROOT = 0;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+    public static final int UNSUPPORTED = -1;
+
+    private static final int SIG_LOCAL = 0x04034b50;
+    private static final int SIG_CENTRAL = 0x02014b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int SIG_END64 = 0x06064b50;
+    private static final int SIG_LOCATOR64 = 0x07064b50;
+    private static final long MASK32 = 0xFFFFFFFFL;
+
+    private final Path file;
+    private volatile FileChannel channel;
+    private volatile boolean closed = false;
+
+    private final String[] names;
+    private final int[] firstChild;
+    // Number of members for the collections, -1 for the files
+    private final int[] childCount;
+    private final int[] method;
+    private final long[] headerOffset;
+    private final long[] compressedSize;
+    private final long[] size;
+    private final long[] modified;
+    // Filled lazily from the local headers, -1 when not known yet
+    private final long[] dataOffset;
+
+    private ZipArchive(Path file, FileChannel channel, Node root, int count) {
+        this.file = file;
+        this.channel = channel;
+        this.names = new String[count];
+        this.firstChild = new int[count];
+        this.childCount = new int[count];
+        this.method = new int[count];
+        this.headerOffset = new long[count];
+        this.compressedSize = new long[count];
+        this.size = new long[count];
+        this.modified = new long[count];
+        this.dataOffset = new long[count];
+        Arrays.fill(dataOffset, -1L);
+        // Breadth-first numbering keeps the members of each collection together
+        final ArrayDeque<Node> queue = new ArrayDeque<>();
+        root.index = ROOT;
+        queue.add(root);
+        int next = 1;
+        while (!queue.isEmpty()) {
+            final Node n = queue.poll();
+            final int i = n.index;
+            names[i] = n.name;
+            method[i] = n.method;
+            headerOffset[i] = n.headerOffset;
+            compressedSize[i] = n.compressedSize;
+            size[i] = n.size;
+            modified[i] = n.modified;
+            if (n.children==null) {
+                childCount[i] = -1;
+            } else {
+                firstChild[i] = next;
+                childCount[i] = n.children.size();
+                for (Node c : n.children.values()) {
+                    c.index = next++;
+                    queue.add(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the archive and read its central directory
+     * @param file Path to the archive
+     * @return Archive opened
+     * @throws IOException on read errors or malformed archive
+     */
+    public static ZipArchive open(Path file) throws IOException {
+        final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final long archiveTime = Files.getLastModifiedTime(file).toMillis();
+            final Node root = new Node("/", true, archiveTime);
+            final int count = readCentralDirectory(fc, root, archiveTime);
+            final ZipArchive za = new ZipArchive(file, fc, root, count);
+            LOG.info("Opened archive {} with {} entries", file, count - 1);
+            return za;
+        } catch(IOException | RuntimeException ex) {
+            fc.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Close the archive file. The reads in progress and the subsequent
+     * reads fail.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            LOG.warn("Cannot close archive {}", file, ex);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getEntryCount() {
+        return names.length;
+    }
+
+    public String getName(int entry) {
+        return names[entry];
+    }
+
+    public boolean isDirectory(int entry) {
+        return childCount[entry] >= 0;
+    }
+
+    public long getSize(int entry) {
+        return size[entry];
+    }
+
+    public long getModified(int entry) {
+        return modified[entry];
+    }
+
+    public int getMethod(int entry) {
+        return method[entry];
+    }
+
+    public int getChildCount(int entry) {
+        return childCount[entry] < 0 ? 0 : childCount[entry];
+    }
+
+    /**
+     * @param entry Collection entry
+     * @param pos Position of the member, from 0 to the number of members
+     * @return Member entry
+     */
+    public int getChild(int entry, int pos) {
+        return firstChild[entry] + pos;
+    }
+
+    /**
+     * Find the member of the collection
+     * @param entry Collection entry
+     * @param name Name of the member
+     * @return Member entry, or -1 if not found
+     */
+    public int lookup(int entry, String name) {
+        if (childCount[entry] <= 0)
+            return -1;
+        final int pos = Arrays.binarySearch(names, firstChild[entry],
+                firstChild[entry] + childCount[entry], name);
+        return (pos < 0) ? -1 : pos;
+    }
+
+    /**
+     * Open the stream over the range of the entry data
+     * @param entry File entry
+     * @param start Start position, inclusive
+     * @param finish Finish position, exclusive
+     * @return Input stream
+     * @throws IOException on read errors or unsupported compression method
+     */
+    public InputStream openData(int entry, long start, long finish)
+            throws IOException {
+        if (start < 0L)
+            start = 0L;
+        if (finish > size[entry])
+            finish = size[entry];
+        if (finish < start)
+            finish = start;
+        final long offset = getDataOffset(entry);
+        switch (method[entry]) {
+            case STORED:
+                return new ZipInput(this, offset + start, finish - start);
+            case DEFLATED:
+                return new ZipInflaterInput(new ZipInput(this,
+                        offset, compressedSize[entry]), start, finish - start);
+            default:
+                throw new IOException("Unsupported compression method "
+                        + "for entry " + names[entry] + " in " + file);
+        }
+    }
+
+    /**
+     * Positional read from the shared channel. The channel is re-opened
+     * if it has been closed by the interrupt of some other reading thread.
+     * @param dst Destination buffer
+     * @param position File position
+     * @return Number of bytes read, or -1 at the end of file
+     * @throws IOException on read errors
+     */
+    int read(ByteBuffer dst, long position) throws IOException {
+        final FileChannel fc = channel;
+        try {
+            return fc.read(dst, position);
+        } catch(ClosedChannelException ex) {
+            if (closed || Thread.currentThread().isInterrupted())
+                throw ex;
+            return reopen(fc).read(dst, position);
+        }
+    }
+
+    private synchronized FileChannel reopen(FileChannel failed)
+            throws IOException {
+        if (closed)
+            throw new ClosedChannelException();
+        if (channel==failed) {
+            LOG.info("Re-opening archive {}", file);
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    private long getDataOffset(int entry) throws IOException {
+        long offset = dataOffset[entry];
+        if (offset >= 0L)
+            return offset;
+        final ByteBuffer bb = ByteBuffer.allocate(30)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(bb, headerOffset[entry]);
+        if (bb.getInt(0) != SIG_LOCAL)
+            throw new IOException("Bad local header for entry "
+                    + names[entry] + " in " + file);
+        offset = headerOffset[entry] + 30L
+                + (bb.getShort(26) & 0xFFFF) + (bb.getShort(28) & 0xFFFF);
+        // Concurrent fills store the same value
+        dataOffset[entry] = offset;
+        return offset;
+    }
+
+    private void readFully(ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            final int bytes = read(bb, position);
+            if (bytes < 0)
+                throw new EOFException("Unexpected end of archive " + file);
+            position += bytes;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel fc, long position, int len)
+            throws IOException {
+        final ByteBuffer bb = ByteBuffer.allocate(len)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) < 0)
+                throw new EOFException("Unexpected end of archive");
+        }
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Parse the central directory into the tree of nodes
+     * @return Total number of the nodes, including the root
+     */
+    private static int readCentralDirectory(FileChannel fc, Node root,
+            long archiveTime) throws IOException {
+        final long fileSize = fc.size();
+        final int tailLen = (int) Math.min(fileSize, 22L + 65535L);
+        final ByteBuffer tail = readAt(fc, fileSize - tailLen, tailLen);
+        int endPos = -1;
+        for (int pos = tailLen - 22; pos >= 0; --pos) {
+            if (tail.getInt(pos) == SIG_END) {
+                endPos = pos;
+                break;
+            }
+        }
+        if (endPos < 0)
+            throw new IOException("Not a ZIP archive: end of central directory not found");
+        long entries = tail.getShort(endPos + 10) & 0xFFFF;
+        long cdSize = tail.getInt(endPos + 12) & MASK32;
+        long cdOffset = tail.getInt(endPos + 16) & MASK32;
+        final long endOffset = fileSize - tailLen + endPos;
+        if ((entries==0xFFFFL || cdSize==MASK32 || cdOffset==MASK32)
+                && endOffset >= 20L) {
+            final ByteBuffer loc = readAt(fc, endOffset - 20L, 20);
+            if (loc.getInt(0) == SIG_LOCATOR64) {
+                final ByteBuffer end64 = readAt(fc, loc.getLong(8), 56);
+                if (end64.getInt(0) != SIG_END64)
+                    throw new IOException("Bad ZIP64 end of central directory");
+                entries = end64.getLong(32);
+                cdSize = end64.getLong(40);
+                cdOffset = end64.getLong(48);
+            }
+        }
+        if (cdOffset + cdSize > fileSize || cdSize > Integer.MAX_VALUE)
+            throw new IOException("Bad central directory location");
+        final ByteBuffer cd = fc.map(FileChannel.MapMode.READ_ONLY,
+                cdOffset, cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        int count = 1;
+        int pos = 0;
+        for (long i = 0; i < entries && pos + 46 <= cd.limit(); ++i) {
+            if (cd.getInt(pos) != SIG_CENTRAL)
+                throw new IOException("Bad central directory entry #" + i);
+            final int flags = cd.getShort(pos + 8) & 0xFFFF;
+            int meth = cd.getShort(pos + 10) & 0xFFFF;
+            final long dosTime = cd.getInt(pos + 12) & MASK32;
+            long csize = cd.getInt(pos + 20) & MASK32;
+            long usize = cd.getInt(pos + 24) & MASK32;
+            final int nameLen = cd.getShort(pos + 28) & 0xFFFF;
+            final int extraLen = cd.getShort(pos + 30) & 0xFFFF;
+            final int commentLen = cd.getShort(pos + 32) & 0xFFFF;
+            long offset = cd.getInt(pos + 42) & MASK32;
+            final byte[] nameBytes = new byte[nameLen];
+            cd.position(pos + 46);
+            cd.get(nameBytes);
+            // ZIP64 extended information
+            int epos = pos + 46 + nameLen;
+            final int eend = epos + extraLen;
+            while (epos + 4 <= eend) {
+                final int id = cd.getShort(epos) & 0xFFFF;
+                final int len = cd.getShort(epos + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int p = epos + 4;
+                    if (usize==MASK32 && p + 8 <= epos + 4 + len) {
+                        usize = cd.getLong(p);
+                        p += 8;
+                    }
+                    if (csize==MASK32 && p + 8 <= epos + 4 + len) {
+                        csize = cd.getLong(p);
+                        p += 8;
+                    }
+                    if (offset==MASK32 && p + 8 <= epos + 4 + len)
+                        offset = cd.getLong(p);
+                }
+                epos += 4 + len;
+            }
+            pos += 46 + nameLen + extraLen + commentLen;
+            if ((flags & 1) != 0 || (meth!=STORED && meth!=DEFLATED))
+                meth = UNSUPPORTED;
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+            final long time = dosToJava(dosTime, archiveTime);
+            count += addEntry(root, name, meth, offset, csize, usize, time);
+        }
+        return count;
+    }
+
+    /**
+     * Add the entry to the tree, together with the missing collections
+     * @return Number of the nodes added
+     */
+    private static int addEntry(Node root, String name, int meth,
+            long offset, long csize, long usize, long time) {
+        final boolean dir = name.endsWith("/");
+        final String[] parts = name.replace('\\', '/').split("/");
+        int added = 0;
+        Node cur = root;
+        for (int i = 0; i < parts.length; ++i) {
+            final String part = parts[i];
+            if (part.length()==0 || ".".equals(part))
+                continue;
+            if ("..".equals(part))
+                return added;
+            final boolean last = (i == parts.length - 1);
+            Node n = cur.children.get(part);
+            if (n==null) {
+                n = new Node(part, dir || !last, time);
+                cur.children.put(part, n);
+                ++added;
+            } else if (n.children==null && !(last && !dir)) {
+                // File with the same name as the collection, keeping the latter
+                n.children = new TreeMap<>();
+            }
+            if (last && !dir && n.children==null) {
+                n.method = meth;
+                n.headerOffset = offset;
+                n.compressedSize = csize;
+                n.size = usize;
+                n.modified = time;
+            } else if (last) {
+                n.modified = time;
+            }
+            cur = n;
+        }
+        return added;
+    }
+
+    private static long dosToJava(long dosTime, long defval) {
+        try {
+            return LocalDateTime.of(
+                    (int) ((dosTime >> 25) & 0x7f) + 1980,
+                    (int) ((dosTime >> 21) & 0x0f),
+                    (int) ((dosTime >> 16) & 0x1f),
+                    (int) ((dosTime >> 11) & 0x1f),
+                    (int) ((dosTime >> 5) & 0x3f),
+                    (int) ((dosTime << 1) & 0x3e))
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch(DateTimeException ex) {
+            return defval;
+        }
+    }
+
+    /**
+     * Temporary tree node, used while reading the central directory only
+     */
+    private static final class Node {
+
+        final String name;
+        Map<String, Node> children;
+        int index;
+        int method = STORED;
+        long headerOffset = 0L;
+        long compressedSize = 0L;
+        long size = 0L;
+        long modified;
+
+        Node(String name, boolean dir, long modified) {
+            this.name = name;
+            this.children = dir ? new TreeMap<>() : null;
+            this.modified = modified;
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import ru.zinal.webdav.model.WebdavContext;
+
+/**
+ *
+ * @author zinal
+ */
+public class ZipContext extends WebdavContext {
+
+    private String archivePath;
+
+    /**
+     * @return Path to the ZIP or JAR archive to be served
+     */
+    public String getArchivePath() {
+        return archivePath;
+    }
+
+    public void setArchivePath(String archivePath) {
+        this.archivePath = archivePath;
+    }
+
+    @Override
+    public void expand() {
+        super.expand();
+        if (archivePath==null || archivePath.trim().length()==0)
+            throw new IllegalArgumentException("Archive path is not set");
+        archivePath = archivePath.trim();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Read-only collection within the ZIP archive.
+ * @author zinal
+ */
+public class ZipDirectory extends WebDirectory {
+
+    private final ZipArchive archive;
+    private final int entry;
+    private final String path;
+
+    public ZipDirectory(ZipArchive archive, int entry, String path) {
+        this.archive = archive;
+        this.entry = entry;
+        this.path = path;
+    }
+
+    @Override
+    public String getName() {
+        return archive.getName(entry);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final long tv = archive.getModified(entry);
+        return new ResourceAttributes(true, 0L, tv, tv);
+    }
+
+    @Override
+    public long getCreation() {
+        return archive.getModified(entry);
+    }
+
+    @Override
+    public long getLastModified() {
+        return archive.getModified(entry);
+    }
+
+    @Override
+    public long getContentLength() {
+        return 0L;
+    }
+
+    @Override
+    public WebResource lookup(String name) {
+        if (name==null || name.length()==0)
+            return this;
+        final int child = archive.lookup(entry, name);
+        if (child < 0)
+            return null;
+        return makeResource(child, path + name);
+    }
+
+    @Override
+    public WebResource lookupDeep(String[] names) {
+        if (names==null || names.length==0)
+            return this;
+        int cur = entry;
+        final StringBuilder sb = new StringBuilder(path);
+        for (String name : names) {
+            cur = archive.lookup(cur, name);
+            if (cur < 0)
+                return null;
+            sb.append(name).append('/');
+        }
+        return makeResource(cur, sb.substring(0, sb.length()-1));
+    }
+
+    private WebResource makeResource(int child, String p) {
+        if (archive.isDirectory(child))
+            return new ZipDirectory(archive, child, p + "/");
+        return new ZipFile(archive, child, p);
+    }
+
+    @Override
+    public WebResource createDirectory(String name) {
+        return null;
+    }
+
+    @Override
+    public WebResource createFile(String name, InputStream data) {
+        return null;
+    }
+
+    @Override
+    public boolean delete(String name) {
+        return false;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public List<String> list() {
+        final int count = archive.getChildCount(entry);
+        final List<String> retval = new ArrayList<>(count);
+        for (int pos = 0; pos < count; ++pos)
+            retval.add(archive.getName(archive.getChild(entry, pos)));
+        return retval;
+    }
+
+    @Override
+    public List<WebResource> listResources() {
+        final int count = archive.getChildCount(entry);
+        final List<WebResource> retval = new ArrayList<>(count);
+        for (int pos = 0; pos < count; ++pos) {
+            final int child = archive.getChild(entry, pos);
+            retval.add(makeResource(child, path + archive.getName(child)));
+        }
+        return retval;
+    }
+
+}
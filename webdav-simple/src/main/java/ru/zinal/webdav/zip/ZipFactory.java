@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Factory of the read-only web roots over ZIP archives.
+ * @author zinal
+ */
+public class ZipFactory implements WebRootFactory {
+
+    @Override
+    public WebRoot create(WebdavContext context) {
+        if (!(context instanceof ZipContext))
+            throw new IllegalArgumentException("Context should be instance of ZipContext");
+        final ZipContext zc = (ZipContext) context;
+        final ZipArchive archive;
+        try {
+            archive = ZipArchive.open(Paths.get(zc.getArchivePath()));
+        } catch(IOException ex) {
+            throw new UncheckedIOException("Cannot open archive "
+                    + zc.getArchivePath(), ex);
+        }
+        return new ZipWebRoot(context, archive);
+    }
+
+}
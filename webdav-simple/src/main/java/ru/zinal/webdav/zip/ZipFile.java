@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import ru.zinal.webdav.model.*;
+
+/**
+ * Read-only file within the ZIP archive.
+ * @author zinal
+ */
+public class ZipFile extends WebFile {
+
+    private static final org.slf4j.Logger LOG
+            = org.slf4j.LoggerFactory.getLogger(ZipFile.class);
+
+    private final ZipArchive archive;
+    private final int entry;
+    private final String path;
+
+    public ZipFile(ZipArchive archive, int entry, String path) {
+        this.archive = archive;
+        this.entry = entry;
+        this.path = path;
+    }
+
+    @Override
+    public String getName() {
+        return archive.getName(entry);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public ResourceAttributes getAttributes() {
+        final long tv = archive.getModified(entry);
+        return new ResourceAttributes(false, archive.getSize(entry), tv, tv);
+    }
+
+    @Override
+    public long getCreation() {
+        return archive.getModified(entry);
+    }
+
+    @Override
+    public long getLastModified() {
+        return archive.getModified(entry);
+    }
+
+    @Override
+    public long getContentLength() {
+        return archive.getSize(entry);
+    }
+
+    @Override
+    public InputStream getData() {
+        return getData(0L, archive.getSize(entry));
+    }
+
+    @Override
+    public InputStream getData(long start, long finish) {
+        try {
+            return archive.openData(entry, start, finish);
+        } catch(IOException ex) {
+            LOG.warn("Cannot read entry {} of archive {}",
+                    path, archive.getFile(), ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean replaceData(InputStream data) {
+        return false;
+    }
+
+    @Override
+    public boolean replaceData(InputStream data, long start) {
+        return false;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+}
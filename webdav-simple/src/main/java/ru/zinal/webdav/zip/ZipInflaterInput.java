@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompressing stream over the range of the deflated entry data.
+ * The data before the range is decompressed and skipped.
+ * @author zinal
+ */
+public class ZipInflaterInput extends InflaterInputStream {
+
+    private long remaining;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    /**
+     * @param in Stream of the compressed data
+     * @param start Start of the range within the uncompressed data
+     * @param length Length of the range
+     * @throws IOException on read errors
+     */
+    public ZipInflaterInput(InputStream in, long start, long length)
+            throws IOException {
+        super(in, new Inflater(true), 8192);
+        // Skipping goes through read(), which counts the range down
+        this.remaining = start + length;
+        try {
+            while (start > 0L) {
+                final long bytes = super.skip(start);
+                if (bytes <= 0L)
+                    throw new EOFException("Unexpected end of entry data");
+                start -= bytes;
+            }
+        } catch(IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    @Override
+    protected void fill() throws IOException {
+        if (eof)
+            throw new EOFException("Unexpected end of entry data");
+        len = in.read(buf, 0, buf.length);
+        if (len < 0) {
+            // The raw inflater needs an extra dummy byte at the end
+            buf[0] = 0;
+            len = 1;
+            eof = true;
+        }
+        inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len==0)
+            return 0;
+        if (remaining <= 0L)
+            return -1;
+        if (len > remaining)
+            len = (int) remaining;
+        final int bytes = super.read(b, off, len);
+        if (bytes > 0)
+            remaining -= bytes;
+        return bytes;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Implemented through read(), which updates the remaining length
+        return super.skip(Math.min(n, remaining));
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (remaining <= 0L)
+            return 0;
+        return super.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            inf.end();
+        }
+    }
+
+}
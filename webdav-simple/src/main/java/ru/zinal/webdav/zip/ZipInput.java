@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream over the byte range of the archive,
+ * read with the positional reads on the shared channel.
+ * @author zinal
+ */
+public class ZipInput extends InputStream {
+
+    private final ZipArchive archive;
+    private long position;
+    private long remaining;
+
+    public ZipInput(ZipArchive archive, long position, long length) {
+        this.archive = archive;
+        this.position = position;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int bytes = read(b, 0, 1);
+        if (bytes <= 0)
+            return -1;
+        return b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len==0)
+            return 0;
+        if (remaining <= 0L)
+            return -1;
+        if (len > remaining)
+            len = (int) remaining;
+        final int bytes = archive.read(ByteBuffer.wrap(b, off, len), position);
+        if (bytes <= 0)
+            return -1;
+        position += bytes;
+        remaining -= bytes;
+        return bytes;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0L)
+            return 0L;
+        if (n > remaining)
+            n = remaining;
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import ru.zinal.webdav.model.*;
+
+/**
+ * Read-only web root over the ZIP archive, closing the archive file
+ * together with the web root.
+ * @author zinal
+ */
+public class ZipWebRoot extends WebRootImpl {
+
+    private final ZipArchive archive;
+
+    public ZipWebRoot(WebdavContext context, ZipArchive archive) {
+        super(context, new ZipDirectory(archive, ZipArchive.ROOT, "/"));
+        this.archive = archive;
+    }
+
+    public ZipArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public void close() {
+        archive.close();
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.fs.FsDirectory;
+import ru.zinal.webdav.fs.FsFile;
+import ru.zinal.webdav.mem.MemContext;
+import ru.zinal.webdav.mem.MemFactory;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class DefaultServletTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Servlet output collected in memory
+     */
+    static final class Output extends ServletOutputStream {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            data.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            data.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+        }
+
+    }
+
+    private static HttpServletRequest request(Map<String, String> headers,
+            Map<String, Long> dates) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                DefaultServletTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getDateHeader":
+                            return dates.getOrDefault((String) args[0], -1L);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * @param headers Headers set, with the status under the null key
+     * @return Response recording the headers and the status
+     */
+    private static HttpServletResponse response(Map<String, Object> headers) {
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                DefaultServletTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setHeader":
+                            headers.put((String) args[0], args[1]);
+                            return null;
+                        case "setStatus":
+                        case "sendError":
+                            headers.put(null, args[0]);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static DefaultServlet.Range range(long start, long end,
+            long length) {
+        final DefaultServlet.Range r = new DefaultServlet.Range();
+        r.start = start;
+        r.end = end;
+        r.length = length;
+        return r;
+    }
+
+    private static byte[] copyRange(WebResource r, long start, long end)
+            throws Exception {
+        final Output out = new Output();
+        new DefaultServlet().copy(r, out,
+                range(start, end, r.getContentLength()));
+        return out.data.toByteArray();
+    }
+
+    @Test
+    public void channelRangeTest() throws Exception {
+        final byte[] data = new byte[100000];
+        new Random(1L).nextBytes(data);
+        final WebRoot fs = openFs(fsContext(tmp));
+        final MemContext ctx = new MemContext();
+        ctx.expand();
+        final WebRoot mem = new MemFactory().create(ctx);
+        for (WebRoot root : Arrays.asList(fs, mem)) {
+            assertNotNull(root.write("/f.bin",
+                    new ByteArrayInputStream(data), false));
+        }
+        final WebResource file = fs.getResource("/f.bin");
+        final WebResource stream = mem.getResource("/f.bin");
+        // The filesystem file is served through its channel,
+        // the in-memory one through its input stream
+        assertNotNull(file.openReadChannel());
+        assertNull(stream.openReadChannel());
+        for (long[] r : new long[][] {{0L, 99999L}, {1000L, 50000L},
+                {8191L, 8192L}, {99999L, 99999L}}) {
+            final byte[] expected = Arrays.copyOfRange(data,
+                    (int) r[0], (int) r[1] + 1);
+            assertArrayEquals(expected, copyRange(file, r[0], r[1]));
+            assertArrayEquals(expected, copyRange(stream, r[0], r[1]));
+        }
+
+        // The range past the end of the channel fails instead of
+        // sending less data than promised in the headers
+        final Output out = new Output();
+        try {
+            new DefaultServlet().copyChannel(file, out, 99000L, 2000L);
+            fail("Copied past the end of the file");
+        } catch(EOFException ex) {
+            // Expected
+        }
+        assertEquals(1000, out.data.size());
+    }
+
+    @Test
+    public void attributeSnapshotTest() throws Exception {
+        final WebRoot root = openFs(fsContext(tmp));
+        assertNotNull(root.write("/f.txt",
+                new ByteArrayInputStream("one".getBytes()), false));
+        final WebResource file = root.getResource("/f.txt");
+        final String eTag = file.getETag();
+        final long lastModified = file.getLastModified();
+
+        // The file changes on disk after the lookup
+        final Path p = ((FsFile) file).getLocation();
+        Files.write(p, "changed!".getBytes());
+        Files.setLastModifiedTime(p,
+                FileTime.fromMillis(lastModified + 3600000L));
+        final WebResource fresh = root.getResource("/f.txt");
+        assertEquals(8L, fresh.getContentLength());
+        assertNotEquals(eTag, fresh.getETag());
+
+        // The resource looked up before keeps describing the same version
+        assertEquals(3L, file.getContentLength());
+        assertEquals(eTag, file.getETag());
+        assertEquals(lastModified, file.getLastModified());
+
+        // The conditional checks use that version too
+        final DefaultServlet servlet = new DefaultServlet();
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("If-Match", eTag);
+        final Map<String, Object> result = new HashMap<>();
+        assertTrue(servlet.checkIfMatch(request(headers, new HashMap<>()),
+                response(result), file));
+        assertFalse(servlet.checkIfMatch(request(headers, new HashMap<>()),
+                response(result), fresh));
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED,
+                result.get(null));
+        result.clear();
+        final Map<String, Long> dates = new HashMap<>();
+        dates.put("If-Modified-Since", lastModified);
+        assertFalse(servlet.checkIfModifiedSince(
+                request(new HashMap<>(), dates), response(result), file));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, result.get(null));
+        assertEquals(eTag, result.get("ETag"));
+    }
+
+    @Test
+    public void largeListingTest() throws Exception {
+        final Path dir = tmp.newFolder().toPath();
+        final int count = 5000;
+        for (int i = 0; i < count; ++i)
+            Files.write(dir.resolve("f" + i + ".txt"), new byte[i % 7]);
+        final StringWriter text = new StringWriter();
+        // Output length at the moment each entry is taken from the listing
+        final List<Integer> taken = new ArrayList<>();
+        final WebDirectory big = new FsDirectory(dir) {
+            @Override
+            public WebListing openListing() {
+                final WebListing listing = super.openListing();
+                return new WebListing() {
+                    @Override
+                    public Iterator<WebResource> iterator() {
+                        final Iterator<WebResource> it = listing.iterator();
+                        return new Iterator<WebResource>() {
+                            @Override
+                            public boolean hasNext() {
+                                return it.hasNext();
+                            }
+
+                            @Override
+                            public WebResource next() {
+                                taken.add(text.getBuffer().length());
+                                return it.next();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void close() {
+                        listing.close();
+                    }
+                };
+            }
+        };
+        try (PrintWriter writer = new PrintWriter(text)) {
+            new DefaultServlet().renderHtml("", big, writer);
+        }
+        assertEquals(count, taken.size());
+        // Each entry is written out before the next one is read
+        for (int i = 1; i < taken.size(); ++i)
+            assertTrue(taken.get(i) > taken.get(i - 1));
+        final String html = text.toString();
+        for (int i = 0; i < count; ++i)
+            assertTrue(html.contains("<tt>f" + i + ".txt</tt>"));
+    }
+
+}
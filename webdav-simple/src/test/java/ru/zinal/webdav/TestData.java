@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.rules.TemporaryFolder;
+import ru.zinal.webdav.fs.FsContext;
+import ru.zinal.webdav.fs.FsFactory;
+import ru.zinal.webdav.model.WebRoot;
+
+/**
+ * Helpers shared by the tests.
+ * @author zinal
+ */
+public final class TestData {
+
+    private TestData() {}
+
+    /**
+     * Read the whole stream, closing it afterwards
+     * @param is Input stream
+     * @return Data read
+     * @throws IOException on read errors
+     */
+    public static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[65536];
+        int len;
+        try (InputStream input = is) {
+            while ((len = input.read(buf)) >= 0)
+                baos.write(buf, 0, len);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Create the filesystem context with the data and configuration
+     * directories inside the temporary folder
+     * @param tmp Temporary folder
+     * @return Context to be adjusted and passed to {@link #openFs(FsContext)}
+     * @throws IOException on directory creation errors
+     */
+    public static FsContext fsContext(TemporaryFolder tmp) throws IOException {
+        final FsContext ctx = new FsContext();
+        ctx.setDataPath(tmp.newFolder().getPath());
+        ctx.setConfigPath(tmp.newFolder().getPath());
+        return ctx;
+    }
+
+    /**
+     * Expand the context and create the filesystem web root
+     * @param ctx Filesystem context
+     * @return Web root
+     */
+    public static WebRoot openFs(FsContext ctx) {
+        ctx.expand();
+        return new FsFactory().create(ctx);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import ru.zinal.webdav.model.CachingWebRoot;
+import ru.zinal.webdav.model.MountingWebRoot;
+import ru.zinal.webdav.model.WebRoot;
+
+/**
+ *
+ * @author zinal
+ */
+public class WebRootLoaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Properties memProps() {
+        final Properties props = new Properties();
+        props.setProperty("webdav.handler", "ru.zinal.webdav.mem.MemFactory");
+        props.setProperty("webdav.context", "ru.zinal.webdav.mem.MemContext");
+        return props;
+    }
+
+    @Test
+    public void loadTest() {
+        final Properties props = memProps();
+        assertFalse(WebRootLoader.load(props) instanceof CachingWebRoot);
+
+        props.setProperty("webdav.cache.size", "100");
+        props.setProperty("webdav.cache.ttl", "2000");
+        final WebRoot cached = WebRootLoader.load(props);
+        assertTrue(cached instanceof CachingWebRoot);
+        assertEquals(100, ((CachingWebRoot) cached).getMaxSize());
+        assertEquals(2000L, ((CachingWebRoot) cached).getTtl());
+
+        props.setProperty("webdav.cache.ttl", "0");
+        try {
+            WebRootLoader.load(props);
+            fail("Accepted zero ttl");
+        } catch(IllegalArgumentException ex) {
+            // Expected
+        }
+
+        props.setProperty("webdav.cache.ttl", "2000");
+        props.setProperty("webdav.mount.scratch.path", "/scratch");
+        props.setProperty("webdav.mount.scratch.handler",
+                "ru.zinal.webdav.mem.MemFactory");
+        props.setProperty("webdav.mount.scratch.context",
+                "ru.zinal.webdav.mem.MemContext");
+        final WebRoot mounted = WebRootLoader.load(props);
+        assertTrue(mounted instanceof MountingWebRoot);
+        assertNotNull(mounted.mkdir("/scratch/x"));
+    }
+
+    @Test
+    public void servletTest() throws Exception {
+        final Properties props = memProps();
+        props.setProperty("webdav.cache.size", "10");
+        final File file = tmp.newFile("webdav-server.properties");
+        try (OutputStream os = new FileOutputStream(file)) {
+            props.store(os, null);
+        }
+        final Map<String, Object> attributes = new HashMap<>();
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {ServletContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get((String) args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+        final DefaultServlet first = new DefaultServlet();
+        first.init(config(context, file.getPath()));
+        final Object root = attributes.get(Globals.RESOURCES_ATTR);
+        assertTrue(root instanceof CachingWebRoot);
+        // Other servlets of the context share the same web root
+        final DefaultServlet second = new DefaultServlet();
+        second.init(config(context, file.getPath()));
+        assertSame(root, attributes.get(Globals.RESOURCES_ATTR));
+    }
+
+    private static ServletConfig config(ServletContext context,
+            String fileName) {
+        return (ServletConfig) Proxy.newProxyInstance(
+                WebRootLoaderTest.class.getClassLoader(),
+                new Class<?>[] {ServletConfig.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getServletContext":
+                            return context;
+                        case "getInitParameter":
+                            return WebRootLoader.CONFIG_PARAM.equals(args[0])
+                                    ? fileName : null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+}
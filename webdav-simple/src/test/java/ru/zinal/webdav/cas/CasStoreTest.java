@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.cas;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class CasStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static long countChunks(Path data) throws Exception {
+        try (Stream<Path> s = Files.walk(data.resolve("chunks"))) {
+            return s.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void dedupTest() throws Exception {
+        final Path data = tmp.newFolder().toPath();
+        final CasContext ctx = new CasContext();
+        ctx.setDataPath(data.toString());
+        ctx.setConfigPath(data.resolve("config").toString());
+        ctx.expand();
+        final WebRoot root = new CasFactory().create(ctx);
+
+        final byte[] content = new byte[200000];
+        new Random(1L).nextBytes(content);
+        assertNotNull(root.write("/a.bin",
+                new ByteArrayInputStream(content), false));
+        final long chunks = countChunks(data);
+        assertTrue(chunks > 5);
+
+        // Same data with a small insertion shares most of the chunks
+        final byte[] changed = new byte[content.length + 10];
+        System.arraycopy(content, 0, changed, 0, 100000);
+        System.arraycopy(content, 100000, changed, 100010, 100000);
+        assertNotNull(root.write("/b.bin",
+                new ByteArrayInputStream(changed), false));
+        assertTrue(countChunks(data) <= chunks + 3);
+
+        final WebResource b = root.getResource("/b.bin");
+        assertEquals(changed.length, b.getContentLength());
+        assertArrayEquals(changed, readAll(b.getData()));
+        final byte[] part = new byte[5000];
+        System.arraycopy(changed, 99000, part, 0, part.length);
+        assertArrayEquals(part, readAll(b.getData(99000L, 104000L)));
+
+        // Positional update
+        assertTrue(b.replaceData(new ByteArrayInputStream(new byte[] {1, 2}),
+                10L));
+        final byte[] updated = readAll(root.getResource("/b.bin").getData());
+        assertEquals(changed.length, updated.length);
+        assertEquals(2, updated[11]);
+        assertEquals(changed[12], updated[12]);
+
+        // COPY does not create any chunks
+        final long before = countChunks(data);
+        assertTrue(root.copy("/b.bin", "/c.bin", 0, new HashMap<>()));
+        assertEquals(before, countChunks(data));
+        assertArrayEquals(updated, readAll(root.getResource("/c.bin").getData()));
+    }
+
+    @Test
+    public void gcDuringUploadTest() throws Exception {
+        final Path data = tmp.newFolder().toPath();
+        final CasContext ctx = new CasContext();
+        ctx.setDataPath(data.toString());
+        ctx.setConfigPath(data.resolve("config").toString());
+        ctx.expand();
+        final CasWebRoot root = (CasWebRoot) new CasFactory().create(ctx);
+
+        final byte[] content = new byte[100000];
+        new Random(2L).nextBytes(content);
+        assertNotNull(root.write("/a.bin",
+                new ByteArrayInputStream(content), false));
+        // Chunks of the deleted file are old enough to be collected
+        try (Stream<Path> s = Files.walk(data.resolve("chunks"))) {
+            s.filter(Files::isRegularFile).forEach(p -> p.toFile()
+                    .setLastModified(System.currentTimeMillis() - 3600000L));
+        }
+        assertTrue(root.getResource("/a.bin").delete());
+
+        // The upload reusing them is still in progress during the GC
+        final CasStore store = new CasStore(data.resolve("chunks"),
+                data.resolve("tmp"), ctx);
+        final CasManifest m = store.write(new ByteArrayInputStream(content));
+        assertEquals(0, root.collectGarbage(60000L));
+        for (int i=0; i<m.getCount(); ++i)
+            assertTrue(Files.isRegularFile(store.chunkPath(m.getHash(i))));
+        // Once abandoned, the chunks are collected after the grace period
+        assertEquals(m.getCount(), root.collectGarbage(-1L));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsDurabilityTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private WebRoot open(String mode) throws Exception {
+        final FsContext ctx = fsContext(tmp);
+        ctx.setDurability(mode);
+        return openFs(ctx);
+    }
+
+    @Test
+    public void strictTest() throws Exception {
+        final WebRoot root = open("strict");
+        final long before = FsDurability.STRICT.getFlushCount();
+        assertNotNull(root.write("/a.txt",
+                new ByteArrayInputStream("one".getBytes()), false));
+        // The file and its directory
+        assertEquals(before + 2L, FsDurability.STRICT.getFlushCount());
+        assertNotNull(root.write("/a.txt",
+                new ByteArrayInputStream("two!".getBytes()), true));
+        assertEquals(before + 4L, FsDurability.STRICT.getFlushCount());
+        assertEquals(4L, root.getResource("/a.txt").getContentLength());
+        assertEquals(1, ((WebDirectory) root.getResource("/")).list().size());
+    }
+
+    @Test
+    public void groupTest() throws Exception {
+        final WebRoot root = open("Group");
+        // Web roots with the same settings share the committer
+        final FsDurability durability = FsDurability.of(
+                FsDurability.Mode.GROUP, fsContext(tmp).getGroupCommitDelay());
+        final long flushes = durability.getFlushCount();
+        final long batches = durability.getBatchCount();
+        final ExecutorService es = Executors.newFixedThreadPool(8);
+        final List<Future<WebResource>> results = new ArrayList<>();
+        for (int i = 0; i < 32; ++i) {
+            final String path = "/f" + i + ".txt";
+            final byte[] data = path.getBytes();
+            results.add(es.submit(() -> root.write(path,
+                    new ByteArrayInputStream(data), false)));
+        }
+        for (Future<WebResource> f : results)
+            assertNotNull(f.get());
+        es.shutdown();
+        assertEquals(32, ((WebDirectory) root.getResource("/")).list().size());
+        // Every file is flushed, and the directory at least once
+        assertTrue(durability.getFlushCount() - flushes > 32L);
+        // The concurrent flushes are batched
+        assertTrue(durability.getBatchCount() - batches < 64L);
+    }
+
+    @Test(timeout = 10000L)
+    public void closeTest() throws Exception {
+        final FsDurability durability =
+                new FsDurability(FsDurability.Mode.GROUP, 1L);
+        try (FileChannel fc = FileChannel.open(tmp.newFile().toPath(),
+                StandardOpenOption.WRITE)) {
+            fc.write(ByteBuffer.wrap("data".getBytes()));
+            durability.force(fc);
+            assertEquals(1L, durability.getFlushCount());
+            durability.close();
+            // Fails instead of waiting for the committer gone
+            try {
+                durability.force(fc);
+                fail("Flush after close must fail");
+            } catch(IOException ex) {
+                // expected
+            }
+        }
+        assertEquals(1L, durability.getFlushCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badModeTest() throws Exception {
+        open("sometimes");
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsETagTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void strongETagTest() throws Exception {
+        final WebRoot root = openFs(fsContext(tmp));
+
+        final byte[] content = "Hello, world".getBytes(StandardCharsets.UTF_8);
+        assertNotNull(root.write("/a.txt", new ByteArrayInputStream(content), false));
+        final String expected = "\"" + FsETag.toHex(
+                FsETag.newDigest().digest(content)) + "\"";
+        assertEquals(expected, root.getResource("/a.txt").getETag());
+
+        // Listing returns the same value, and hides the index file if any
+        final WebDirectory top = (WebDirectory) root.getResource("/");
+        assertEquals(1, top.list().size());
+        assertEquals(expected, top.listResources().get(0).getETag());
+
+        // Partial update falls back to the weak ETag
+        final WebResource r = root.getResource("/a.txt");
+        assertTrue(r.replaceData(new ByteArrayInputStream(new byte[] {'J'}), 0L));
+        assertTrue(root.getResource("/a.txt").getETag().startsWith("W/\""));
+
+        // Full rewrite brings the strong ETag back
+        assertTrue(root.getResource("/a.txt").replaceData(
+                new ByteArrayInputStream(content)));
+        assertEquals(expected, root.getResource("/a.txt").getETag());
+    }
+
+    @Test
+    public void lazyETagTest() throws Exception {
+        final Path p = tmp.newFile("b.txt").toPath();
+        final byte[] content = "Hello".getBytes(StandardCharsets.UTF_8);
+        Files.write(p, content);
+        final ResourceAttributes ra = FsAttributes.convert(p,
+                Files.readAttributes(p, BasicFileAttributes.class));
+        // The ETag is not looked up until requested
+        final byte[] digest = FsETag.newDigest().digest(content);
+        FsETag.store(p, digest);
+        assertEquals("\"" + FsETag.toHex(digest) + "\"", ra.getETag());
+        assertEquals(content.length, ra.getContentLength());
+    }
+
+    @Test
+    public void indexTest() throws Exception {
+        final Path dir = tmp.newFolder().toPath();
+        final String odd = "a=b c:#!";
+        for (int i = 0; i < 1000; ++i)
+            FsETag.updateIndex(dir.resolve("f" + i), "v" + i);
+        FsETag.updateIndex(dir.resolve(odd), "x");
+        for (int i = 0; i < 1000; i += 2)
+            FsETag.updateIndex(dir.resolve("f" + i), null);
+        assertNull(FsETag.readIndex(dir.resolve("f0")));
+        assertEquals("v1", FsETag.readIndex(dir.resolve("f1")));
+        assertEquals("x", FsETag.readIndex(dir.resolve(odd)));
+
+        // The changes are appended, with the stale records compacted away
+        final Path ip = dir.resolve(FsETag.INDEX_FILE);
+        final List<String> lines = Files.readAllLines(ip,
+                StandardCharsets.ISO_8859_1);
+        assertTrue(lines.size() < 2 * 501 + 100);
+        final Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(ip)) {
+            props.load(is);
+        }
+        props.values().removeIf(v -> v.toString().isEmpty());
+        assertEquals(501, props.size());
+        assertEquals("v999", props.getProperty("f999"));
+        assertEquals("x", props.getProperty(odd));
+    }
+
+}
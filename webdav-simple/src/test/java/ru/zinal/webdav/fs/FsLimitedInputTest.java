@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsLimitedInputTest {
+
+    @Test
+    public void rangeTest() throws Exception {
+        final Path p = Files.createTempFile("limited", ".bin");
+        Files.write(p, "0123456789".getBytes());
+        try (InputStream is = new FsLimitedInput(p, 2L, 5L)) {
+            assertEquals('2', is.read());
+            assertEquals('3', is.read());
+            assertEquals(1L, is.skip(1L));
+            final byte[] buf = new byte[10];
+            assertEquals(2, is.read(buf));
+            assertEquals('5', buf[0]);
+            assertEquals('6', buf[1]);
+            assertEquals(-1, is.read());
+        }
+        // Empty range does not open the file, and can still be closed
+        try (InputStream is = new FsLimitedInput(p, 3L, 0L)) {
+            assertEquals(-1, is.read());
+        }
+        Files.delete(p);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsShardedWebRootTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FsShardedWebRoot open(List<Path> disks) throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (Path p : disks) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(p.toString());
+        }
+        final FsContext ctx = fsContext(tmp);
+        ctx.setDataPaths(sb.toString());
+        return (FsShardedWebRoot) openFs(ctx);
+    }
+
+    @Test
+    public void placementTest() throws Exception {
+        final List<Path> disks = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            disks.add(tmp.newFolder().toPath());
+        FsShardedWebRoot root = open(disks);
+        root.rebalance();
+        for (int i = 0; i < 60; ++i) {
+            assertNotNull(root.mkdir("/d" + i));
+            assertNotNull(root.write("/d" + i + "/f.txt",
+                    new ByteArrayInputStream(("x" + i).getBytes()), false));
+        }
+        final WebDirectory top = (WebDirectory) root.getResource("/");
+        assertEquals(60, top.list().size());
+        for (Path p : disks) {
+            try (java.util.stream.Stream<Path> s = Files.list(p)) {
+                // Every disk gets its share, plus the identifier file
+                assertTrue(s.count() > 5);
+            }
+        }
+
+        // Adding a disk moves only the entries it now owns
+        disks.add(tmp.newFolder().toPath());
+        root = open(disks);
+        root.rebalance();
+        final int moved = countOn(disks.get(3));
+        assertTrue(moved > 0 && moved < 30);
+        assertFalse(root.isRebalancing());
+        assertEquals(60, ((WebDirectory) root.getResource("/")).list().size());
+        for (int i = 0; i < 60; ++i) {
+            final int owner = root.getRing().locate("d" + i);
+            assertTrue(Files.isRegularFile(disks.get(owner)
+                    .resolve("d" + i).resolve("f.txt")));
+            assertNotNull(root.getResource("/d" + i + "/f.txt"));
+        }
+    }
+
+    @Test
+    public void hiddenEntriesTest() throws Exception {
+        final List<Path> disks = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            disks.add(tmp.newFolder().toPath());
+        FsShardedWebRoot root = open(disks);
+        root.rebalance();
+        // The uploads in progress, named as owned by the other disks,
+        // and the ETag index of each disk
+        final List<Path> hidden = new ArrayList<>();
+        int j = 0;
+        for (int i = 0; i < disks.size(); ++i) {
+            String name;
+            do {
+                name = FsETag.TEMP_PREFIX + "f" + (j++);
+            } while (root.getRing().locate(name) == i);
+            hidden.add(Files.write(disks.get(i).resolve(name),
+                    new byte[] {1}));
+            hidden.add(Files.write(disks.get(i).resolve(FsETag.INDEX_FILE),
+                    new byte[] {2}));
+        }
+        assertEquals(0, root.rebalance());
+        for (Path p : hidden)
+            assertTrue(Files.isRegularFile(p));
+    }
+
+    @Test
+    public void staleWriteTest() throws Exception {
+        final List<Path> disks = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            disks.add(tmp.newFolder().toPath());
+        FsShardedWebRoot root = open(disks);
+        root.rebalance();
+        final int[] before = new int[40];
+        for (int i = 0; i < before.length; ++i) {
+            assertNotNull(root.write("/f" + i,
+                    new ByteArrayInputStream("old".getBytes()), false));
+            before[i] = root.getRing().locate("f" + i);
+        }
+
+        disks.add(tmp.newFolder().toPath());
+        root = open(disks);
+        root.rebalance();
+        final FsPolicy policy = root.getPolicy();
+        int checked = 0;
+        for (int i = 0; i < before.length; ++i) {
+            if (root.getRing().locate("f" + i) == before[i])
+                continue;
+            // The file resolved before the move must not be written
+            // to the old place, where the change would be lost
+            final Path old = disks.get(before[i]).resolve("f" + i);
+            final FsFile stale = new FsFile(old, "/f" + i, null, policy);
+            assertFalse(stale.writeData(
+                    new ByteArrayInputStream("new".getBytes()), 3L));
+            assertFalse(stale.replaceData(
+                    new ByteArrayInputStream("new".getBytes()), 0L));
+            assertFalse(Files.exists(old));
+            assertEquals("old", new String(readAll(
+                    ((WebFile) root.getResource("/f" + i)).getData())));
+            ++checked;
+        }
+        assertTrue(checked > 0);
+    }
+
+    private static int countOn(Path disk) throws Exception {
+        try (java.util.stream.Stream<Path> s = Files.list(disk)) {
+            return (int) s.filter(Files::isDirectory).count();
+        }
+    }
+
+}
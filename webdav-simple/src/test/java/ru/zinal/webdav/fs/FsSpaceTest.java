@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsSpaceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void reservationTest() throws Exception {
+        final WebRoot root = openFs(fsContext(tmp));
+
+        assertNotNull(root.write("/a.txt",
+                new ByteArrayInputStream("abc".getBytes()), false, 3L));
+        try {
+            root.write("/b.txt", new ByteArrayInputStream("abc".getBytes()),
+                    false, Long.MAX_VALUE / 2);
+            fail("Upload larger than the free space accepted");
+        } catch(InsufficientStorageException ex) {
+            // expected
+        }
+        assertNull(root.getResource("/b.txt"));
+        try {
+            root.write("/a.txt", new ByteArrayInputStream("abc".getBytes()),
+                    true, Long.MAX_VALUE / 2);
+            fail("Replacement larger than the free space accepted");
+        } catch(InsufficientStorageException ex) {
+            // expected
+        }
+        assertEquals(3L, root.getResource("/a.txt").getContentLength());
+    }
+
+    @Test
+    public void shrinkTest() throws Exception {
+        final FsSpace space = new FsSpace();
+        try (FsSpace.Reservation r =
+                space.reserve(tmp.getRoot().toPath(), 100L)) {
+            assertEquals(100L, space.getReserved());
+            try (InputStream is =
+                    r.track(new ByteArrayInputStream(new byte[60]))) {
+                assertEquals(60, readAll(is).length);
+            }
+            // The data written takes the free space itself
+            assertEquals(40L, r.getRemaining());
+            assertEquals(40L, space.getReserved());
+            r.consume(1000L);
+            assertEquals(0L, space.getReserved());
+        }
+        assertEquals(0L, space.getReserved());
+        space.reserve(tmp.getRoot().toPath(), 10L).close();
+        assertEquals(0L, space.getReserved());
+    }
+
+}
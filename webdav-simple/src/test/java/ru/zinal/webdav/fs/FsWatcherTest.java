@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsWatcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static WebResource await(WebRoot root, String path,
+            boolean exists) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000L;
+        WebResource r = root.getResource(path);
+        while ((r!=null) != exists && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+            r = root.getResource(path);
+        }
+        return r;
+    }
+
+    @Test
+    public void externalChangeTest() throws Exception {
+        final FsContext ctx = fsContext(tmp);
+        final Path data = Paths.get(ctx.getDataPath());
+        Files.createDirectory(data.resolve("sub"));
+        ctx.setWatch(true);
+        final FsWebRoot fs = (FsWebRoot) openFs(ctx);
+        assertNotNull(fs.getWatcher());
+        // Cache entries would never expire on their own
+        final WebRoot root = new CachingWebRoot(fs, 100, 3600000L);
+
+        assertNull(root.getResource("/sub/a.txt"));
+        Files.write(data.resolve("sub").resolve("a.txt"), "a".getBytes());
+        assertNotNull(await(root, "/sub/a.txt", true));
+        assertEquals(1, ((WebDirectory) root.getResource("/sub")).list().size());
+
+        // Files within the directories created later are noticed too
+        Files.createDirectory(data.resolve("new"));
+        assertNotNull(await(root, "/new", true));
+        assertNull(root.getResource("/new/b.txt"));
+        Files.write(data.resolve("new").resolve("b.txt"), "b".getBytes());
+        assertNotNull(await(root, "/new/b.txt", true));
+
+        Files.delete(data.resolve("sub").resolve("a.txt"));
+        assertNull(await(root, "/sub/a.txt", false));
+        fs.getWatcher().close();
+    }
+
+}
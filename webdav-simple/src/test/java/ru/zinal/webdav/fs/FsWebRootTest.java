@@ -0,0 +1,306 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.*;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.model.WebDirectory;
+import ru.zinal.webdav.model.WebResource;
+import ru.zinal.webdav.model.WebRoot;
+import ru.zinal.webdav.model.WebStorageException;
+
+/**
+ *
+ * @author zinal
+ */
+public class FsWebRootTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private WebRoot open() throws Exception {
+        final WebRoot root = openFs(fsContext(tmp));
+        assertNotNull(root.mkdir("/a"));
+        assertNotNull(root.mkdir("/a/b"));
+        write(root, "/a/x.txt", 1);
+        write(root, "/a/b/y.txt", 2);
+        return root;
+    }
+
+    private static void write(WebRoot root, String path, int value) {
+        assertNotNull(root.write(path,
+                new ByteArrayInputStream(new byte[] {(byte) value}), true));
+    }
+
+    private static byte[] read(WebRoot root, String path) throws Exception {
+        final WebResource r = root.getResource(path);
+        assertNotNull(path, r);
+        return readAll(r.getData());
+    }
+
+    @Test
+    public void listResourcesTest() throws Exception {
+        final WebRoot root = open();
+        write(root, "/a/z.txt", 3);
+        final WebDirectory a = (WebDirectory) root.getResource("/a");
+        final Map<String, WebResource> children = new HashMap<>();
+        for (WebResource r : a.listResources())
+            assertNull(children.put(r.getName(), r));
+        // The ETag index of the directory is not listed
+        assertEquals(3, children.size());
+        assertTrue(children.get("b").isDirectory());
+        assertEquals("/a/b/", children.get("b").getPath());
+        // Each child carries the same attributes as the separate lookup
+        for (String name : new String[] {"x.txt", "z.txt"}) {
+            final WebResource listed = children.get(name);
+            final WebResource found = root.getResource("/a/" + name);
+            assertTrue(listed.isFile());
+            assertEquals("/a/" + name, listed.getPath());
+            assertEquals(1L, listed.getContentLength());
+            assertEquals(found.getLastModified(), listed.getLastModified());
+            assertEquals(found.getCreation(), listed.getCreation());
+            assertEquals(found.getETag(), listed.getETag());
+        }
+        assertNotEquals(children.get("x.txt").getETag(),
+                children.get("z.txt").getETag());
+    }
+
+    @Test
+    public void copyTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        assertTrue(root.copy("/a", "/c", Integer.MAX_VALUE, errors));
+        assertTrue(errors.isEmpty());
+        assertArrayEquals(new byte[] {1}, read(root, "/c/x.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/c/b/y.txt"));
+
+        // Depth 0 copies the collection only
+        assertTrue(root.copy("/a", "/d", 0, errors));
+        assertTrue(root.getResource("/d").isDirectory());
+        assertNull(root.getResource("/d/x.txt"));
+
+        // Existing file is not replaced by the copy
+        write(root, "/e.txt", 5);
+        assertFalse(root.copy("/a/x.txt", "/e.txt", 0, errors));
+        assertEquals(WebdavStatus.SC_PRECONDITION_FAILED,
+                (int) errors.get("/e.txt"));
+        assertArrayEquals(new byte[] {5}, read(root, "/e.txt"));
+
+        errors.clear();
+        assertFalse(root.copy("/a/x.txt", "/missing/x.txt", 0, errors));
+        assertEquals(WebdavStatus.SC_CONFLICT,
+                (int) errors.get("/missing/x.txt"));
+        assertNull(root.getResource("/missing"));
+
+        errors.clear();
+        assertFalse(root.copy("/a", "/a/b/a", Integer.MAX_VALUE, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/a/b/a"));
+        assertNull(root.getResource("/a/b/a"));
+    }
+
+    @Test
+    public void moveTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        assertTrue(root.move("/a", "/c", false, errors));
+        assertTrue(errors.isEmpty());
+        assertNull(root.getResource("/a"));
+        assertArrayEquals(new byte[] {2}, read(root, "/c/b/y.txt"));
+
+        write(root, "/e.txt", 5);
+        assertFalse(root.move("/c/x.txt", "/e.txt", false, errors));
+        assertEquals(WebdavStatus.SC_PRECONDITION_FAILED,
+                (int) errors.get("/e.txt"));
+        assertArrayEquals(new byte[] {5}, read(root, "/e.txt"));
+        errors.clear();
+        assertTrue(root.move("/c/x.txt", "/e.txt", true, errors));
+        assertArrayEquals(new byte[] {1}, read(root, "/e.txt"));
+        assertNull(root.getResource("/c/x.txt"));
+
+        // Collection replaces the existing collection as a whole
+        assertNotNull(root.mkdir("/f"));
+        write(root, "/f/z.txt", 7);
+        assertTrue(root.move("/c", "/f", true, errors));
+        assertNull(root.getResource("/f/z.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/f/b/y.txt"));
+
+        assertFalse(root.move("/f/b/y.txt", "/missing/y.txt", false, errors));
+        assertEquals(WebdavStatus.SC_CONFLICT,
+                (int) errors.get("/missing/y.txt"));
+        assertNotNull(root.getResource("/f/b/y.txt"));
+    }
+
+    @Test
+    public void moveIntoItselfTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        assertFalse(root.move("/a", "/a", true, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/a"));
+        errors.clear();
+        assertFalse(root.move("/a", "/a/b/c", true, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/a/b/c"));
+        // The source survives the rejected moves
+        assertArrayEquals(new byte[] {1}, read(root, "/a/x.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/a/b/y.txt"));
+    }
+
+    @Test
+    public void deleteTreeTest() throws Exception {
+        final WebRoot root = open();
+        write(root, "/a/b/z.txt", 3);
+        assertNotNull(root.mkdir("/a/WEB-INF"));
+        write(root, "/a/WEB-INF/w.txt", 4);
+        final Map<String, Integer> errors = new HashMap<>();
+        assertFalse(root.deleteTree("/a", p -> p.equals("/a/b/y.txt")
+                || p.equals("/a/WEB-INF"), errors));
+        assertEquals(2, errors.size());
+        assertEquals(WebdavStatus.SC_LOCKED, (int) errors.get("/a/b/y.txt"));
+        assertEquals(WebdavStatus.SC_LOCKED, (int) errors.get("/a/WEB-INF"));
+        // Kept entries survive together with their parents only
+        assertNull(root.getResource("/a/x.txt"));
+        assertNull(root.getResource("/a/b/z.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/a/b/y.txt"));
+        assertArrayEquals(new byte[] {4}, read(root, "/a/WEB-INF/w.txt"));
+
+        errors.clear();
+        assertTrue(root.deleteTree("/a", null, errors));
+        assertTrue(errors.isEmpty());
+        assertNull(root.getResource("/a"));
+        assertFalse(root.deleteTree("/a", null, errors));
+
+        assertFalse(root.deleteTree("/", null, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/"));
+    }
+
+    @Test
+    public void hiddenTest() throws Exception {
+        final FsContext ctx = fsContext(tmp);
+        final WebRoot root = openFs(ctx);
+        assertNotNull(root.mkdir("/a"));
+        write(root, "/a/x.txt", 1);
+        write(root, "/y.txt", 2);
+        final Path a = Paths.get(ctx.getDataPath(), "a");
+        Files.write(a.resolve(FsETag.INDEX_FILE), new byte[] {3});
+        Files.write(a.resolve(FsETag.TEMP_PREFIX + "1"), new byte[] {4});
+        final Map<String, Integer> errors = new HashMap<>();
+
+        // The index and the temp files are neither sources nor targets
+        assertFalse(root.move("/y.txt", "/a/" + FsETag.INDEX_FILE,
+                true, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN,
+                (int) errors.get("/a/" + FsETag.INDEX_FILE));
+        errors.clear();
+        assertFalse(root.copy("/y.txt", "/a/" + FsETag.TEMP_PREFIX + "2",
+                0, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN,
+                (int) errors.get("/a/" + FsETag.TEMP_PREFIX + "2"));
+        errors.clear();
+        assertFalse(root.copy("/a/" + FsETag.INDEX_FILE, "/z.txt",
+                0, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN,
+                (int) errors.get("/a/" + FsETag.INDEX_FILE));
+        errors.clear();
+        assertFalse(root.deleteTree("/a/" + FsETag.INDEX_FILE, null, errors));
+        assertArrayEquals(new byte[] {3},
+                Files.readAllBytes(a.resolve(FsETag.INDEX_FILE)));
+        assertArrayEquals(new byte[] {2}, read(root, "/y.txt"));
+        assertNull(root.getResource("/z.txt"));
+
+        // Collection copy leaves the hidden entries behind
+        errors.clear();
+        assertTrue(root.copy("/a", "/c", Integer.MAX_VALUE, errors));
+        final Path c = Paths.get(ctx.getDataPath(), "c");
+        assertTrue(Files.exists(c.resolve("x.txt")));
+        assertFalse(Files.exists(c.resolve(FsETag.INDEX_FILE)));
+        assertFalse(Files.exists(c.resolve(FsETag.TEMP_PREFIX + "1")));
+
+        // Collection delete removes them with the directory
+        assertTrue(root.deleteTree("/a", null, errors));
+        assertTrue(errors.isEmpty());
+        assertFalse(Files.exists(a));
+    }
+
+    @Test
+    public void concurrentReplaceTest() throws Exception {
+        final WebRoot root = open();
+        final ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 40; ++i) {
+                final int value = i;
+                results.add(es.submit(() -> root.getResource("/a/x.txt")
+                        .replaceData(new ByteArrayInputStream(
+                                new byte[] {(byte) value}))));
+            }
+            for (Future<Boolean> f : results)
+                assertTrue(f.get());
+        } finally {
+            es.shutdown();
+        }
+        // No temporary files are left behind
+        assertEquals(2, ((WebDirectory) root.getResource("/a")).list().size());
+        assertEquals(1, read(root, "/a/x.txt").length);
+    }
+
+    @Test
+    public void writeErrorTest() throws Exception {
+        final WebRoot root = open();
+        final IOException failure = new IOException("Connection reset");
+        final InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw failure;
+            }
+        };
+        // The storage error is reported as such, not as a missing file
+        try {
+            root.getResource("/a/x.txt").writeData(broken, -1L);
+            fail("Write error not reported");
+        } catch(WebStorageException ex) {
+            assertSame(failure, ex.getCause());
+        }
+        assertArrayEquals(new byte[] {1}, read(root, "/a/x.txt"));
+        try {
+            ((WebDirectory) root.getResource("/a")).createFile("z.txt", broken);
+            fail("Write error not reported");
+        } catch(WebStorageException ex) {
+            assertSame(failure, ex.getCause());
+        }
+        assertNull(root.getResource("/a/z.txt"));
+        assertEquals(2, ((WebDirectory) root.getResource("/a")).list().size());
+        // The expected outcomes are still the return values
+        assertNull(((WebDirectory) root.getResource("/a")).createFile("x.txt",
+                new ByteArrayInputStream(new byte[] {3})));
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class ConcurrentLockerTest {
+
+    static LockInfo lock(String path, String token, int depth,
+            boolean exclusive, long ttl) {
+        final LockInfo li = new LockInfo();
+        li.setPath(path);
+        li.setDepth(depth);
+        li.setScope(exclusive ? "exclusive" : "shared");
+        li.setExpiresAt(System.currentTimeMillis() + ttl);
+        li.getTokens().add(token);
+        return li;
+    }
+
+    static void basicChecks(LockManager lm) {
+        assertTrue(lm.createLock(lock("/a/b", "t1", 0, true, 60000L)).isSuccess());
+        assertTrue(lm.isLocked("/a/b", null));
+        assertFalse(lm.isLocked("/a/b", Collections.singletonList("t1")));
+        assertFalse(lm.isLocked("/a", null));
+        // Depth-infinity lock above conflicts with the lock below
+        final LockResult lr = lm.createLock(lock("/a", "t2", LockInfo.MAX_DEPTH,
+                true, 60000L));
+        assertFalse(lr.isSuccess());
+        assertEquals(Collections.singleton("/a/b"), lr.getLockedPaths());
+        // Shared locks coexist
+        assertTrue(lm.createLock(lock("/c", "s1", LockInfo.MAX_DEPTH, false, 60000L)).isSuccess());
+        assertTrue(lm.createLock(lock("/c/d", "s2", 0, false, 60000L)).isSuccess());
+        assertFalse(lm.createLock(lock("/c/d", "x1", 0, true, 60000L)).isSuccess());
+        assertEquals(2, lm.discoverLocks("/c/d").size());
+        // Tokens of the unrelated locks do not unlock the resource
+        assertTrue(lm.isLocked("/a/b", Arrays.asList("s1", "unknown")));
+        assertEquals(Arrays.asList("/c/d"),
+                lm.findLockedPaths("/c/d", Collections.singletonList("s1")));
+        // Depth-infinity lock over the shared locks below
+        assertTrue(lm.createLock(lock("/f/g", "s3", 0, false, 60000L)).isSuccess());
+        assertTrue(lm.createLock(lock("/f/h", "s4", 0, false, 60000L)).isSuccess());
+        assertEquals(new HashSet<>(Arrays.asList("/f/g", "/f/h")),
+                lm.createLock(lock("/f", "x2", LockInfo.MAX_DEPTH, true, 60000L))
+                        .getLockedPaths());
+        assertTrue(lm.createLock(lock("/f", "s5", LockInfo.MAX_DEPTH, false, 60000L)).isSuccess());
+        assertTrue(lm.removeLock("/f/g", "s3"));
+        assertTrue(lm.removeLock("/f/h", "s4"));
+        assertTrue(lm.removeLock("/f", "s5"));
+        assertTrue(lm.createLock(lock("/f", "x2", LockInfo.MAX_DEPTH, true, 60000L)).isSuccess());
+        // Refresh and removal
+        final LockInfo refresh = lock("/a/b", "t1", 0, true, 120000L);
+        assertNotNull(lm.refreshLock(refresh));
+        assertNull(lm.refreshLock(lock("/a/b", "bad", 0, true, 1000L)));
+        assertEquals("/a/b", lm.findLockByToken("t1").getPath());
+        assertEquals("/c/d", lm.findLockByToken("s2").getPath());
+        // Token held at the other path does not apply
+        assertNull(lm.refreshLock(lock("/c", "s2", 0, false, 1000L)));
+        assertFalse(lm.removeLock("/c", "s2"));
+        assertTrue(lm.removeLock("/a/b", "t1"));
+        assertFalse(lm.removeLock("/a/b", "t1"));
+        assertNull(lm.findLock("/a/b"));
+        assertNull(lm.findLockByToken("t1"));
+        assertTrue(lm.createLock(lock("/a", "t2", LockInfo.MAX_DEPTH, true, 60000L)).isSuccess());
+    }
+
+    @Test
+    public void semanticsTest() throws Exception {
+        final LockManager cl = new ConcurrentLocker();
+        final LockManager ml = new InMemoryLocker();
+        try {
+            basicChecks(cl);
+            basicChecks(ml);
+        } finally {
+            cl.close();
+            ml.close();
+        }
+    }
+
+    private static int tokenCount(LockManager lm) {
+        if (lm instanceof ConcurrentLocker)
+            return ((ConcurrentLocker) lm).getTokenCount();
+        return ((InMemoryLocker) lm).getTokenCount();
+    }
+
+    static void expiryChecks(LockManager lm) throws Exception {
+        assertTrue(lm.createLock(lock("/e/short", "s", 0, true, 500L)).isSuccess());
+        assertTrue(lm.createLock(lock("/e/long", "l", 0, true, 500L)).isSuccess());
+        // Refreshed token survives its original expiration time
+        assertNotNull(lm.refreshLock(lock("/e/long", "l", 0, true, 60000L)));
+        final int before = tokenCount(lm);
+        assertTrue(before >= 2);
+        // The sweeper drops the expired token from the index,
+        // which the lookups alone would never do
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (tokenCount(lm) >= before
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(100L);
+        assertEquals(before - 1, tokenCount(lm));
+        assertNull(lm.findLock("/e/short"));
+        assertNull(lm.findLockByToken("s"));
+        assertNotNull(lm.findLock("/e/long"));
+        // The expired lock no longer conflicts
+        assertTrue(lm.createLock(lock("/e", "x", LockInfo.MAX_DEPTH, true, 60000L))
+                .getLockedPaths().equals(Collections.singleton("/e/long")));
+    }
+
+    @Test
+    public void expiryTest() throws Exception {
+        final LockManager cl = new ConcurrentLocker();
+        final LockManager ml = new InMemoryLocker();
+        try {
+            expiryChecks(cl);
+            expiryChecks(ml);
+        } finally {
+            cl.close();
+            ml.close();
+        }
+    }
+
+    @Test
+    public void sweeperTest() throws Exception {
+        final int count = 200;
+        final CountDownLatch expired = new CountDownLatch(count);
+        final LockSweeper sweeper = new LockSweeper(
+                (path, token, expiresAt) -> expired.countDown());
+        try {
+            // Scheduled across the tick boundaries, while the sweeper
+            // is processing the slots, none waits for the next round
+            for (int i = 0; i < count; ++i) {
+                sweeper.schedule("/p", "t" + i, System.currentTimeMillis());
+                Thread.sleep(10L);
+            }
+            assertTrue(expired.await(3L * LockSweeper.TICK,
+                    TimeUnit.MILLISECONDS));
+        } finally {
+            sweeper.close();
+        }
+    }
+
+    @Test
+    public void pruneTest() throws Exception {
+        final InMemoryLocker lm = new InMemoryLocker();
+        try {
+            assertTrue(lm.createLock(lock("/x/y", "a", 0, true, 60000L)).isSuccess());
+            assertEquals(3, lm.getRecordCount());
+            // Rejected locks leave no records behind
+            assertFalse(lm.createLock(lock("/x", "b", LockInfo.MAX_DEPTH, true, 60000L))
+                    .isSuccess());
+            assertFalse(lm.createLock(lock("/x/y", "c", 0, true, 60000L)).isSuccess());
+            assertEquals(3, lm.getRecordCount());
+            assertTrue(lm.removeLock("/x/y", "a"));
+            assertEquals(1, lm.getRecordCount());
+        } finally {
+            lm.close();
+        }
+    }
+
+    @Test
+    public void concurrencyTest() throws Exception {
+        final ConcurrentLocker lm = new ConcurrentLocker();
+        try {
+            concurrencyChecks(lm);
+        } finally {
+            lm.close();
+        }
+    }
+
+    private static void concurrencyChecks(LockManager lm) throws Exception {
+        final AtomicInteger granted = new AtomicInteger();
+        final ExecutorService es = Executors.newFixedThreadPool(8);
+        final List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            final int thread = i;
+            results.add(es.submit(() -> {
+                for (int j = 0; j < 500; ++j) {
+                    // All threads compete for the same resources
+                    final String path = "/d" + (j % 10) + "/f";
+                    final String token = "t" + thread + "-" + j;
+                    if (lm.createLock(lock(path, token, 0, true, 60000L)).isSuccess()) {
+                        granted.incrementAndGet();
+                        lm.isLocked(path, null);
+                        assertTrue(lm.removeLock(path, token));
+                    }
+                }
+            }));
+        }
+        es.shutdown();
+        assertTrue(es.awaitTermination(60, TimeUnit.SECONDS));
+        // Rethrows the assertion failures of the workers
+        for (Future<?> f : results)
+            f.get();
+        assertTrue(granted.get() > 0);
+        for (int j = 0; j < 10; ++j)
+            assertFalse(lm.isLocked("/d" + j + "/f", null));
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.lock;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.lock.ConcurrentLockerTest.lock;
+
+/**
+ *
+ * @author zinal
+ */
+public class JournalLockerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void semanticsTest() throws Exception {
+        final Path dir = tmp.newFolder("locks").toPath();
+        final JournalLocker jl =
+                new JournalLocker(dir, new ConcurrentLocker(), 3);
+        try {
+            ConcurrentLockerTest.basicChecks(jl);
+        } finally {
+            jl.close();
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        final Path dir = tmp.newFolder("locks").toPath();
+        final JournalLocker crashed =
+                new JournalLocker(dir, new ConcurrentLocker(), 1000);
+        final LockInfo refresh = lock("/a/b", "t1", 0, true, 120000L);
+        try {
+            fillLocks(crashed, refresh);
+            // Simulate the crash: no snapshot, torn journal tail
+            try (FileChannel fc = FileChannel.open(
+                    dir.resolve(JournalLocker.JOURNAL),
+                    StandardOpenOption.APPEND)) {
+                fc.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 42, 1, 2}));
+            }
+            JournalLocker jl = new JournalLocker(dir, new ConcurrentLocker(), 1000);
+            try {
+                checkRecovered(jl, refresh.getExpiresAt());
+            } finally {
+                // Clean shutdown writes the snapshot
+                jl.close();
+            }
+            assertEquals(0L, Files.size(dir.resolve(JournalLocker.JOURNAL)));
+            jl = new JournalLocker(dir, new ConcurrentLocker(), 1000);
+            try {
+                checkRecovered(jl, refresh.getExpiresAt());
+            } finally {
+                jl.close();
+            }
+        } finally {
+            crashed.close();
+        }
+    }
+
+    private static void fillLocks(LockManager lm, LockInfo refresh) {
+        assertTrue(lm.createLock(lock("/a/b", "t1", 0, true, 60000L)).isSuccess());
+        assertTrue(lm.createLock(lock("/c", "s1", LockInfo.MAX_DEPTH, false, 60000L)).isSuccess());
+        assertTrue(lm.createLock(lock("/c/d", "s2", 0, false, 60000L)).isSuccess());
+        assertTrue(lm.createLock(lock("/e", "x", 0, true, 60000L)).isSuccess());
+        final LockInfo nl = lock("/n", "n1", 0, true, 60000L);
+        nl.setLockNull(true);
+        assertTrue(lm.createLock(nl).isSuccess());
+        lm.removeNullLock("/n");
+        assertTrue(lm.removeLock("/e", "x"));
+        assertNotNull(lm.refreshLock(refresh));
+    }
+
+    private static void checkRecovered(LockManager lm, long expiresAt) {
+        final LockInfo li = lm.findLockByToken("t1");
+        assertNotNull(li);
+        assertEquals("/a/b", li.getPath());
+        assertEquals(expiresAt, li.getExpiresAt());
+        assertEquals(2, lm.discoverLocks("/c/d").size());
+        assertNull(lm.findLock("/e"));
+        assertFalse(lm.findLock("/n").isLockNull());
+        assertFalse(lm.createLock(lock("/a", "y", LockInfo.MAX_DEPTH, true, 60000L))
+                .isSuccess());
+    }
+
+    @Test
+    public void compactionTest() throws Exception {
+        final Path dir = tmp.newFolder("locks").toPath();
+        final JournalLocker crashed =
+                new JournalLocker(dir, new ConcurrentLocker(), 100);
+        try {
+            for (int i = 0; i < 1000; ++i) {
+                final String token = "t" + i;
+                assertTrue(crashed.createLock(lock("/d/" + i, token, 0, true, 60000L)).isSuccess());
+                if (i % 2 == 0)
+                    assertTrue(crashed.removeLock("/d/" + i, token));
+            }
+            assertEquals(500, crashed.getGrantCount());
+            assertTrue(Files.exists(dir.resolve(JournalLocker.SNAPSHOT)));
+            // Reopen without the clean shutdown
+            final JournalLocker jl =
+                    new JournalLocker(dir, new ConcurrentLocker(), 100);
+            try {
+                assertEquals(500, jl.getGrantCount());
+                assertNull(jl.findLock("/d/998"));
+                assertNotNull(jl.findLock("/d/999"));
+            } finally {
+                jl.close();
+            }
+        } finally {
+            crashed.close();
+        }
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        final Path dir = tmp.newFolder("locks").toPath();
+        final JournalLocker crashed =
+                new JournalLocker(dir, new ConcurrentLocker(), 50);
+        final ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            // The subtrees are journaled in parallel, with the snapshots
+            // taken while the other writers keep changing the locks
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                final String base = "/p" + t + "/";
+                futures.add(es.submit(() -> {
+                    for (int i = 0; i < 200; ++i) {
+                        final String token = base + i;
+                        assertTrue(crashed.createLock(lock(base + i, token,
+                                0, true, 60000L)).isSuccess());
+                        if (i % 2 == 0)
+                            assertTrue(crashed.removeLock(base + i, token));
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+            assertEquals(400, crashed.getGrantCount());
+            // Reopen without the clean shutdown
+            final JournalLocker jl =
+                    new JournalLocker(dir, new ConcurrentLocker(), 50);
+            try {
+                assertEquals(400, jl.getGrantCount());
+                for (int t = 0; t < 4; ++t) {
+                    assertNull(jl.findLock("/p" + t + "/198"));
+                    assertNotNull(jl.findLockByToken("/p" + t + "/199"));
+                }
+            } finally {
+                jl.close();
+            }
+        } finally {
+            es.shutdown();
+            crashed.close();
+        }
+    }
+
+}
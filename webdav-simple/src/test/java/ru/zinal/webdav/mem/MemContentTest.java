@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.mem;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class MemContentTest {
+
+    private static byte[] pattern(int len) {
+        final byte[] b = new byte[len];
+        for (int i=0; i<len; ++i)
+            b[i] = (byte) (i % 251);
+        return b;
+    }
+
+    @Test
+    public void chunkBoundariesTest() throws Exception {
+        final MemContent c = new MemContent(256);
+        final byte[] data = pattern(1000);
+        assertEquals(1000L, c.write(0L, new ByteArrayInputStream(data)));
+        assertEquals(1000L, c.length());
+        assertArrayEquals(data,
+                readAll(new MemInput(c, 0L, Long.MAX_VALUE)));
+        final byte[] part = new byte[300];
+        System.arraycopy(data, 200, part, 0, part.length);
+        assertArrayEquals(part, readAll(new MemInput(c, 200L, 500L)));
+    }
+
+    @Test
+    public void positionalWriteTest() throws Exception {
+        final MemContent c = new MemContent(256);
+        c.write(0L, new ByteArrayInputStream(pattern(10)));
+        c.write(600L, new ByteArrayInputStream(new byte[] {7, 8}));
+        assertEquals(602L, c.length());
+        final byte[] result = readAll(new MemInput(c, 0L, Long.MAX_VALUE));
+        assertEquals(9, result[9]);
+        assertEquals(0, result[300]);
+        assertEquals(8, result[601]);
+    }
+
+    @Test
+    public void slabTest() throws Exception {
+        final SlabStorage storage = new SlabStorage(256, 1024, 2048L);
+        final MemData c = storage.allocate();
+        final byte[] data = pattern(1000);
+        c.write(0L, new ByteArrayInputStream(data));
+        assertArrayEquals(data,
+                readAll(new MemInput(c, 0L, Long.MAX_VALUE)));
+        final ByteBuffer bb = ByteBuffer.allocateDirect(2000);
+        try (SeekableByteChannel ch = c.openChannel()) {
+            ch.position(100L);
+            while (ch.read(bb) > 0) { /* noop */ }
+        }
+        assertEquals(900, bb.position());
+        assertEquals((byte)(100 % 251), bb.get(0));
+        // 4 blocks taken out of 8, so the second file does not fit
+        final MemData c2 = storage.allocate();
+        try {
+            c2.write(0L, new ByteArrayInputStream(pattern(1100)));
+            fail("Storage overflow expected");
+        } catch(IOException ex) {
+            // expected
+        }
+        c2.release();
+        c.release();
+        // All the blocks are now free
+        final MemData c3 = storage.allocate();
+        c3.write(0L, new ByteArrayInputStream(pattern(2048)));
+        assertEquals(2048L, c3.length());
+        assertEquals(0, readAll(new MemInput(c3, 0L, 1L))[0]);
+    }
+
+    @Test
+    public void concurrentReplaceTest() throws Exception {
+        // 8 blocks: the current content plus three replacements in flight
+        final SlabStorage storage = new SlabStorage(256, 1024, 2048L);
+        final MemDirectory top = new MemDirectory(storage);
+        final WebResource f = top.createFile("f", null);
+        final ExecutorService es = Executors.newFixedThreadPool(3);
+        final List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 3; ++t) {
+            tasks.add(es.submit(() -> {
+                for (int i = 0; i < 300; ++i)
+                    assertTrue(f.replaceData(new ByteArrayInputStream(pattern(512))));
+            }));
+        }
+        for (Future<?> task : tasks)
+            task.get();
+        es.shutdown();
+        assertArrayEquals(pattern(512), readAll(f.getData()));
+        // Nothing leaked: the remaining 6 blocks can be taken
+        final MemData rest = storage.allocate();
+        rest.write(0L, new ByteArrayInputStream(pattern(1536)));
+        assertTrue(f.delete());
+        rest.release();
+    }
+
+    @Test
+    public void treeTest() throws Exception {
+        final MemContext ctx = new MemContext();
+        final WebRoot root = new MemFactory().create(ctx);
+        assertNotNull(root.mkdir("/a"));
+        assertNotNull(root.write("/a/f.txt",
+                new ByteArrayInputStream(pattern(5)), false));
+        final WebResource f = root.getResource("/a/f.txt");
+        assertEquals("/a/f.txt", f.getPath());
+        assertEquals(5L, f.getContentLength());
+        assertEquals(1, root.getResource("/a").listResources().size());
+        assertFalse(root.getResource("/a").delete());
+        assertTrue(f.delete());
+        assertTrue(root.getResource("/a").delete());
+        assertNull(root.getResource("/a"));
+    }
+
+}
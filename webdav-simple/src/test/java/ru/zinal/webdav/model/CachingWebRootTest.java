@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import ru.zinal.webdav.mem.MemContext;
+import ru.zinal.webdav.mem.MemFactory;
+
+/**
+ *
+ * @author zinal
+ */
+public class CachingWebRootTest {
+
+    private static WebRoot newMem() {
+        final MemContext ctx = new MemContext();
+        ctx.expand();
+        return new MemFactory().create(ctx);
+    }
+
+    private static ByteArrayInputStream data(int len) {
+        return new ByteArrayInputStream(new byte[len]);
+    }
+
+    @Test
+    public void hitMissTest() {
+        final WebRoot target = newMem();
+        assertNotNull(target.write("/a.txt", data(1), false));
+        final CachingWebRoot root = new CachingWebRoot(target, 100, 60000L);
+        assertEquals(1L, root.getResource("/a.txt").getContentLength());
+        assertEquals(0L, root.getHits());
+        assertEquals(1L, root.getMisses());
+        assertEquals(1L, root.getResource("/a.txt").getContentLength());
+        assertEquals(1L, root.getHits());
+        // Missing resources are cached too
+        assertNull(root.getResource("/b.txt"));
+        assertNull(root.getResource("/b.txt"));
+        assertEquals(2L, root.getHits());
+        assertEquals(2, root.getSize());
+
+        // Changes made through the cache invalidate the entries
+        assertNotNull(root.write("/b.txt", data(2), false));
+        assertEquals(2L, root.getResource("/b.txt").getContentLength());
+        assertNotNull(root.write("/a.txt", data(3), true));
+        assertEquals(3L, root.getResource("/a.txt").getContentLength());
+
+        // Listing is cached, and dropped by the changes to its members
+        assertEquals(2, root.getResource("/").listResources().size());
+        final long hits = root.getHits();
+        assertEquals(2, root.getResource("/").listResources().size());
+        assertTrue(root.getHits() > hits);
+        assertTrue(root.getResource("/a.txt").delete());
+        assertEquals(1, root.getResource("/").listResources().size());
+        assertNull(root.getResource("/a.txt"));
+
+        root.clear();
+        assertEquals(0, root.getSize());
+    }
+
+    private static int stripeOf(String key) {
+        // Same as the cache uses with 16 stripes
+        return (key.hashCode() & 0x7FFFFFFF) % 16;
+    }
+
+    @Test
+    public void unrelatedWriteTest() {
+        final WebRoot target = newMem();
+        assertNotNull(target.mkdir("/d"));
+        assertNotNull(target.write("/d/a", data(1), false));
+        assertNotNull(target.write("/d/b", data(1), false));
+        assertNotNull(target.mkdir("/x"));
+        final Set<Integer> used = new HashSet<>(Arrays.asList(
+                stripeOf("/d"), stripeOf("/d/a"), stripeOf("/d/b")));
+        String other = null;
+        for (int i = 0; other==null; ++i) {
+            if (!used.contains(stripeOf("/x/" + i)))
+                other = "/x/" + i;
+        }
+        assertFalse(used.contains(stripeOf("/x")));
+        final CachingWebRoot root = new CachingWebRoot(target, 100, 60000L);
+
+        // The write to the other stripes while the listing is read
+        // does not prevent caching it
+        final WebResource d = root.getResource("/d");
+        int count = 0;
+        try (WebListing listing = d.openListing()) {
+            for (WebResource r : listing) {
+                if (count++ == 0)
+                    assertNotNull(root.write(other, data(1), false));
+            }
+        }
+        assertEquals(2, count);
+        final long hits = root.getHits();
+        assertEquals(2, root.getResource("/d").listResources().size());
+        assertEquals(1L, root.getResource("/d/a").getContentLength());
+        assertEquals(hits + 3L, root.getHits());
+    }
+
+    @Test
+    public void boundsTest() throws Exception {
+        final WebRoot target = newMem();
+        final CachingWebRoot root = new CachingWebRoot(target, 10, 60000L);
+        for (int i=0; i<100; ++i)
+            root.getResource("/f" + i);
+        assertTrue(root.getSize() <= 10);
+
+        final CachingWebRoot shortLived = new CachingWebRoot(target, 10, 1L);
+        shortLived.getResource("/x");
+        Thread.sleep(5L);
+        shortLived.getResource("/x");
+        assertEquals(0L, shortLived.getHits());
+        assertEquals(2L, shortLived.getMisses());
+    }
+
+    @Test
+    public void validationTest() {
+        final WebRoot target = newMem();
+        for (long ttl : new long[] {0L, -1L}) {
+            try {
+                new CachingWebRoot(target, 10, ttl);
+                fail("Accepted ttl " + ttl);
+            } catch(IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+        try {
+            new CachingWebRoot(target, 0, 1000L);
+            fail("Accepted zero size");
+        } catch(IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void concurrencyTest() throws Exception {
+        final WebRoot target = newMem();
+        final CachingWebRoot root = new CachingWebRoot(target, 50, 60000L);
+        final ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t=0; t<4; ++t) {
+                final int id = t;
+                futures.add(es.submit(() -> {
+                    for (int i=0; i<500; ++i) {
+                        final String path = "/t" + id + "-" + (i % 20);
+                        assertNotNull(root.write(path, data(i), true));
+                        final WebResource r = root.getResource(path);
+                        assertEquals(path, (long) i, r.getContentLength());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            es.shutdown();
+        }
+        assertTrue(root.getSize() <= 50);
+    }
+
+}
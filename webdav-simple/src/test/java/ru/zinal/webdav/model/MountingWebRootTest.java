@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.mem.MemContext;
+import ru.zinal.webdav.mem.MemFactory;
+
+/**
+ *
+ * @author zinal
+ */
+public class MountingWebRootTest {
+
+    private static WebRoot newMem() {
+        final MemContext ctx = new MemContext();
+        ctx.expand();
+        return new MemFactory().create(ctx);
+    }
+
+    private static List<String> names(WebResource dir) {
+        return dir.listResources().stream().map(WebResource::getName)
+                .sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void routingTest() throws Exception {
+        final WebRoot top = newMem();
+        final WebRoot scratch = newMem();
+        final WebRoot deep = newMem();
+        final Map<String, WebRoot> mounts = new LinkedHashMap<>();
+        mounts.put("/", top);
+        mounts.put("/scratch/", scratch);
+        mounts.put("/a/b", deep);
+        final WebRoot root = new MountingWebRoot(mounts);
+
+        assertNotNull(root.write("/top.txt",
+                new ByteArrayInputStream(new byte[] {1}), false));
+        final WebResource x = root.write("/scratch/x.txt",
+                new ByteArrayInputStream(new byte[] {1, 2}), false);
+        assertEquals("/scratch/x.txt", x.getPath());
+        assertNotNull(scratch.getResource("/x.txt"));
+        assertNull(top.getResource("/scratch/x.txt"));
+
+        // Synthetic collection leading to the nested mount
+        final WebResource a = root.getResource("/a");
+        assertTrue(a.isDirectory());
+        assertEquals("/a/", a.getPath());
+        assertEquals(Arrays.asList("b"), names(a));
+        assertNotNull(root.mkdir("/a/b/c"));
+        assertNotNull(deep.getResource("/c"));
+        assertEquals("/a/b/c/", root.getResource("/a/b/c").getPath());
+
+        assertEquals(Arrays.asList("a", "scratch", "top.txt"),
+                names(root.getResource("/")));
+
+        // Cross-mount copy and move
+        final Map<String, Integer> errors = new HashMap<>();
+        assertTrue(root.copy("/scratch/x.txt", "/a/b/c/x.txt", 0, errors));
+        assertEquals(2L, deep.getResource("/c/x.txt").getContentLength());
+        assertTrue(root.move("/top.txt", "/scratch/top.txt", false, errors));
+        assertNull(top.getResource("/top.txt"));
+        assertNotNull(scratch.getResource("/top.txt"));
+        assertTrue(errors.isEmpty());
+
+        // Mount points cannot be removed
+        assertFalse(root.deleteTree("/scratch", null, errors));
+        assertEquals(Integer.valueOf(WebdavStatus.SC_FORBIDDEN),
+                errors.get("/scratch"));
+        assertFalse(root.move("/a", "/z", true, errors));
+    }
+
+}
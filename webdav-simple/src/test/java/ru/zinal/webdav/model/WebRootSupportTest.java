@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.model;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.mem.MemContext;
+import ru.zinal.webdav.mem.MemFactory;
+
+/**
+ *
+ * @author zinal
+ */
+public class WebRootSupportTest {
+
+    private static WebRoot open() {
+        final MemContext ctx = new MemContext();
+        ctx.expand();
+        final WebRoot root = new MemFactory().create(ctx);
+        assertNotNull(root.mkdir("/a"));
+        assertNotNull(root.mkdir("/a/b"));
+        write(root, "/a/x.txt", 1);
+        write(root, "/a/b/y.txt", 2);
+        return root;
+    }
+
+    private static void write(WebRoot root, String path, int value) {
+        assertNotNull(root.write(path,
+                new ByteArrayInputStream(new byte[] {(byte) value}), true));
+    }
+
+    private static byte[] read(WebRoot root, String path) throws Exception {
+        final WebResource r = root.getResource(path);
+        assertNotNull(path, r);
+        return readAll(r.getData());
+    }
+
+    @Test
+    public void copyTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        assertTrue(WebRootSupport.copy(root, "/a", "/c",
+                Integer.MAX_VALUE, errors));
+        assertTrue(errors.isEmpty());
+        assertArrayEquals(new byte[] {1}, read(root, "/c/x.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/c/b/y.txt"));
+
+        assertFalse(WebRootSupport.copy(root, "/a/x.txt", "/missing/x.txt",
+                0, errors));
+        assertEquals(WebdavStatus.SC_CONFLICT, (int) errors.get("/a/x.txt"));
+        assertNull(root.getResource("/missing"));
+
+        errors.clear();
+        assertFalse(WebRootSupport.copy(root, "/a", "/a/b/a",
+                Integer.MAX_VALUE, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/a/b/a"));
+        assertNull(root.getResource("/a/b/a"));
+    }
+
+    @Test
+    public void moveTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        write(root, "/e.txt", 5);
+        assertFalse(WebRootSupport.move(root, "/a/x.txt", "/e.txt",
+                false, errors));
+        assertEquals(WebdavStatus.SC_PRECONDITION_FAILED,
+                (int) errors.get("/e.txt"));
+        assertArrayEquals(new byte[] {5}, read(root, "/e.txt"));
+        errors.clear();
+        assertTrue(WebRootSupport.move(root, "/a/x.txt", "/e.txt",
+                true, errors));
+        assertArrayEquals(new byte[] {1}, read(root, "/e.txt"));
+        assertNull(root.getResource("/a/x.txt"));
+
+        assertTrue(WebRootSupport.move(root, "/a", "/c", false, errors));
+        assertNull(root.getResource("/a"));
+        assertArrayEquals(new byte[] {2}, read(root, "/c/b/y.txt"));
+
+        assertFalse(WebRootSupport.move(root, "/c", "/c", true, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/c"));
+        errors.clear();
+        assertFalse(WebRootSupport.move(root, "/c", "/c/b/c", true, errors));
+        assertEquals(WebdavStatus.SC_FORBIDDEN, (int) errors.get("/c/b/c"));
+        assertArrayEquals(new byte[] {2}, read(root, "/c/b/y.txt"));
+    }
+
+    @Test
+    public void lockedChildTest() throws Exception {
+        final WebRoot root = open();
+        final Map<String, Integer> errors = new HashMap<>();
+        assertFalse(WebRootSupport.deleteTree(root, "/a",
+                p -> p.equals("/a/b/y.txt"), errors));
+        assertEquals(WebdavStatus.SC_LOCKED, (int) errors.get("/a/b/y.txt"));
+        // Only the locked entry and its ancestors are kept
+        assertNull(root.getResource("/a/x.txt"));
+        assertArrayEquals(new byte[] {2}, read(root, "/a/b/y.txt"));
+    }
+
+}
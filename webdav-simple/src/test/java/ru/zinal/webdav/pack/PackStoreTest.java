@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.pack;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class PackStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static PackContext newContext(Path data) {
+        final PackContext ctx = new PackContext();
+        ctx.setDataPath(data.toString());
+        ctx.setConfigPath(data.resolve("config").toString());
+        ctx.setSmallFileLimit(1000);
+        ctx.setSegmentSize(1);
+        ctx.setCompactInterval(0L);
+        ctx.expand();
+        return ctx;
+    }
+
+    private static long countSegments(Path data) throws Exception {
+        try (Stream<Path> s = Files.list(data.resolve("segments"))) {
+            return s.count();
+        }
+    }
+
+    @Test
+    public void storeTest() throws Exception {
+        final Path data = tmp.newFolder().toPath();
+        final byte[] small = new byte[500];
+        final byte[] large = new byte[5000];
+        new Random(1L).nextBytes(small);
+        new Random(2L).nextBytes(large);
+
+        PackStore store = new PackStore(newContext(data));
+        WebDirectory root = new PackDirectory(store, store.getRoot());
+        final WebResource dir = root.createDirectory("d");
+        assertNotNull(dir.createFile("small", new ByteArrayInputStream(small)));
+        assertNotNull(dir.createFile("large", new ByteArrayInputStream(large)));
+        assertNotNull(dir.createFile("gone", new ByteArrayInputStream(small)));
+        assertTrue(dir.delete("gone"));
+        // Growing beyond the limit turns the small file into the plain one
+        final WebResource grown = dir.createFile("grown",
+                new ByteArrayInputStream(small));
+        assertTrue(grown.replaceData(new ByteArrayInputStream(small), 700L));
+        // Churn to produce the obsolete records
+        final WebResource churn = dir.createFile("churn", null);
+        for (int i = 0; i < 2000; ++i)
+            assertTrue(churn.replaceData(new ByteArrayInputStream(small)));
+        assertEquals("/d/small", dir.lookup("small").getPath());
+        assertArrayEquals(Arrays.copyOfRange(small, 100, 200),
+                readAll(dir.lookup("small").getData(100L, 200L)));
+        store.close();
+
+        for (int pass = 0; pass < 2; ++pass) {
+            store = new PackStore(newContext(data));
+            root = new PackDirectory(store, store.getRoot());
+            assertEquals(Arrays.asList("d"), root.list());
+            final WebResource d = root.lookup("d");
+            assertEquals(Arrays.asList("churn", "grown", "large", "small"),
+                    d.list());
+            assertArrayEquals(small, readAll(d.lookup("small").getData()));
+            assertArrayEquals(large, readAll(d.lookup("large").getData()));
+            assertArrayEquals(small, readAll(d.lookup("churn").getData()));
+            final byte[] g = readAll(d.lookup("grown").getData());
+            assertEquals(1200, g.length);
+            assertArrayEquals(Arrays.copyOf(small, 500), Arrays.copyOf(g, 500));
+            assertArrayEquals(small, Arrays.copyOfRange(g, 700, 1200));
+            if (pass==0)
+                assertTrue(store.compact() > 0);
+            store.close();
+        }
+    }
+
+    @Test
+    public void deletionCompactTest() throws Exception {
+        final Path data = tmp.newFolder().toPath();
+        final byte[] small = new byte[500];
+        final PackContext ctx = newContext(data);
+        ctx.setDurability("strict");
+        ctx.expand();
+        PackStore store = new PackStore(ctx);
+        WebDirectory root = new PackDirectory(store, store.getRoot());
+        // Enough deletion marks to fill the whole segment
+        for (int i = 0; i < 8000; ++i)
+            assertNotNull(root.createFile("f" + i, null));
+        for (int i = 0; i < 8000; ++i)
+            assertTrue(root.delete("f" + i));
+        // Move on to the new segment, leaving the deletion marks behind
+        final WebResource churn = root.createFile("churn", null);
+        for (int i = 0; i < 600; ++i)
+            assertTrue(churn.replaceData(new ByteArrayInputStream(small)));
+        final long before = countSegments(data);
+        assertTrue(before >= 4);
+        store.compact();
+        // Segments holding the deletion marks only are compacted too
+        assertTrue(countSegments(data) <= 2);
+        store.close();
+
+        store = new PackStore(ctx);
+        root = new PackDirectory(store, store.getRoot());
+        assertEquals(Arrays.asList("churn"), root.list());
+        assertArrayEquals(small, readAll(root.lookup("churn").getData()));
+        store.close();
+    }
+
+    @Test
+    public void concurrentUpdateTest() throws Exception {
+        final Path data = tmp.newFolder().toPath();
+        final PackStore store = new PackStore(newContext(data));
+        final ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            final WebDirectory root = new PackDirectory(store, store.getRoot());
+            final WebResource f = root.createFile("f",
+                    new ByteArrayInputStream(new byte[256]));
+            // Each thread writes its own bytes, none of them may be lost
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                final int thread = t;
+                futures.add(es.submit(() -> {
+                    for (int pos = thread; pos < 256; pos += 4) {
+                        assertTrue(f.replaceData(new ByteArrayInputStream(
+                                new byte[] {(byte) (thread + 1)}), pos));
+                    }
+                }));
+            }
+            for (Future<?> fu : futures)
+                fu.get();
+            final byte[] result = readAll(root.lookup("f").getData());
+            assertEquals(256, result.length);
+            for (int pos = 0; pos < 256; ++pos)
+                assertEquals((byte) (pos % 4 + 1), result[pos]);
+        } finally {
+            es.shutdown();
+            store.close();
+        }
+    }
+
+}
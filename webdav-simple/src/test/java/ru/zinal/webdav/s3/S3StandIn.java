@@ -0,0 +1,359 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static ru.zinal.webdav.TestData.readAll;
+
+/**
+ * In-process stand-in for the S3 service, implementing the subset
+ * of the API used by the client. The signatures are not verified.
+ * @author zinal
+ */
+public class S3StandIn implements AutoCloseable {
+
+    private final HttpServer server;
+    private final String bucket;
+    private final ConcurrentSkipListMap<String, byte[]> objects
+            = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads
+            = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadCounter = new AtomicInteger();
+    private final AtomicInteger partCounter = new AtomicInteger();
+
+    public S3StandIn(String bucket) throws IOException {
+        this.bucket = bucket;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(Executors.newFixedThreadPool(8));
+        this.server.start();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public NavigableMap<String, byte[]> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @return Number of the parts uploaded so far
+     */
+    public int getPartCount() {
+        return partCounter.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            final String rawPath = ex.getRequestURI().getRawPath();
+            final String prefix = "/" + bucket;
+            if (!rawPath.startsWith(prefix)) {
+                reply(ex, 404, null);
+                return;
+            }
+            String key = URLDecoder.decode(rawPath.substring(prefix.length()),
+                    "UTF-8");
+            if (key.startsWith("/"))
+                key = key.substring(1);
+            final Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            final byte[] body = readAll(ex.getRequestBody());
+            switch (ex.getRequestMethod()) {
+                case "HEAD":
+                    head(ex, key);
+                    break;
+                case "GET":
+                    if (q.containsKey("list-type"))
+                        list(ex, q);
+                    else
+                        get(ex, key);
+                    break;
+                case "PUT":
+                    put(ex, key, q, body);
+                    break;
+                case "POST":
+                    post(ex, key, q, body);
+                    break;
+                case "DELETE":
+                    if (q.containsKey("uploadId"))
+                        uploads.remove(q.get("uploadId"));
+                    else
+                        objects.remove(key);
+                    reply(ex, 204, null);
+                    break;
+                default:
+                    reply(ex, 405, null);
+            }
+        } catch(RuntimeException e) {
+            reply(ex, 500, error("InternalError"));
+        }
+    }
+
+    private void head(HttpExchange ex, String key) throws IOException {
+        final byte[] data = objects.get(key);
+        if (data==null) {
+            reply(ex, 404, null);
+            return;
+        }
+        ex.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+        ex.getResponseHeaders().set("ETag", eTag(data));
+        ex.getResponseHeaders().set("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        Instant.now().atZone(ZoneOffset.UTC)));
+        ex.sendResponseHeaders(200, -1);
+        ex.close();
+    }
+
+    private void get(HttpExchange ex, String key) throws IOException {
+        final byte[] data = objects.get(key);
+        if (data==null) {
+            reply(ex, 404, error("NoSuchKey"));
+            return;
+        }
+        final String range = ex.getRequestHeaders().getFirst("Range");
+        if (range==null) {
+            reply(ex, 200, data);
+            return;
+        }
+        final long[] r = parseRange(range, data.length);
+        reply(ex, 206, Arrays.copyOfRange(data, (int) r[0], (int) r[1]));
+    }
+
+    private void put(HttpExchange ex, String key, Map<String, String> q,
+            byte[] body) throws IOException {
+        final String copySource = ex.getRequestHeaders()
+                .getFirst("x-amz-copy-source");
+        byte[] data = body;
+        if (copySource!=null) {
+            final String sourceKey = URLDecoder.decode(copySource, "UTF-8")
+                    .substring(bucket.length() + 2);
+            data = objects.get(sourceKey);
+            if (data==null) {
+                reply(ex, 404, error("NoSuchKey"));
+                return;
+            }
+            final String range = ex.getRequestHeaders()
+                    .getFirst("x-amz-copy-source-range");
+            if (range!=null) {
+                final long[] r = parseRange(range, data.length);
+                data = Arrays.copyOfRange(data, (int) r[0], (int) r[1]);
+            }
+        }
+        if (q.containsKey("uploadId")) {
+            final Map<Integer, byte[]> parts = uploads.get(q.get("uploadId"));
+            if (parts==null) {
+                reply(ex, 404, error("NoSuchUpload"));
+                return;
+            }
+            parts.put(Integer.valueOf(q.get("partNumber")), data);
+            partCounter.incrementAndGet();
+            ex.getResponseHeaders().set("ETag", eTag(data));
+            reply(ex, 200, copySource==null ? null : ("<CopyPartResult><ETag>"
+                    + eTag(data).replace("\"", "&quot;")
+                    + "</ETag></CopyPartResult>").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (ifAbsent(ex)) {
+            if (objects.putIfAbsent(key, data)!=null) {
+                reply(ex, 412, error("PreconditionFailed"));
+                return;
+            }
+        } else {
+            objects.put(key, data);
+        }
+        ex.getResponseHeaders().set("ETag", eTag(data));
+        reply(ex, 200, copySource==null ? null
+                : ("<CopyObjectResult><ETag>" + eTag(data).replace("\"", "&quot;")
+                + "</ETag></CopyObjectResult>").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void post(HttpExchange ex, String key, Map<String, String> q,
+            byte[] body) throws IOException {
+        if (q.containsKey("uploads")) {
+            final String id = "u" + uploadCounter.incrementAndGet();
+            uploads.put(id, new ConcurrentHashMap<>());
+            reply(ex, 200, ("<InitiateMultipartUploadResult><UploadId>" + id
+                    + "</UploadId></InitiateMultipartUploadResult>")
+                    .getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        final Map<Integer, byte[]> parts = uploads.remove(q.get("uploadId"));
+        if (parts==null) {
+            reply(ex, 404, error("NoSuchUpload"));
+            return;
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Matcher m = Pattern.compile("<PartNumber>(\\d+)</PartNumber>")
+                .matcher(new String(body, StandardCharsets.UTF_8));
+        while (m.find()) {
+            final byte[] part = parts.get(Integer.valueOf(m.group(1)));
+            if (part==null) {
+                reply(ex, 400, error("InvalidPart"));
+                return;
+            }
+            baos.write(part);
+        }
+        if (ifAbsent(ex)) {
+            if (objects.putIfAbsent(key, baos.toByteArray())!=null) {
+                reply(ex, 412, error("PreconditionFailed"));
+                return;
+            }
+        } else {
+            objects.put(key, baos.toByteArray());
+        }
+        reply(ex, 200, ("<CompleteMultipartUploadResult><Key>" + key
+                + "</Key></CompleteMultipartUploadResult>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean ifAbsent(HttpExchange ex) {
+        return "*".equals(ex.getRequestHeaders().getFirst("If-None-Match"));
+    }
+
+    private void list(HttpExchange ex, Map<String, String> q) throws IOException {
+        final String prefix = q.getOrDefault("prefix", "");
+        final String delimiter = q.get("delimiter");
+        final int maxKeys = Integer.parseInt(q.getOrDefault("max-keys", "1000"));
+        final String token = q.get("continuation-token");
+        final TreeMap<String, byte[]> contents = new TreeMap<>();
+        final TreeMap<String, Boolean> prefixes = new TreeMap<>();
+        // Entries are keys or common prefixes, in the key order
+        final TreeMap<String, Boolean> entries = new TreeMap<>();
+        for (Map.Entry<String, byte[]> me : objects.tailMap(prefix).entrySet()) {
+            final String key = me.getKey();
+            if (!key.startsWith(prefix))
+                break;
+            if (delimiter!=null) {
+                final int pos = key.indexOf(delimiter, prefix.length());
+                if (pos >= 0) {
+                    entries.put(key.substring(0, pos + delimiter.length()), true);
+                    continue;
+                }
+            }
+            entries.put(key, false);
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        for (Map.Entry<String, Boolean> me : entries.entrySet()) {
+            if (token!=null && me.getKey().compareTo(token) <= 0)
+                continue;
+            if (count >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (me.getValue()) {
+                prefixes.put(me.getKey(), true);
+            } else {
+                contents.put(me.getKey(), objects.get(me.getKey()));
+            }
+            last = me.getKey();
+            ++count;
+        }
+        for (Map.Entry<String, byte[]> me : contents.entrySet()) {
+            final byte[] data = me.getValue()==null ? new byte[0] : me.getValue();
+            sb.append("<Contents><Key>").append(me.getKey())
+              .append("</Key><LastModified>").append(Instant.now())
+              .append("</LastModified><ETag>")
+              .append(eTag(data).replace("\"", "&quot;"))
+              .append("</ETag><Size>").append(data.length)
+              .append("</Size></Contents>");
+        }
+        for (String p : prefixes.keySet())
+            sb.append("<CommonPrefixes><Prefix>").append(p)
+              .append("</Prefix></CommonPrefixes>");
+        sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated)
+            sb.append("<NextContinuationToken>").append(last)
+              .append("</NextContinuationToken>");
+        sb.append("</ListBucketResult>");
+        reply(ex, 200, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] parseRange(String range, long length) {
+        final String[] parts = range.substring(range.indexOf('=') + 1).split("-", -1);
+        final long start = Long.parseLong(parts[0]);
+        final long end = parts[1].isEmpty() ? length
+                : Math.min(length, Long.parseLong(parts[1]) + 1);
+        return new long[] {start, end};
+    }
+
+    private static String eTag(byte[] data) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(data)) + "\"";
+    }
+
+    private static byte[] error(String code) {
+        return ("<Error><Code>" + code + "</Code></Error>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void reply(HttpExchange ex, int status, byte[] body)
+            throws IOException {
+        if (body==null || body.length==0) {
+            ex.sendResponseHeaders(status, -1);
+        } else {
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+        ex.close();
+    }
+
+    private static Map<String, String> query(String raw) throws IOException {
+        final Map<String, String> retval = new HashMap<>();
+        if (raw==null)
+            return retval;
+        for (String item : raw.split("&")) {
+            final int pos = item.indexOf('=');
+            if (pos < 0)
+                retval.put(URLDecoder.decode(item, "UTF-8"), "");
+            else
+                retval.put(URLDecoder.decode(item.substring(0, pos), "UTF-8"),
+                        URLDecoder.decode(item.substring(pos + 1), "UTF-8"));
+        }
+        return retval;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.WebdavStatus;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class S3WebRootTest {
+
+    @Test
+    public void bucketTest() throws Exception {
+        try (S3StandIn s3 = new S3StandIn("test")) {
+            final S3Context ctx = new S3Context();
+            ctx.setEndpoint(s3.getEndpoint());
+            ctx.setBucket("test");
+            ctx.setAccessKey("AKIDEXAMPLE");
+            ctx.setSecretKey("secret");
+            ctx.setKeyPrefix("dav");
+            ctx.setListPageSize(2);
+            ctx.setPartSize(S3Context.MIN_PART_SIZE);
+            ctx.expand();
+            final WebRoot root = new S3Factory().create(ctx);
+
+            final byte[] big = new byte[S3Context.MIN_PART_SIZE * 2 + 12345];
+            new Random(1L).nextBytes(big);
+            assertNotNull(root.mkdir("/d"));
+            assertNotNull(root.mkdir("/d/e"));
+            final WebResource file = root.write("/d/big file.bin",
+                    new ByteArrayInputStream(big), false);
+            assertEquals("/d/big file.bin", file.getPath());
+            assertEquals(3, s3.getPartCount());
+            assertArrayEquals(big, s3.getObjects().get("dav/d/big file.bin"));
+            for (int i = 0; i < 5; ++i)
+                assertNotNull(root.write("/d/f" + i,
+                        new ByteArrayInputStream(new byte[] {(byte) i}), false));
+            assertNull(root.write("/d/f0", null, false));
+
+            final WebResource big2 = root.getResource("/d/big file.bin");
+            assertEquals(big.length, big2.getContentLength());
+            assertArrayEquals(Arrays.copyOfRange(big, 1000, 2000),
+                    readAll(big2.getData(1000L, 2000L)));
+
+            // Listing goes through several pages
+            final WebResource d = root.getResource("/d/");
+            assertTrue(d.isDirectory());
+            assertEquals(Arrays.asList("big file.bin", "e",
+                    "f0", "f1", "f2", "f3", "f4"),
+                    d.listResources().stream().map(WebResource::getName)
+                            .sorted().collect(Collectors.toList()));
+
+            // Positional update streams the spliced object
+            final WebResource f1 = root.getResource("/d/f1");
+            assertTrue(f1.replaceData(new ByteArrayInputStream(new byte[] {9}), 3L));
+            assertArrayEquals(new byte[] {1, 0, 0, 9},
+                    readAll(root.getResource("/d/f1").getData()));
+
+            final Map<String, Integer> errors = new HashMap<>();
+            assertTrue(root.copy("/d", "/c", Integer.MAX_VALUE, errors));
+            assertArrayEquals(big, s3.getObjects().get("dav/c/big file.bin"));
+            assertTrue(root.getResource("/c/e").isDirectory());
+            assertTrue(root.move("/c", "/m", false, errors));
+            assertNull(root.getResource("/c"));
+            assertNotNull(root.getResource("/m/f4"));
+
+            // Locked resources are kept with their collections
+            assertFalse(root.deleteTree("/d", "/d/f2"::equals, errors));
+            assertEquals(Integer.valueOf(WebdavStatus.SC_LOCKED),
+                    errors.get("/d/f2"));
+            assertEquals(Arrays.asList("f2"), root.getResource("/d").list());
+            errors.clear();
+            assertTrue(root.deleteTree("/d", null, errors));
+            assertNull(root.getResource("/d"));
+            assertTrue(errors.isEmpty());
+            root.close();
+        }
+    }
+
+    @Test
+    public void conditionalWriteTest() throws Exception {
+        try (S3StandIn s3 = new S3StandIn("test")) {
+            final S3Context ctx = new S3Context();
+            ctx.setEndpoint(s3.getEndpoint());
+            ctx.setBucket("test");
+            ctx.setPartSize(S3Context.MIN_PART_SIZE);
+            ctx.expand();
+            final S3WebRoot root = (S3WebRoot) new S3Factory().create(ctx);
+            try {
+                final S3Client client = root.getClient();
+                client.put("x", new byte[] {1}, 1, true);
+                try {
+                    client.put("x", new byte[] {2}, 1, true);
+                    fail("Conditional put replaced the object");
+                } catch(S3Exception ex) {
+                    assertEquals(412, ex.getStatus());
+                }
+                assertArrayEquals(new byte[] {1}, s3.getObjects().get("x"));
+
+                // Object created by another writer after the existence check
+                final byte[] big = new byte[S3Context.MIN_PART_SIZE + 1];
+                final S3Object o = root.upload("y",
+                        new ByteArrayInputStream(big), true);
+                assertEquals(big.length, o.getSize());
+                try {
+                    root.upload("y", new ByteArrayInputStream(new byte[big.length]),
+                            true);
+                    fail("Conditional upload replaced the object");
+                } catch(S3Exception ex) {
+                    assertEquals(412, ex.getStatus());
+                }
+                assertNotNull(root.upload("y", new ByteArrayInputStream(big),
+                        false));
+            } finally {
+                root.close();
+            }
+            assertTrue(root.getExecutor().isShutdown());
+            assertTrue(root.getPartExecutor().isShutdown());
+        }
+    }
+
+    @Test(timeout = 60000L)
+    public void multipartCopyTest() throws Exception {
+        try (S3StandIn s3 = new S3StandIn("test")) {
+            final S3Context ctx = new S3Context();
+            ctx.setEndpoint(s3.getEndpoint());
+            ctx.setBucket("test");
+            ctx.setAccessKey("AKIDEXAMPLE");
+            ctx.setSecretKey("secret");
+            ctx.setPartSize(S3Context.MIN_PART_SIZE);
+            ctx.setKeyPrefix("dav");
+            ctx.setThreads(1);
+            ctx.expand();
+            final S3WebRoot root = (S3WebRoot) new S3Factory().create(ctx);
+            try {
+                // The object copy task waits for its part copies,
+                // which must not need the thread it occupies
+                root.setCopyLimit(S3Context.MIN_PART_SIZE);
+                final byte[] big = new byte[S3Context.MIN_PART_SIZE * 2 + 7];
+                new Random(2L).nextBytes(big);
+                assertNotNull(root.mkdir("/d"));
+                assertNotNull(root.write("/d/big",
+                        new ByteArrayInputStream(big), false));
+                final Map<String, Integer> errors = new HashMap<>();
+                assertTrue(root.copy("/d", "/c", Integer.MAX_VALUE, errors));
+                assertTrue(errors.isEmpty());
+                assertArrayEquals(big, s3.getObjects().get("dav/c/big"));
+            } finally {
+                root.close();
+            }
+        }
+    }
+
+}
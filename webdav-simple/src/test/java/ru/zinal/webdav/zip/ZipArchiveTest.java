@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 zinal.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.zinal.webdav.zip;
+
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static ru.zinal.webdav.TestData.readAll;
+import ru.zinal.webdav.model.*;
+
+/**
+ *
+ * @author zinal
+ */
+public class ZipArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readTest() throws Exception {
+        final byte[] data = new byte[100000];
+        new Random(1L).nextBytes(data);
+        // Half of the data is compressible
+        Arrays.fill(data, 0, 50000, (byte) 7);
+        final Path file = tmp.newFile("test.zip").toPath();
+        try (OutputStream os = Files.newOutputStream(file);
+                ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.putNextEntry(new ZipEntry("docs/"));
+            zos.putNextEntry(new ZipEntry("docs/deflated.bin"));
+            zos.write(data);
+            final ZipEntry stored = new ZipEntry("lib/x/stored.bin");
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(data.length);
+            stored.setCrc(crc.getValue());
+            zos.putNextEntry(stored);
+            zos.write(data);
+            zos.putNextEntry(new ZipEntry("a.txt"));
+            zos.closeEntry();
+        }
+
+        final ZipContext ctx = new ZipContext();
+        ctx.setArchivePath(file.toString());
+        ctx.expand();
+        final WebRoot root = new ZipFactory().create(ctx);
+
+        assertEquals(Arrays.asList("a.txt", "docs", "lib"),
+                root.getResource("/").list());
+        final WebResource lib = root.getResource("/lib/x/");
+        assertTrue(lib.isDirectory());
+        assertEquals("/lib/x/", lib.getPath());
+        assertNull(root.getResource("/lib/y"));
+        assertNull(root.write("/new.txt", null, false));
+
+        for (String p : new String[] {"/docs/deflated.bin", "/lib/x/stored.bin"}) {
+            final WebResource r = root.getResource(p);
+            assertEquals(p, r.getPath());
+            assertEquals(data.length, r.getContentLength());
+            assertArrayEquals(p, data, readAll(r.getData()));
+            assertArrayEquals(p, Arrays.copyOfRange(data, 49000, 61000),
+                    readAll(r.getData(49000L, 61000L)));
+        }
+        assertEquals(0, readAll(root.getResource("/a.txt").getData()).length);
+
+        // Closing the web root closes the archive file for good
+        final WebResource stored = root.getResource("/lib/x/stored.bin");
+        root.close();
+        try {
+            readAll(stored.getData());
+            fail("Read from the closed archive");
+        } catch(ClosedChannelException ex) {
+            // Expected
+        }
+    }
+
+}